@@ -28,7 +28,7 @@ public class HttpSessionInfo implements Serializable {
     private static final long serialVersionUID = 1L;
     private String user;
     private String ip;
-    private String host;
+    private volatile String host;
     private String id;
     private Calendar creation;
     private Calendar lastAccess;
@@ -0,0 +1,88 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.openkm.bean.pagination;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Position in a children listing. For every node type it keeps the sort key and UUID of the
+ * last returned node, so the next page is read from there instead of skipping the previous ones.
+ * 
+ * @see com.openkm.dao.PaginationDAO
+ */
+public class ChildrenCursor implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Map<String, Serializable> lastKeys = new HashMap<String, Serializable>();
+    private Map<String, String> lastUuids = new HashMap<String, String>();
+    private int position = 0;
+
+    public ChildrenCursor() {
+    }
+
+    public ChildrenCursor(ChildrenCursor cursor) {
+        lastKeys.putAll(cursor.lastKeys);
+        lastUuids.putAll(cursor.lastUuids);
+        position = cursor.position;
+    }
+
+    /**
+     * Sort key of the last returned node of this type
+     */
+    public Serializable getLastKey(String type) {
+        return lastKeys.get(type);
+    }
+
+    /**
+     * UUID of the last returned node of this type, or null if none was returned yet
+     */
+    public String getLastUuid(String type) {
+        return lastUuids.get(type);
+    }
+
+    /**
+     * Advance the cursor past this node
+     */
+    public void advance(String type, Serializable key, String uuid) {
+        lastKeys.put(type, key);
+        lastUuids.put(type, uuid);
+        position++;
+    }
+
+    /**
+     * Number of nodes already returned
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        sb.append("position=").append(position);
+        sb.append(", lastUuids=").append(lastUuids);
+        sb.append("}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.openkm.bean.pagination;
+
+import java.io.Serializable;
+import java.util.Calendar;
+
+/**
+ * Children filter evaluated by the database
+ * 
+ * @see com.openkm.dao.PaginationDAO
+ */
+public class ChildrenFilter implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private String name;
+    private Long sizeFrom;
+    private Long sizeTo;
+    private Calendar dateFrom;
+    private Calendar dateTo;
+    private String version;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Long getSizeFrom() {
+        return sizeFrom;
+    }
+
+    public void setSizeFrom(Long sizeFrom) {
+        this.sizeFrom = sizeFrom;
+    }
+
+    public Long getSizeTo() {
+        return sizeTo;
+    }
+
+    public void setSizeTo(Long sizeTo) {
+        this.sizeTo = sizeTo;
+    }
+
+    public Calendar getDateFrom() {
+        return dateFrom;
+    }
+
+    public void setDateFrom(Calendar dateFrom) {
+        this.dateFrom = dateFrom;
+    }
+
+    public Calendar getDateTo() {
+        return dateTo;
+    }
+
+    public void setDateTo(Calendar dateTo) {
+        this.dateTo = dateTo;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        sb.append("name=").append(name);
+        sb.append(", sizeFrom=").append(sizeFrom);
+        sb.append(", sizeTo=").append(sizeTo);
+        sb.append(", dateFrom=").append(dateFrom == null ? null : dateFrom.getTimeInMillis());
+        sb.append(", dateTo=").append(dateTo == null ? null : dateTo.getTimeInMillis());
+        sb.append(", version=").append(version);
+        sb.append("}");
+        return sb.toString();
+    }
+}
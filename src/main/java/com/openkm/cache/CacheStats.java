@@ -0,0 +1,93 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.cache;
+
+import java.io.Serializable;
+
+/**
+ * Cache statistics shown in the administration
+ */
+public class CacheStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private String name;
+    private long size;
+    private long maxSize;
+    private long hits;
+    private long misses;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public void setHits(long hits) {
+        this.hits = hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public void setMisses(long misses) {
+        this.misses = misses;
+    }
+
+    public int getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (int) (hits * 100 / total);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        sb.append("name=").append(name);
+        sb.append(", size=").append(size);
+        sb.append(", maxSize=").append(maxSize);
+        sb.append(", hits=").append(hits);
+        sb.append(", misses=").append(misses);
+        sb.append("}");
+        return sb.toString();
+    }
+}
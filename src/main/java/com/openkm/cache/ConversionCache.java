@@ -0,0 +1,389 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.core.Config;
+import com.openkm.core.ConversionException;
+import com.openkm.module.db.stuff.DataStoreIngest;
+
+/**
+ * Converted document cache, keyed by document version and target format.
+ *
+ * A version content never changes, so an entry is valid until it is evicted. Concurrent requests of
+ * the same conversion wait for a single conversion, and the least recently used entries are removed
+ * once the cache grows beyond its configured size.
+ *
+ * Callers get a private hard link to the cached file, which they should delete once used. This way an
+ * entry can be evicted or removed while it is being sent or converted.
+ */
+public class ConversionCache {
+    private static Logger log = LoggerFactory.getLogger(ConversionCache.class);
+    public static final String NAME = "Conversion";
+    public static final String FORMAT_PDF = "pdf";
+    public static final String FORMAT_SWF = "swf";
+    private static final String TMP_PREFIX = "tmp-";
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final int UUID_LENGTH = 36;
+    private static final ConcurrentHashMap<String, FutureTask<File>> running = new ConcurrentHashMap<String, FutureTask<File>>();
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static long totalSize = 0;
+    private static boolean loaded = false;
+
+    /**
+     * Converter to be invoked on cache miss. It should write the converted document into the given file.
+     */
+    public interface Converter {
+        public void convert(File output) throws Exception;
+    }
+
+    /**
+     * Get a link to a cached conversion, or null if not available
+     */
+    public static File get(String uuid, String version, String format) throws IOException {
+        File file = link(getKey(uuid, version, format));
+
+        if (file != null) {
+            hits.incrementAndGet();
+        }
+
+        return file;
+    }
+
+    /**
+     * Get a cached conversion, converting the document if not available. Only one conversion per
+     * version and format is performed at a time; concurrent callers wait for its result. The returned
+     * link should be deleted by the caller.
+     */
+    public static File get(String uuid, String version, String format, final Converter converter) throws ConversionException,
+            IOException {
+        log.debug("get({}, {}, {}, {})", new Object[] { uuid, version, format, converter });
+        File file = get(uuid, version, format);
+
+        if (file != null) {
+            return file;
+        }
+
+        final String key = getKey(uuid, version, format);
+        final File target = getFile(uuid, version, format);
+        FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                return convert(key, target, converter);
+            }
+        });
+        FutureTask<File> current = running.putIfAbsent(key, task);
+        boolean waiting = true;
+
+        if (current == null) {
+            misses.incrementAndGet();
+
+            try {
+                task.run();
+            } finally {
+                running.remove(key, task);
+            }
+
+            current = task;
+            waiting = false;
+        } else {
+            hits.incrementAndGet();
+        }
+
+        try {
+            file = current.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof ConversionException) {
+                throw (ConversionException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new ConversionException(cause.getMessage(), cause);
+            }
+        }
+
+        if (waiting) {
+            // The conversion result is a link private to the thread which performed it
+            file = link(key);
+
+            if (file == null) {
+                // Evicted meanwhile by other conversions
+                return get(uuid, version, format, converter);
+            }
+        }
+
+        log.debug("get: {}", file);
+        return file;
+    }
+
+    /**
+     * Create a private link to a cached file, so it is not lost if the entry is evicted while in use.
+     * Falls back to a copy if the file system does not support hard links.
+     */
+    private static File link(String key) throws IOException {
+        synchronized (entries) {
+            load();
+            Entry entry = entries.get(key);
+
+            if (entry == null) {
+                return null;
+            } else if (!entry.file.exists()) {
+                // Removed from outside
+                entries.remove(key);
+                totalSize -= entry.size;
+                return null;
+            }
+
+            File link = new File(entry.file.getParentFile(), TMP_PREFIX + UUID.randomUUID().toString() + "-" + entry.file.getName());
+
+            try {
+                Files.createLink(link.toPath(), entry.file.toPath());
+            } catch (UnsupportedOperationException e) {
+                Files.copy(entry.file.toPath(), link.toPath());
+            } catch (IOException e) {
+                log.debug("Hard link not available: {}", e.getMessage());
+                Files.copy(entry.file.toPath(), link.toPath());
+            }
+
+            return link;
+        }
+    }
+
+    /**
+     * Convert to a temporal file and publish it, so a partial conversion is never served. The temporal
+     * file keeps the target extension because some converters rely on it. Returns a link to the result.
+     */
+    private static File convert(String key, File target, Converter converter) throws Exception {
+        File tmp = new File(target.getParentFile(), TMP_PREFIX + target.getName());
+
+        try {
+            converter.convert(tmp);
+
+            if (!tmp.exists() || tmp.length() == 0) {
+                throw new ConversionException("Empty conversion result");
+            }
+
+            DataStoreIngest.move(tmp, target);
+        } finally {
+            tmp.delete();
+        }
+
+        synchronized (entries) {
+            load();
+            Entry previous = entries.put(key, new Entry(target));
+
+            if (previous != null) {
+                totalSize -= previous.size;
+            }
+
+            totalSize += target.length();
+            evict(key);
+            return link(key);
+        }
+    }
+
+    /**
+     * Remove every cached conversion of a document
+     */
+    public static void remove(String uuid) {
+        log.debug("remove({})", uuid);
+        String prefix = uuid + "-";
+
+        synchronized (entries) {
+            load();
+
+            for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Entry> entry = it.next();
+
+                if (entry.getKey().startsWith(prefix)) {
+                    totalSize -= entry.getValue().size;
+                    entry.getValue().file.delete();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove everything
+     */
+    public static void clear() {
+        synchronized (entries) {
+            load();
+
+            for (Entry entry : entries.values()) {
+                entry.file.delete();
+            }
+
+            entries.clear();
+            totalSize = 0;
+        }
+    }
+
+    /**
+     * Drop the least recently used entries until the cache fits in its size, keeping the given one.
+     * Must be called holding the entries lock.
+     */
+    private static void evict(String keep) {
+        long maxSize = Config.CACHE_CONVERSION_SIZE * MEGABYTE;
+
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext() && totalSize > maxSize;) {
+            Map.Entry<String, Entry> entry = it.next();
+
+            if (!entry.getKey().equals(keep)) {
+                log.debug("Evicting {}", entry.getValue().file);
+                totalSize -= entry.getValue().size;
+                entry.getValue().file.delete();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Register the conversions already stored in disk, oldest first. Must be called holding the entries lock.
+     */
+    private static void load() {
+        if (!loaded) {
+            List<File> files = new ArrayList<File>();
+            loaded = true;
+
+            for (String format : new String[] { FORMAT_PDF, FORMAT_SWF }) {
+                File[] list = new File(getDirectory(format)).listFiles();
+
+                if (list != null) {
+                    files.addAll(Arrays.asList(list));
+                }
+            }
+
+            Collections.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File o1, File o2) {
+                    return Long.valueOf(o1.lastModified()).compareTo(o2.lastModified());
+                }
+            });
+
+            for (File file : files) {
+                String name = file.getName();
+
+                if (name.startsWith(TMP_PREFIX) || name.length() <= UUID_LENGTH + 1 || name.charAt(UUID_LENGTH) != '-') {
+                    // Interrupted conversion or previous cache layout
+                    file.delete();
+                } else {
+                    Entry entry = new Entry(file);
+                    entries.put(name, entry);
+                    totalSize += entry.size;
+                }
+            }
+
+            log.info("Conversion cache: {} entries, {} bytes", entries.size(), totalSize);
+            evict(null);
+        }
+    }
+
+    /**
+     * Cache key, which is also the cache file name
+     */
+    private static String getKey(String uuid, String version, String format) {
+        return uuid + "-" + version + "." + format;
+    }
+
+    /**
+     * Cache file of a document version conversion
+     */
+    private static File getFile(String uuid, String version, String format) {
+        return new File(getDirectory(format), getKey(uuid, version, format));
+    }
+
+    /**
+     * Cache directory of a target format
+     */
+    private static String getDirectory(String format) {
+        return FORMAT_SWF.equals(format) ? Config.REPOSITORY_CACHE_SWF : Config.REPOSITORY_CACHE_PDF;
+    }
+
+    /**
+     * Cached conversion. The size is kept so the cache total is right even if the file is removed from outside.
+     */
+    private static class Entry {
+        private File file;
+        private long size;
+
+        private Entry(File file) {
+            this.file = file;
+            this.size = file.length();
+        }
+    }
+
+    /**
+     * Get cache statistics. Sizes are expressed in megabytes.
+     */
+    public static CacheStats getStats() {
+        CacheStats stats = new CacheStats();
+        stats.setName(NAME);
+
+        synchronized (entries) {
+            stats.setSize(totalSize / MEGABYTE);
+        }
+
+        stats.setMaxSize(Config.CACHE_CONVERSION_SIZE);
+        stats.setHits(hits.get());
+        stats.setMisses(misses.get());
+        return stats;
+    }
+
+    /**
+     * Reset hit and miss counters
+     */
+    public static void resetStats() {
+        hits.set(0);
+        misses.set(0);
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.bean.DashboardDocumentResult;
+
+/**
+ * Per user dashboard document results, stored in the dashboard ehcache regions.
+ *
+ * Results are cached without the visited flag, which is evaluated on every request. Entries are
+ * invalidated when a dashboard activity (upload, check-in or download) is saved: top documents are
+ * shared between users so the whole region is cleared, while user documents only depend on the
+ * activity of its user.
+ */
+public class DashboardCache {
+    private static Logger log = LoggerFactory.getLogger(DashboardCache.class);
+    public static final String USER_DOCUMENTS = "com.openkm.cache.dashboardUserDocuments";
+    public static final String TOP_DOCUMENTS = "com.openkm.cache.dashboardTopDocuments";
+    private static final String SEPARATOR = ":";
+
+    private DashboardCache() {
+    }
+
+    /**
+     * Get cached top documents, or null if not cached
+     */
+    public static ArrayList<DashboardDocumentResult> getTopDocuments(String user, String source) {
+        return get(TOP_DOCUMENTS, user, source);
+    }
+
+    /**
+     * Cache top documents
+     */
+    public static void putTopDocuments(String user, String source, List<DashboardDocumentResult> results) {
+        put(TOP_DOCUMENTS, user, source, results);
+    }
+
+    /**
+     * Get cached user documents, or null if not cached
+     */
+    public static ArrayList<DashboardDocumentResult> getUserDocuments(String user, String source) {
+        return get(USER_DOCUMENTS, user, source);
+    }
+
+    /**
+     * Cache user documents
+     */
+    public static void putUserDocuments(String user, String source, List<DashboardDocumentResult> results) {
+        put(USER_DOCUMENTS, user, source, results);
+    }
+
+    /**
+     * Invalidate the results affected by a saved dashboard activity of the user
+     */
+    public static void invalidate(String user) {
+        log.debug("invalidate({})", user);
+        Cache top = getCache(TOP_DOCUMENTS);
+
+        if (top != null) {
+            top.removeAll();
+        }
+
+        Cache userDocs = getCache(USER_DOCUMENTS);
+
+        if (userDocs != null && user != null) {
+            String prefix = user + SEPARATOR;
+
+            for (Object key : userDocs.getKeys()) {
+                if (((String) key).startsWith(prefix)) {
+                    userDocs.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove everything
+     */
+    public static void clear() {
+        for (String name : new String[] { TOP_DOCUMENTS, USER_DOCUMENTS }) {
+            Cache cache = getCache(name);
+
+            if (cache != null) {
+                cache.removeAll();
+            }
+        }
+    }
+
+    /**
+     * Get a copy of the cached results, so the visited flag can be set by the caller
+     */
+    @SuppressWarnings("unchecked")
+    private static ArrayList<DashboardDocumentResult> get(String name, String user, String source) {
+        Cache cache = getCache(name);
+
+        if (cache != null) {
+            Element elto = cache.get(user + SEPARATOR + source);
+
+            if (elto != null) {
+                return copy((List<DashboardDocumentResult>) elto.getObjectValue());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Store a copy of the results
+     */
+    private static void put(String name, String user, String source, List<DashboardDocumentResult> results) {
+        Cache cache = getCache(name);
+
+        if (cache != null) {
+            cache.put(new Element(user + SEPARATOR + source, copy(results)));
+        }
+    }
+
+    /**
+     * Copy results resetting the visited flag. Documents are shared.
+     */
+    private static ArrayList<DashboardDocumentResult> copy(List<DashboardDocumentResult> results) {
+        ArrayList<DashboardDocumentResult> ret = new ArrayList<DashboardDocumentResult>(results.size());
+
+        for (DashboardDocumentResult result : results) {
+            DashboardDocumentResult vo = new DashboardDocumentResult();
+            vo.setDocument(result.getDocument());
+            vo.setDate(result.getDate());
+            vo.setVisited(false);
+            ret.add(vo);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Get cache region, or null if not configured
+     */
+    private static Cache getCache(String name) {
+        return CacheManager.getInstance().getCache(name);
+    }
+}
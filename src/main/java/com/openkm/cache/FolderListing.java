@@ -0,0 +1,169 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.cache;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.api.OKMDocument;
+import com.openkm.api.OKMFolder;
+import com.openkm.api.OKMMail;
+import com.openkm.bean.Document;
+import com.openkm.bean.Folder;
+import com.openkm.bean.Mail;
+import com.openkm.core.AccessDeniedException;
+import com.openkm.core.Config;
+import com.openkm.core.DatabaseException;
+import com.openkm.core.PathNotFoundException;
+import com.openkm.core.RepositoryException;
+import com.openkm.dao.WebDavDAO;
+import com.openkm.spring.PrincipalUtils;
+
+/**
+ * Children of a WebDAV folder. They are only loaded when a client asks for them, and kept for
+ * Config.SYSTEM_WEBDAV_LISTING_CACHE seconds per user because clients repeat the same PROPFIND
+ * many times in a row. The node DAOs drop the listings of the folders they change, and any
+ * security change clears the whole cache, so nothing is dropped on the WebDAV request itself.
+ */
+public class FolderListing {
+    private static Logger log = LoggerFactory.getLogger(FolderListing.class);
+    private static final int MAX_ENTRIES = 1000;
+    private static final ConcurrentHashMap<String, FolderListing> cache = new ConcurrentHashMap<String, FolderListing>();
+    private final long created = System.currentTimeMillis();
+    private List<Folder> folders;
+    private List<Document> documents;
+    private List<Mail> mails;
+
+    private FolderListing() {
+    }
+
+    public List<Folder> getFolders() {
+        return folders;
+    }
+
+    public List<Document> getDocuments() {
+        return documents;
+    }
+
+    public List<Mail> getMails() {
+        return mails;
+    }
+
+    /**
+     * Get folder children, from cache if recently listed by the same user
+     */
+    public static FolderListing get(String fldUuid, String fldPath) throws PathNotFoundException, AccessDeniedException,
+            RepositoryException, DatabaseException {
+        log.debug("get({}, {})", fldUuid, fldPath);
+        String key = PrincipalUtils.getUser() + ":" + fldUuid;
+        FolderListing listing = cache.get(key);
+
+        if (listing == null || listing.isExpired()) {
+            listing = load(fldUuid, fldPath);
+
+            if (Config.SYSTEM_WEBDAV_LISTING_CACHE > 0) {
+                if (cache.size() >= MAX_ENTRIES) {
+                    purge();
+                }
+
+                cache.put(key, listing);
+            }
+        }
+
+        return listing;
+    }
+
+    /**
+     * Load folder children
+     */
+    private static FolderListing load(String fldUuid, String fldPath) throws PathNotFoundException, AccessDeniedException,
+            RepositoryException, DatabaseException {
+        long begin = System.currentTimeMillis();
+        FolderListing listing = new FolderListing();
+
+        if (Config.REPOSITORY_NATIVE) {
+            listing.folders = WebDavDAO.getInstance().findFolders(fldUuid, fldPath);
+            listing.documents = WebDavDAO.getInstance().findDocuments(fldUuid, fldPath);
+            listing.mails = WebDavDAO.getInstance().findMails(fldUuid, fldPath);
+        } else {
+            listing.folders = OKMFolder.getInstance().getChildren(null, fldPath);
+            listing.documents = OKMDocument.getInstance().getChildren(null, fldPath);
+            listing.mails = OKMMail.getInstance().getChildren(null, fldPath);
+        }
+
+        log.trace("load.Time: {}", System.currentTimeMillis() - begin);
+        return listing;
+    }
+
+    /**
+     * Check if the listing is too old to be used
+     */
+    private boolean isExpired() {
+        return System.currentTimeMillis() - created > Config.SYSTEM_WEBDAV_LISTING_CACHE * 1000L;
+    }
+
+    /**
+     * Remove expired listings, or everything if none has expired yet
+     */
+    private static void purge() {
+        int size = cache.size();
+
+        for (Iterator<Entry<String, FolderListing>> it = cache.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getValue().isExpired()) {
+                it.remove();
+            }
+        }
+
+        if (cache.size() == size) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Remove the cached listings of these folders for every user
+     */
+    public static void invalidate(String... fldUuids) {
+        if (!cache.isEmpty()) {
+            for (String fldUuid : fldUuids) {
+                String suffix = ":" + fldUuid;
+
+                for (Iterator<String> it = cache.keySet().iterator(); it.hasNext();) {
+                    if (it.next().endsWith(suffix)) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove every cached listing
+     */
+    public static void clear() {
+        cache.clear();
+    }
+}
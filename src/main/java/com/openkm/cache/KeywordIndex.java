@@ -0,0 +1,519 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.bean.Permission;
+import com.openkm.core.Config;
+import com.openkm.core.DatabaseException;
+import com.openkm.dao.NodeBaseDAO;
+import com.openkm.spring.PrincipalUtils;
+
+/**
+ * In memory inverted index of node keywords, used to build the keyword cloud.
+ *
+ * Nodes and keywords are identified by an ordinal. Every keyword keeps the sorted ordinals of its nodes and
+ * every node the sorted ordinals of its keywords, so keyword frequencies are the posting sizes and related
+ * keywords are counted only on the nodes which have all the filtered keywords. Only administrators get the
+ * posting sizes directly, for other users the matching nodes are checked for read permission. The result of
+ * these checks is kept by principal until the next security change, so only the nodes not checked yet are
+ * looked up in database. Ordinals of removed nodes are reused.
+ *
+ * The index is loaded from database on first use, without blocking the updates, which are kept aside and
+ * applied once loaded. Later changes are applied when the transaction which made them is committed, by
+ * reading the node keywords again, so the index always ends with the last committed value.
+ */
+public class KeywordIndex {
+    private static Logger log = LoggerFactory.getLogger(KeywordIndex.class);
+    private static final int[] EMPTY = new int[0];
+    private static final int MAX_PRINCIPALS = 32;
+    private static final Object loadLock = new Object();
+    private static final Object[] NODE_LOCKS = new Object[64];
+    private static Index index = null;
+    private static Map<String, Set<String>> pending = null;
+
+    static {
+        for (int i = 0; i < NODE_LOCKS.length; i++) {
+            NODE_LOCKS[i] = new Object();
+        }
+    }
+
+    /**
+     * Get keyword frequencies. When a filter is given, only the nodes with every filtered keyword are
+     * considered and the filtered keywords are not returned.
+     */
+    public static Map<String, Integer> getKeywordMap(Collection<String> filter) throws DatabaseException {
+        log.debug("getKeywordMap({})", filter);
+        boolean admin = isAdmin();
+        String principal = admin ? null : PermissionCache.getPrincipal(PrincipalUtils.getUser(), PrincipalUtils.getRoles(),
+                Permission.READ);
+        long generation = PermissionCache.getGeneration();
+        Map<String, Integer> cloud = new HashMap<String, Integer>();
+        List<Integer> unchecked = new ArrayList<Integer>();
+        List<String> uuids = new ArrayList<String>();
+        List<int[]> nodeKws = new ArrayList<int[]>();
+        String[] keywords = null;
+        int[] filterIds = null;
+        int[] counts = null;
+        Readable known = null;
+        Index idx = load();
+
+        synchronized (KeywordIndex.class) {
+            keywords = idx.keywords;
+            counts = new int[idx.nextKeyword];
+
+            if (filter == null || filter.isEmpty()) {
+                if (admin) {
+                    for (int kw = 0; kw < idx.nextKeyword; kw++) {
+                        if (idx.postings[kw].size > 0) {
+                            cloud.put(keywords[kw], idx.postings[kw].size);
+                        }
+                    }
+
+                    log.debug("getKeywordMap: {}", cloud.size());
+                    return cloud;
+                }
+
+                known = idx.getReadable(principal, generation);
+
+                for (int node = 0; node < idx.nextNode; node++) {
+                    if (idx.nodeKeywords[node] != null) {
+                        collect(idx, known, node, counts, unchecked, uuids, nodeKws);
+                    }
+                }
+            } else {
+                filterIds = new int[filter.size()];
+                int i = 0;
+
+                for (String keyword : filter) {
+                    Integer kw = idx.keywordIds.get(keyword);
+
+                    if (kw == null || idx.postings[kw].size == 0) {
+                        return cloud;
+                    }
+
+                    filterIds[i++] = kw;
+                }
+
+                // Iterate the shortest posting list and check the others
+                Postings shortest = idx.postings[filterIds[0]];
+
+                for (int kw : filterIds) {
+                    if (idx.postings[kw].size < shortest.size) {
+                        shortest = idx.postings[kw];
+                    }
+                }
+
+                if (!admin) {
+                    known = idx.getReadable(principal, generation);
+                }
+
+                for (int n = 0; n < shortest.size; n++) {
+                    int node = shortest.nodes[n];
+                    boolean matches = true;
+
+                    for (int j = 0; j < filterIds.length && matches; j++) {
+                        matches = idx.postings[filterIds[j]].contains(node);
+                    }
+
+                    if (matches) {
+                        collect(idx, known, node, counts, unchecked, uuids, nodeKws);
+                    }
+                }
+            }
+        }
+
+        // Node keywords arrays are replaced, never modified, so they can be read outside the lock
+        if (!uuids.isEmpty()) {
+            Set<String> readable = NodeBaseDAO.getInstance().findReadable(uuids);
+
+            for (int n = 0; n < uuids.size(); n++) {
+                if (readable.contains(uuids.get(n))) {
+                    for (int kw : nodeKws.get(n)) {
+                        counts[kw]++;
+                    }
+                }
+            }
+
+            synchronized (KeywordIndex.class) {
+                // Ordinals may have been reused and permissions changed meanwhile
+                if (index == idx && PermissionCache.getGeneration() == generation) {
+                    for (int n = 0; n < uuids.size(); n++) {
+                        int node = unchecked.get(n);
+
+                        if (uuids.get(n).equals(idx.nodeUuids[node])) {
+                            known.checked.set(node);
+                            known.granted.set(node, readable.contains(uuids.get(n)));
+                        }
+                    }
+                }
+            }
+        }
+
+        if (filterIds != null) {
+            for (int kw : filterIds) {
+                counts[kw] = 0;
+            }
+        }
+
+        for (int kw = 0; kw < counts.length; kw++) {
+            if (counts[kw] > 0) {
+                cloud.put(keywords[kw], counts[kw]);
+            }
+        }
+
+        log.debug("getKeywordMap: {}", cloud.size());
+        return cloud;
+    }
+
+    /**
+     * Count the node keywords if already known as readable, or keep it aside to be checked
+     */
+    private static void collect(Index idx, Readable known, int node, int[] counts, List<Integer> unchecked,
+            List<String> uuids, List<int[]> nodeKws) {
+        if (known == null || (known.checked.get(node) && known.granted.get(node))) {
+            for (int kw : idx.nodeKeywords[node]) {
+                counts[kw]++;
+            }
+        } else if (!known.checked.get(node)) {
+            unchecked.add(node);
+            uuids.add(idx.nodeUuids[node]);
+            nodeKws.add(idx.nodeKeywords[node]);
+        }
+    }
+
+    /**
+     * Read the node keywords again once the current transaction is committed
+     */
+    public static void update(Session session, final String uuid) {
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    refresh(uuid);
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove the node keywords once the current transaction is committed
+     */
+    public static void remove(Session session, String uuid) {
+        update(session, uuid);
+    }
+
+    /**
+     * Discard the index, which will be loaded again on next use
+     */
+    public static synchronized void clear() {
+        index = null;
+    }
+
+    /**
+     * Check if current user can read every node
+     */
+    private static boolean isAdmin() {
+        String user = PrincipalUtils.getUser();
+        return Config.SYSTEM_USER.equals(user) || Config.ADMIN_USER.equals(user)
+                || PrincipalUtils.hasRole(Config.DEFAULT_ADMIN_ROLE);
+    }
+
+    /**
+     * Read the node keywords from database and set them. Reading and setting are done under a per node
+     * lock, so the last refresh, which sees the last committed value, is also the last one set.
+     */
+    private static void refresh(String uuid) {
+        synchronized (NODE_LOCKS[(uuid.hashCode() & 0x7fffffff) % NODE_LOCKS.length]) {
+            try {
+                set(uuid, NodeBaseDAO.getInstance().findKeywords(uuid));
+            } catch (DatabaseException e) {
+                log.warn("Keyword index discarded, can't read keywords of {}: {}", uuid, e.getMessage());
+                clear();
+            }
+        }
+    }
+
+    /**
+     * Load the index from database if needed. Updates committed while loading are kept in pending and
+     * applied to the new index before it is published.
+     */
+    private static Index load() throws DatabaseException {
+        synchronized (KeywordIndex.class) {
+            if (index != null) {
+                return index;
+            }
+        }
+
+        synchronized (loadLock) {
+            synchronized (KeywordIndex.class) {
+                if (index != null) {
+                    return index;
+                }
+
+                pending = new HashMap<String, Set<String>>();
+            }
+
+            long begin = System.currentTimeMillis();
+            Index loading = null;
+
+            try {
+                Map<String, Set<String>> batch = new HashMap<String, Set<String>>();
+
+                for (Object[] row : NodeBaseDAO.getInstance().findAllKeywords()) {
+                    String uuid = (String) row[0];
+                    Set<String> nodeKws = batch.get(uuid);
+
+                    if (nodeKws == null) {
+                        nodeKws = new HashSet<String>();
+                        batch.put(uuid, nodeKws);
+                    }
+
+                    nodeKws.add((String) row[1]);
+                }
+
+                loading = new Index();
+
+                for (Map.Entry<String, Set<String>> entry : batch.entrySet()) {
+                    loading.set(entry.getKey(), entry.getValue());
+                }
+            } finally {
+                synchronized (KeywordIndex.class) {
+                    if (loading != null) {
+                        for (Map.Entry<String, Set<String>> entry : pending.entrySet()) {
+                            loading.set(entry.getKey(), entry.getValue());
+                        }
+
+                        index = loading;
+                    }
+
+                    pending = null;
+                }
+            }
+
+            log.info("Keyword index loaded: {} nodes, {} keywords in {} ms",
+                    new Object[] { loading.nodeIds.size(), loading.keywordIds.size(), System.currentTimeMillis() - begin });
+            return loading;
+        }
+    }
+
+    /**
+     * Set node keywords. Changes made before the index is loaded are already in database.
+     */
+    private static synchronized void set(String uuid, Set<String> values) {
+        if (index != null) {
+            index.set(uuid, values);
+        } else if (pending != null) {
+            pending.put(uuid, values);
+        }
+    }
+
+    /**
+     * Index contents
+     */
+    private static class Index {
+        private final Map<String, Integer> nodeIds = new HashMap<String, Integer>();
+        private final Map<String, Integer> keywordIds = new HashMap<String, Integer>();
+        private final Map<String, Readable> readables = new LinkedHashMap<String, Readable>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Readable> eldest) {
+                return size() > MAX_PRINCIPALS;
+            }
+        };
+        private String[] keywords = new String[256];
+        private Postings[] postings = new Postings[256];
+        private String[] nodeUuids = new String[1024];
+        private int[][] nodeKeywords = new int[1024][];
+        private int[] free = EMPTY;
+        private int freeCount = 0;
+        private int nextNode = 0;
+        private int nextKeyword = 0;
+
+        /**
+         * Get the read permission checks of a principal, discarding them after a security change
+         */
+        public Readable getReadable(String principal, long generation) {
+            Readable known = readables.get(principal);
+
+            if (known == null || known.generation != generation) {
+                known = new Readable(generation);
+                readables.put(principal, known);
+            }
+
+            return known;
+        }
+
+        /**
+         * Replace the node keywords
+         */
+        public void set(String uuid, Set<String> values) {
+            Integer node = nodeIds.get(uuid);
+
+            if (node != null) {
+                for (int kw : nodeKeywords[node]) {
+                    postings[kw].remove(node);
+                }
+
+                if (values.isEmpty()) {
+                    nodeIds.remove(uuid);
+                    nodeUuids[node] = null;
+                    nodeKeywords[node] = null;
+
+                    if (freeCount == free.length) {
+                        free = Arrays.copyOf(free, Math.max(16, freeCount * 2));
+                    }
+
+                    free[freeCount++] = node;
+                    return;
+                }
+            } else if (values.isEmpty()) {
+                return;
+            } else {
+                if (freeCount > 0) {
+                    node = free[--freeCount];
+
+                    for (Readable known : readables.values()) {
+                        known.checked.clear(node);
+                        known.granted.clear(node);
+                    }
+                } else {
+                    node = nextNode++;
+
+                    if (node == nodeKeywords.length) {
+                        nodeUuids = Arrays.copyOf(nodeUuids, node * 2);
+                        nodeKeywords = Arrays.copyOf(nodeKeywords, node * 2);
+                    }
+                }
+
+                nodeIds.put(uuid, node);
+                nodeUuids[node] = uuid;
+            }
+
+            int[] kws = new int[values.size()];
+            int i = 0;
+
+            for (String keyword : values) {
+                kws[i] = getKeywordId(keyword);
+                postings[kws[i]].add(node);
+                i++;
+            }
+
+            Arrays.sort(kws);
+            nodeKeywords[node] = kws;
+        }
+
+        /**
+         * Get keyword ordinal, adding the keyword if not present
+         */
+        private int getKeywordId(String keyword) {
+            Integer kw = keywordIds.get(keyword);
+
+            if (kw == null) {
+                kw = nextKeyword++;
+                keywordIds.put(keyword, kw);
+
+                if (kw == keywords.length) {
+                    keywords = Arrays.copyOf(keywords, kw * 2);
+                    postings = Arrays.copyOf(postings, kw * 2);
+                }
+
+                keywords[kw] = keyword;
+                postings[kw] = new Postings();
+            }
+
+            return kw;
+        }
+    }
+
+    /**
+     * Read permission checks of a principal, by node ordinal
+     */
+    private static class Readable {
+        private final long generation;
+        private final BitSet checked = new BitSet();
+        private final BitSet granted = new BitSet();
+
+        public Readable(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Sorted node ordinals
+     */
+    private static class Postings {
+        private int[] nodes = EMPTY;
+        private int size = 0;
+
+        public boolean contains(int node) {
+            return Arrays.binarySearch(nodes, 0, size, node) >= 0;
+        }
+
+        public void add(int node) {
+            int pos = Arrays.binarySearch(nodes, 0, size, node);
+
+            if (pos < 0) {
+                pos = -pos - 1;
+
+                if (size == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, Math.max(4, size * 2));
+                }
+
+                System.arraycopy(nodes, pos, nodes, pos + 1, size - pos);
+                nodes[pos] = node;
+                size++;
+            }
+        }
+
+        public void remove(int node) {
+            int pos = Arrays.binarySearch(nodes, 0, size, node);
+
+            if (pos >= 0) {
+                System.arraycopy(nodes, pos + 1, nodes, pos, size - pos - 1);
+                size--;
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.cache;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.core.Config;
+
+/**
+ * Bounded node path <-> UUID cache.
+ *
+ * Lookups are lock free. Every structural change (rename, move, delete, purge) bumps a generation
+ * number, and a value calculated before that change is not stored, so a stale path computed
+ * concurrently with a move never enters the cache. UUIDs are kept sorted by path, so the entries
+ * of a subtree are found by a range lookup instead of scanning the whole cache.
+ */
+public class NodePathCache {
+    private static Logger log = LoggerFactory.getLogger(NodePathCache.class);
+    public static final String NAME = "Node path";
+    private static final ConcurrentHashMap<String, String> pathByUuid = new ConcurrentHashMap<String, String>();
+    private static final ConcurrentSkipListMap<String, String> uuidByPath = new ConcurrentSkipListMap<String, String>();
+    private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static volatile long generation = 0;
+
+    /**
+     * Generation to be passed to put() once the value has been calculated
+     */
+    public static long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get cached node path, counting the hit or miss
+     */
+    public static String getPath(String uuid) {
+        String path = peekPath(uuid);
+        count(path != null);
+        return path;
+    }
+
+    /**
+     * Get cached node UUID, counting the hit or miss
+     */
+    public static String getUuid(String path) {
+        String uuid = peekUuid(path);
+        count(uuid != null);
+        return uuid;
+    }
+
+    /**
+     * Count cache hit or miss
+     */
+    private static void count(boolean hit) {
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get cached node path
+     */
+    public static String peekPath(String uuid) {
+        return Config.CACHE_NODE_PATH_SIZE > 0 ? pathByUuid.get(uuid) : null;
+    }
+
+    /**
+     * Get cached node UUID
+     */
+    public static String peekUuid(String path) {
+        return Config.CACHE_NODE_PATH_SIZE > 0 ? uuidByPath.get(path) : null;
+    }
+
+    /**
+     * Store a node path calculated at the given generation
+     */
+    public static void put(String uuid, String path, long calculatedAt) {
+        if (Config.CACHE_NODE_PATH_SIZE > 0) {
+            lock.readLock().lock();
+
+            try {
+                if (calculatedAt == generation) {
+                    if (pathByUuid.size() >= Config.CACHE_NODE_PATH_SIZE) {
+                        evict();
+                    }
+
+                    pathByUuid.put(uuid, path);
+                    uuidByPath.put(path, uuid);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Remove a node and all its descendants
+     */
+    public static void invalidate(String path) {
+        log.debug("invalidate({})", path);
+        String prefix = path + "/";
+        lock.writeLock().lock();
+
+        try {
+            generation++;
+            String uuid = uuidByPath.remove(path);
+
+            if (uuid != null) {
+                pathByUuid.remove(uuid);
+            }
+
+            for (Iterator<Entry<String, String>> it = uuidByPath.subMap(prefix, prefix + Character.MAX_VALUE).entrySet()
+                    .iterator(); it.hasNext();) {
+                pathByUuid.remove(it.next().getValue());
+                it.remove();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove everything
+     */
+    public static void clear() {
+        lock.writeLock().lock();
+
+        try {
+            generation++;
+            pathByUuid.clear();
+            uuidByPath.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Make room for new entries dropping a tenth of the cache
+     */
+    private static void evict() {
+        int toEvict = Math.max(1, Config.CACHE_NODE_PATH_SIZE / 10);
+
+        for (Iterator<Entry<String, String>> it = pathByUuid.entrySet().iterator(); it.hasNext() && toEvict > 0; toEvict--) {
+            Entry<String, String> entry = it.next();
+            uuidByPath.remove(entry.getValue(), entry.getKey());
+            it.remove();
+        }
+    }
+
+    /**
+     * Get cache statistics
+     */
+    public static CacheStats getStats() {
+        CacheStats stats = new CacheStats();
+        stats.setName(NAME);
+        stats.setSize(pathByUuid.size());
+        stats.setMaxSize(Config.CACHE_NODE_PATH_SIZE);
+        stats.setHits(hits.get());
+        stats.setMisses(misses.get());
+        return stats;
+    }
+
+    /**
+     * Reset hit and miss counters
+     */
+    public static void resetStats() {
+        hits.set(0);
+        misses.set(0);
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.cache;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.core.Config;
+
+/**
+ * Bounded cache of effective folder permissions, keyed by node UUID and principal (user, roles and
+ * requested permission).
+ *
+ * Each entry keeps the UUIDs of the nodes it was calculated from, so a security change or a move
+ * invalidates every cached descendant. As in NodePathCache, values calculated before an invalidation
+ * are not stored.
+ */
+public class PermissionCache {
+    private static Logger log = LoggerFactory.getLogger(PermissionCache.class);
+    public static final String NAME = "Permission";
+    private static final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+    private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static volatile long generation = 0;
+
+    /**
+     * Generation to be passed to put() once the value has been calculated
+     */
+    public static long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Build the principal part of the cache key
+     */
+    public static String getPrincipal(String user, Set<String> roles, int permissions) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(permissions).append('|').append(user);
+
+        for (String role : new TreeSet<String>(roles)) {
+            sb.append('|').append(role);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Get cached entry, counting the hit or miss
+     */
+    public static Entry get(String uuid, String principal) {
+        Entry entry = peek(uuid, principal);
+
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+
+        return entry;
+    }
+
+    /**
+     * Get cached entry
+     */
+    public static Entry peek(String uuid, String principal) {
+        return Config.CACHE_PERMISSION_SIZE > 0 ? cache.get(uuid + "#" + principal) : null;
+    }
+
+    /**
+     * Store an entry calculated at the given generation
+     */
+    public static void put(String uuid, String principal, Entry entry, long calculatedAt) {
+        if (Config.CACHE_PERMISSION_SIZE > 0) {
+            lock.readLock().lock();
+
+            try {
+                if (calculatedAt == generation) {
+                    if (cache.size() >= Config.CACHE_PERMISSION_SIZE) {
+                        evict();
+                    }
+
+                    cache.put(uuid + "#" + principal, entry);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Remove every entry calculated from this node, that is, the node and all its descendants
+     */
+    public static void invalidate(String uuid) {
+        log.debug("invalidate({})", uuid);
+        lock.writeLock().lock();
+
+        try {
+            generation++;
+
+            for (Iterator<Entry> it = cache.values().iterator(); it.hasNext();) {
+                if (it.next().dependsOn(uuid)) {
+                    it.remove();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove every entry calculated from any of these nodes
+     */
+    public static void invalidate(Set<String> uuids) {
+        log.debug("invalidate({})", uuids);
+        lock.writeLock().lock();
+
+        try {
+            generation++;
+
+            for (Iterator<Entry> it = cache.values().iterator(); it.hasNext();) {
+                if (it.next().dependsOnAny(uuids)) {
+                    it.remove();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove everything
+     */
+    public static void clear() {
+        lock.writeLock().lock();
+
+        try {
+            generation++;
+            cache.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Make room for new entries dropping a tenth of the cache
+     */
+    private static void evict() {
+        int toEvict = Math.max(1, Config.CACHE_PERMISSION_SIZE / 10);
+
+        for (Iterator<String> it = cache.keySet().iterator(); it.hasNext() && toEvict > 0; toEvict--) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Get cache statistics
+     */
+    public static CacheStats getStats() {
+        CacheStats stats = new CacheStats();
+        stats.setName(NAME);
+        stats.setSize(cache.size());
+        stats.setMaxSize(Config.CACHE_PERMISSION_SIZE);
+        stats.setHits(hits.get());
+        stats.setMisses(misses.get());
+        return stats;
+    }
+
+    /**
+     * Reset hit and miss counters
+     */
+    public static void resetStats() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Effective permission of a node and the nodes (itself and its ancestors) it depends on
+     */
+    public static class Entry {
+        private final boolean granted;
+        private final String[] chain;
+
+        public Entry(boolean granted, String uuid, Entry parent) {
+            this.granted = granted;
+
+            if (parent == null) {
+                chain = new String[] { uuid };
+            } else {
+                chain = new String[parent.chain.length + 1];
+                chain[0] = uuid;
+                System.arraycopy(parent.chain, 0, chain, 1, parent.chain.length);
+            }
+        }
+
+        public boolean isGranted() {
+            return granted;
+        }
+
+        public boolean dependsOn(String uuid) {
+            for (String node : chain) {
+                if (node.equals(uuid)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        public boolean dependsOnAny(Set<String> uuids) {
+            for (String node : chain) {
+                if (uuids.contains(node)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -113,6 +113,24 @@ public class Config {
     public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_POOL_THREADS = "managed.text.extraction.pool.threads";
     public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_POOL_TIMEOUT = "managed.text.extraction.pool.timeout";
     public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_CONCURRENT = "managed.text.extraction.concurrent";
+    public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_QUEUE_SIZE = "managed.text.extraction.queue.size";
+    public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_CHEAP_THREADS = "managed.text.extraction.cheap.threads";
+    public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_CHEAP_TIMEOUT = "managed.text.extraction.cheap.timeout";
+    public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_OFFICE_THREADS = "managed.text.extraction.office.threads";
+    public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_OFFICE_TIMEOUT = "managed.text.extraction.office.timeout";
+    public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_OCR_THREADS = "managed.text.extraction.ocr.threads";
+    public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_OCR_TIMEOUT = "managed.text.extraction.ocr.timeout";
+    public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_AUDIO_THREADS = "managed.text.extraction.audio.threads";
+    public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_AUDIO_TIMEOUT = "managed.text.extraction.audio.timeout";
+    public static final String PROPERTY_MANAGED_TEXT_EXTRACTION_RETRIES = "managed.text.extraction.retries";
+    public static final String PROPERTY_PREVIEW_RENDER = "preview.render";
+    public static final String PROPERTY_PREVIEW_RENDER_THREADS = "preview.render.threads";
+    public static final String PROPERTY_PREVIEW_RENDER_QUEUE_SIZE = "preview.render.queue.size";
+    public static final String PROPERTY_PREVIEW_RENDER_MIME_TYPES = "preview.render.mime.types";
+    public static final String PROPERTY_MAIL_IMPORT_THREADS = "mail.import.threads";
+    public static final String PROPERTY_MAIL_IMPORT_BATCH_SIZE = "mail.import.batch.size";
+    public static final String PROPERTY_CRON_THREADS = "cron.threads";
+    public static final String PROPERTY_CRON_TIMEOUT = "cron.timeout";
     public static final String PROPERTY_REPOSITORY_NATIVE = "repository.native";
     public static final String PROPERTY_REPOSITORY_CONTENT_CHECKSUM = "repository.content.checksum";
     public static final String PROPERTY_REPOSITORY_PURGATORY_HOME = "repository.purgatory.home";
@@ -129,6 +147,19 @@ public class Config {
     public static final String PROPERTY_SECURITY_MODE_MULTIPLE = "security.mode.multiple";
     public static final String PROPERTY_SECURITY_LIVE_CHANGE_NODE_LIMIT = "security.live.change.node.limit";
 
+    // Cache properties
+    public static final String PROPERTY_CACHE_NODE_PATH_SIZE = "cache.node.path.size";
+    public static final String PROPERTY_CACHE_PERMISSION_SIZE = "cache.permission.size";
+    public static final String PROPERTY_CACHE_CONVERSION_SIZE = "cache.conversion.size";
+
+    // Activity log properties
+    public static final String PROPERTY_ACTIVITY_LOG_ASYNC = "activity.log.async";
+    public static final String PROPERTY_ACTIVITY_LOG_QUEUE_SIZE = "activity.log.queue.size";
+    public static final String PROPERTY_ACTIVITY_LOG_QUEUE_FULL = "activity.log.queue.full";
+    public static final String PROPERTY_ACTIVITY_LOG_FLUSH_INTERVAL = "activity.log.flush.interval";
+    public static final String PROPERTY_PENDING_TASK_CHUNK_SIZE = "pending.task.chunk.size";
+    public static final String PROPERTY_PENDING_TASK_FANOUT = "pending.task.fanout";
+
     // Configuration properties
     public static final String PROPERTY_REPOSITORY_UUID = "repository.uuid";
     public static final String PROPERTY_REPOSITORY_VERSION = "repository.version";
@@ -136,10 +167,12 @@ public class Config {
     public static final String PROPERTY_REPOSITORY_HOME = "repository.home";
     public static final String PROPERTY_REPOSITORY_DATASTORE_BACKEND = "repository.datastore.backend";
     public static final String PROPERTY_REPOSITORY_DATASTORE_HOME = "repository.datastore.home";
+    public static final String PROPERTY_REPOSITORY_DATASTORE_DEDUP = "repository.datastore.dedup";
     public static final String PROPERTY_REPOSITORY_CACHE_HOME = "repository.cache.home";
     public static final String PROPERTY_VERSION_NUMERATION_ADAPTER = "version.numeration.adapter";
     public static final String PROPERTY_VERSION_NUMERATION_FORMAT = "version.numeration.format";
     public static final String PROPERTY_VERSION_APPEND_DOWNLOAD = "version.append.download";
+    public static final String PROPERTY_DOWNLOAD_ARCHIVE_MAX_STREAMS = "download.archive.max.streams";
     public static final String PROPERTY_MAX_FILE_SIZE = "max.file.size";
     public static final String PROPERTY_MAX_SEARCH_RESULTS = "max.search.results";
     public static final String PROPERTY_MAX_SEARCH_CLAUSES = "max.search.clauses";
@@ -209,6 +242,8 @@ public class Config {
     public static final String PROPERTY_SYSTEM_APACHE_REQUEST_HEADER_FIX = "system.apache.request.header.fix";
     public static final String PROPERTY_SYSTEM_WEBDAV_SERVER = "system.webdav.server";
     public static final String PROPERTY_SYSTEM_WEBDAV_FIX = "system.webdav.fix";
+    public static final String PROPERTY_SYSTEM_WEBDAV_LISTING_PAGE_SIZE = "system.webdav.listing.page.size";
+    public static final String PROPERTY_SYSTEM_WEBDAV_LISTING_CACHE = "system.webdav.listing.cache";
     public static final String PROPERTY_SYSTEM_READONLY = "system.readonly";
     public static final String PROPERTY_SYSTEM_MAINTENANCE = "system.maintenance";
     public static final String PROPERTY_SYSTEM_OCR = "system.ocr";
@@ -217,6 +252,9 @@ public class Config {
     public static final String PROPERTY_SYSTEM_OPENOFFICE_PATH = "system.openoffice.path";
     public static final String PROPERTY_SYSTEM_OPENOFFICE_TASKS = "system.openoffice.tasks";
     public static final String PROPERTY_SYSTEM_OPENOFFICE_PORT = "system.openoffice.port";
+    public static final String PROPERTY_SYSTEM_OPENOFFICE_INSTANCES = "system.openoffice.instances";
+    public static final String PROPERTY_SYSTEM_OPENOFFICE_TIMEOUT = "system.openoffice.timeout";
+    public static final String PROPERTY_SYSTEM_OPENOFFICE_QUEUE_TIMEOUT = "system.openoffice.queue.timeout";
     public static final String PROPERTY_SYSTEM_OPENOFFICE_SERVER = "system.openoffice.server";
     public static final String PROPERTY_SYSTEM_OPENOFFICE_DICTIONARY = "system.openoffice.dictionary";
     public static final String PROPERTY_SYSTEM_IMAGEMAGICK_CONVERT = "system.imagemagick.convert";
@@ -243,6 +281,7 @@ public class Config {
     public static final String PROPERTY_SCHEDULE_SESSION_KEEPALIVE = "schedule.session.keepalive";
     public static final String PROPERTY_SCHEDULE_DASHBOARD_REFRESH = "schedule.dashboard.refresh";
     public static final String PROPERTY_SCHEDULE_UI_NOTIFICATION = "schedule.ui.notification";
+    public static final String PROPERTY_SCHEDULE_FOLDER_AGGREGATE = "schedule.folder.aggregate";
 
     // KEA
     // Used in generate_thesaurus.jsp
@@ -277,6 +316,7 @@ public class Config {
     public static final String PROPERTY_HIBERNATE_HBM2DDL = "hibernate.hbm2ddl"; // Used in login.jsp
     public static final String PROPERTY_HIBERNATE_SHOW_SQL = "hibernate.show_sql";
     public static final String PROPERTY_HIBERNATE_STATISTICS = "hibernate.statistics";
+    public static final String PROPERTY_HIBERNATE_JDBC_BATCH_SIZE = "hibernate.jdbc.batch.size";
     public static final String PROPERTY_HIBERNATE_SEARCH_ANALYZER = "hibernate.search.analyzer";
     public static final String PROPERTY_HIBERNATE_CREATE_AUTOFIX = "hibernate.create.autofix";
     public static final String PROPERTY_HIBERNATE_INDEXER_MASS_INDEXER = "hibernate.indexer.mass.indexer";
@@ -328,6 +368,30 @@ public class Config {
     public static int MANAGED_TEXT_EXTRACTION_POOL_THREADS = 5;
     public static int MANAGED_TEXT_EXTRACTION_POOL_TIMEOUT = 1; // 1 minute
     public static boolean MANAGED_TEXT_EXTRACTION_CONCURRENT = false;
+    public static int MANAGED_TEXT_EXTRACTION_QUEUE_SIZE = 100;
+    public static int MANAGED_TEXT_EXTRACTION_CHEAP_THREADS = 4;
+    public static int MANAGED_TEXT_EXTRACTION_CHEAP_TIMEOUT = 1; // 1 minute
+    public static int MANAGED_TEXT_EXTRACTION_OFFICE_THREADS = 2;
+    public static int MANAGED_TEXT_EXTRACTION_OFFICE_TIMEOUT = 5; // 5 minutes
+    public static int MANAGED_TEXT_EXTRACTION_OCR_THREADS = 1;
+    public static int MANAGED_TEXT_EXTRACTION_OCR_TIMEOUT = 10; // 10 minutes
+    public static int MANAGED_TEXT_EXTRACTION_AUDIO_THREADS = 1;
+    public static int MANAGED_TEXT_EXTRACTION_AUDIO_TIMEOUT = 15; // 15 minutes
+    public static int MANAGED_TEXT_EXTRACTION_RETRIES = 3;
+    public static boolean PREVIEW_RENDER = false;
+    public static int PREVIEW_RENDER_THREADS = 1;
+    public static int PREVIEW_RENDER_QUEUE_SIZE = 1000;
+    public static List<String> PREVIEW_RENDER_MIME_TYPES = new ArrayList<String>();
+    private static final String DEFAULT_PREVIEW_RENDER_MIME_TYPES = "application/msword\n"
+            + "application/vnd.openxmlformats-officedocument.wordprocessingml.document\n" + "application/vnd.ms-excel\n"
+            + "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet\n" + "application/vnd.ms-powerpoint\n"
+            + "application/vnd.openxmlformats-officedocument.presentationml.presentation\n" + "application/vnd.oasis.opendocument.text\n"
+            + "application/vnd.oasis.opendocument.spreadsheet\n" + "application/vnd.oasis.opendocument.presentation\n"
+            + "application/rtf";
+    public static int MAIL_IMPORT_THREADS = 4;
+    public static int MAIL_IMPORT_BATCH_SIZE = 100;
+    public static int CRON_THREADS = 4;
+    public static int CRON_TIMEOUT = 0; // Minutes, 0 means no timeout
     public static boolean REPOSITORY_NATIVE = true;
     public static boolean REPOSITORY_CONTENT_CHECKSUM = true;
     public static String REPOSITORY_PURGATORY_HOME = "";
@@ -344,17 +408,32 @@ public class Config {
     public static boolean SECURITY_MODE_MULTIPLE = false;
     public static int SECURITY_LIVE_CHANGE_NODE_LIMIT = 100;
 
+    // Cache properties
+    public static int CACHE_NODE_PATH_SIZE = 50000;
+    public static int CACHE_PERMISSION_SIZE = 50000;
+    public static int CACHE_CONVERSION_SIZE = 1024; // MB
+
+    // Activity log properties
+    public static boolean ACTIVITY_LOG_ASYNC = true;
+    public static int ACTIVITY_LOG_QUEUE_SIZE = 10000;
+    public static String ACTIVITY_LOG_QUEUE_FULL = "block";
+    public static int ACTIVITY_LOG_FLUSH_INTERVAL = 1000; // 1 second
+    public static int PENDING_TASK_CHUNK_SIZE = 500;
+    public static int PENDING_TASK_FANOUT = AVAILABLE_PROCESSORS;
+
     // Configuration properties
     public static String REPOSITORY_CONFIG;
     public static String REPOSITORY_HOME;
     public static String REPOSITORY_DIRNAME = "repository";
     public static String REPOSITORY_DATASTORE_BACKEND;
     public static String REPOSITORY_DATASTORE_HOME;
+    public static boolean REPOSITORY_DATASTORE_DEDUP = false;
     public static String DEFAULT_SCRIPT = "print(\"UserId: \" + session.getUserID());\n" + "print(\"EventType: \" + eventType);\n"
             + "print(\"EventNode: \" + eventNode.getPath());\n" + "print(\"ScriptNode: \" + scriptNode.getPath());";
     public static String VERSION_NUMERATION_ADAPTER = MajorMinorVersionNumerationAdapter.class.getCanonicalName();
     public static String VERSION_NUMERATION_FORMAT = "%d";
     public static boolean VERSION_APPEND_DOWNLOAD = false;
+    public static int DOWNLOAD_ARCHIVE_MAX_STREAMS = 4;
     public static long MAX_FILE_SIZE;
     public static int MAX_SEARCH_RESULTS;
     public static int MAX_SEARCH_CLAUSES;
@@ -438,6 +517,8 @@ public class Config {
     public static boolean SYSTEM_APACHE_REQUEST_HEADER_FIX;
     public static boolean SYSTEM_WEBDAV_SERVER;
     public static boolean SYSTEM_WEBDAV_FIX;
+    public static int SYSTEM_WEBDAV_LISTING_PAGE_SIZE = 500;
+    public static int SYSTEM_WEBDAV_LISTING_CACHE = 10; // 10 seconds
     public static boolean SYSTEM_MAINTENANCE;
     public static boolean SYSTEM_READONLY;
     public static String SYSTEM_OCR = "";
@@ -446,6 +527,9 @@ public class Config {
     public static String SYSTEM_OPENOFFICE_PATH = "";
     public static int SYSTEM_OPENOFFICE_TASKS;
     public static int SYSTEM_OPENOFFICE_PORT;
+    public static int SYSTEM_OPENOFFICE_INSTANCES = 1;
+    public static int SYSTEM_OPENOFFICE_TIMEOUT = 120; // 2 minutes
+    public static int SYSTEM_OPENOFFICE_QUEUE_TIMEOUT = 60; // 1 minute
     public static String SYSTEM_OPENOFFICE_SERVER = "";
     public static String SYSTEM_OPENOFFICE_DICTIONARY = "";
     public static String SYSTEM_IMAGEMAGICK_CONVERT = "";
@@ -474,6 +558,7 @@ public class Config {
     public static int SCHEDULE_SESSION_KEEPALIVE = 15; // 15 min
     public static int SCHEDULE_DASHBOARD_REFRESH = 30; // 30 min
     public static int SCHEDULE_UI_NOTIFICATION = 1; // 1 min
+    public static int SCHEDULE_FOLDER_AGGREGATE = 5; // 5 seconds
 
     // KEA
     public static String KEA_THESAURUS_SKOS_FILE;
@@ -520,6 +605,7 @@ public class Config {
     public static String HIBERNATE_HBM2DDL = "create";
     public static String HIBERNATE_SHOW_SQL = "false";
     public static String HIBERNATE_STATISTICS = "false";
+    public static String HIBERNATE_JDBC_BATCH_SIZE = "20"; // Empty for Hibernate default (disabled)
     public static String HIBERNATE_SEARCH_ANALYZER = "org.apache.lucene.analysis.standard.StandardAnalyzer";
     public static String HIBERNATE_CREATE_AUTOFIX = "true";
     public static boolean HIBERNATE_INDEXER_MASS_INDEXER = false;
@@ -623,6 +709,8 @@ public class Config {
             values.put(PROPERTY_HIBERNATE_SHOW_SQL, HIBERNATE_SHOW_SQL);
             HIBERNATE_STATISTICS = config.getProperty(PROPERTY_HIBERNATE_STATISTICS, HIBERNATE_STATISTICS);
             values.put(PROPERTY_HIBERNATE_STATISTICS, HIBERNATE_STATISTICS);
+            HIBERNATE_JDBC_BATCH_SIZE = config.getProperty(PROPERTY_HIBERNATE_JDBC_BATCH_SIZE, HIBERNATE_JDBC_BATCH_SIZE);
+            values.put(PROPERTY_HIBERNATE_JDBC_BATCH_SIZE, HIBERNATE_JDBC_BATCH_SIZE);
             HIBERNATE_SEARCH_ANALYZER = config.getProperty(PROPERTY_HIBERNATE_SEARCH_ANALYZER, HIBERNATE_SEARCH_ANALYZER);
             values.put(PROPERTY_HIBERNATE_SEARCH_ANALYZER, HIBERNATE_SEARCH_ANALYZER);
             HIBERNATE_CREATE_AUTOFIX = config.getProperty(PROPERTY_HIBERNATE_CREATE_AUTOFIX, HIBERNATE_CREATE_AUTOFIX);
@@ -665,6 +753,7 @@ public class Config {
                 REPOSITORY_DATASTORE_HOME =
                         config.getProperty(PROPERTY_REPOSITORY_DATASTORE_HOME, Config.REPOSITORY_HOME + File.separator
                                 + FsDataStore.DATASTORE_DIRNAME);
+                REPOSITORY_DATASTORE_DEDUP = "on".equalsIgnoreCase(config.getProperty(PROPERTY_REPOSITORY_DATASTORE_DEDUP, "off"));
                 HIBERNATE_SEARCH_INDEX_HOME =
                         config.getProperty(PROPERTY_HIBERNATE_SEARCH_INDEX_HOME, Config.REPOSITORY_HOME + File.separator
                                 + HIBERNATE_SEARCH_INDEX_DIRNAME);
@@ -688,6 +777,7 @@ public class Config {
             values.put(PROPERTY_HIBERNATE_SEARCH_INDEX_HOME, HIBERNATE_SEARCH_INDEX_HOME);
             values.put(PROPERTY_REPOSITORY_DATASTORE_BACKEND, REPOSITORY_DATASTORE_BACKEND);
             values.put(PROPERTY_REPOSITORY_DATASTORE_HOME, REPOSITORY_DATASTORE_HOME);
+            values.put(PROPERTY_REPOSITORY_DATASTORE_DEDUP, Boolean.toString(REPOSITORY_DATASTORE_DEDUP));
             values.put(PROPERTY_REPOSITORY_CONFIG, REPOSITORY_CONFIG);
             values.put(PROPERTY_REPOSITORY_HOME, REPOSITORY_HOME);
 
@@ -735,6 +825,51 @@ public class Config {
             MANAGED_TEXT_EXTRACTION_CONCURRENT =
                     ConfigDAO.getBoolean(PROPERTY_MANAGED_TEXT_EXTRACTION_CONCURRENT, MANAGED_TEXT_EXTRACTION_CONCURRENT);
             values.put(PROPERTY_MANAGED_TEXT_EXTRACTION_CONCURRENT, Boolean.toString(MANAGED_TEXT_EXTRACTION_CONCURRENT));
+            MANAGED_TEXT_EXTRACTION_QUEUE_SIZE =
+                    ConfigDAO.getInteger(PROPERTY_MANAGED_TEXT_EXTRACTION_QUEUE_SIZE, MANAGED_TEXT_EXTRACTION_QUEUE_SIZE);
+            values.put(PROPERTY_MANAGED_TEXT_EXTRACTION_QUEUE_SIZE, Integer.toString(MANAGED_TEXT_EXTRACTION_QUEUE_SIZE));
+            MANAGED_TEXT_EXTRACTION_CHEAP_THREADS =
+                    ConfigDAO.getInteger(PROPERTY_MANAGED_TEXT_EXTRACTION_CHEAP_THREADS, MANAGED_TEXT_EXTRACTION_CHEAP_THREADS);
+            values.put(PROPERTY_MANAGED_TEXT_EXTRACTION_CHEAP_THREADS, Integer.toString(MANAGED_TEXT_EXTRACTION_CHEAP_THREADS));
+            MANAGED_TEXT_EXTRACTION_CHEAP_TIMEOUT =
+                    ConfigDAO.getInteger(PROPERTY_MANAGED_TEXT_EXTRACTION_CHEAP_TIMEOUT, MANAGED_TEXT_EXTRACTION_CHEAP_TIMEOUT);
+            values.put(PROPERTY_MANAGED_TEXT_EXTRACTION_CHEAP_TIMEOUT, Integer.toString(MANAGED_TEXT_EXTRACTION_CHEAP_TIMEOUT));
+            MANAGED_TEXT_EXTRACTION_OFFICE_THREADS =
+                    ConfigDAO.getInteger(PROPERTY_MANAGED_TEXT_EXTRACTION_OFFICE_THREADS, MANAGED_TEXT_EXTRACTION_OFFICE_THREADS);
+            values.put(PROPERTY_MANAGED_TEXT_EXTRACTION_OFFICE_THREADS, Integer.toString(MANAGED_TEXT_EXTRACTION_OFFICE_THREADS));
+            MANAGED_TEXT_EXTRACTION_OFFICE_TIMEOUT =
+                    ConfigDAO.getInteger(PROPERTY_MANAGED_TEXT_EXTRACTION_OFFICE_TIMEOUT, MANAGED_TEXT_EXTRACTION_OFFICE_TIMEOUT);
+            values.put(PROPERTY_MANAGED_TEXT_EXTRACTION_OFFICE_TIMEOUT, Integer.toString(MANAGED_TEXT_EXTRACTION_OFFICE_TIMEOUT));
+            MANAGED_TEXT_EXTRACTION_OCR_THREADS =
+                    ConfigDAO.getInteger(PROPERTY_MANAGED_TEXT_EXTRACTION_OCR_THREADS, MANAGED_TEXT_EXTRACTION_OCR_THREADS);
+            values.put(PROPERTY_MANAGED_TEXT_EXTRACTION_OCR_THREADS, Integer.toString(MANAGED_TEXT_EXTRACTION_OCR_THREADS));
+            MANAGED_TEXT_EXTRACTION_OCR_TIMEOUT =
+                    ConfigDAO.getInteger(PROPERTY_MANAGED_TEXT_EXTRACTION_OCR_TIMEOUT, MANAGED_TEXT_EXTRACTION_OCR_TIMEOUT);
+            values.put(PROPERTY_MANAGED_TEXT_EXTRACTION_OCR_TIMEOUT, Integer.toString(MANAGED_TEXT_EXTRACTION_OCR_TIMEOUT));
+            MANAGED_TEXT_EXTRACTION_AUDIO_THREADS =
+                    ConfigDAO.getInteger(PROPERTY_MANAGED_TEXT_EXTRACTION_AUDIO_THREADS, MANAGED_TEXT_EXTRACTION_AUDIO_THREADS);
+            values.put(PROPERTY_MANAGED_TEXT_EXTRACTION_AUDIO_THREADS, Integer.toString(MANAGED_TEXT_EXTRACTION_AUDIO_THREADS));
+            MANAGED_TEXT_EXTRACTION_AUDIO_TIMEOUT =
+                    ConfigDAO.getInteger(PROPERTY_MANAGED_TEXT_EXTRACTION_AUDIO_TIMEOUT, MANAGED_TEXT_EXTRACTION_AUDIO_TIMEOUT);
+            values.put(PROPERTY_MANAGED_TEXT_EXTRACTION_AUDIO_TIMEOUT, Integer.toString(MANAGED_TEXT_EXTRACTION_AUDIO_TIMEOUT));
+            MANAGED_TEXT_EXTRACTION_RETRIES = ConfigDAO.getInteger(PROPERTY_MANAGED_TEXT_EXTRACTION_RETRIES, MANAGED_TEXT_EXTRACTION_RETRIES);
+            values.put(PROPERTY_MANAGED_TEXT_EXTRACTION_RETRIES, Integer.toString(MANAGED_TEXT_EXTRACTION_RETRIES));
+            PREVIEW_RENDER = ConfigDAO.getBoolean(PROPERTY_PREVIEW_RENDER, PREVIEW_RENDER);
+            values.put(PROPERTY_PREVIEW_RENDER, Boolean.toString(PREVIEW_RENDER));
+            PREVIEW_RENDER_THREADS = ConfigDAO.getInteger(PROPERTY_PREVIEW_RENDER_THREADS, PREVIEW_RENDER_THREADS);
+            values.put(PROPERTY_PREVIEW_RENDER_THREADS, Integer.toString(PREVIEW_RENDER_THREADS));
+            PREVIEW_RENDER_QUEUE_SIZE = ConfigDAO.getInteger(PROPERTY_PREVIEW_RENDER_QUEUE_SIZE, PREVIEW_RENDER_QUEUE_SIZE);
+            values.put(PROPERTY_PREVIEW_RENDER_QUEUE_SIZE, Integer.toString(PREVIEW_RENDER_QUEUE_SIZE));
+            PREVIEW_RENDER_MIME_TYPES = ConfigDAO.getList(PROPERTY_PREVIEW_RENDER_MIME_TYPES, DEFAULT_PREVIEW_RENDER_MIME_TYPES);
+            values.put(PROPERTY_PREVIEW_RENDER_MIME_TYPES, String.valueOf(PREVIEW_RENDER_MIME_TYPES));
+            MAIL_IMPORT_THREADS = ConfigDAO.getInteger(PROPERTY_MAIL_IMPORT_THREADS, MAIL_IMPORT_THREADS);
+            values.put(PROPERTY_MAIL_IMPORT_THREADS, Integer.toString(MAIL_IMPORT_THREADS));
+            MAIL_IMPORT_BATCH_SIZE = ConfigDAO.getInteger(PROPERTY_MAIL_IMPORT_BATCH_SIZE, MAIL_IMPORT_BATCH_SIZE);
+            values.put(PROPERTY_MAIL_IMPORT_BATCH_SIZE, Integer.toString(MAIL_IMPORT_BATCH_SIZE));
+            CRON_THREADS = ConfigDAO.getInteger(PROPERTY_CRON_THREADS, CRON_THREADS);
+            values.put(PROPERTY_CRON_THREADS, Integer.toString(CRON_THREADS));
+            CRON_TIMEOUT = ConfigDAO.getInteger(PROPERTY_CRON_TIMEOUT, CRON_TIMEOUT);
+            values.put(PROPERTY_CRON_TIMEOUT, Integer.toString(CRON_TIMEOUT));
 
             REPOSITORY_CONTENT_CHECKSUM = ConfigDAO.getBoolean(PROPERTY_REPOSITORY_CONTENT_CHECKSUM, REPOSITORY_CONTENT_CHECKSUM);
             values.put(PROPERTY_REPOSITORY_CONTENT_CHECKSUM, Boolean.toString(REPOSITORY_CONTENT_CHECKSUM));
@@ -769,6 +904,28 @@ public class Config {
                     ConfigDAO.getInteger(PROPERTY_SECURITY_LIVE_CHANGE_NODE_LIMIT, SECURITY_LIVE_CHANGE_NODE_LIMIT);
             values.put(PROPERTY_SECURITY_LIVE_CHANGE_NODE_LIMIT, Integer.toString(SECURITY_LIVE_CHANGE_NODE_LIMIT));
 
+            // Cache properties
+            CACHE_NODE_PATH_SIZE = ConfigDAO.getInteger(PROPERTY_CACHE_NODE_PATH_SIZE, CACHE_NODE_PATH_SIZE);
+            values.put(PROPERTY_CACHE_NODE_PATH_SIZE, Integer.toString(CACHE_NODE_PATH_SIZE));
+            CACHE_PERMISSION_SIZE = ConfigDAO.getInteger(PROPERTY_CACHE_PERMISSION_SIZE, CACHE_PERMISSION_SIZE);
+            values.put(PROPERTY_CACHE_PERMISSION_SIZE, Integer.toString(CACHE_PERMISSION_SIZE));
+            CACHE_CONVERSION_SIZE = ConfigDAO.getInteger(PROPERTY_CACHE_CONVERSION_SIZE, CACHE_CONVERSION_SIZE);
+            values.put(PROPERTY_CACHE_CONVERSION_SIZE, Integer.toString(CACHE_CONVERSION_SIZE));
+
+            // Activity log properties
+            ACTIVITY_LOG_ASYNC = ConfigDAO.getBoolean(PROPERTY_ACTIVITY_LOG_ASYNC, ACTIVITY_LOG_ASYNC);
+            values.put(PROPERTY_ACTIVITY_LOG_ASYNC, Boolean.toString(ACTIVITY_LOG_ASYNC));
+            ACTIVITY_LOG_QUEUE_SIZE = ConfigDAO.getInteger(PROPERTY_ACTIVITY_LOG_QUEUE_SIZE, ACTIVITY_LOG_QUEUE_SIZE);
+            values.put(PROPERTY_ACTIVITY_LOG_QUEUE_SIZE, Integer.toString(ACTIVITY_LOG_QUEUE_SIZE));
+            ACTIVITY_LOG_QUEUE_FULL = ConfigDAO.getSelectedOption(PROPERTY_ACTIVITY_LOG_QUEUE_FULL, "block|drop|spill");
+            values.put(PROPERTY_ACTIVITY_LOG_QUEUE_FULL, ACTIVITY_LOG_QUEUE_FULL);
+            ACTIVITY_LOG_FLUSH_INTERVAL = ConfigDAO.getInteger(PROPERTY_ACTIVITY_LOG_FLUSH_INTERVAL, ACTIVITY_LOG_FLUSH_INTERVAL);
+            values.put(PROPERTY_ACTIVITY_LOG_FLUSH_INTERVAL, Integer.toString(ACTIVITY_LOG_FLUSH_INTERVAL));
+            PENDING_TASK_CHUNK_SIZE = ConfigDAO.getInteger(PROPERTY_PENDING_TASK_CHUNK_SIZE, PENDING_TASK_CHUNK_SIZE);
+            values.put(PROPERTY_PENDING_TASK_CHUNK_SIZE, Integer.toString(PENDING_TASK_CHUNK_SIZE));
+            PENDING_TASK_FANOUT = ConfigDAO.getInteger(PROPERTY_PENDING_TASK_FANOUT, PENDING_TASK_FANOUT);
+            values.put(PROPERTY_PENDING_TASK_FANOUT, Integer.toString(PENDING_TASK_FANOUT));
+
             VERSION_NUMERATION_ADAPTER =
                     ConfigDAO.getString(PROPERTY_VERSION_NUMERATION_ADAPTER,
                             cfg.getProperty(PROPERTY_VERSION_NUMERATION_ADAPTER, VERSION_NUMERATION_ADAPTER));
@@ -778,6 +935,8 @@ public class Config {
                             cfg.getProperty(PROPERTY_VERSION_NUMERATION_FORMAT, VERSION_NUMERATION_FORMAT));
             values.put(PROPERTY_VERSION_NUMERATION_FORMAT, VERSION_NUMERATION_FORMAT);
             VERSION_APPEND_DOWNLOAD = ConfigDAO.getBoolean(PROPERTY_VERSION_APPEND_DOWNLOAD, VERSION_APPEND_DOWNLOAD);
+            DOWNLOAD_ARCHIVE_MAX_STREAMS = ConfigDAO.getInteger(PROPERTY_DOWNLOAD_ARCHIVE_MAX_STREAMS, DOWNLOAD_ARCHIVE_MAX_STREAMS);
+            values.put(PROPERTY_DOWNLOAD_ARCHIVE_MAX_STREAMS, Integer.toString(DOWNLOAD_ARCHIVE_MAX_STREAMS));
 
             MAX_FILE_SIZE = FormatUtil.parseSize(ConfigDAO.getString(PROPERTY_MAX_FILE_SIZE, "0"));
             values.put(PROPERTY_MAX_FILE_SIZE, Long.toString(MAX_FILE_SIZE));
@@ -928,6 +1087,10 @@ public class Config {
                     ConfigDAO.getBoolean(PROPERTY_SYSTEM_WEBDAV_FIX,
                             "on".equalsIgnoreCase(cfg.getProperty(PROPERTY_SYSTEM_WEBDAV_FIX, "off")));
             values.put(PROPERTY_SYSTEM_WEBDAV_FIX, Boolean.toString(SYSTEM_WEBDAV_FIX));
+            SYSTEM_WEBDAV_LISTING_PAGE_SIZE = ConfigDAO.getInteger(PROPERTY_SYSTEM_WEBDAV_LISTING_PAGE_SIZE, SYSTEM_WEBDAV_LISTING_PAGE_SIZE);
+            values.put(PROPERTY_SYSTEM_WEBDAV_LISTING_PAGE_SIZE, Integer.toString(SYSTEM_WEBDAV_LISTING_PAGE_SIZE));
+            SYSTEM_WEBDAV_LISTING_CACHE = ConfigDAO.getInteger(PROPERTY_SYSTEM_WEBDAV_LISTING_CACHE, SYSTEM_WEBDAV_LISTING_CACHE);
+            values.put(PROPERTY_SYSTEM_WEBDAV_LISTING_CACHE, Integer.toString(SYSTEM_WEBDAV_LISTING_CACHE));
 
             SYSTEM_MAINTENANCE = ConfigDAO.getBoolean(PROPERTY_SYSTEM_MAINTENANCE, false);
             values.put(PROPERTY_SYSTEM_MAINTENANCE, Boolean.toString(SYSTEM_MAINTENANCE));
@@ -942,6 +1105,12 @@ public class Config {
             values.put(PROPERTY_SYSTEM_OPENOFFICE_TASKS, Integer.toString(SYSTEM_OPENOFFICE_TASKS));
             SYSTEM_OPENOFFICE_PORT = ConfigDAO.getInteger(PROPERTY_SYSTEM_OPENOFFICE_PORT, 2002);
             values.put(PROPERTY_SYSTEM_OPENOFFICE_PORT, Integer.toString(SYSTEM_OPENOFFICE_PORT));
+            SYSTEM_OPENOFFICE_INSTANCES = ConfigDAO.getInteger(PROPERTY_SYSTEM_OPENOFFICE_INSTANCES, SYSTEM_OPENOFFICE_INSTANCES);
+            values.put(PROPERTY_SYSTEM_OPENOFFICE_INSTANCES, Integer.toString(SYSTEM_OPENOFFICE_INSTANCES));
+            SYSTEM_OPENOFFICE_TIMEOUT = ConfigDAO.getInteger(PROPERTY_SYSTEM_OPENOFFICE_TIMEOUT, SYSTEM_OPENOFFICE_TIMEOUT);
+            values.put(PROPERTY_SYSTEM_OPENOFFICE_TIMEOUT, Integer.toString(SYSTEM_OPENOFFICE_TIMEOUT));
+            SYSTEM_OPENOFFICE_QUEUE_TIMEOUT = ConfigDAO.getInteger(PROPERTY_SYSTEM_OPENOFFICE_QUEUE_TIMEOUT, SYSTEM_OPENOFFICE_QUEUE_TIMEOUT);
+            values.put(PROPERTY_SYSTEM_OPENOFFICE_QUEUE_TIMEOUT, Integer.toString(SYSTEM_OPENOFFICE_QUEUE_TIMEOUT));
             SYSTEM_OPENOFFICE_SERVER =
                     ConfigDAO.getString(PROPERTY_SYSTEM_OPENOFFICE_SERVER, cfg.getProperty(PROPERTY_SYSTEM_OPENOFFICE_SERVER, ""));
             values.put(PROPERTY_SYSTEM_OPENOFFICE_SERVER, SYSTEM_OPENOFFICE_SERVER);
@@ -1030,6 +1199,8 @@ public class Config {
             values.put(PROPERTY_SCHEDULE_DASHBOARD_REFRESH, Integer.toString(SCHEDULE_DASHBOARD_REFRESH));
             SCHEDULE_UI_NOTIFICATION = ConfigDAO.getInteger(PROPERTY_SCHEDULE_UI_NOTIFICATION, SCHEDULE_UI_NOTIFICATION);
             values.put(PROPERTY_SCHEDULE_UI_NOTIFICATION, Integer.toString(SCHEDULE_UI_NOTIFICATION));
+            SCHEDULE_FOLDER_AGGREGATE = ConfigDAO.getInteger(PROPERTY_SCHEDULE_FOLDER_AGGREGATE, SCHEDULE_FOLDER_AGGREGATE);
+            values.put(PROPERTY_SCHEDULE_FOLDER_AGGREGATE, Integer.toString(SCHEDULE_FOLDER_AGGREGATE));
 
             // KEA
             KEA_THESAURUS_SKOS_FILE =
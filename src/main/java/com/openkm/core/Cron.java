@@ -19,7 +19,6 @@
 
 package com.openkm.core;
 
-import java.text.ParseException;
 import java.util.Calendar;
 import java.util.TimerTask;
 
@@ -30,12 +29,9 @@ import org.slf4j.LoggerFactory;
 
 import bsh.EvalError;
 
-import com.kenai.crontabparser.CronTabExpression;
 import com.openkm.dao.CronTabDAO;
-import com.openkm.dao.bean.CronTab;
 import com.openkm.util.ExecutionUtils;
 import com.openkm.util.MailUtils;
-import com.openkm.util.SecureStore;
 
 public class Cron extends TimerTask {
     private static Logger log = LoggerFactory.getLogger(Cron.class);
@@ -43,33 +39,9 @@ public class Cron extends TimerTask {
 
     public void run() {
         log.debug("*** Cron activated ***");
-        Calendar cal = Calendar.getInstance();
 
         try {
-            for (CronTab ct : CronTabDAO.findAll()) {
-                if (ct.isActive()) {
-                    try {
-                        CronTabExpression cte = CronTabExpression.parse(ct.getExpression());
-
-                        if (cte.matches(cal)) {
-                            log.debug("Id: {}, Name: {}, Mime: {}", new Object[] { ct.getId(), ct.getName(), ct.getFileMime() });
-
-                            if (MimeTypeConfig.MIME_BSH.equals(ct.getFileMime())) {
-                                RunnerBsh runner =
-                                        new RunnerBsh(ct.getId(), ct.getName(), ct.getMail(), new String(SecureStore.b64Decode(ct
-                                                .getFileContent())));
-                                new Thread(runner).start();
-                            } else if (MimeTypeConfig.MIME_JAR.equals(ct.getFileMime())) {
-                                RunnerJar runner =
-                                        new RunnerJar(ct.getId(), ct.getName(), ct.getMail(), SecureStore.b64Decode(ct.getFileContent()));
-                                new Thread(runner).start();
-                            }
-                        }
-                    } catch (ParseException e) {
-                        log.warn(e.getMessage() + " : " + ct.getExpression());
-                    }
-                }
-            }
+            CronScheduler.tick(Calendar.getInstance());
         } catch (DatabaseException e) {
             log.error(e.getMessage(), e);
         }
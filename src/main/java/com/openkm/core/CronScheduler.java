@@ -0,0 +1,502 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.openkm.core;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kenai.crontabparser.CronTabExpression;
+import com.openkm.dao.CronTabDAO;
+import com.openkm.dao.bean.CronTab;
+import com.openkm.util.SecureStore;
+
+/**
+ * Crontab scheduler. Active crontab entries are parsed and decoded once, and kept in a priority
+ * queue ordered by their next fire time, so each cron tick only has to look at the head of the
+ * queue. The schedule is reloaded on the next tick after any CronTabDAO change.
+ *
+ * Jobs whose next fire is more than a year away, like the ones only matching February 29th, are kept
+ * aside and looked up again once a day.
+ *
+ * Jobs run on a bounded pool, also when manually executed. A job which is still running when it is
+ * due again is skipped, and a job running longer than the configured timeout is interrupted.
+ */
+public class CronScheduler {
+    private static Logger log = LoggerFactory.getLogger(CronScheduler.class);
+    private static final int MAX_LOOKAHEAD = 366 * 24 * 60; // Minutes
+
+    // Only accessed from the cron timer thread
+    private static PriorityQueue<Job> schedule = new PriorityQueue<Job>();
+    private static List<Job> dormant = new ArrayList<Job>();
+    private static int dormantDay = -1;
+
+    private static final Map<Long, Execution> executions = new ConcurrentHashMap<Long, Execution>();
+    private static final Map<Long, Stats> stats = new ConcurrentHashMap<Long, Stats>();
+    private static ExecutorService executor = null;
+    private static volatile boolean running = false;
+    private static volatile boolean invalid = true;
+
+    /**
+     * Start job executor
+     */
+    public static synchronized void start() {
+        if (!running) {
+            int workers = Math.max(1, Config.CRON_THREADS);
+            log.info("Starting crontab scheduler with {} workers", workers);
+            executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r);
+                    t.setName("CronThread-" + t.getId());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+            invalid = true;
+            running = true;
+        }
+    }
+
+    /**
+     * Stop job executor, interrupting running jobs
+     */
+    public static synchronized void shutdown() {
+        if (running) {
+            running = false;
+            executor.shutdownNow();
+            log.info("### All crontab threads shutdown requested ###");
+
+            try {
+                if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.warn("### Some crontab jobs are still running: {} ###", executions.keySet());
+                }
+            } catch (InterruptedException e) {
+                log.warn("### Exception awaiting for crontab pool termination: {} ###", e.getMessage());
+            }
+
+            executions.clear();
+        }
+    }
+
+    /**
+     * Reload the schedule on the next tick
+     */
+    public static void invalidate() {
+        log.debug("invalidate()");
+        invalid = true;
+    }
+
+    /**
+     * Run due jobs. Called by the cron timer once per minute.
+     */
+    public static void tick(Calendar now) throws DatabaseException {
+        log.debug("tick({})", now.getTime());
+
+        if (!running) {
+            return;
+        }
+
+        Calendar minute = truncate(now);
+        checkTimeouts(now.getTimeInMillis());
+
+        if (invalid) {
+            reload(minute);
+        } else if (!dormant.isEmpty() && minute.get(Calendar.DAY_OF_YEAR) != dormantDay) {
+            wakeUp(minute);
+        }
+
+        while (!schedule.isEmpty() && schedule.peek().nextFire <= minute.getTimeInMillis()) {
+            Job job = schedule.poll();
+            dispatch(job);
+            Calendar from = (Calendar) minute.clone();
+            from.add(Calendar.MINUTE, 1);
+
+            if (findNextFire(job, from)) {
+                schedule.add(job);
+            } else {
+                log.warn("Crontab job '{}' will not run within a year", job.name);
+                dormant.add(job);
+            }
+        }
+    }
+
+    /**
+     * Schedule again the jobs which had no fire time within a year
+     */
+    private static void wakeUp(Calendar from) {
+        log.debug("wakeUp({})", from.getTime());
+        dormantDay = from.get(Calendar.DAY_OF_YEAR);
+
+        for (Iterator<Job> it = dormant.iterator(); it.hasNext();) {
+            Job job = it.next();
+
+            if (findNextFire(job, from)) {
+                schedule.add(job);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Run a crontab entry now, on the job pool. Returns false if it is still running or the
+     * scheduler is stopped.
+     */
+    public static boolean execute(CronTab ct) {
+        log.debug("execute({})", ct.getId());
+
+        Runnable runner = null;
+
+        if (MimeTypeConfig.MIME_BSH.equals(ct.getFileMime())) {
+            runner = new Cron.RunnerBsh(ct.getId(), ct.getName(), ct.getMail(), new String(SecureStore.b64Decode(ct.getFileContent())));
+        } else {
+            runner = new Cron.RunnerJar(ct.getId(), ct.getName(), ct.getMail(), SecureStore.b64Decode(ct.getFileContent()));
+        }
+
+        return submit(ct.getId(), ct.getName(), runner);
+    }
+
+    /**
+     * Run a job now, on the job pool, unless it is still running
+     */
+    static synchronized boolean submit(long id, String name, Runnable runner) {
+        if (!running) {
+            return false;
+        }
+
+        Job job = new Job();
+        job.id = id;
+        job.name = name;
+        job.stats = stats.get(id);
+
+        if (job.stats == null) {
+            job.stats = new Stats();
+            stats.put(id, job.stats);
+        }
+
+        return dispatch(job, runner);
+    }
+
+    /**
+     * Load active crontab entries and calculate their next fire time
+     */
+    private static void reload(Calendar from) throws DatabaseException {
+        log.debug("reload({})", from.getTime());
+        invalid = false;
+        PriorityQueue<Job> newSchedule = new PriorityQueue<Job>();
+        List<Job> newDormant = new ArrayList<Job>();
+        Map<Long, Stats> newStats = new HashMap<Long, Stats>();
+        List<CronTab> crontabs = null;
+
+        try {
+            crontabs = CronTabDAO.findAll();
+        } catch (DatabaseException e) {
+            invalid = true;
+            throw e;
+        }
+
+        for (CronTab ct : crontabs) {
+            Stats jobStats = stats.get(ct.getId());
+            newStats.put(ct.getId(), jobStats == null ? new Stats() : jobStats);
+
+            if (ct.isActive()) {
+                if (!MimeTypeConfig.MIME_BSH.equals(ct.getFileMime()) && !MimeTypeConfig.MIME_JAR.equals(ct.getFileMime())) {
+                    log.warn("Unsupported crontab mime type {} : {}", ct.getFileMime(), ct.getName());
+                    continue;
+                }
+
+                try {
+                    Job job = new Job();
+                    job.id = ct.getId();
+                    job.name = ct.getName();
+                    job.mail = ct.getMail();
+                    job.mime = ct.getFileMime();
+                    job.expression = CronTabExpression.parse(ct.getExpression());
+                    job.content = SecureStore.b64Decode(ct.getFileContent());
+                    job.stats = newStats.get(ct.getId());
+
+                    if (findNextFire(job, from)) {
+                        newSchedule.add(job);
+                    } else {
+                        log.warn("Crontab job '{}' will not run within a year", job.name);
+                        newDormant.add(job);
+                    }
+                } catch (ParseException e) {
+                    log.warn(e.getMessage() + " : " + ct.getExpression());
+                }
+            } else {
+                newStats.get(ct.getId()).nextFire = 0;
+            }
+        }
+
+        // Forget deleted entries, but keep the ones still running
+        for (Long id : new ArrayList<Long>(stats.keySet())) {
+            if (!newStats.containsKey(id) && !executions.containsKey(id)) {
+                stats.remove(id);
+            }
+        }
+
+        stats.putAll(newStats);
+        schedule = newSchedule;
+        dormant = newDormant;
+        dormantDay = from.get(Calendar.DAY_OF_YEAR);
+        log.info("Crontab schedule loaded with {} active jobs", schedule.size());
+    }
+
+    /**
+     * Calculate the job next fire time, returning false if it will not run within a year
+     */
+    private static boolean findNextFire(Job job, Calendar from) {
+        Calendar next = nextFire(job.expression, from);
+
+        if (next != null) {
+            job.nextFire = next.getTimeInMillis();
+            job.stats.nextFire = job.nextFire;
+            return true;
+        } else {
+            job.stats.nextFire = 0;
+            return false;
+        }
+    }
+
+    /**
+     * Calculate the first matching minute starting at the given one, looking up to a year ahead
+     */
+    static Calendar nextFire(CronTabExpression expression, Calendar from) {
+        Calendar cal = truncate(from);
+
+        for (int i = 0; i < MAX_LOOKAHEAD; i++) {
+            if (expression.matches(cal)) {
+                return cal;
+            }
+
+            cal.add(Calendar.MINUTE, 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Submit job to the executor, unless the previous run has not finished yet
+     */
+    private static boolean dispatch(Job job) {
+        log.debug("Id: {}, Name: {}, Mime: {}", new Object[] { job.id, job.name, job.mime });
+        Runnable runner = null;
+
+        if (MimeTypeConfig.MIME_BSH.equals(job.mime)) {
+            runner = new Cron.RunnerBsh(job.id, job.name, job.mail, new String(job.content));
+        } else {
+            runner = new Cron.RunnerJar(job.id, job.name, job.mail, job.content);
+        }
+
+        return dispatch(job, runner);
+    }
+
+    /**
+     * Submit job runner to the executor, unless the previous run has not finished yet
+     */
+    private static synchronized boolean dispatch(Job job, Runnable runner) {
+        if (executions.containsKey(job.id)) {
+            log.warn("Crontab job '{}' skipped because previous run has not finished yet", job.name);
+            job.stats.skipped();
+            return false;
+        }
+
+        Execution execution = new Execution(job, runner);
+        executions.put(job.id, execution);
+
+        try {
+            execution.future = executor.submit(execution);
+        } catch (RejectedExecutionException e) {
+            log.warn("Crontab job '{}' rejected: {}", job.name, e.getMessage());
+            executions.remove(job.id);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Interrupt jobs running longer than the configured timeout
+     */
+    private static void checkTimeouts(long now) {
+        if (Config.CRON_TIMEOUT > 0) {
+            long timeout = TimeUnit.MINUTES.toMillis(Config.CRON_TIMEOUT);
+
+            for (Execution execution : executions.values()) {
+                long begin = execution.begin;
+
+                if (begin > 0 && !execution.timedOut && execution.future != null && now - begin > timeout) {
+                    log.warn("Crontab job '{}' interrupted after {} minutes", execution.job.name, Config.CRON_TIMEOUT);
+                    execution.timedOut = true;
+                    execution.job.stats.timedOut();
+                    execution.future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Truncate to minute precision
+     */
+    private static Calendar truncate(Calendar cal) {
+        Calendar minute = (Calendar) cal.clone();
+        minute.set(Calendar.SECOND, 0);
+        minute.set(Calendar.MILLISECOND, 0);
+        return minute;
+    }
+
+    /**
+     * Get run statistics by crontab id
+     */
+    public static Map<Long, Stats> getStats() {
+        return new HashMap<Long, Stats>(stats);
+    }
+
+    /**
+     * Parsed crontab entry
+     */
+    private static class Job implements Comparable<Job> {
+        private long id;
+        private String name;
+        private String mail;
+        private String mime;
+        private CronTabExpression expression;
+        private byte[] content;
+        private long nextFire;
+        private Stats stats;
+
+        @Override
+        public int compareTo(Job other) {
+            return nextFire < other.nextFire ? -1 : (nextFire == other.nextFire ? 0 : 1);
+        }
+    }
+
+    /**
+     * Running job
+     */
+    private static class Execution implements Runnable {
+        private final Job job;
+        private final Runnable runner;
+        private volatile Future<?> future;
+        private volatile long begin = 0;
+        private volatile boolean timedOut = false;
+
+        private Execution(Job job, Runnable runner) {
+            this.job = job;
+            this.runner = runner;
+        }
+
+        @Override
+        public void run() {
+            begin = System.currentTimeMillis();
+
+            try {
+                runner.run();
+            } finally {
+                executions.remove(job.id);
+                job.stats.ran(System.currentTimeMillis() - begin);
+            }
+        }
+    }
+
+    /**
+     * Crontab job run statistics
+     */
+    public static class Stats {
+        private volatile long nextFire = 0;
+        private long runs = 0;
+        private long skips = 0;
+        private long timeouts = 0;
+        private long lastDuration = 0;
+        private long maxDuration = 0;
+        private long totalDuration = 0;
+
+        private synchronized void ran(long duration) {
+            runs++;
+            lastDuration = duration;
+            maxDuration = Math.max(maxDuration, duration);
+            totalDuration += duration;
+        }
+
+        private synchronized void skipped() {
+            skips++;
+        }
+
+        private synchronized void timedOut() {
+            timeouts++;
+        }
+
+        public Calendar getNextFire() {
+            long next = nextFire;
+
+            if (next > 0) {
+                Calendar cal = Calendar.getInstance();
+                cal.setTimeInMillis(next);
+                return cal;
+            } else {
+                return null;
+            }
+        }
+
+        public synchronized long getRuns() {
+            return runs;
+        }
+
+        public synchronized long getSkips() {
+            return skips;
+        }
+
+        public synchronized long getTimeouts() {
+            return timeouts;
+        }
+
+        public synchronized long getLastDuration() {
+            return lastDuration;
+        }
+
+        public synchronized long getMaxDuration() {
+            return maxDuration;
+        }
+
+        public synchronized long getAverageDuration() {
+            return runs > 0 ? totalDuration / runs : 0;
+        }
+    }
+}
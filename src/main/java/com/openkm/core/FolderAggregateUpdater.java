@@ -19,38 +19,27 @@
  *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
  */
 
-package com.openkm.extractor;
 
-import java.io.FileNotFoundException;
+package com.openkm.core;
+
+import java.util.TimerTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.openkm.core.DatabaseException;
-import com.openkm.dao.NodeDocumentDAO;
+import com.openkm.dao.NodeFolderAggregateDAO;
 
 /**
- * @author pavila
+ * Apply pending folder subtree counter changes
  */
-public class TextExtractorThread implements Runnable {
-    private static Logger log = LoggerFactory.getLogger(TextExtractorThread.class);
-    private static volatile long global = 1;
-    private long id = 0;
-    private TextExtractorWork work = null;
-
-    public TextExtractorThread(TextExtractorWork work) {
-        this.work = work;
-        this.id = global++;
-    }
+public class FolderAggregateUpdater extends TimerTask {
+    private static Logger log = LoggerFactory.getLogger(FolderAggregateUpdater.class);
 
-    @Override
     public void run() {
+        log.debug("*** Folder aggregate updater activated ***");
+
         try {
-            log.debug("processConcurrent.Working {} on {}", id, work);
-            NodeDocumentDAO.getInstance().textExtractorHelper(work);
-            log.debug("processConcurrent.Finish {} on {}", id, work);
-        } catch (FileNotFoundException e) {
-            log.warn(e.getMessage(), e);
+            NodeFolderAggregateDAO.getInstance().applyPending();
         } catch (DatabaseException e) {
             log.warn(e.getMessage(), e);
         }
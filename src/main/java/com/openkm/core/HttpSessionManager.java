@@ -25,8 +25,15 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
@@ -38,13 +45,29 @@ import org.xbill.DNS.Address;
 import com.openkm.bean.HttpSessionInfo;
 
 /**
+ * Sessions are indexed by id. The host name of a new session is resolved in background, so
+ * a slow DNS does not delay the request. At most MAX_PENDING lookups are queued, the others
+ * keep the address as host name.
+ *
  * @author pavila
  */
 public class HttpSessionManager {
-    @SuppressWarnings("unused")
     private static Logger log = LoggerFactory.getLogger(HttpSessionManager.class);
+    private static final int MAX_HOSTS = 1000;
+    private static final int MAX_PENDING = 100;
     private static HttpSessionManager instance = new HttpSessionManager();
-    private List<HttpSessionInfo> sessions = new ArrayList<HttpSessionInfo>();
+    private ConcurrentHashMap<String, HttpSessionInfo> sessions = new ConcurrentHashMap<String, HttpSessionInfo>();
+    private Map<String, String> hosts = new ConcurrentHashMap<String, String>();
+    private ExecutorService resolver = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(MAX_PENDING), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r);
+                    t.setName("HostResolverThread-" + t.getId());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
 
     /**
      * Prevents class instantiation
@@ -62,88 +85,113 @@ public class HttpSessionManager {
     /**
      * Add a new session
      */
-    public synchronized void add(HttpServletRequest request) {
-        HttpSessionInfo si = new HttpSessionInfo();
+    public void add(HttpServletRequest request) {
         HttpSession s = request.getSession();
-        boolean add = true;
 
-        for (HttpSessionInfo rsi : sessions) {
-            if (rsi.getId().equals(s.getId())) {
-                add = false;
+        if (!sessions.containsKey(s.getId())) {
+            HttpSessionInfo si = new HttpSessionInfo();
+            si.setUser(request.getRemoteUser());
+            si.setIp(request.getRemoteAddr());
+            si.setId(s.getId());
+            Calendar creation = Calendar.getInstance();
+            creation.setTimeInMillis(s.getCreationTime());
+            si.setCreation(creation);
+            Calendar lastAccess = Calendar.getInstance();
+            lastAccess.setTimeInMillis(s.getLastAccessedTime());
+            si.setLastAccess(lastAccess);
+
+            if (sessions.putIfAbsent(s.getId(), si) == null) {
+                s.setAttribute("user", request.getRemoteUser());
+                resolveHost(si);
             }
         }
+    }
 
-        if (add) {
-            si.setUser(request.getRemoteUser());
-            si.setIp(request.getRemoteAddr());
+    /**
+     * Set the session host name, looking it up in background if not already known.
+     */
+    private void resolveHost(final HttpSessionInfo si) {
+        String host = hosts.get(si.getIp());
+
+        if (host != null) {
+            si.setHost(host);
+        } else {
+            // Shown until the name is resolved
+            si.setHost(si.getIp());
+
+            try {
+                resolver.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        si.setHost(getHostName(si.getIp()));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Too many pending lookups, the address is kept as host name
+                log.debug("Host name resolution rejected: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reverse DNS lookup, remembering the result.
+     */
+    private String getHostName(String ip) {
+        String host = hosts.get(ip);
 
+        if (host == null) {
             try {
-                InetAddress addr = Address.getByAddress(request.getRemoteAddr());
+                InetAddress addr = Address.getByAddress(ip);
                 String hostName = Address.getHostName(addr);
 
                 if (hostName.endsWith(".")) {
-                    si.setHost(hostName.substring(0, hostName.length() - 1));
+                    host = hostName.substring(0, hostName.length() - 1);
                 } else {
-                    si.setHost(hostName);
+                    host = hostName;
                 }
             } catch (UnknownHostException e) {
-                si.setHost(request.getRemoteHost());
+                host = ip;
             }
 
-            si.setId(s.getId());
-            Calendar creation = Calendar.getInstance();
-            creation.setTimeInMillis(s.getCreationTime());
-            si.setCreation(creation);
-            Calendar lastAccess = Calendar.getInstance();
-            lastAccess.setTimeInMillis(s.getLastAccessedTime());
-            si.setLastAccess(lastAccess);
+            if (hosts.size() >= MAX_HOSTS) {
+                hosts.clear();
+            }
 
-            s.setAttribute("user", request.getRemoteUser());
-            sessions.add(si);
+            hosts.put(ip, host);
         }
+
+        return host;
     }
 
     /**
      * Update session last accessed time
      */
-    public synchronized void update(String id) {
-        for (HttpSessionInfo si : sessions) {
-            if (si.getId().equals(id)) {
-                si.setLastAccess(Calendar.getInstance());
-            }
+    public void update(String id) {
+        HttpSessionInfo si = sessions.get(id);
+
+        if (si != null) {
+            si.setLastAccess(Calendar.getInstance());
         }
     }
 
     /**
      * Remove a session
      */
-    public synchronized void remove(String id) {
-        for (Iterator<HttpSessionInfo> it = sessions.iterator(); it.hasNext();) {
-            HttpSessionInfo si = it.next();
-
-            if (si.getId().equals(id)) {
-                it.remove();
-                break;
-            }
-        }
+    public void remove(String id) {
+        sessions.remove(id);
     }
 
     /**
      * Return a session info
      */
     public HttpSessionInfo getSession(String id) {
-        for (HttpSessionInfo si : sessions) {
-            if (si.getId().equals(id)) {
-                return si;
-            }
-        }
-        return null;
+        return sessions.get(id);
     }
 
     /**
      * Return all active sessions
      */
     public List<HttpSessionInfo> getSessions() {
-        return sessions;
+        return new ArrayList<HttpSessionInfo>(sessions.values());
     }
 }
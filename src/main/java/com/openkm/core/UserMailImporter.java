@@ -22,24 +22,34 @@
 package com.openkm.core;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
 
 import com.openkm.api.OKMAuth;
-import com.openkm.automation.AutomationException;
 import com.openkm.dao.MailAccountDAO;
 import com.openkm.dao.bean.MailAccount;
-import com.openkm.extension.core.ExtensionException;
 import com.openkm.module.db.stuff.DbSessionManager;
 import com.openkm.module.jcr.stuff.JcrSessionManager;
 import com.openkm.principal.PrincipalAdapterException;
+import com.openkm.spring.PrincipalUtils;
 import com.openkm.util.MailUtils;
 
+/**
+ * Import the mail of every user mail account. Users are imported in parallel by a bounded pool of
+ * Config.MAIL_IMPORT_THREADS workers, and the accounts of each user are imported one after another
+ * because they usually share the same destination folders.
+ */
 public class UserMailImporter extends TimerTask {
     private static Logger log = LoggerFactory.getLogger(UserMailImporter.class);
     private static volatile boolean running = false;
@@ -71,69 +81,96 @@ public class UserMailImporter extends TimerTask {
             log.warn("*** User mail importer already running ***");
         } else {
             running = true;
-            exceptionMessages = new ArrayList<String>();
+            exceptionMessages = Collections.synchronizedList(new ArrayList<String>());
             log.info("*** User mail importer activated ***");
+            ExecutorService executor = null;
 
             try {
                 if (Config.SYSTEM_READONLY) {
                     exceptionMessages.add("Warning: System in read-only mode");
                     log.warn("*** System in read-only mode ***");
                 } else {
-                    Collection<String> users = OKMAuth.getInstance().getUsers(token);
-
-                    for (Iterator<String> usrIt = users.iterator(); usrIt.hasNext();) {
-                        String user = usrIt.next();
-                        List<MailAccount> mailAccounts = MailAccountDAO.findByUser(user, true);
-
-                        for (Iterator<MailAccount> maIt = mailAccounts.iterator(); maIt.hasNext();) {
-                            MailAccount ma = maIt.next();
+                    List<String> users = OKMAuth.getInstance().getUsers(token);
+                    List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+                    Authentication auth = PrincipalUtils.getAuthentication();
+                    int workers = Math.max(1, Math.min(Config.MAIL_IMPORT_THREADS, users.size()));
+                    executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r);
+                            t.setName("MailImportThread-" + t.getId());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
 
-                            if (Config.SYSTEM_READONLY) {
-                                exceptionMessages.add("Warning: System in read-only mode");
-                                log.warn("*** System in read-only mode ***");
-                            } else {
-                                String exceptionMessage = MailUtils.importMessages(token, ma);
+                    for (String user : users) {
+                        results.add(executor.submit(new UserImport(token, auth, user)));
+                    }
 
-                                if (exceptionMessage != null) {
-                                    exceptionMessages.add("Id: " + ma.getId() + ", User: " + ma.getUser() + ", Error: " + exceptionMessage);
-                                }
-                            }
+                    for (Future<List<String>> result : results) {
+                        try {
+                            exceptionMessages.addAll(result.get());
+                        } catch (ExecutionException e) {
+                            log.error(e.getCause().getMessage(), e.getCause());
+                            exceptionMessages.add(e.getCause().getMessage());
                         }
                     }
                 }
-            } catch (RepositoryException e) {
-                log.error(e.getMessage(), e);
-                exceptionMessages.add(e.getMessage());
-            } catch (DatabaseException e) {
-                log.error(e.getMessage(), e);
-                exceptionMessages.add(e.getMessage());
-            } catch (PathNotFoundException e) {
-                log.error(e.getMessage(), e);
-                exceptionMessages.add(e.getMessage());
-            } catch (ItemExistsException e) {
-                log.error(e.getMessage(), e);
-                exceptionMessages.add(e.getMessage());
-            } catch (VirusDetectedException e) {
-                log.error(e.getMessage(), e);
-                exceptionMessages.add(e.getMessage());
-            } catch (AccessDeniedException e) {
-                log.error(e.getMessage(), e);
-                exceptionMessages.add(e.getMessage());
             } catch (PrincipalAdapterException e) {
                 log.error(e.getMessage(), e);
                 exceptionMessages.add(e.getMessage());
-            } catch (UserQuotaExceededException e) {
-                log.error(e.getMessage(), e);
-                exceptionMessages.add(e.getMessage());
-            } catch (ExtensionException e) {
-                log.error(e.getMessage(), e);
-                exceptionMessages.add(e.getMessage());
-            } catch (AutomationException e) {
-                log.error(e.getMessage(), e);
+            } catch (InterruptedException e) {
+                log.warn("*** User mail importer interrupted ***");
                 exceptionMessages.add(e.getMessage());
+                Thread.currentThread().interrupt();
             } finally {
+                if (executor != null) {
+                    executor.shutdownNow();
+                }
+
                 running = false;
             }
         }
     }
+
+    /**
+     * Import the mail accounts of a user
+     */
+    private static class UserImport implements Callable<List<String>> {
+        private String token;
+        private Authentication auth;
+        private String user;
+
+        public UserImport(String token, Authentication auth, String user) {
+            this.token = token;
+            this.auth = auth;
+            this.user = user;
+        }
+
+        @Override
+        public List<String> call() throws Exception {
+            List<String> exceptionMessages = new ArrayList<String>();
+            PrincipalUtils.setAuthentication(auth);
+
+            try {
+                for (MailAccount ma : MailAccountDAO.findByUser(user, true)) {
+                    if (Config.SYSTEM_READONLY) {
+                        exceptionMessages.add("Warning: System in read-only mode");
+                        log.warn("*** System in read-only mode ***");
+                    } else {
+                        String exceptionMessage = MailUtils.importMessages(token, ma);
+
+                        if (exceptionMessage != null) {
+                            exceptionMessages.add("Id: " + ma.getId() + ", User: " + ma.getUser() + ", Error: " + exceptionMessage);
+                        }
+                    }
+                }
+            } finally {
+                PrincipalUtils.setAuthentication(null);
+            }
+
+            return exceptionMessages;
+        }
+    }
 }
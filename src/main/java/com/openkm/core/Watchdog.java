@@ -48,25 +48,21 @@ public class Watchdog extends TimerTask {
                 if (Config.REPOSITORY_NATIVE) {
                     DbSessionManager sm = DbSessionManager.getInstance();
 
-                    for (String token : sm.getTokens()) {
+                    for (String token : sm.getExpiredTokens()) {
                         DbSessionInfo si = sm.getInfo(token);
 
-                        if (!Config.SYSTEM_USER.equals(si.getAuth().getName())) {
-                            Calendar expiration = (Calendar) si.getLastAccess().clone();
-                            expiration.add(Calendar.SECOND, Config.SESSION_EXPIRATION);
-                            log.debug(si.getAuth().getName() + ", Expiration: " + expiration.getTime());
+                        if (si != null && !Config.SYSTEM_USER.equals(si.getAuth().getName())) {
+                            log.debug(si.getAuth().getName() + ", Expired from: " + si.getLastAccess().getTime());
 
-                            if (Calendar.getInstance().after(expiration)) {
-                                try {
-                                    // Activity log
-                                    UserActivity.log("system", "SESSION_EXPIRATION", si.getAuth().getName(), null, token + ", IDLE FROM: "
-                                            + si.getLastAccess().getTime());
-                                    OKMAuth.getInstance().logout(token);
-                                } catch (RepositoryException e) {
-                                    log.error(e.getMessage(), e);
-                                } catch (DatabaseException e) {
-                                    log.error(e.getMessage(), e);
-                                }
+                            try {
+                                // Activity log
+                                UserActivity.log("system", "SESSION_EXPIRATION", si.getAuth().getName(), null, token + ", IDLE FROM: "
+                                        + si.getLastAccess().getTime());
+                                OKMAuth.getInstance().logout(token);
+                            } catch (RepositoryException e) {
+                                log.error(e.getMessage(), e);
+                            } catch (DatabaseException e) {
+                                log.error(e.getMessage(), e);
                             }
                         }
                     }
@@ -34,9 +34,11 @@ import org.slf4j.LoggerFactory;
 import com.openkm.core.DatabaseException;
 import com.openkm.dao.bean.Activity;
 import com.openkm.dao.bean.ActivityFilter;
+import com.openkm.dao.bean.DashboardActivity;
 
 public class ActivityDAO {
     private static Logger log = LoggerFactory.getLogger(ActivityDAO.class);
+    private static final int FLUSH_SIZE = 50;
 
     private ActivityDAO() {
     }
@@ -61,6 +63,49 @@ public class ActivityDAO {
         }
     }
 
+    /**
+     * Create activities and dashboard activities in a single transaction. Identifiers are generated by
+     * the database (IDENTITY on HSQL and MySQL), so the inserts are only sent in JDBC batches on
+     * databases using sequences and with hibernate.jdbc.batch.size set.
+     */
+    public static void create(List<Activity> activities, List<DashboardActivity> dashActs) throws DatabaseException {
+        log.debug("create({}, {})", activities.size(), dashActs.size());
+        Session session = null;
+        Transaction tx = null;
+        int count = 0;
+
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            tx = session.beginTransaction();
+
+            for (Activity activity : activities) {
+                session.save(activity);
+
+                if (++count % FLUSH_SIZE == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+
+            for (DashboardActivity dashAct : dashActs) {
+                session.save(dashAct);
+
+                if (++count % FLUSH_SIZE == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+
+            HibernateUtil.commit(tx);
+            log.debug("create: void");
+        } catch (HibernateException e) {
+            HibernateUtil.rollback(tx);
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
     /**
      * Find by filter
      */
@@ -31,6 +31,7 @@ import org.hibernate.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.openkm.core.CronScheduler;
 import com.openkm.core.DatabaseException;
 import com.openkm.dao.bean.CronTab;
 
@@ -53,6 +54,7 @@ public class CronTabDAO {
             tx = session.beginTransaction();
             Long id = (Long) session.save(ct);
             HibernateUtil.commit(tx);
+            CronScheduler.invalidate();
             log.debug("create: {}", id);
             return id;
         } catch (HibernateException e) {
@@ -89,6 +91,7 @@ public class CronTabDAO {
 
             session.update(ct);
             HibernateUtil.commit(tx);
+            CronScheduler.invalidate();
         } catch (HibernateException e) {
             HibernateUtil.rollback(tx);
             throw new DatabaseException(e.getMessage(), e);
@@ -113,6 +116,7 @@ public class CronTabDAO {
             CronTab ct = (CronTab) session.load(CronTab.class, ctId);
             session.delete(ct);
             HibernateUtil.commit(tx);
+            CronScheduler.invalidate();
         } catch (HibernateException e) {
             HibernateUtil.rollback(tx);
             throw new DatabaseException(e.getMessage(), e);
@@ -21,6 +21,7 @@
 
 package com.openkm.dao;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
@@ -199,4 +200,38 @@ public class DashboardDAO {
 
         log.debug("purgeOldVisitedNode: void");
     }
+
+    /**
+     * Delete old visited nodes in a single statement
+     */
+    public static void purgeOldVisitedNodes(List<Dashboard> visitedNodes) throws DatabaseException {
+        log.debug("purgeOldVisitedNodes({})", visitedNodes);
+        String qs = "delete from Dashboard db where db.id in (:ids)";
+        Session session = null;
+        Transaction tx = null;
+
+        if (!visitedNodes.isEmpty()) {
+            List<Long> ids = new ArrayList<Long>(visitedNodes.size());
+
+            for (Dashboard visitedNode : visitedNodes) {
+                ids.add(visitedNode.getId());
+            }
+
+            try {
+                session = HibernateUtil.getSessionFactory().openSession();
+                tx = session.beginTransaction();
+                Query q = session.createQuery(qs);
+                q.setParameterList("ids", ids);
+                q.executeUpdate();
+                HibernateUtil.commit(tx);
+            } catch (HibernateException e) {
+                HibernateUtil.rollback(tx);
+                throw new DatabaseException(e.getMessage(), e);
+            } finally {
+                HibernateUtil.close(session);
+            }
+        }
+
+        log.debug("purgeOldVisitedNodes: void");
+    }
 }
@@ -34,7 +34,12 @@ import java.io.StringReader;
 import java.net.URISyntaxException;
 import java.sql.Blob;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -77,6 +82,8 @@ public class HibernateUtil {
     public static String HBM2DDL_CREATE = "create";
     public static String HBM2DDL_UPDATE = "update";
     public static String HBM2DDL_NONE = "none";
+    private static final int MAX_IN_LIST = 500;
+    private static final String NODE_NAME_CONSTRAINT = "IDX_NODE_BASE_PARNAM";
 
     /**
      * Disable constructor to guaranty a single instance
@@ -126,6 +133,8 @@ public class HibernateUtil {
         cfg.addAnnotatedClass(NodeDocument.class);
         cfg.addAnnotatedClass(NodeDocumentVersion.class);
         cfg.addAnnotatedClass(NodeFolder.class);
+        cfg.addAnnotatedClass(NodeFolderAggregate.class);
+        cfg.addAnnotatedClass(NodeFolderAggregateDelta.class);
         cfg.addAnnotatedClass(NodeMail.class);
         cfg.addAnnotatedClass(NodeNote.class);
         cfg.addAnnotatedClass(NodeLock.class);
@@ -156,6 +165,12 @@ public class HibernateUtil {
                 cfg.setProperty("hibernate.search.default.optimizer.transaction_limit.max", "75");
                 cfg.setProperty("hibernate.worker.execution", "async");
 
+                // JDBC batching affects every DAO, so it is only enabled on demand
+                if (Config.HIBERNATE_JDBC_BATCH_SIZE != null && !Config.HIBERNATE_JDBC_BATCH_SIZE.isEmpty()) {
+                    cfg.setProperty("hibernate.jdbc.batch_size", Config.HIBERNATE_JDBC_BATCH_SIZE);
+                    cfg.setProperty("hibernate.order_updates", "true");
+                }
+
                 // http://relation.to/Bloggers/PostgreSQLAndBLOBs
                 // cfg.setProperty("hibernate.jdbc.use_streams_for_binary", "false");
 
@@ -165,6 +180,7 @@ public class HibernateUtil {
                 log.info("Hibernate 'hibernate.hbm2ddl.auto' = {}", cfg.getProperty("hibernate.hbm2ddl.auto"));
                 log.info("Hibernate 'hibernate.show_sql' = {}", cfg.getProperty("hibernate.show_sql"));
                 log.info("Hibernate 'hibernate.generate_statistics' = {}", cfg.getProperty("hibernate.generate_statistics"));
+                log.info("Hibernate 'hibernate.jdbc.batch_size' = {}", cfg.getProperty("hibernate.jdbc.batch_size"));
                 log.info("Hibernate 'hibernate.search.default.directory_provider' = {}",
                         cfg.getProperty("hibernate.search.default.directory_provider"));
                 log.info("Hibernate 'hibernate.search.default.indexBase' = {}", cfg.getProperty("hibernate.search.default.indexBase"));
@@ -187,6 +203,11 @@ public class HibernateUtil {
                     IOUtils.closeQuietly(is);
                 }
 
+                if (HBM2DDL_UPDATE.equals(hbm2ddl)) {
+                    // Schema update does not add constraints to existing tables
+                    addNodeNameConstraint();
+                }
+
                 if (HBM2DDL_CREATE.equals(hbm2ddl) || HBM2DDL_UPDATE.equals(hbm2ddl)) {
                     // Create or update translations
                     for (String res : ConfigUtils.getResources("i18n")) {
@@ -304,6 +325,20 @@ public class HibernateUtil {
         }
     }
 
+    /**
+     * Split values in parts small enough to be used as an IN-list query parameter
+     */
+    public static <T> List<List<T>> partition(Collection<T> values) {
+        List<T> all = new ArrayList<T>(values);
+        List<List<T>> ret = new ArrayList<List<T>>();
+
+        for (int i = 0; i < all.size(); i += MAX_IN_LIST) {
+            ret.add(all.subList(i, Math.min(i + MAX_IN_LIST, all.size())));
+        }
+
+        return ret;
+    }
+
     /**
      * Rollback transaction
      */
@@ -355,6 +390,76 @@ public class HibernateUtil {
         return null;
     }
 
+    /**
+     * Add the node name unique constraint to a database created before it existed. It is not added while
+     * there are nodes with the same name in the same folder, which have to be renamed first.
+     */
+    private static void addNodeNameConstraint() {
+        Session session = null;
+        Transaction tx = null;
+
+        try {
+            session = sessionFactory.openSession();
+            tx = session.beginTransaction();
+
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection con) throws SQLException {
+                    DatabaseMetaData md = con.getMetaData();
+
+                    for (String table : new String[] { "OKM_NODE_BASE", "okm_node_base" }) {
+                        ResultSet rs = md.getIndexInfo(null, null, table, true, false);
+
+                        try {
+                            while (rs.next()) {
+                                String index = rs.getString("INDEX_NAME");
+
+                                // Some databases name the backing index after the constraint
+                                if (index != null && index.toUpperCase().contains(NODE_NAME_CONSTRAINT)) {
+                                    return;
+                                }
+                            }
+                        } finally {
+                            rs.close();
+                        }
+                    }
+
+                    Statement stmt = con.createStatement();
+
+                    try {
+                        ResultSet rs = stmt.executeQuery("SELECT NBS_PARENT, NBS_NAME FROM OKM_NODE_BASE "
+                                + "GROUP BY NBS_PARENT, NBS_NAME HAVING COUNT(*) > 1");
+                        int duplicates = 0;
+
+                        while (rs.next()) {
+                            log.error("Duplicated node name '{}' in {}", rs.getString(2), rs.getString(1));
+                            duplicates++;
+                        }
+
+                        rs.close();
+
+                        if (duplicates > 0) {
+                            log.error("Constraint {} not added because of {} duplicated node names", NODE_NAME_CONSTRAINT, duplicates);
+                        } else {
+                            log.info("Adding constraint {}", NODE_NAME_CONSTRAINT);
+                            stmt.executeUpdate("ALTER TABLE OKM_NODE_BASE ADD CONSTRAINT " + NODE_NAME_CONSTRAINT
+                                    + " UNIQUE (NBS_PARENT, NBS_NAME)");
+                        }
+                    } finally {
+                        stmt.close();
+                    }
+                }
+            });
+
+            commit(tx);
+        } catch (Exception e) {
+            rollback(tx);
+            log.error(e.getMessage(), e);
+        } finally {
+            close(session);
+        }
+    }
+
     /**
      * Load specific database import
      */
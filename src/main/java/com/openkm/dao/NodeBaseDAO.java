@@ -21,6 +21,8 @@
 
 package com.openkm.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -39,6 +41,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.openkm.bean.Document;
+import com.openkm.cache.FolderListing;
+import com.openkm.cache.KeywordIndex;
+import com.openkm.cache.NodePathCache;
+import com.openkm.cache.PermissionCache;
 import com.openkm.bean.ExtendedAttributes;
 import com.openkm.bean.Folder;
 import com.openkm.bean.Mail;
@@ -52,6 +58,7 @@ import com.openkm.core.RepositoryException;
 import com.openkm.dao.bean.NodeBase;
 import com.openkm.dao.bean.NodeDocument;
 import com.openkm.dao.bean.NodeFolder;
+import com.openkm.dao.bean.NodeFolderAggregate;
 import com.openkm.dao.bean.NodeMail;
 import com.openkm.dao.bean.NodeNote;
 import com.openkm.dao.bean.NodeProperty;
@@ -179,9 +186,16 @@ public class NodeBaseDAO {
             return "/";
         }
 
+        String path = NodePathCache.getPath(uuid);
+
+        if (path != null) {
+            log.debug("calculatePathFromUuid: {}", path);
+            return path;
+        }
+
         try {
             session = HibernateUtil.getSessionFactory().openSession();
-            String path = getPathFromUuid(session, uuid);
+            path = resolvePathFromUuid(session, uuid);
             log.debug("calculatePathFromUuid: {}", path);
             return path;
         } catch (HibernateException e) {
@@ -196,6 +210,25 @@ public class NodeBaseDAO {
      */
     private String calculatePathFromUuid(Session session, String uuid) throws PathNotFoundException, HibernateException {
         log.debug("calculatePathFromUuid({}, {})", session, uuid);
+        String path = NodePathCache.getPath(uuid);
+
+        if (path == null) {
+            path = resolvePathFromUuid(session, uuid);
+        }
+
+        log.debug("calculatePathFromUuid: {}", path);
+        return path;
+    }
+
+    /**
+     * Walk up the node ancestors until the root or a cached ancestor is found. The path of
+     * every visited node is cached, so the next lookup in the same branch is a single get.
+     */
+    private String resolvePathFromUuid(Session session, String uuid) throws PathNotFoundException, HibernateException {
+        long generation = NodePathCache.getGeneration();
+        List<String> visited = new ArrayList<String>();
+        List<Integer> suffixes = new ArrayList<Integer>();
+        boolean consistent = true;
         String childUuid = null;
         String path = "";
 
@@ -205,18 +238,33 @@ public class NodeBaseDAO {
             if (node == null) {
                 throw new PathNotFoundException(uuid);
             } else {
+                visited.add(uuid);
+                suffixes.add(path.length());
                 path = "/".concat(node.getName()).concat(path);
                 childUuid = uuid;
                 uuid = node.getParent();
 
                 if (uuid.equals(childUuid)) {
                     log.warn("*** Node is its own parent: {} -> {} ***", uuid, path);
+                    consistent = false;
+                    break;
+                }
+
+                String parentPath = NodePathCache.peekPath(uuid);
+
+                if (parentPath != null) {
+                    path = parentPath.concat(path);
                     break;
                 }
             }
         } while (!Config.ROOT_NODE_UUID.equals(uuid));
 
-        log.debug("calculatePathFromUuid: {}", path);
+        if (consistent) {
+            for (int i = 0; i < visited.size(); i++) {
+                NodePathCache.put(visited.get(i), path.substring(0, path.length() - suffixes.get(i)), generation);
+            }
+        }
+
         return path;
     }
 
@@ -226,10 +274,16 @@ public class NodeBaseDAO {
     private String calculateUuidFromPath(String path) throws PathNotFoundException, DatabaseException {
         log.debug("calculateUuidFromPath({})", path);
         Session session = null;
+        String uuid = NodePathCache.getUuid(normalizePath(path));
+
+        if (uuid != null) {
+            log.debug("calculateUuidFromPath: {}", uuid);
+            return uuid;
+        }
 
         try {
             session = HibernateUtil.getSessionFactory().openSession();
-            String uuid = calculateUuidFromPath(session, path);
+            uuid = resolveUuidFromPath(session, path);
             log.debug("calculateUuidFromPath: {}", uuid);
             return uuid;
         } catch (HibernateException e) {
@@ -244,10 +298,65 @@ public class NodeBaseDAO {
      */
     private String calculateUuidFromPath(Session session, String path) throws PathNotFoundException, HibernateException {
         log.debug("calculateUuidFromPath({}, {})", session, path);
+        String uuid = NodePathCache.getUuid(normalizePath(path));
+
+        if (uuid == null) {
+            uuid = resolveUuidFromPath(session, path);
+        }
+
+        log.debug("calculateUuidFromPath: {}", uuid);
+        return uuid;
+    }
+
+    /**
+     * Resolve path segments from the deepest cached ancestor, caching every resolved segment.
+     */
+    private String resolveUuidFromPath(Session session, String path) throws PathNotFoundException, HibernateException {
         String qs = "select nb.uuid from NodeBase nb where nb.parent=:parent and nb.name=:name";
-        Query q = session.createQuery(qs);
+        long generation = NodePathCache.getGeneration();
+        List<String> names = getPathNames(path);
+        List<String> prefixes = new ArrayList<String>();
         String uuid = Config.ROOT_NODE_UUID;
-        String name = "";
+        StringBuilder prefix = new StringBuilder();
+        int start = 0;
+
+        for (String name : names) {
+            prefix.append("/").append(name);
+            prefixes.add(prefix.toString());
+        }
+
+        for (int i = prefixes.size() - 1; i >= 0; i--) {
+            String cached = NodePathCache.peekUuid(prefixes.get(i));
+
+            if (cached != null) {
+                uuid = cached;
+                start = i + 1;
+                break;
+            }
+        }
+
+        Query q = session.createQuery(qs);
+
+        for (int i = start; i < names.size(); i++) {
+            q.setString("name", names.get(i));
+            q.setString("parent", uuid);
+            uuid = (String) q.setMaxResults(1).uniqueResult();
+
+            if (uuid == null) {
+                throw new PathNotFoundException(path);
+            }
+
+            NodePathCache.put(uuid, prefixes.get(i), generation);
+        }
+
+        return uuid;
+    }
+
+    /**
+     * Split a path in node names as stored in database
+     */
+    private List<String> getPathNames(String path) throws PathNotFoundException {
+        List<String> names = new ArrayList<String>();
 
         if (path != null) {
             if (!path.isEmpty()) {
@@ -255,14 +364,8 @@ public class NodeBaseDAO {
                 path = PathUtils.encodeEntities(path);
 
                 for (StringTokenizer st = new StringTokenizer(path, "/"); st.hasMoreTokens();) {
-                    name = PathUtils.cleanup(st.nextToken());
-                    q.setString("name", name.length() > NodeBase.MAX_NAME ? name.substring(0, NodeBase.MAX_NAME) : name);
-                    q.setString("parent", uuid);
-                    uuid = (String) q.setMaxResults(1).uniqueResult();
-
-                    if (uuid == null) {
-                        throw new PathNotFoundException(path);
-                    }
+                    String name = PathUtils.cleanup(st.nextToken());
+                    names.add(name.length() > NodeBase.MAX_NAME ? name.substring(0, NodeBase.MAX_NAME) : name);
                 }
             } else {
                 throw new PathNotFoundException("Invalid path");
@@ -271,8 +374,20 @@ public class NodeBaseDAO {
             throw new PathNotFoundException("Invalid path");
         }
 
-        log.debug("calculateUuidFromPath: {}", uuid);
-        return uuid;
+        return names;
+    }
+
+    /**
+     * Normalize a path the same way it is resolved, to be used as cache key
+     */
+    private String normalizePath(String path) throws PathNotFoundException {
+        StringBuilder sb = new StringBuilder();
+
+        for (String name : getPathNames(path)) {
+            sb.append("/").append(name);
+        }
+
+        return sb.toString();
     }
 
     /**
@@ -421,6 +536,8 @@ public class NodeBaseDAO {
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+            PermissionCache.invalidate(uuid);
+            FolderListing.clear();
         }
     }
 
@@ -521,6 +638,8 @@ public class NodeBaseDAO {
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+            PermissionCache.invalidate(uuid);
+            FolderListing.clear();
         }
     }
 
@@ -663,6 +782,8 @@ public class NodeBaseDAO {
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+            PermissionCache.invalidate(uuid);
+            FolderListing.clear();
         }
     }
 
@@ -763,6 +884,8 @@ public class NodeBaseDAO {
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+            PermissionCache.invalidate(uuid);
+            FolderListing.clear();
         }
     }
 
@@ -868,6 +991,8 @@ public class NodeBaseDAO {
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+            PermissionCache.invalidate(uuid);
+            FolderListing.clear();
         }
     }
 
@@ -1090,6 +1215,76 @@ public class NodeBaseDAO {
         }
     }
 
+    /**
+     * Find every node keyword, as (uuid, keyword) pairs
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object[]> findAllKeywords() throws DatabaseException {
+        log.debug("findAllKeywords()");
+        String qs = "select nb.uuid, kw from NodeBase nb join nb.keywords kw";
+        Session session = null;
+
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            Query q = session.createQuery(qs).setReadOnly(true);
+            List<Object[]> ret = q.list();
+            log.debug("findAllKeywords: {}", ret.size());
+            return ret;
+        } catch (HibernateException e) {
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
+    /**
+     * Get the keywords of a node, empty if the node does not exist
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> findKeywords(String uuid) throws DatabaseException {
+        log.debug("findKeywords({})", uuid);
+        String qs = "select kw from NodeBase nb join nb.keywords kw where nb.uuid=:uuid";
+        Session session = null;
+
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            Query q = session.createQuery(qs).setReadOnly(true);
+            q.setString("uuid", uuid);
+            Set<String> ret = new HashSet<String>(q.list());
+            log.debug("findKeywords: {}", ret);
+            return ret;
+        } catch (HibernateException e) {
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
+    /**
+     * Get the nodes which can be read by the current user
+     */
+    public Set<String> findReadable(Collection<String> uuids) throws DatabaseException {
+        log.debug("findReadable({})", uuids.size());
+        Set<String> ret = new HashSet<String>();
+        Session session = null;
+
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+
+            for (List<String> part : HibernateUtil.partition(uuids)) {
+                Map<String, NodeBase> nodes = getNodesPermissions(session, part);
+                ret.addAll(SecurityHelper.getAccessManager().isGranted(nodes.values(), Permission.READ));
+            }
+
+            log.debug("findReadable: {}", ret.size());
+            return ret;
+        } catch (HibernateException e) {
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
     /**
      * Test for category in use
      */
@@ -1142,6 +1337,7 @@ public class NodeBaseDAO {
             }
 
             session.update(node);
+            KeywordIndex.update(session, uuid);
             HibernateUtil.commit(tx);
             log.debug("addKeyword: void");
         } catch (PathNotFoundException e) {
@@ -1180,6 +1376,7 @@ public class NodeBaseDAO {
 
             node.getKeywords().remove(keyword);
             session.update(node);
+            KeywordIndex.update(session, uuid);
             HibernateUtil.commit(tx);
             log.debug("removeCategory: void");
         } catch (PathNotFoundException e) {
@@ -1529,6 +1726,52 @@ public class NodeBaseDAO {
         return nBase;
     }
 
+    /**
+     * Get several nodes with only uuid, parent and permissions. As in getParentNodePermissions(Session, String),
+     * nodes without user or role permissions are not returned.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, NodeBase> getNodesPermissions(Session session, Collection<String> uuids) throws HibernateException {
+        log.debug("getNodesPermissions({}, {})", session, uuids);
+        String qsUsers = "select nb.uuid, nb.parent, index(userPermissions), userPermissions "
+                + "from NodeBase nb join nb.userPermissions userPermissions where nb.uuid in (:uuids)";
+        String qsRoles = "select nb.uuid, index(rolePermissions), rolePermissions "
+                + "from NodeBase nb join nb.rolePermissions rolePermissions where nb.uuid in (:uuids)";
+        Map<String, NodeBase> nodes = new HashMap<String, NodeBase>();
+        Map<String, NodeBase> ret = new HashMap<String, NodeBase>();
+
+        Query qUsers = session.createQuery(qsUsers);
+        qUsers.setParameterList("uuids", uuids);
+
+        for (Object[] tupla : (List<Object[]>) qUsers.list()) {
+            NodeBase nBase = nodes.get((String) tupla[0]);
+
+            if (nBase == null) {
+                nBase = new NodeBase();
+                nBase.setUuid((String) tupla[0]);
+                nBase.setParent((String) tupla[1]);
+                nodes.put(nBase.getUuid(), nBase);
+            }
+
+            nBase.getUserPermissions().put((String) tupla[2], (Integer) tupla[3]);
+        }
+
+        Query qRoles = session.createQuery(qsRoles);
+        qRoles.setParameterList("uuids", uuids);
+
+        for (Object[] tupla : (List<Object[]>) qRoles.list()) {
+            NodeBase nBase = nodes.get((String) tupla[0]);
+
+            if (nBase != null) {
+                nBase.getRolePermissions().put((String) tupla[1], (Integer) tupla[2]);
+                ret.put(nBase.getUuid(), nBase);
+            }
+        }
+
+        log.debug("getNodesPermissions: {}", ret);
+        return ret;
+    }
+
     /**
      * Get result node count.
      * 
@@ -1645,7 +1888,7 @@ public class NodeBaseDAO {
             tx = session.beginTransaction();
 
             String uuid = getUuidFromPath(path);
-            total = getSubtreeCountHelper(session, nodeType, uuid, depth, 1);
+            total = getSubtreeCountHelper(session, nodeType, uuid, depth);
 
             HibernateUtil.commit(tx);
             log.trace("getSubtreeCount.Path: {}, Time: {}", path, System.currentTimeMillis() - begin);
@@ -1666,31 +1909,30 @@ public class NodeBaseDAO {
     }
 
     /**
-     * Helper method.
+     * Helper method. Counts the nodes from the given depth using the folder subtree counters.
      */
     @SuppressWarnings("unchecked")
-    private long getSubtreeCountHelper(Session session, String nodeType, String parentUuid, int depth, int level)
-            throws HibernateException, DatabaseException {
-        log.debug("getSubtreeCountHelper({}, {}, {},  {})", new Object[] { nodeType, parentUuid, depth, level });
-        String qs = "from NodeBase n where n.parent=:parent";
-        Query q = session.createQuery(qs);
-        q.setString("parent", parentUuid);
-        List<NodeBase> nodes = q.list();
+    private long getSubtreeCountHelper(Session session, String nodeType, String parentUuid, int depth) throws HibernateException {
+        log.debug("getSubtreeCountHelper({}, {}, {})", new Object[] { nodeType, parentUuid, depth });
         long total = 0;
 
-        for (NodeBase nBase : nodes) {
-            if (nBase instanceof NodeFolder) {
-                total += getSubtreeCountHelper(session, nodeType, nBase.getUuid(), depth, level + 1);
+        if (depth <= 1) {
+            NodeFolderAggregate nfa = NodeFolderAggregateDAO.getInstance().get(session, parentUuid);
 
-                if (NodeFolder.class.getSimpleName().equals(nodeType)) {
-                    if (level >= depth) {
-                        total += 1;
-                    }
-                }
-            } else if (NodeDocument.class.getSimpleName().equals(nodeType) && nBase instanceof NodeDocument) {
-                if (level >= depth) {
-                    total += 1;
-                }
+            if (NodeFolder.class.getSimpleName().equals(nodeType)) {
+                total = nfa.getFolders();
+            } else if (NodeDocument.class.getSimpleName().equals(nodeType)) {
+                total = nfa.getDocuments();
+            } else if (NodeMail.class.getSimpleName().equals(nodeType)) {
+                total = nfa.getMails();
+            }
+        } else {
+            String qs = "select nf.uuid from NodeFolder nf where nf.parent=:parent";
+            Query q = session.createQuery(qs);
+            q.setString("parent", parentUuid);
+
+            for (String fldUuid : (List<String>) q.list()) {
+                total += getSubtreeCountHelper(session, nodeType, fldUuid, depth - 1);
             }
         }
 
@@ -1712,7 +1954,7 @@ public class NodeBaseDAO {
             tx = session.beginTransaction();
 
             String uuid = getUuidFromPath(path);
-            long count = subTreeHasMoreThanNodesHelper(session, uuid, maxNodes, 0);
+            long count = NodeFolderAggregateDAO.getInstance().get(session, uuid).getNodes();
             ret = count > maxNodes;
 
             HibernateUtil.commit(tx);
@@ -1733,44 +1975,6 @@ public class NodeBaseDAO {
         }
     }
 
-    /**
-     * Helper method.
-     */
-    @SuppressWarnings("unchecked")
-    private long subTreeHasMoreThanNodesHelper(Session session, String parentUuid, long maxNodes, long curNodes) throws HibernateException,
-            DatabaseException {
-        log.debug("getSubtreeCountHelper({}, {}, {})", new Object[] { parentUuid, maxNodes, curNodes });
-        String qs = "from NodeBase n where n.parent=:parent";
-        Query q = session.createQuery(qs);
-        q.setString("parent", parentUuid);
-        List<NodeBase> nodes = q.list();
-        long total = 0;
-
-        for (NodeBase nBase : nodes) {
-            if (nBase instanceof NodeDocument) {
-                total += 1;
-
-                if (total + curNodes > maxNodes) {
-                    return total;
-                }
-            } else if (nBase instanceof NodeMail) {
-                total += 1;
-
-                if (total + curNodes > maxNodes) {
-                    return total;
-                }
-            } else if (nBase instanceof NodeFolder) {
-                total += subTreeHasMoreThanNodesHelper(session, nBase.getUuid(), maxNodes, total + curNodes + 1) + 1;
-
-                if (total + curNodes > maxNodes) {
-                    return total;
-                }
-            }
-        }
-
-        return total;
-    }
-
     /**
      * Check for same node name in same parent
      * 
@@ -2221,6 +2425,7 @@ public class NodeBaseDAO {
                 if (extAttr.isKeywords()) {
                     Set<String> keywords = srcNode.getKeywords();
                     dstNode.setKeywords(CloneUtils.clone(keywords));
+                    KeywordIndex.update(session, dstUuid);
                 }
 
                 if (extAttr.isCategories()) {
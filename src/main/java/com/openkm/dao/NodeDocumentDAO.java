@@ -26,12 +26,16 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -41,6 +45,7 @@ import org.hibernate.Query;
 import org.hibernate.SQLQuery;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +55,9 @@ import com.cybozu.labs.langdetect.LangDetectException;
 import com.openkm.automation.AutomationManager;
 import com.openkm.automation.AutomationUtils;
 import com.openkm.bean.Permission;
+import com.openkm.cache.FolderListing;
+import com.openkm.cache.KeywordIndex;
+import com.openkm.cache.NodePathCache;
 import com.openkm.core.AccessDeniedException;
 import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
@@ -62,7 +70,9 @@ import com.openkm.dao.bean.NodeDocument;
 import com.openkm.dao.bean.NodeDocumentVersion;
 import com.openkm.dao.bean.NodeFolder;
 import com.openkm.dao.bean.NodeLock;
+import com.openkm.extractor.ExtractionTimeoutException;
 import com.openkm.extractor.RegisteredExtractors;
+import com.openkm.extractor.TextExtractorQueue;
 import com.openkm.extractor.TextExtractorWork;
 import com.openkm.module.common.CommonGeneralModule;
 import com.openkm.module.db.stuff.FsDataStore;
@@ -80,6 +90,18 @@ public class NodeDocumentDAO {
     private static Logger log = LoggerFactory.getLogger(NodeDocumentDAO.class);
     private static NodeDocumentDAO single = new NodeDocumentDAO();
 
+    // Matches the default hibernate.jdbc.batch.size, so each flush is sent as a single JDBC batch
+    private static final int SAVE_TEXT_FLUSH = 20;
+
+    // Creations, renames and moves are serialized by node and destination (parent UUID and name) instead of globally
+    private static final ReentrantLock[] STRIPE_LOCKS = new ReentrantLock[64];
+
+    static {
+        for (int i = 0; i < STRIPE_LOCKS.length; i++) {
+            STRIPE_LOCKS[i] = new ReentrantLock();
+        }
+    }
+
     private NodeDocumentDAO() {
     }
 
@@ -90,14 +112,31 @@ public class NodeDocumentDAO {
     /**
      * Create document and first version
      */
-    public synchronized NodeDocumentVersion create(NodeDocument nDoc, InputStream is, long size) throws PathNotFoundException,
+    public NodeDocumentVersion create(NodeDocument nDoc, InputStream is, long size) throws PathNotFoundException,
             AccessDeniedException, ItemExistsException, DatabaseException, IOException {
         log.debug("create({}, {}, {})", new Object[] { nDoc, is, size });
         Session session = null;
         Transaction tx = null;
         NodeDocumentVersion newDocVer = new NodeDocumentVersion();
+        boolean created = false;
+        int[] stripes = null;
+
+        // Create first document version
+        VersionNumerationAdapter verNumAdapter = VersionNumerationFactory.getVersionNumerationAdapter();
+        newDocVer.setUuid(UUID.randomUUID().toString());
+        newDocVer.setParent(nDoc.getUuid());
+        newDocVer.setName(verNumAdapter.getInitialVersionNumber());
+        newDocVer.setAuthor(nDoc.getAuthor());
+        newDocVer.setCurrent(true);
+        newDocVer.setCreated(nDoc.getCreated());
+        newDocVer.setSize(size);
+        newDocVer.setMimeType(nDoc.getMimeType());
+
+        // Persist file in datastore before taking any lock, so a slow upload does not block anyone
+        FsDataStore.persist(newDocVer, is);
 
         try {
+            stripes = lockStripes(nDoc.getParent() + "/" + nDoc.getName());
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
 
@@ -109,23 +148,19 @@ public class NodeDocumentDAO {
             // Check for same document name in same folder
             NodeBaseDAO.getInstance().checkItemExistence(session, nDoc.getParent(), nDoc.getName());
 
-            // Create first document version
-            VersionNumerationAdapter verNumAdapter = VersionNumerationFactory.getVersionNumerationAdapter();
-            newDocVer.setUuid(UUID.randomUUID().toString());
-            newDocVer.setParent(nDoc.getUuid());
-            newDocVer.setName(verNumAdapter.getInitialVersionNumber());
-            newDocVer.setAuthor(nDoc.getAuthor());
-            newDocVer.setCurrent(true);
-            newDocVer.setCreated(nDoc.getCreated());
-            newDocVer.setSize(size);
-            newDocVer.setMimeType(nDoc.getMimeType());
-
-            // Persist file in datastore
-            FsDataStore.persist(newDocVer, is);
-
             session.save(nDoc);
             session.save(newDocVer);
+
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().add(session, nDoc.getParent(), NodeFolderAggregateDAO.getInstance().getContribution(session, nDoc));
+            KeywordIndex.update(session, nDoc.getUuid());
+
             HibernateUtil.commit(tx);
+            created = true;
+            FolderListing.invalidate(nDoc.getParent());
+
+            // Text extraction
+            TextExtractorQueue.enqueue(nDoc.getUuid(), newDocVer.getUuid());
 
             log.debug("create: {}", newDocVer);
             return newDocVer;
@@ -138,14 +173,28 @@ public class NodeDocumentDAO {
         } catch (ItemExistsException e) {
             HibernateUtil.rollback(tx);
             throw e;
+        } catch (DatabaseException e) {
+            HibernateUtil.rollback(tx);
+            throw e;
+        } catch (ConstraintViolationException e) {
+            // Same name created concurrently
+            HibernateUtil.rollback(tx);
+            throw new ItemExistsException(nDoc.getName(), e);
         } catch (HibernateException e) {
             HibernateUtil.rollback(tx);
-
-            // What happen when create fails? This datastore file should be deleted!
-            FsDataStore.delete(newDocVer.getUuid());
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+            unlockStripes(stripes);
+
+            // What happen when create fails? This datastore file should be deleted!
+            if (!created && newDocVer.getContent() == null) {
+                try {
+                    FsDataStore.delete(newDocVer);
+                } catch (IOException e) {
+                    log.warn("Unable to delete datastore file of version {}: {}", newDocVer.getUuid(), e.getMessage());
+                }
+            }
         }
     }
 
@@ -490,15 +539,20 @@ public class NodeDocumentDAO {
     /**
      * Rename document
      */
-    public synchronized NodeDocument rename(String uuid, String newName) throws PathNotFoundException, AccessDeniedException,
+    public NodeDocument rename(String uuid, String newName) throws PathNotFoundException, AccessDeniedException,
             ItemExistsException, LockException, DatabaseException {
         log.debug("rename({}, {})", uuid, newName);
         Session session = null;
         Transaction tx = null;
+        String oldPath = null;
+        int[] stripes = null;
 
         try {
+            String parentUuid = NodeBaseDAO.getInstance().getParentUuid(uuid);
+            stripes = lockStripes(uuid, parentUuid + "/" + newName);
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
+            oldPath = NodeBaseDAO.getInstance().getPathFromUuid(session, uuid);
 
             // Security Check
             NodeBase parentNode = NodeBaseDAO.getInstance().getParentNode(session, uuid);
@@ -523,6 +577,7 @@ public class NodeDocumentDAO {
             session.update(nDoc);
             initialize(nDoc, false);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nDoc.getParent());
             log.debug("rename: {}", nDoc);
             return nDoc;
         } catch (PathNotFoundException e) {
@@ -540,26 +595,40 @@ public class NodeDocumentDAO {
         } catch (DatabaseException e) {
             HibernateUtil.rollback(tx);
             throw e;
+        } catch (ConstraintViolationException e) {
+            // Same name created concurrently
+            HibernateUtil.rollback(tx);
+            throw new ItemExistsException(newName, e);
         } catch (HibernateException e) {
             HibernateUtil.rollback(tx);
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+            unlockStripes(stripes);
+
+            if (oldPath != null) {
+                NodePathCache.invalidate(oldPath);
+            }
         }
     }
 
     /**
      * Move document
      */
-    public synchronized void move(String uuid, String dstUuid) throws PathNotFoundException, AccessDeniedException, ItemExistsException,
+    public void move(String uuid, String dstUuid) throws PathNotFoundException, AccessDeniedException, ItemExistsException,
             LockException, DatabaseException {
         log.debug("move({}, {})", uuid, dstUuid);
         Session session = null;
         Transaction tx = null;
+        String oldPath = null;
+        int[] stripes = null;
 
         try {
+            String path = NodeBaseDAO.getInstance().getPathFromUuid(uuid);
+            stripes = lockStripes(uuid, dstUuid + "/" + PathUtils.getName(path));
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
+            oldPath = NodeBaseDAO.getInstance().getPathFromUuid(session, uuid);
 
             // Security Check
             NodeFolder nDstFld = (NodeFolder) session.load(NodeFolder.class, dstUuid);
@@ -580,6 +649,10 @@ public class NodeDocumentDAO {
                 nDoc.setContext(nDstFld.getContext());
             }
 
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().move(session, nDoc, dstUuid);
+
+            String srcUuid = nDoc.getParent();
             nDoc.setParent(dstUuid);
 
             if (Config.STORE_NODE_PATH) {
@@ -588,6 +661,7 @@ public class NodeDocumentDAO {
 
             session.update(nDoc);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(srcUuid, dstUuid);
             log.debug("move: void");
         } catch (PathNotFoundException e) {
             HibernateUtil.rollback(tx);
@@ -604,11 +678,20 @@ public class NodeDocumentDAO {
         } catch (DatabaseException e) {
             HibernateUtil.rollback(tx);
             throw e;
+        } catch (ConstraintViolationException e) {
+            // Same name created concurrently
+            HibernateUtil.rollback(tx);
+            throw new ItemExistsException(dstUuid, e);
         } catch (HibernateException e) {
             HibernateUtil.rollback(tx);
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+            unlockStripes(stripes);
+
+            if (oldPath != null) {
+                NodePathCache.invalidate(oldPath);
+            }
         }
     }
 
@@ -620,10 +703,12 @@ public class NodeDocumentDAO {
         log.debug("delete({}, {}, {})", new Object[] { name, uuid, trashUuid });
         Session session = null;
         Transaction tx = null;
+        String oldPath = null;
 
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
+            oldPath = NodeBaseDAO.getInstance().getPathFromUuid(session, uuid);
 
             // Security Check
             NodeFolder nTrashFld = (NodeFolder) session.load(NodeFolder.class, trashUuid);
@@ -647,7 +732,11 @@ public class NodeDocumentDAO {
                 testName = fileName + " (" + i + ")." + fileExtension;
             }
 
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().move(session, nDoc, trashUuid);
+
             nDoc.setContext(nTrashFld.getContext());
+            String srcUuid = nDoc.getParent();
             nDoc.setParent(trashUuid);
             nDoc.setName(testName);
 
@@ -657,6 +746,7 @@ public class NodeDocumentDAO {
 
             session.update(nDoc);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(srcUuid, trashUuid);
             log.debug("delete: void");
         } catch (PathNotFoundException e) {
             HibernateUtil.rollback(tx);
@@ -675,6 +765,10 @@ public class NodeDocumentDAO {
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+
+            if (oldPath != null) {
+                NodePathCache.invalidate(oldPath);
+            }
         }
     }
 
@@ -699,6 +793,7 @@ public class NodeDocumentDAO {
             lock(user, nDoc);
             session.update(nDoc);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nDoc.getParent());
             log.debug("checkout: void");
         } catch (PathNotFoundException e) {
             HibernateUtil.rollback(tx);
@@ -742,6 +837,7 @@ public class NodeDocumentDAO {
             unlock(user, nDoc, force);
             session.update(nDoc);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nDoc.getParent());
             log.debug("cancelCheckout: void");
         } catch (PathNotFoundException e) {
             HibernateUtil.rollback(tx);
@@ -796,13 +892,20 @@ public class NodeDocumentDAO {
         log.debug("purge({})", uuid);
         Session session = null;
         Transaction tx = null;
+        String oldPath = null;
 
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
+            oldPath = NodeBaseDAO.getInstance().getPathFromUuid(session, uuid);
             NodeDocument nDoc = (NodeDocument) session.load(NodeDocument.class, uuid);
+
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().subtract(session, nDoc.getParent(), NodeFolderAggregateDAO.getInstance().getContribution(session, nDoc));
+
             purgeHelper(session, nDoc);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nDoc.getParent());
             log.debug("purge: void");
         } catch (PathNotFoundException e) {
             HibernateUtil.rollback(tx);
@@ -824,6 +927,10 @@ public class NodeDocumentDAO {
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+
+            if (oldPath != null) {
+                NodePathCache.invalidate(oldPath);
+            }
         }
     }
 
@@ -879,6 +986,7 @@ public class NodeDocumentDAO {
 
         // Delete the node itself
         session.delete(nDocument);
+        KeywordIndex.remove(session, nDocument.getUuid());
 
         // Activity log
         UserActivity.log(user, "PURGE_DOCUMENT", nDocument.getUuid(), path, null);
@@ -904,6 +1012,7 @@ public class NodeDocumentDAO {
             lock(user, nDoc);
             session.update(nDoc);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nDoc.getParent());
             log.debug("lock: {}", nDoc.getLock());
             return nDoc.getLock();
         } catch (LockException e) {
@@ -962,6 +1071,7 @@ public class NodeDocumentDAO {
             unlock(user, nDoc, force);
             session.update(nDoc);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nDoc.getParent());
             log.debug("unlock: void");
         } catch (LockException e) {
             HibernateUtil.rollback(tx);
@@ -1099,7 +1209,7 @@ public class NodeDocumentDAO {
             tx = session.beginTransaction();
 
             String uuid = NodeBaseDAO.getInstance().getUuidFromPath(path);
-            total = getSubtreeSizeHelper(session, uuid);
+            total = NodeFolderAggregateDAO.getInstance().get(session, uuid).getSize();
 
             HibernateUtil.commit(tx);
             log.trace("getSubtreeSize.Path: {}, Time: {}", path, System.currentTimeMillis() - begin);
@@ -1116,36 +1226,12 @@ public class NodeDocumentDAO {
         }
     }
 
-    /**
-     * Helper method.
-     */
-    @SuppressWarnings("unchecked")
-    private long getSubtreeSizeHelper(Session session, String parentUuid) throws HibernateException, DatabaseException {
-        log.debug("getSubtreeSizeHelper({})", new Object[] { parentUuid });
-        String qs = "from NodeBase n where n.parent=:parent";
-        Query q = session.createQuery(qs);
-        q.setString("parent", parentUuid);
-        List<NodeBase> nodes = q.list();
-        long total = 0;
-
-        for (NodeBase nBase : nodes) {
-            if (nBase instanceof NodeFolder) {
-                total += getSubtreeSizeHelper(session, nBase.getUuid());
-            } else if (nBase instanceof NodeDocument) {
-                NodeDocumentVersion nDocVer = NodeDocumentVersionDAO.getInstance().findCurrentVersion(session, nBase.getUuid());
-                total += nDocVer.getSize();
-            }
-        }
-
-        return total;
-    }
-
     /**
      * Clear pending extraction queue
      */
     public int resetAllPendingExtractionFlags() throws DatabaseException {
         log.debug("resetAllPendingExtractionFlags()");
-        String qs = "update NodeDocument nd set nd.textExtracted=:extracted";
+        String qs = "update NodeDocument nd set nd.textExtracted=:extracted, nd.textExtractionFailures=0";
         Session session = null;
         Transaction tx = null;
         int rowCount = 0;
@@ -1177,7 +1263,7 @@ public class NodeDocumentDAO {
     public int resetPendingExtractionFlag(String docUuid) throws DatabaseException {
         log.debug("resetPendingExtractionFlag({})", docUuid);
         // String qs = "update NodeDocument nd set nd.textExtracted=:extracted where nd.uuid=:uuid";
-        String sql = "update OKM_NODE_DOCUMENT set NDC_TEXT='', NDC_TEXT_EXTRACTED='F' where NBS_UUID=:uuid";
+        String sql = "update OKM_NODE_DOCUMENT set NDC_TEXT='', NDC_TEXT_EXTRACTED='F', NDC_TEXT_EXTRACTION_FAILURES=0 where NBS_UUID=:uuid";
         Session session = null;
         Transaction tx = null;
         int rowCount = 0;
@@ -1211,7 +1297,7 @@ public class NodeDocumentDAO {
      */
     public boolean hasPendingExtractions() throws DatabaseException {
         log.debug("hasPendingExtractions()");
-        String qs = "from NodeDocument nd where nd.textExtracted=:extracted";
+        String qs = "from NodeDocument nd where nd.textExtracted=:extracted and coalesce(nd.textExtractionFailures, 0) < :retries";
         Session session = null;
         Transaction tx = null;
         boolean ret = false;
@@ -1222,6 +1308,7 @@ public class NodeDocumentDAO {
 
             Query q = session.createQuery(qs);
             q.setBoolean("extracted", false);
+            q.setInteger("retries", Config.MANAGED_TEXT_EXTRACTION_RETRIES);
             ret = q.iterate().hasNext();
 
             HibernateUtil.commit(tx);
@@ -1236,13 +1323,16 @@ public class NodeDocumentDAO {
     }
 
     /**
-     * Get pending extraction queue
+     * Get pending extraction queue. Current version and path are fetched in the same query; when node
+     * paths are not stored they are resolved through the node path cache. Documents which already failed
+     * come last, and the ones which failed MANAGED_TEXT_EXTRACTION_RETRIES times are not returned.
      */
     @SuppressWarnings("unchecked")
     public List<TextExtractorWork> getPendingExtractions(int maxResults) throws DatabaseException {
         log.debug("getPendingExtractions({})", maxResults);
-        String qsDoc = "select nd.uuid from NodeDocument nd where nd.textExtracted=:extracted";
-        String qsDocVer = "from NodeDocumentVersion ndv where ndv.parent=:parent and ndv.current=:current";
+        String qs = "select nd.uuid, nd.path, ndv.uuid, ndv.created from NodeDocument nd, NodeDocumentVersion ndv "
+                + "where nd.textExtracted=:extracted and coalesce(nd.textExtractionFailures, 0) < :retries "
+                + "and ndv.parent=nd.uuid and ndv.current=:current order by coalesce(nd.textExtractionFailures, 0), nd.uuid";
         Session session = null;
         Transaction tx = null;
         List<TextExtractorWork> ret = new ArrayList<TextExtractorWork>();
@@ -1252,22 +1342,25 @@ public class NodeDocumentDAO {
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
 
-            Query qDoc = session.createQuery(qsDoc);
-            qDoc.setBoolean("extracted", false);
-            qDoc.setMaxResults(maxResults);
+            Query q = session.createQuery(qs);
+            q.setBoolean("extracted", false);
+            q.setInteger("retries", Config.MANAGED_TEXT_EXTRACTION_RETRIES);
+            q.setBoolean("current", true);
+            q.setMaxResults(maxResults);
 
-            for (String docUuid : (List<String>) qDoc.list()) {
-                Query qDocVer = session.createQuery(qsDocVer);
-                qDocVer.setString("parent", docUuid);
-                qDocVer.setBoolean("current", true);
-                NodeDocumentVersion nDocVer = (NodeDocumentVersion) qDocVer.uniqueResult();
-                String docPath = NodeBaseDAO.getInstance().getPathFromUuid(session, docUuid);
+            for (Object[] tupla : (List<Object[]>) q.list()) {
+                String docUuid = (String) tupla[0];
+                String docPath = (String) tupla[1];
+
+                if (!Config.STORE_NODE_PATH || docPath == null) {
+                    docPath = NodeBaseDAO.getInstance().getPathFromUuid(session, docUuid);
+                }
 
                 TextExtractorWork work = new TextExtractorWork();
                 work.setDocUuid(docUuid);
                 work.setDocPath(docPath);
-                work.setDocVerUuid(nDocVer.getUuid());
-                work.setDate(nDocVer.getCreated());
+                work.setDocVerUuid((String) tupla[2]);
+                work.setDate((Calendar) tupla[3]);
                 ret.add(work);
             }
 
@@ -1291,7 +1384,8 @@ public class NodeDocumentDAO {
      */
     public long getPendingExtractionSize() throws DatabaseException {
         log.debug("getPendingExtractionSize()");
-        String qs = "select coalesce(count(*), 0) from NodeDocument nd where nd.textExtracted=:extracted";
+        String qs = "select coalesce(count(*), 0) from NodeDocument nd where nd.textExtracted=:extracted "
+                + "and coalesce(nd.textExtractionFailures, 0) < :retries";
         Session session = null;
         Transaction tx = null;
         long total = 0;
@@ -1303,6 +1397,7 @@ public class NodeDocumentDAO {
 
             Query q = session.createQuery(qs);
             q.setBoolean("extracted", false);
+            q.setInteger("retries", Config.MANAGED_TEXT_EXTRACTION_RETRIES);
             total = (Long) q.setMaxResults(1).uniqueResult();
 
             HibernateUtil.commit(tx);
@@ -1317,24 +1412,86 @@ public class NodeDocumentDAO {
         }
     }
 
+    /**
+     * Record a failed text extraction, so the document is retried after the other pending ones and
+     * eventually excluded from the extraction queue.
+     * 
+     * Note: the HQL query fails due to https://hibernate.atlassian.net/browse/HHH-1657
+     */
+    public int setTextExtractionFailure(String docUuid) throws DatabaseException {
+        log.debug("setTextExtractionFailure({})", docUuid);
+        String sql = "update OKM_NODE_DOCUMENT set NDC_TEXT_EXTRACTION_FAILURES=coalesce(NDC_TEXT_EXTRACTION_FAILURES, 0) + 1 "
+                + "where NBS_UUID=:uuid";
+        Session session = null;
+        Transaction tx = null;
+        int rowCount = 0;
+
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            tx = session.beginTransaction();
+
+            SQLQuery q = session.createSQLQuery(sql);
+            q.setString("uuid", docUuid);
+            rowCount = q.executeUpdate();
+
+            HibernateUtil.commit(tx);
+            log.debug("setTextExtractionFailure: {}", rowCount);
+            return rowCount;
+        } catch (HibernateException e) {
+            HibernateUtil.rollback(tx);
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
     /**
      * Helps on extracting text from documents
      */
     public String textExtractorHelper(TextExtractorWork work) throws DatabaseException, FileNotFoundException {
         log.debug("textExtractorHelper({})", work);
+
+        try {
+            extractText(work);
+        } catch (InterruptedIOException e) {
+            // Shutting down, so keep the document pending
+            log.info("Text extraction interrupted: {}", work.getDocPath());
+            return null;
+        } catch (ExtractionTimeoutException e) {
+            // Keep the document pending, the extraction queue will retry it
+            log.warn("Text extraction timeout: {}", work.getDocPath());
+            return null;
+        }
+
+        saveExtractedText(Collections.singletonList(work));
+        log.debug("textExtractorHelper: {}", work.getText());
+        return work.getText();
+    }
+
+    /**
+     * Extract text and detect language of a document, keeping the result in the work to be saved
+     * later by saveExtractedText(). An extraction failure is logged and leaves the work text empty,
+     * but a timeout is thrown so the document is not saved as extracted.
+     */
+    public void extractText(TextExtractorWork work) throws DatabaseException, FileNotFoundException, InterruptedIOException,
+            ExtractionTimeoutException {
+        log.debug("extractText({})", work);
         Session session = null;
         Transaction tx = null;
         InputStream isContent = null;
         String textExtracted = null;
+        work.setText(null);
+        work.setLanguage(null);
 
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
 
+            NodeDocumentVersion nDocVer = (NodeDocumentVersion) session.load(NodeDocumentVersion.class, work.getDocVerUuid());
+
             if (FsDataStore.DATASTORE_BACKEND_FS.equals(Config.REPOSITORY_DATASTORE_BACKEND)) {
-                isContent = FsDataStore.read(work.getDocVerUuid());
+                isContent = FsDataStore.read(nDocVer);
             } else {
-                NodeDocumentVersion nDocVer = (NodeDocumentVersion) session.load(NodeDocumentVersion.class, work.getDocVerUuid());
                 isContent = new ByteArrayInputStream(nDocVer.getContent());
             }
 
@@ -1359,17 +1516,23 @@ public class NodeDocumentDAO {
                 // Need to remove Unicode surrogate because of MySQL => SQL Error: 1366, SQLState: HY000
                 textExtracted = FormatUtil.trimUnicodeSurrogates(textExtracted);
 
-                nDoc.setText(textExtracted);
+                work.setText(textExtracted);
 
                 try {
                     long begin = System.currentTimeMillis();
                     Detector lt = DetectorFactory.create();
                     lt.append(textExtracted);
-                    nDoc.setLanguage(lt.detect());
-                    log.trace("textExtractorHelper.lang-detect.Time: {}", System.currentTimeMillis() - begin);
+                    work.setLanguage(lt.detect());
+                    log.trace("extractText.lang-detect.Time: {}", System.currentTimeMillis() - begin);
                 } catch (LangDetectException e) {
                     log.warn("Language detection problem: {}", e.getMessage(), e);
                 }
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (ExtractionTimeoutException e) {
+                log.warn("Text extraction timeout in '{}': {}", work.getDocPath(), e.getMessage());
+                UserActivity.log(Config.SYSTEM_USER, "MISC_TEXT_EXTRACTION_FAILURE", nDoc.getUuid(), work.getDocPath(), e.getMessage());
+                throw e;
             } catch (Exception e) {
                 try {
                     String docPath = NodeBaseDAO.getInstance().getPathFromUuid(nDoc.getUuid());
@@ -1380,11 +1543,8 @@ public class NodeDocumentDAO {
                 }
             }
 
-            nDoc.setTextExtracted(true);
-            session.update(nDoc);
             HibernateUtil.commit(tx);
-            log.debug("textExtractorHelper: {}", textExtracted);
-            return textExtracted;
+            log.debug("extractText: {}", textExtracted);
         } catch (HibernateException e) {
             HibernateUtil.rollback(tx);
             throw new DatabaseException(e.getMessage(), e);
@@ -1394,6 +1554,66 @@ public class NodeDocumentDAO {
         }
     }
 
+    /**
+     * Save the text and language of already extracted documents and mark them as extracted.
+     * Every document is updated in the same transaction, so the JDBC updates are batched and
+     * Hibernate Search applies a single index work unit for the whole batch.
+     */
+    @SuppressWarnings("unchecked")
+    public void saveExtractedText(List<TextExtractorWork> works) throws DatabaseException {
+        log.debug("saveExtractedText({})", works.size());
+        String qs = "from NodeDocument nd where nd.uuid in (:uuids)";
+        Map<String, TextExtractorWork> worksByUuid = new HashMap<String, TextExtractorWork>();
+        Session session = null;
+        Transaction tx = null;
+
+        for (TextExtractorWork work : works) {
+            worksByUuid.put(work.getDocUuid(), work);
+        }
+
+        if (worksByUuid.isEmpty()) {
+            return;
+        }
+
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            tx = session.beginTransaction();
+
+            List<String> uuids = new ArrayList<String>(worksByUuid.keySet());
+
+            // Flush and clear by chunks so extracted texts do not pile up in the session
+            for (int i = 0; i < uuids.size(); i += SAVE_TEXT_FLUSH) {
+                Query q = session.createQuery(qs);
+                q.setParameterList("uuids", uuids.subList(i, Math.min(i + SAVE_TEXT_FLUSH, uuids.size())));
+
+                for (NodeDocument nDoc : (List<NodeDocument>) q.list()) {
+                    TextExtractorWork work = worksByUuid.get(nDoc.getUuid());
+
+                    if (work.getText() != null) {
+                        nDoc.setText(work.getText());
+                    }
+
+                    if (work.getLanguage() != null) {
+                        nDoc.setLanguage(work.getLanguage());
+                    }
+
+                    nDoc.setTextExtracted(true);
+                }
+
+                session.flush();
+                session.clear();
+            }
+
+            HibernateUtil.commit(tx);
+            log.debug("saveExtractedText: void");
+        } catch (HibernateException e) {
+            HibernateUtil.rollback(tx);
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
     /**
      * Get extracted text.
      */
@@ -1478,6 +1698,40 @@ public class NodeDocumentDAO {
         }
     }
 
+    /**
+     * Lock the stripes of the given keys, always in the same order to prevent deadlocks
+     */
+    private static int[] lockStripes(String... keys) {
+        int[] stripes = new int[keys.length];
+
+        for (int i = 0; i < keys.length; i++) {
+            stripes[i] = (keys[i].hashCode() & Integer.MAX_VALUE) % STRIPE_LOCKS.length;
+        }
+
+        Arrays.sort(stripes);
+
+        for (int i = 0; i < stripes.length; i++) {
+            if (i == 0 || stripes[i] != stripes[i - 1]) {
+                STRIPE_LOCKS[stripes[i]].lock();
+            }
+        }
+
+        return stripes;
+    }
+
+    /**
+     * Unlock the stripes locked by lockStripes()
+     */
+    private static void unlockStripes(int[] stripes) {
+        if (stripes != null) {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                if (i == 0 || stripes[i] != stripes[i - 1]) {
+                    STRIPE_LOCKS[stripes[i]].unlock();
+                }
+            }
+        }
+    }
+
     /**
      * Force initialization of a proxy
      */
@@ -1547,6 +1801,7 @@ public class NodeDocumentDAO {
             unlock(user, nDoc, force);
             session.update(nDoc);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nDoc.getParent());
             log.debug("cancelCheckout: void");
         } catch (PathNotFoundException e) {
             HibernateUtil.rollback(tx);
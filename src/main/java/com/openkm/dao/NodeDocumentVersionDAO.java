@@ -28,7 +28,10 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.apache.commons.io.FileUtils;
@@ -40,6 +43,8 @@ import org.hibernate.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.openkm.cache.ConversionCache;
+import com.openkm.cache.FolderListing;
 import com.openkm.core.AccessDeniedException;
 import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
@@ -47,6 +52,7 @@ import com.openkm.core.LockException;
 import com.openkm.core.PathNotFoundException;
 import com.openkm.dao.bean.NodeDocument;
 import com.openkm.dao.bean.NodeDocumentVersion;
+import com.openkm.extractor.TextExtractorQueue;
 import com.openkm.module.db.stuff.FsDataStore;
 import com.openkm.module.db.stuff.LockHelper;
 import com.openkm.module.db.stuff.SecurityHelper;
@@ -269,6 +275,38 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
         return currentVersion;
     }
 
+    /**
+     * Find current version of several documents, by document UUID. Security is not checked.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, NodeDocumentVersion> findCurrentVersions(Collection<String> docUuids) throws DatabaseException {
+        log.debug("findCurrentVersions({})", docUuids.size());
+        String qs = "from NodeDocumentVersion ndv where ndv.parent in (:parents) and ndv.current=:current";
+        Map<String, NodeDocumentVersion> ret = new HashMap<String, NodeDocumentVersion>();
+        Session session = null;
+
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+
+            for (List<String> parents : HibernateUtil.partition(docUuids)) {
+                Query q = session.createQuery(qs);
+                q.setParameterList("parents", parents);
+                q.setBoolean("current", true);
+
+                for (NodeDocumentVersion nDocVer : (List<NodeDocumentVersion>) q.list()) {
+                    ret.put(nDocVer.getParent(), nDocVer);
+                }
+            }
+
+            log.debug("findCurrentVersions: {}", ret.size());
+            return ret;
+        } catch (HibernateException e) {
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
     /**
      * Get document version content
      * 
@@ -299,7 +337,7 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
 
             if (nDocVer != null) {
                 if (FsDataStore.DATASTORE_BACKEND_FS.equals(Config.REPOSITORY_DATASTORE_BACKEND)) {
-                    ret = FsDataStore.read(nDocVer.getUuid());
+                    ret = FsDataStore.read(nDocVer);
                 } else {
                     ret = new ByteArrayInputStream(nDocVer.getContent());
                 }
@@ -349,7 +387,7 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
             NodeDocumentVersion nDocVer = (NodeDocumentVersion) q.setMaxResults(1).uniqueResult();
 
             if (FsDataStore.DATASTORE_BACKEND_FS.equals(Config.REPOSITORY_DATASTORE_BACKEND)) {
-                ret = FsDataStore.read(nDocVer.getUuid());
+                ret = FsDataStore.read(nDocVer);
             } else {
                 ret = new ByteArrayInputStream(nDocVer.getContent());
             }
@@ -422,6 +460,9 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
 
             session.save(newDocVersion);
 
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().resize(session, nDoc.getParent(), newDocVersion.getSize() - curDocVersion.getSize());
+
             // Set document checkout status to false
             nDoc.setLastModified(newDocVersion.getCreated());
             nDoc.setCheckedOut(false);
@@ -429,12 +470,17 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
             // Text extraction
             nDoc.setText("");
             nDoc.setTextExtracted(false);
+            nDoc.setTextExtractionFailures(0);
 
             // Remove lock
             NodeDocumentDAO.getInstance().unlock(user, nDoc, false);
 
             session.update(nDoc);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nDoc.getParent());
+
+            // Text extraction
+            TextExtractorQueue.enqueue(docUuid, newDocVersion.getUuid());
 
             log.debug("checkin: {}", newDocVersion);
             return newDocVersion;
@@ -454,7 +500,7 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
             HibernateUtil.rollback(tx);
 
             // What happen when create fails? This datastore file should be deleted!
-            FsDataStore.delete(newDocVersion.getUuid());
+            FsDataStore.delete(newDocVersion);
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
@@ -490,18 +536,36 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
             // Text extraction
             nDoc.setText("");
             nDoc.setTextExtracted(false);
+            nDoc.setTextExtractionFailures(0);
             session.update(nDoc);
 
             // Update version content
             NodeDocumentVersion curDocVersion = (NodeDocumentVersion) q.setMaxResults(1).uniqueResult();
+            long oldSize = curDocVersion.getSize();
             curDocVersion.setText("");
             curDocVersion.setSize(size);
             session.update(curDocVersion);
 
             // Persist file in datastore
+            boolean legacy = curDocVersion.getContentDigest() == null;
             FsDataStore.persist(curDocVersion, is);
 
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().resize(session, nDoc.getParent(), curDocVersion.getSize() - oldSize);
+
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nDoc.getParent());
+
+            // Content moved to a blob, the old file is no longer referenced
+            if (legacy && curDocVersion.getContentDigest() != null) {
+                FsDataStore.deleteLegacy(curDocVersion.getUuid());
+            }
+
+            // Conversions are cached by version, which has been rewritten in place
+            ConversionCache.remove(docUuid);
+
+            // Text extraction
+            TextExtractorQueue.enqueue(docUuid, curDocVersion.getUuid());
             log.debug("setContent: void");
         } catch (PathNotFoundException e) {
             HibernateUtil.rollback(tx);
@@ -562,11 +626,15 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
             session.update(namDocVersion);
             session.update(curDocVersion);
 
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().resize(session, nDoc.getParent(), namDocVersion.getSize() - curDocVersion.getSize());
+
             // Text extraction
             nDoc.setText(namDocVersion.getText());
             session.update(nDoc);
 
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nDoc.getParent());
             log.debug("restoreVersion: void");
         } catch (PathNotFoundException e) {
             HibernateUtil.rollback(tx);
@@ -620,13 +688,13 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
                 String author = nDocVer.getAuthor();
                 long size = nDocVer.getSize();
 
-                if (FsDataStore.DATASTORE_BACKEND_FS.equals(Config.REPOSITORY_DATASTORE_BACKEND)) {
-                    FsDataStore.delete(nDocVer.getUuid());
-                }
-
                 // And delete version
                 session.delete(nDocVer);
 
+                if (FsDataStore.DATASTORE_BACKEND_FS.equals(Config.REPOSITORY_DATASTORE_BACKEND)) {
+                    FsDataStore.delete(session, nDocVer);
+                }
+
                 HibernateUtil.commit(tx);
                 tx = session.beginTransaction();
             }
@@ -667,11 +735,11 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
             String author = nDocVer.getAuthor();
             long size = nDocVer.getSize();
 
+            session.delete(nDocVer);
+
             if (FsDataStore.DATASTORE_BACKEND_FS.equals(Config.REPOSITORY_DATASTORE_BACKEND)) {
-                FsDataStore.delete(nDocVer.getUuid());
+                FsDataStore.delete(session, nDocVer);
             }
-
-            session.delete(nDocVer);
         }
     }
 
@@ -797,6 +865,9 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
 
             session.save(newDocVersion);
 
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().resize(session, nDoc.getParent(), newDocVersion.getSize() - curDocVersion.getSize());
+
             // Set document checkout status to false
             nDoc.setLastModified(newDocVersion.getCreated());
             nDoc.setCheckedOut(false);
@@ -804,6 +875,7 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
             // Text extraction
             nDoc.setText("");
             nDoc.setTextExtracted(false);
+            nDoc.setTextExtractionFailures(0);
 
             // Remove lock
             NodeDocumentDAO.getInstance().unlock(user, nDoc, false);
@@ -811,6 +883,9 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
             session.update(nDoc);
             HibernateUtil.commit(tx);
 
+            // Text extraction
+            TextExtractorQueue.enqueue(docUuid, newDocVersion.getUuid());
+
             log.debug("liveEditCheckin: {}", newDocVersion);
             return newDocVersion;
         } catch (PathNotFoundException e) {
@@ -829,7 +904,7 @@ public class NodeDocumentVersionDAO extends GenericDAO<NodeDocumentVersion, Stri
             HibernateUtil.rollback(tx);
 
             // What happen when create fails? This datastore file should be deleted!
-            FsDataStore.delete(newDocVersion.getUuid());
+            FsDataStore.delete(newDocVersion);
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             IOUtils.closeQuietly(is);
@@ -0,0 +1,473 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.dao;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.core.Config;
+import com.openkm.core.DatabaseException;
+import com.openkm.dao.bean.NodeBase;
+import com.openkm.dao.bean.NodeDocument;
+import com.openkm.dao.bean.NodeFolder;
+import com.openkm.dao.bean.NodeFolderAggregate;
+import com.openkm.dao.bean.NodeFolderAggregateDelta;
+import com.openkm.dao.bean.NodeMail;
+
+/**
+ * Folder subtree counters.
+ *
+ * A node change only inserts a delta row in its own transaction, so writers do not lock the counter
+ * rows of the ancestors, the root one included. Pending deltas are applied in the background by
+ * applyPending(), which updates the ancestors in UUID order, so the counters are eventually consistent:
+ * they show the changes committed before the last run, every Config.SCHEDULE_FOLDER_AGGREGATE seconds.
+ *
+ * Moving or purging a folder reads its stored counters to adjust the ancestors. Such transactions hold
+ * the adjust lock, shared among them and exclusive with applyPending(), from before the counters are
+ * read until they end. Otherwise a batch being applied meanwhile would be credited to the previous
+ * ancestors without being part of the adjustment.
+ *
+ * A folder without counters (created before the counters were introduced) is calculated from its
+ * children when requested, until the counters are rebuilt.
+ */
+public class NodeFolderAggregateDAO {
+    private static Logger log = LoggerFactory.getLogger(NodeFolderAggregateDAO.class);
+    private static NodeFolderAggregateDAO single = new NodeFolderAggregateDAO();
+    private static final int REBUILD_FLUSH = 100;
+    private static final int APPLY_BATCH = 1000;
+    private static final ReadWriteLock applyLock = new ReentrantReadWriteLock();
+
+    private NodeFolderAggregateDAO() {
+    }
+
+    public static NodeFolderAggregateDAO getInstance() {
+        return single;
+    }
+
+    /**
+     * Find folder counters
+     */
+    public NodeFolderAggregate findByFolder(String fldUuid) throws DatabaseException {
+        log.debug("findByFolder({})", fldUuid);
+        Session session = null;
+        Transaction tx = null;
+
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            tx = session.beginTransaction();
+            NodeFolderAggregate ret = get(session, fldUuid);
+            HibernateUtil.commit(tx);
+            log.debug("findByFolder: {}", ret);
+            return ret;
+        } catch (HibernateException e) {
+            HibernateUtil.rollback(tx);
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
+    /**
+     * Get folder counters, calculating them when not available
+     */
+    public NodeFolderAggregate get(Session session, String fldUuid) throws HibernateException {
+        NodeFolderAggregate nfa = (NodeFolderAggregate) session.get(NodeFolderAggregate.class, fldUuid);
+
+        if (nfa == null) {
+            log.debug("Calculating counters of {}", fldUuid);
+            nfa = calculate(session, fldUuid, false);
+        }
+
+        return nfa;
+    }
+
+    /**
+     * Create empty counters for a new folder
+     */
+    public void create(Session session, String fldUuid) throws HibernateException {
+        NodeFolderAggregate nfa = new NodeFolderAggregate();
+        nfa.setFolder(fldUuid);
+        session.save(nfa);
+    }
+
+    /**
+     * Remove the counters of a purged folder
+     */
+    public void delete(Session session, String fldUuid) throws HibernateException {
+        String qs = "delete from NodeFolderAggregate nfa where nfa.folder=:folder";
+        Query q = session.createQuery(qs);
+        q.setString("folder", fldUuid);
+        q.executeUpdate();
+    }
+
+    /**
+     * Lock to be held by a transaction which adjusts the ancestors with the stored counters of a folder,
+     * like a folder move or purge, until it is committed or rolled back. Should be released with unlock().
+     */
+    public Lock lockAdjust() {
+        Lock lock = applyLock.readLock();
+        lock.lock();
+        return lock;
+    }
+
+    /**
+     * Counters a node adds to the folders above it
+     */
+    public NodeFolderAggregate getContribution(Session session, NodeBase nBase) throws HibernateException {
+        NodeFolderAggregate nfa = new NodeFolderAggregate();
+
+        if (nBase instanceof NodeDocument) {
+            String qs = "select ndv.size from NodeDocumentVersion ndv where ndv.parent=:parent and ndv.current=:current";
+            Query q = session.createQuery(qs);
+            q.setString("parent", nBase.getUuid());
+            q.setBoolean("current", true);
+            Long size = (Long) q.setMaxResults(1).uniqueResult();
+            nfa.setDocuments(1);
+            nfa.setSize(size == null ? 0 : size);
+        } else if (nBase instanceof NodeMail) {
+            nfa.setMails(1);
+        } else if (nBase instanceof NodeFolder) {
+            nfa.add(get(session, nBase.getUuid()));
+            nfa.setFolders(nfa.getFolders() + 1);
+        }
+
+        return nfa;
+    }
+
+    /**
+     * Add a node to the counters of a folder and its ancestors
+     */
+    public void add(Session session, String parentUuid, NodeFolderAggregate delta) throws HibernateException {
+        update(session, parentUuid, delta, 1);
+    }
+
+    /**
+     * Remove a node from the counters of a folder and its ancestors
+     */
+    public void subtract(Session session, String parentUuid, NodeFolderAggregate delta) throws HibernateException {
+        update(session, parentUuid, delta, -1);
+    }
+
+    /**
+     * Change the size of a document in the counters of its folder and ancestors
+     */
+    public void resize(Session session, String parentUuid, long delta) throws HibernateException {
+        NodeFolderAggregate nfa = new NodeFolderAggregate();
+        nfa.setSize(delta);
+        update(session, parentUuid, nfa, 1);
+    }
+
+    /**
+     * Empty the counters of a folder whose children are purged, dropping its pending deltas. Its
+     * ancestors should be updated subtracting the previous counters.
+     */
+    public void clear(Session session, String fldUuid) throws HibernateException {
+        String qsUpdate = "update NodeFolderAggregate nfa set nfa.documents=0, nfa.folders=0, nfa.mails=0, nfa.size=0 "
+                + "where nfa.folder=:folder";
+        String qsDelete = "delete from NodeFolderAggregateDelta nfd where nfd.folder=:folder";
+        Query qUpdate = session.createQuery(qsUpdate);
+        qUpdate.setString("folder", fldUuid);
+        qUpdate.executeUpdate();
+        Query qDelete = session.createQuery(qsDelete);
+        qDelete.setString("folder", fldUuid);
+        qDelete.executeUpdate();
+    }
+
+    /**
+     * Move a node between folders. Should be called before changing the node parent and, for a
+     * folder, holding lockAdjust().
+     */
+    public void move(Session session, NodeBase nBase, String dstUuid) throws HibernateException {
+        if (!nBase.getParent().equals(dstUuid)) {
+            NodeFolderAggregate delta = getContribution(session, nBase);
+            subtract(session, nBase.getParent(), delta);
+            add(session, dstUuid, delta);
+        }
+    }
+
+    /**
+     * Record a change to be applied to a folder and all its ancestors
+     */
+    private void update(Session session, String parentUuid, NodeFolderAggregate delta, int sign) throws HibernateException {
+        if (delta.getNodes() == 0 && delta.getSize() == 0) {
+            return;
+        }
+
+        NodeFolderAggregateDelta nfd = new NodeFolderAggregateDelta();
+        nfd.setFolder(parentUuid);
+        nfd.setDocuments(sign * delta.getDocuments());
+        nfd.setFolders(sign * delta.getFolders());
+        nfd.setMails(sign * delta.getMails());
+        nfd.setSize(sign * delta.getSize());
+        session.save(nfd);
+    }
+
+    /**
+     * Apply pending deltas to the folder counters, in batches of APPLY_BATCH deltas. The ancestors are
+     * resolved when applied, so a delta follows its folder if it has been moved, and the deltas of
+     * deleted folders are discarded. Parents which are not folders, like the mail of an attachment, are
+     * not counted.
+     */
+    @SuppressWarnings("unchecked")
+    public int applyPending() throws DatabaseException {
+        log.debug("applyPending()");
+        String qsDeltas = "from NodeFolderAggregateDelta nfd order by nfd.id";
+        String qsParent = "select nf.parent from NodeFolder nf where nf.uuid=:uuid";
+        String qsUpdate = "update NodeFolderAggregate nfa set nfa.documents=nfa.documents+:documents, nfa.folders=nfa.folders+:folders, "
+                + "nfa.mails=nfa.mails+:mails, nfa.size=nfa.size+:size where nfa.folder=:folder";
+        String qsDelete = "delete from NodeFolderAggregateDelta nfd where nfd.id in (:ids)";
+        int applied = 0;
+        int fetched = 0;
+
+        applyLock.writeLock().lock();
+
+        try {
+            do {
+                Session session = null;
+                Transaction tx = null;
+
+                try {
+                    session = HibernateUtil.getSessionFactory().openSession();
+                    tx = session.beginTransaction();
+
+                    Query q = session.createQuery(qsDeltas);
+                    q.setMaxResults(APPLY_BATCH);
+                    List<NodeFolderAggregateDelta> deltas = q.list();
+                    fetched = deltas.size();
+
+                    // Sum the changes per ancestor, sorted so counter rows are always locked in the same order
+                    Map<String, List<String>> ancestorsCache = new HashMap<String, List<String>>();
+                    Map<String, NodeFolderAggregate> totals = new TreeMap<String, NodeFolderAggregate>();
+                    Query qParent = session.createQuery(qsParent);
+                    List<Long> ids = new ArrayList<Long>();
+
+                    for (NodeFolderAggregateDelta nfd : deltas) {
+                        List<String> ancestors = ancestorsCache.get(nfd.getFolder());
+
+                        if (ancestors == null) {
+                            ancestors = getAncestors(qParent, nfd.getFolder());
+                            ancestorsCache.put(nfd.getFolder(), ancestors);
+                        }
+
+                        for (String uuid : ancestors) {
+                            NodeFolderAggregate total = totals.get(uuid);
+
+                            if (total == null) {
+                                total = new NodeFolderAggregate();
+                                totals.put(uuid, total);
+                            }
+
+                            total.setDocuments(total.getDocuments() + nfd.getDocuments());
+                            total.setFolders(total.getFolders() + nfd.getFolders());
+                            total.setMails(total.getMails() + nfd.getMails());
+                            total.setSize(total.getSize() + nfd.getSize());
+                        }
+
+                        ids.add(nfd.getId());
+                    }
+
+                    Query qUpdate = session.createQuery(qsUpdate);
+
+                    for (Map.Entry<String, NodeFolderAggregate> entry : totals.entrySet()) {
+                        NodeFolderAggregate total = entry.getValue();
+
+                        if (total.getNodes() != 0 || total.getSize() != 0) {
+                            qUpdate.setLong("documents", total.getDocuments());
+                            qUpdate.setLong("folders", total.getFolders());
+                            qUpdate.setLong("mails", total.getMails());
+                            qUpdate.setLong("size", total.getSize());
+                            qUpdate.setString("folder", entry.getKey());
+                            qUpdate.executeUpdate();
+                        }
+                    }
+
+                    for (List<Long> part : HibernateUtil.partition(ids)) {
+                        Query qDelete = session.createQuery(qsDelete);
+                        qDelete.setParameterList("ids", part);
+                        qDelete.executeUpdate();
+                    }
+
+                    HibernateUtil.commit(tx);
+                    applied += fetched;
+                } catch (HibernateException e) {
+                    HibernateUtil.rollback(tx);
+                    throw new DatabaseException(e.getMessage(), e);
+                } finally {
+                    HibernateUtil.close(session);
+                }
+            } while (fetched == APPLY_BATCH);
+        } finally {
+            applyLock.writeLock().unlock();
+        }
+
+        log.debug("applyPending: {}", applied);
+        return applied;
+    }
+
+    /**
+     * Get a folder and its ancestors, or an empty list if the folder does not exist anymore
+     */
+    private List<String> getAncestors(Query qParent, String fldUuid) throws HibernateException {
+        List<String> ancestors = new ArrayList<String>();
+        String uuid = fldUuid;
+
+        while (uuid != null && !ancestors.contains(uuid)) {
+            qParent.setString("uuid", uuid);
+            String parent = (String) qParent.uniqueResult();
+
+            if (parent == null) {
+                break;
+            }
+
+            ancestors.add(uuid);
+            uuid = parent;
+        }
+
+        return ancestors;
+    }
+
+    /**
+     * Rebuild every folder counters, committing every REBUILD_FLUSH folders. Pending deltas are
+     * discarded and changes made while rebuilding are applied when it ends, so a change in a folder
+     * not rebuilt yet may be counted twice: rebuild with a low repository activity.
+     */
+    public int rebuild() throws DatabaseException {
+        log.debug("rebuild()");
+        String qs = "select nf.uuid from NodeFolder nf where nf.parent=:parent";
+        Session session = null;
+        int[] folders = new int[1];
+
+        applyLock.writeLock().lock();
+
+        try {
+            try {
+                session = HibernateUtil.getSessionFactory().openSession();
+                session.beginTransaction();
+                session.createQuery("delete from NodeFolderAggregateDelta").executeUpdate();
+                session.createQuery("delete from NodeFolderAggregate").executeUpdate();
+                HibernateUtil.commit(session.getTransaction());
+                session.beginTransaction();
+
+                Query q = session.createQuery(qs);
+                q.setString("parent", Config.ROOT_NODE_UUID);
+
+                for (String fldUuid : getUuids(q)) {
+                    rebuildHelper(session, fldUuid, folders);
+                }
+
+                HibernateUtil.commit(session.getTransaction());
+            } catch (HibernateException e) {
+                if (session != null) {
+                    HibernateUtil.rollback(session.getTransaction());
+                }
+
+                throw new DatabaseException(e.getMessage(), e);
+            } finally {
+                HibernateUtil.close(session);
+            }
+        } finally {
+            applyLock.writeLock().unlock();
+        }
+
+        log.debug("rebuild: {}", folders[0]);
+        return folders[0];
+    }
+
+    /**
+     * Calculate and store the counters of a folder subtree
+     */
+    private NodeFolderAggregate rebuildHelper(Session session, String fldUuid, int[] folders) throws HibernateException {
+        NodeFolderAggregate nfa = calculate(session, fldUuid, true, folders);
+        session.save(nfa);
+
+        if (++folders[0] % REBUILD_FLUSH == 0) {
+            HibernateUtil.commit(session.getTransaction());
+            session.clear();
+            session.beginTransaction();
+        }
+
+        return nfa;
+    }
+
+    /**
+     * Calculate folder counters from its children
+     */
+    private NodeFolderAggregate calculate(Session session, String fldUuid, boolean rebuild) throws HibernateException {
+        return calculate(session, fldUuid, rebuild, new int[1]);
+    }
+
+    /**
+     * Calculate folder counters from its children, storing the ones of the subfolders when rebuilding
+     */
+    private NodeFolderAggregate calculate(Session session, String fldUuid, boolean rebuild, int[] folders) throws HibernateException {
+        String qsDocs = "select count(nd), sum(ndv.size) from NodeDocument nd, NodeDocumentVersion ndv "
+                + "where nd.parent=:parent and ndv.parent=nd.uuid and ndv.current=:current";
+        String qsMails = "select count(nm) from NodeMail nm where nm.parent=:parent";
+        String qsFolders = "select nf.uuid from NodeFolder nf where nf.parent=:parent";
+        NodeFolderAggregate nfa = new NodeFolderAggregate();
+        nfa.setFolder(fldUuid);
+
+        Query qDocs = session.createQuery(qsDocs);
+        qDocs.setString("parent", fldUuid);
+        qDocs.setBoolean("current", true);
+        Object[] docs = (Object[]) qDocs.uniqueResult();
+        nfa.setDocuments(docs[0] == null ? 0 : ((Number) docs[0]).longValue());
+        nfa.setSize(docs[1] == null ? 0 : ((Number) docs[1]).longValue());
+
+        Query qMails = session.createQuery(qsMails);
+        qMails.setString("parent", fldUuid);
+        Number mails = (Number) qMails.uniqueResult();
+        nfa.setMails(mails == null ? 0 : mails.longValue());
+
+        Query qFolders = session.createQuery(qsFolders);
+        qFolders.setString("parent", fldUuid);
+
+        for (String childUuid : getUuids(qFolders)) {
+            NodeFolderAggregate child = rebuild ? rebuildHelper(session, childUuid, folders) : get(session, childUuid);
+            nfa.add(child);
+            nfa.setFolders(nfa.getFolders() + 1);
+        }
+
+        return nfa;
+    }
+
+    /**
+     * Get UUID list from query
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> getUuids(Query q) throws HibernateException {
+        return (List<String>) q.list();
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Calendar;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
@@ -37,6 +38,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.openkm.bean.Permission;
+import com.openkm.cache.FolderListing;
+import com.openkm.cache.KeywordIndex;
+import com.openkm.cache.NodePathCache;
+import com.openkm.cache.PermissionCache;
 import com.openkm.core.AccessDeniedException;
 import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
@@ -45,6 +50,7 @@ import com.openkm.core.LockException;
 import com.openkm.core.PathNotFoundException;
 import com.openkm.dao.bean.NodeBase;
 import com.openkm.dao.bean.NodeFolder;
+import com.openkm.dao.bean.NodeFolderAggregate;
 import com.openkm.dao.bean.NodeMail;
 import com.openkm.module.db.stuff.DbAccessManager;
 import com.openkm.module.db.stuff.SecurityHelper;
@@ -75,6 +81,7 @@ public class NodeFolderDAO {
             tx = session.beginTransaction();
 
             session.save(nFolder);
+            NodeFolderAggregateDAO.getInstance().create(session, nFolder.getUuid());
             HibernateUtil.commit(tx);
             log.debug("createBase: void");
         } catch (HibernateException e) {
@@ -107,7 +114,14 @@ public class NodeFolderDAO {
             NodeBaseDAO.getInstance().checkItemExistence(session, nFolder.getParent(), nFolder.getName());
 
             session.save(nFolder);
+
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().create(session, nFolder.getUuid());
+            NodeFolderAggregateDAO.getInstance().add(session, nFolder.getParent(), NodeFolderAggregateDAO.getInstance().getContribution(session, nFolder));
+            KeywordIndex.update(session, nFolder.getUuid());
+
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nFolder.getParent());
             log.debug("create: void");
         } catch (PathNotFoundException e) {
             HibernateUtil.rollback(tx);
@@ -396,10 +410,12 @@ public class NodeFolderDAO {
         log.debug("rename({}, {})", uuid, newName);
         Session session = null;
         Transaction tx = null;
+        String oldPath = null;
 
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
+            oldPath = NodeBaseDAO.getInstance().getPathFromUuid(session, uuid);
 
             // Security Check
             NodeBase parentNode = NodeBaseDAO.getInstance().getParentNode(session, uuid);
@@ -421,6 +437,7 @@ public class NodeFolderDAO {
             session.update(nFld);
             initialize(nFld);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nFld.getParent());
             log.debug("rename: {}", nFld);
             return nFld;
         } catch (PathNotFoundException e) {
@@ -440,6 +457,10 @@ public class NodeFolderDAO {
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+
+            if (oldPath != null) {
+                NodePathCache.invalidate(oldPath);
+            }
         }
     }
 
@@ -452,10 +473,13 @@ public class NodeFolderDAO {
         long begin = System.currentTimeMillis();
         Session session = null;
         Transaction tx = null;
+        String oldPath = null;
+        Lock adjustLock = NodeFolderAggregateDAO.getInstance().lockAdjust();
 
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
+            oldPath = NodeBaseDAO.getInstance().getPathFromUuid(session, uuid);
 
             // Security Check
             NodeFolder nDstFld = (NodeFolder) session.load(NodeFolder.class, dstUuid);
@@ -482,6 +506,10 @@ public class NodeFolderDAO {
                 moveHelper(session, uuid, nDstFld.getContext());
             }
 
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().move(session, nFld, dstUuid);
+
+            String srcUuid = nFld.getParent();
             nFld.setParent(dstUuid);
 
             if (Config.STORE_NODE_PATH) {
@@ -490,6 +518,7 @@ public class NodeFolderDAO {
 
             session.update(nFld);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(srcUuid, dstUuid);
             log.trace("move.Time: {}", System.currentTimeMillis() - begin);
             log.debug("move: void");
         } catch (PathNotFoundException e) {
@@ -508,7 +537,14 @@ public class NodeFolderDAO {
             HibernateUtil.rollback(tx);
             throw new DatabaseException(e.getMessage(), e);
         } finally {
+            adjustLock.unlock();
             HibernateUtil.close(session);
+
+            if (oldPath != null) {
+                NodePathCache.invalidate(oldPath);
+            }
+
+            PermissionCache.invalidate(uuid);
         }
     }
 
@@ -520,10 +556,13 @@ public class NodeFolderDAO {
         long begin = System.currentTimeMillis();
         Session session = null;
         Transaction tx = null;
+        String oldPath = null;
+        Lock adjustLock = NodeFolderAggregateDAO.getInstance().lockAdjust();
 
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
+            oldPath = NodeBaseDAO.getInstance().getPathFromUuid(session, uuid);
 
             // Security Check
             NodeFolder nTrashFld = (NodeFolder) session.load(NodeFolder.class, trashUuid);
@@ -545,7 +584,11 @@ public class NodeFolderDAO {
             // Need recursive context changes
             moveHelper(session, uuid, nTrashFld.getContext());
 
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().move(session, nFld, trashUuid);
+
             nFld.setContext(nTrashFld.getContext());
+            String srcUuid = nFld.getParent();
             nFld.setParent(trashUuid);
             nFld.setName(testName);
 
@@ -555,6 +598,7 @@ public class NodeFolderDAO {
 
             session.update(nFld);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(srcUuid, trashUuid);
             log.trace("delete.Time: {}", System.currentTimeMillis() - begin);
             log.debug("delete: void");
         } catch (PathNotFoundException e) {
@@ -570,7 +614,14 @@ public class NodeFolderDAO {
             HibernateUtil.rollback(tx);
             throw new DatabaseException(e.getMessage(), e);
         } finally {
+            adjustLock.unlock();
             HibernateUtil.close(session);
+
+            if (oldPath != null) {
+                NodePathCache.invalidate(oldPath);
+            }
+
+            PermissionCache.invalidate(uuid);
         }
     }
 
@@ -592,8 +643,10 @@ public class NodeFolderDAO {
     /**
      * Get categories from node
      */
+    @SuppressWarnings("unchecked")
     public Set<NodeFolder> resolveCategories(Set<String> categories) throws DatabaseException {
         log.debug("resolveCategories({})", categories);
+        String qs = "from NodeFolder nf where nf.uuid in (:uuids)";
         Set<NodeFolder> ret = new HashSet<NodeFolder>();
         Session session = null;
         Transaction tx = null;
@@ -603,13 +656,19 @@ public class NodeFolderDAO {
             tx = session.beginTransaction();
             DbAccessManager am = SecurityHelper.getAccessManager();
 
-            for (String catUuid : categories) {
-                NodeFolder nFld = (NodeFolder) session.load(NodeFolder.class, catUuid);
+            for (List<String> uuids : HibernateUtil.partition(categories)) {
+                Query q = session.createQuery(qs);
+                q.setParameterList("uuids", uuids);
+                List<NodeFolder> nFolders = q.list();
 
                 // Security Check
-                if (am.isGranted(nFld, Permission.READ)) {
-                    initialize(nFld);
-                    ret.add(nFld);
+                Set<String> granted = am.isGranted(nFolders, Permission.READ);
+
+                for (NodeFolder nFld : nFolders) {
+                    if (granted.contains(nFld.getUuid())) {
+                        initialize(nFld);
+                        ret.add(nFld);
+                    }
                 }
             }
 
@@ -636,19 +695,33 @@ public class NodeFolderDAO {
         log.debug("purgue({}, {})", uuid, deleteBase);
         Session session = null;
         Transaction tx = null;
+        String oldPath = null;
+        Lock adjustLock = NodeFolderAggregateDAO.getInstance().lockAdjust();
 
         try {
             long begin = System.currentTimeMillis();
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
+            oldPath = NodeBaseDAO.getInstance().getPathFromUuid(session, uuid);
 
             // Security Check
             NodeFolder nFld = (NodeFolder) session.load(NodeFolder.class, uuid);
             SecurityHelper.checkRead(nFld);
             SecurityHelper.checkDelete(nFld);
 
+            // Subtree counters
+            if (deleteBase) {
+                NodeFolderAggregateDAO.getInstance().subtract(session, nFld.getParent(), NodeFolderAggregateDAO.getInstance().getContribution(session, nFld));
+            } else {
+                NodeFolderAggregate delta = new NodeFolderAggregate();
+                delta.add(NodeFolderAggregateDAO.getInstance().get(session, uuid));
+                NodeFolderAggregateDAO.getInstance().clear(session, uuid);
+                NodeFolderAggregateDAO.getInstance().subtract(session, nFld.getParent(), delta);
+            }
+
             purgeHelper(session, nFld, deleteBase);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nFld.getParent(), uuid);
 
             log.trace("purgue.Time: {}", System.currentTimeMillis() - begin);
             log.debug("purgue: void");
@@ -668,7 +741,14 @@ public class NodeFolderDAO {
             HibernateUtil.rollback(tx);
             throw new DatabaseException(e.getMessage(), e);
         } finally {
+            adjustLock.unlock();
             HibernateUtil.close(session);
+
+            if (oldPath != null) {
+                NodePathCache.invalidate(oldPath);
+            }
+
+            PermissionCache.invalidate(uuid);
         }
     }
 
@@ -722,7 +802,9 @@ public class NodeFolderDAO {
             String user = PrincipalUtils.getUser();
 
             // Delete the node itself
+            NodeFolderAggregateDAO.getInstance().delete(session, nFolder.getUuid());
             session.delete(nFolder);
+            KeywordIndex.remove(session, nFolder.getUuid());
 
             // Activity log
             UserActivity.log(user, "PURGE_FOLDER", nFolder.getUuid(), path, null);
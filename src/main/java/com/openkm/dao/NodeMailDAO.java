@@ -34,6 +34,10 @@ import org.hibernate.search.FullTextSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.openkm.cache.FolderListing;
+import com.openkm.cache.KeywordIndex;
+import com.openkm.cache.NodePathCache;
+import com.openkm.cache.PermissionCache;
 import com.openkm.core.AccessDeniedException;
 import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
@@ -87,7 +91,13 @@ public class NodeMailDAO {
             nMail.setContent(FormatUtil.trimUnicodeSurrogates(nMail.getContent()));
 
             session.save(nMail);
+
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().add(session, nMail.getParent(), NodeFolderAggregateDAO.getInstance().getContribution(session, nMail));
+            KeywordIndex.update(session, nMail.getUuid());
+
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nMail.getParent());
             log.debug("create: void");
         } catch (PathNotFoundException e) {
             HibernateUtil.rollback(tx);
@@ -378,10 +388,12 @@ public class NodeMailDAO {
         log.debug("rename({}, {})", uuid, newName);
         Session session = null;
         Transaction tx = null;
+        String oldPath = null;
 
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
+            oldPath = NodeBaseDAO.getInstance().getPathFromUuid(session, uuid);
 
             // Security Check
             NodeBase parentNode = NodeBaseDAO.getInstance().getParentNode(session, uuid);
@@ -403,6 +415,7 @@ public class NodeMailDAO {
             session.update(nMail);
             initialize(nMail);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nMail.getParent());
             log.debug("rename: {}", nMail);
             return nMail;
         } catch (PathNotFoundException e) {
@@ -422,6 +435,10 @@ public class NodeMailDAO {
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+
+            if (oldPath != null) {
+                NodePathCache.invalidate(oldPath);
+            }
         }
     }
 
@@ -434,10 +451,12 @@ public class NodeMailDAO {
         long begin = System.currentTimeMillis();
         Session session = null;
         Transaction tx = null;
+        String oldPath = null;
 
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
+            oldPath = NodeBaseDAO.getInstance().getPathFromUuid(session, uuid);
 
             // Security Check
             NodeFolder nDstFld = (NodeFolder) session.load(NodeFolder.class, dstUuid);
@@ -458,6 +477,10 @@ public class NodeMailDAO {
                 moveHelper(session, uuid, nDstFld.getContext());
             }
 
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().move(session, nMail, dstUuid);
+
+            String srcUuid = nMail.getParent();
             nMail.setParent(dstUuid);
 
             if (Config.STORE_NODE_PATH) {
@@ -466,6 +489,7 @@ public class NodeMailDAO {
 
             session.update(nMail);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(srcUuid, dstUuid);
             log.trace("move.Time: {}", System.currentTimeMillis() - begin);
             log.debug("move: void");
         } catch (PathNotFoundException e) {
@@ -485,6 +509,12 @@ public class NodeMailDAO {
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+
+            if (oldPath != null) {
+                NodePathCache.invalidate(oldPath);
+            }
+
+            PermissionCache.invalidate(uuid);
         }
     }
 
@@ -496,10 +526,12 @@ public class NodeMailDAO {
         long begin = System.currentTimeMillis();
         Session session = null;
         Transaction tx = null;
+        String oldPath = null;
 
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
+            oldPath = NodeBaseDAO.getInstance().getPathFromUuid(session, uuid);
 
             // Security Check
             NodeFolder nTrashFld = (NodeFolder) session.load(NodeFolder.class, trashUuid);
@@ -521,7 +553,11 @@ public class NodeMailDAO {
             // Need recursive context changes
             moveHelper(session, uuid, nTrashFld.getContext());
 
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().move(session, nMail, trashUuid);
+
             nMail.setContext(nTrashFld.getContext());
+            String srcUuid = nMail.getParent();
             nMail.setParent(trashUuid);
             nMail.setName(testName);
 
@@ -531,6 +567,7 @@ public class NodeMailDAO {
 
             session.update(nMail);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(srcUuid, trashUuid);
             log.trace("delete.Time: {}", System.currentTimeMillis() - begin);
             log.debug("delete: void");
         } catch (PathNotFoundException e) {
@@ -547,6 +584,12 @@ public class NodeMailDAO {
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+
+            if (oldPath != null) {
+                NodePathCache.invalidate(oldPath);
+            }
+
+            PermissionCache.invalidate(uuid);
         }
     }
 
@@ -568,18 +611,24 @@ public class NodeMailDAO {
         log.debug("purge({})", uuid);
         Session session = null;
         Transaction tx = null;
+        String oldPath = null;
 
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             tx = session.beginTransaction();
+            oldPath = NodeBaseDAO.getInstance().getPathFromUuid(session, uuid);
 
             // Security Check
             NodeMail nMail = (NodeMail) session.load(NodeMail.class, uuid);
             SecurityHelper.checkRead(nMail);
             SecurityHelper.checkDelete(nMail);
 
+            // Subtree counters
+            NodeFolderAggregateDAO.getInstance().subtract(session, nMail.getParent(), NodeFolderAggregateDAO.getInstance().getContribution(session, nMail));
+
             purgeHelper(session, nMail);
             HibernateUtil.commit(tx);
+            FolderListing.invalidate(nMail.getParent());
             log.debug("purge: void");
         } catch (PathNotFoundException e) {
             HibernateUtil.rollback(tx);
@@ -598,6 +647,12 @@ public class NodeMailDAO {
             throw new DatabaseException(e.getMessage(), e);
         } finally {
             HibernateUtil.close(session);
+
+            if (oldPath != null) {
+                NodePathCache.invalidate(oldPath);
+            }
+
+            PermissionCache.invalidate(uuid);
         }
     }
 
@@ -645,6 +700,7 @@ public class NodeMailDAO {
 
         // Delete the node itself
         session.delete(nMail);
+        KeywordIndex.remove(session, nMail.getUuid());
 
         // Activity log
         UserActivity.log(user, "PURGE_MAIL", nMail.getUuid(), path, null);
@@ -21,7 +21,11 @@
 
 package com.openkm.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
@@ -289,6 +293,44 @@ public class NodeNoteDAO {
         return parentNode;
     }
 
+    /**
+     * Find notes of several nodes, by parent UUID. Security is not checked.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, List<NodeNote>> findByParents(Collection<String> parentUuids) throws DatabaseException {
+        log.debug("findByParents({})", parentUuids.size());
+        String qs = "from NodeNote nn where nn.parent in (:parents) order by nn.created";
+        Map<String, List<NodeNote>> ret = new HashMap<String, List<NodeNote>>();
+        Session session = null;
+
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+
+            for (List<String> parents : HibernateUtil.partition(parentUuids)) {
+                Query q = session.createQuery(qs);
+                q.setParameterList("parents", parents);
+
+                for (NodeNote nNote : (List<NodeNote>) q.list()) {
+                    List<NodeNote> notes = ret.get(nNote.getParent());
+
+                    if (notes == null) {
+                        notes = new ArrayList<NodeNote>();
+                        ret.put(nNote.getParent(), notes);
+                    }
+
+                    notes.add(nNote);
+                }
+            }
+
+            log.debug("findByParents: {}", ret.size());
+            return ret;
+        } catch (HibernateException e) {
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
     /**
      * Force initialization of a proxy
      */
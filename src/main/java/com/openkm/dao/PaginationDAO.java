@@ -0,0 +1,527 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.openkm.dao;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.bean.pagination.ChildrenCursor;
+import com.openkm.bean.pagination.ChildrenFilter;
+import com.openkm.core.Config;
+import com.openkm.core.DatabaseException;
+import com.openkm.core.PathNotFoundException;
+import com.openkm.dao.bean.NodeBase;
+import com.openkm.dao.bean.NodeDocument;
+import com.openkm.dao.bean.NodeFolder;
+import com.openkm.dao.bean.NodeMail;
+import com.openkm.module.db.stuff.SecurityHelper;
+import com.openkm.spring.PrincipalUtils;
+
+/**
+ * Sorted, filtered and paginated children listings evaluated by the database. Pages are read with
+ * keyset (seek) pagination ordered by the sort column and the node UUID as tiebreaker, and only the
+ * nodes of the returned page are loaded.
+ */
+public class PaginationDAO {
+    private static Logger log = LoggerFactory.getLogger(PaginationDAO.class);
+    private static PaginationDAO single = new PaginationDAO();
+    public static final int ORDER_TYPE = 0;
+    public static final int ORDER_NAME = 1;
+    public static final int ORDER_SIZE = 2;
+    public static final int ORDER_DATE = 3;
+    public static final int ORDER_AUTHOR = 4;
+    private static final int MAX_BATCH = 500;
+
+    private static final Child FOLDER = new Child("NodeFolder", "nf", "from NodeFolder nf where nf.parent=:parent", 0, "nf.name",
+            null, "nf.created", "nf.author", null);
+    private static final Child DOCUMENT = new Child("NodeDocument", "nd", "from NodeDocument nd, NodeDocumentVersion ndv "
+            + "where ndv.parent=nd.uuid and ndv.current=:current and nd.parent=:parent", 1, "nd.name", "ndv.size", "nd.lastModified",
+            "ndv.author", "ndv.name");
+    private static final Child MAIL = new Child("NodeMail", "nm", "from NodeMail nm where nm.parent=:parent", 2,
+            "coalesce(nm.subject, '')", "nm.size", "nm.created", "nm.author", null);
+
+    private PaginationDAO() {
+    }
+
+    public static PaginationDAO getInstance() {
+        return single;
+    }
+
+    /**
+     * Count the readable children of this type matching the filter
+     */
+    public int count(String parentUuid, Class<? extends NodeBase> type, ChildrenFilter filter) throws PathNotFoundException,
+            DatabaseException {
+        log.debug("count({}, {}, {})", new Object[] { parentUuid, type, filter });
+        Child child = getChild(type);
+        Session session = null;
+
+        try {
+            long begin = System.currentTimeMillis();
+            session = HibernateUtil.getSessionFactory().openSession();
+            checkParent(session, parentUuid);
+            int ret = 0;
+
+            if (!isExcluded(child, filter)) {
+                Map<String, Object> params = new HashMap<String, Object>();
+                StringBuilder sb = new StringBuilder("select count(*) ");
+                appendWhere(sb, params, child, parentUuid, filter);
+                Query q = session.createQuery(sb.toString());
+                setParameters(q, params);
+                ret = ((Long) q.uniqueResult()).intValue();
+            }
+
+            log.trace("count.Time: {}", System.currentTimeMillis() - begin);
+            log.debug("count: {}", ret);
+            return ret;
+        } catch (HibernateException e) {
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
+    /**
+     * Find a page of readable children. Nodes of the given types are merged by the sort order, and the
+     * page starts skip nodes after the cursor, which is left after the last returned node.
+     */
+    public List<NodeBase> findPage(final String parentUuid, List<Class<? extends NodeBase>> types, final int order,
+            final boolean reverse, final ChildrenFilter filter, ChildrenCursor cursor, int skip, int limit) throws PathNotFoundException,
+            DatabaseException {
+        log.debug("findPage({}, {}, {}, {}, {}, {}, {}, {})", new Object[] { parentUuid, types, order, reverse, filter, cursor, skip,
+                limit });
+        final Map<String, Child> children = new LinkedHashMap<String, Child>();
+        Map<String, Integer> ranks = new LinkedHashMap<String, Integer>();
+        Map<Child, List<String>> pageUuids = new HashMap<Child, List<String>>();
+        List<String> pageOrder = new ArrayList<String>();
+        Session session = null;
+
+        for (Class<? extends NodeBase> type : types) {
+            Child child = getChild(type);
+
+            if (!isExcluded(child, filter)) {
+                children.put(child.type, child);
+                ranks.put(child.type, child.rank);
+                pageUuids.put(child, new ArrayList<String>());
+            }
+        }
+
+        try {
+            long begin = System.currentTimeMillis();
+            session = HibernateUtil.getSessionFactory().openSession();
+            checkParent(session, parentUuid);
+            final Session rowSession = session;
+
+            List<String[]> page = merge(ranks, new RowReader() {
+                @Override
+                public List<Object[]> read(String type, ChildrenCursor cursor, int batch) {
+                    return findRows(rowSession, children.get(type), parentUuid, order, reverse, filter, cursor, batch);
+                }
+            }, order, reverse, cursor, skip, limit);
+
+            for (String[] row : page) {
+                pageUuids.get(children.get(row[0])).add(row[1]);
+                pageOrder.add(row[1]);
+            }
+
+            List<NodeBase> ret = loadNodes(session, pageUuids, pageOrder);
+            log.trace("findPage.Time: {}", System.currentTimeMillis() - begin);
+            log.debug("findPage: {}", ret.size());
+            return ret;
+        } catch (HibernateException e) {
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
+    /**
+     * Merge the rows of several node types by the sort order, advancing the cursor past every taken
+     * row. Rows are read only when needed, and only as many as could still be taken. Returns the node
+     * type and UUID of the rows after the first skip ones.
+     */
+    static List<String[]> merge(Map<String, Integer> ranks, RowReader reader, int order, boolean reverse, ChildrenCursor cursor,
+            int skip, int limit) {
+        Map<String, LinkedList<Object[]>> buffers = new LinkedHashMap<String, LinkedList<Object[]>>();
+        Map<String, Boolean> exhausted = new HashMap<String, Boolean>();
+        List<String[]> page = new ArrayList<String[]>();
+        int target = skip + limit;
+        int taken = 0;
+
+        for (String type : ranks.keySet()) {
+            buffers.put(type, new LinkedList<Object[]>());
+            exhausted.put(type, false);
+        }
+
+        while (taken < target) {
+            String next = null;
+            Object[] nextRow = null;
+
+            for (Entry<String, LinkedList<Object[]>> entry : buffers.entrySet()) {
+                String type = entry.getKey();
+                LinkedList<Object[]> buffer = entry.getValue();
+
+                // Read only as many rows as could still be taken from this type
+                if (buffer.isEmpty() && !exhausted.get(type)) {
+                    int batch = Math.min(target - taken, MAX_BATCH);
+                    buffer.addAll(reader.read(type, cursor, batch));
+                    exhausted.put(type, buffer.size() < batch);
+                }
+
+                if (!buffer.isEmpty()
+                        && (next == null || compare(ranks.get(type), buffer.getFirst(), ranks.get(next), nextRow, order, reverse) < 0)) {
+                    next = type;
+                    nextRow = buffer.getFirst();
+                }
+            }
+
+            if (next == null) {
+                break;
+            }
+
+            buffers.get(next).removeFirst();
+            cursor.advance(next, (Serializable) nextRow[1], (String) nextRow[0]);
+
+            if (taken >= skip) {
+                page.add(new String[] { next, (String) nextRow[0] });
+            }
+
+            taken++;
+        }
+
+        return page;
+    }
+
+    /**
+     * Read the next rows of a node type after the cursor, as UUID and sort key pairs
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object[]> findRows(Session session, Child child, String parentUuid, int order, boolean reverse,
+            ChildrenFilter filter, ChildrenCursor cursor, int batch) throws HibernateException {
+        Map<String, Object> params = new HashMap<String, Object>();
+        String key = getKey(child, order);
+        String dir = reverse ? " desc" : " asc";
+        StringBuilder sb = new StringBuilder("select ").append(child.alias).append(".uuid");
+
+        if (key != null) {
+            sb.append(", ").append(key).append(" ");
+        } else {
+            sb.append(" ");
+        }
+
+        appendWhere(sb, params, child, parentUuid, filter);
+        String lastUuid = cursor.getLastUuid(child.type);
+
+        if (lastUuid != null) {
+            String op = reverse ? "<" : ">";
+
+            if (key != null) {
+                sb.append(" and (").append(key).append(op).append(":lastKey or (").append(key).append("=:lastKey and ");
+                sb.append(child.alias).append(".uuid").append(op).append(":lastUuid))");
+                params.put("lastKey", cursor.getLastKey(child.type));
+            } else {
+                sb.append(" and ").append(child.alias).append(".uuid").append(op).append(":lastUuid");
+            }
+
+            params.put("lastUuid", lastUuid);
+        }
+
+        sb.append(" order by ");
+
+        if (key != null) {
+            sb.append(key).append(dir).append(", ");
+        }
+
+        sb.append(child.alias).append(".uuid").append(dir);
+        Query q = session.createQuery(sb.toString());
+        setParameters(q, params);
+        q.setMaxResults(batch);
+        List<Object[]> ret = new ArrayList<Object[]>();
+
+        if (key != null) {
+            ret.addAll(q.list());
+        } else {
+            // Nodes without this sort column, like folders by size, are sorted as zero
+            for (String uuid : (List<String>) q.list()) {
+                ret.add(new Object[] { uuid, Long.valueOf(0) });
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Load the nodes of the page, in page order
+     */
+    @SuppressWarnings("unchecked")
+    private List<NodeBase> loadNodes(Session session, Map<Child, List<String>> pageUuids, List<String> pageOrder)
+            throws HibernateException, DatabaseException {
+        Map<String, NodeBase> nodes = new HashMap<String, NodeBase>();
+        List<NodeBase> ret = new ArrayList<NodeBase>();
+
+        for (Entry<Child, List<String>> entry : pageUuids.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                Query q = session.createQuery("from " + entry.getKey().type + " nb where nb.uuid in (:uuids)");
+                q.setParameterList("uuids", entry.getValue());
+
+                for (NodeBase nBase : (List<NodeBase>) q.list()) {
+                    if (nBase instanceof NodeFolder) {
+                        NodeFolderDAO.getInstance().initialize((NodeFolder) nBase);
+                    } else if (nBase instanceof NodeDocument) {
+                        NodeDocumentDAO.getInstance().initialize((NodeDocument) nBase, false);
+                    } else if (nBase instanceof NodeMail) {
+                        NodeMailDAO.getInstance().initialize((NodeMail) nBase);
+                    }
+
+                    nodes.put(nBase.getUuid(), nBase);
+                }
+            }
+        }
+
+        for (String uuid : pageOrder) {
+            NodeBase nBase = nodes.get(uuid);
+
+            if (nBase != null) {
+                ret.add(nBase);
+            }
+        }
+
+        // Security Check
+        SecurityHelper.pruneNodeList(ret);
+
+        return ret;
+    }
+
+    /**
+     * Compare two rows by node type rank (when sorted by type), sort key and UUID
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compare(int rank1, Object[] row1, int rank2, Object[] row2, int order, boolean reverse) {
+        int ret = 0;
+
+        if (order == ORDER_TYPE) {
+            ret = rank1 - rank2;
+        }
+
+        if (ret == 0) {
+            ret = ((Comparable) row1[1]).compareTo(row2[1]);
+        }
+
+        if (ret == 0) {
+            ret = ((String) row1[0]).compareTo((String) row2[0]);
+        }
+
+        return reverse ? -ret : ret;
+    }
+
+    /**
+     * Append the node type, parent, filter and read permission restrictions
+     */
+    private void appendWhere(StringBuilder sb, Map<String, Object> params, Child child, String parentUuid, ChildrenFilter filter) {
+        sb.append(child.from);
+        params.put("parent", parentUuid);
+
+        if (child == DOCUMENT) {
+            params.put("current", Boolean.TRUE);
+        }
+
+        if (filter != null) {
+            if (filter.getName() != null) {
+                sb.append(" and lower(").append(child.name).append(") like :name");
+                params.put("name", "%" + filter.getName() + "%");
+            }
+
+            if (child.size != null && filter.getSizeFrom() != null) {
+                sb.append(" and ").append(child.size).append(">=:sizeFrom");
+                params.put("sizeFrom", filter.getSizeFrom());
+            }
+
+            if (child.size != null && filter.getSizeTo() != null) {
+                sb.append(" and ").append(child.size).append("<=:sizeTo");
+                params.put("sizeTo", filter.getSizeTo());
+            }
+
+            if (filter.getDateFrom() != null) {
+                sb.append(" and ").append(child.date).append(">:dateFrom");
+                params.put("dateFrom", filter.getDateFrom());
+            }
+
+            if (filter.getDateTo() != null) {
+                sb.append(" and ").append(child.date).append("<:dateTo");
+                params.put("dateTo", filter.getDateTo());
+            }
+
+            if (filter.getVersion() != null) {
+                sb.append(" and ").append(child.version).append("=:version");
+                params.put("version", filter.getVersion());
+            }
+        }
+
+        String user = PrincipalUtils.getUser();
+        Set<String> roles = PrincipalUtils.getRoles();
+
+        // Children of a readable folder are readable, with any of the access managers, when they grant
+        // READ to the user or to one of the user roles. READ is the lowest permission bit.
+        if (!Config.SYSTEM_USER.equals(user) && !Config.ADMIN_USER.equals(user) && !roles.contains(Config.DEFAULT_ADMIN_ROLE)) {
+            sb.append(" and (exists (select nbu.uuid from NodeBase nbu join nbu.userPermissions up where nbu.uuid=");
+            sb.append(child.alias).append(".uuid and index(up)=:user and mod(up, 2)=1)");
+            params.put("user", user);
+
+            if (!roles.isEmpty()) {
+                sb.append(" or exists (select nbr.uuid from NodeBase nbr join nbr.rolePermissions rp where nbr.uuid=");
+                sb.append(child.alias).append(".uuid and index(rp) in (:roles) and mod(rp, 2)=1)");
+                params.put("roles", roles);
+            }
+
+            sb.append(")");
+        }
+    }
+
+    /**
+     * Bind query parameters
+     */
+    private void setParameters(Query q, Map<String, Object> params) {
+        for (Entry<String, Object> param : params.entrySet()) {
+            if (param.getValue() instanceof Collection) {
+                q.setParameterList(param.getKey(), (Collection<?>) param.getValue());
+            } else if (param.getValue() instanceof Boolean) {
+                q.setBoolean(param.getKey(), (Boolean) param.getValue());
+            } else {
+                q.setParameter(param.getKey(), param.getValue());
+            }
+        }
+    }
+
+    /**
+     * Check the parent folder can be read
+     */
+    private void checkParent(Session session, String parentUuid) throws PathNotFoundException, DatabaseException {
+        if (!Config.ROOT_NODE_UUID.equals(parentUuid)) {
+            NodeBase parentNode = (NodeBase) session.load(NodeBase.class, parentUuid);
+            SecurityHelper.checkRead(parentNode);
+        }
+    }
+
+    /**
+     * Some filters exclude a whole node type, like a minimum size for folders
+     */
+    private boolean isExcluded(Child child, ChildrenFilter filter) {
+        if (filter != null) {
+            if (child.size == null && filter.getSizeFrom() != null && filter.getSizeFrom() > 0) {
+                return true;
+            }
+
+            if (child.version == null && filter.getVersion() != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Sort column of the node type, or null if the node type has no such column
+     */
+    private String getKey(Child child, int order) {
+        switch (order) {
+        case ORDER_NAME:
+            return child.name;
+
+        case ORDER_SIZE:
+            return child.size;
+
+        case ORDER_DATE:
+            return child.date;
+
+        case ORDER_AUTHOR:
+            return child.author;
+
+        default:
+            return child.alias + ".name";
+        }
+    }
+
+    /**
+     * Get node type definition
+     */
+    private Child getChild(Class<? extends NodeBase> type) {
+        if (NodeFolder.class.equals(type)) {
+            return FOLDER;
+        } else if (NodeDocument.class.equals(type)) {
+            return DOCUMENT;
+        } else if (NodeMail.class.equals(type)) {
+            return MAIL;
+        } else {
+            throw new IllegalArgumentException("Unsupported node type: " + type);
+        }
+    }
+
+    /**
+     * Reads the next rows of a node type after the cursor, as UUID and sort key pairs
+     */
+    interface RowReader {
+        public List<Object[]> read(String type, ChildrenCursor cursor, int batch);
+    }
+
+    /**
+     * Node type definition: the entity, its query and the expression of every sort column
+     */
+    private static class Child {
+        private final String type;
+        private final String alias;
+        private final String from;
+        private final int rank;
+        private final String name;
+        private final String size;
+        private final String date;
+        private final String author;
+        private final String version;
+
+        private Child(String type, String alias, String from, int rank, String name, String size, String date, String author,
+                String version) {
+            this.type = type;
+            this.alias = alias;
+            this.from = from;
+            this.rank = rank;
+            this.name = name;
+            this.size = size;
+            this.date = date;
+            this.author = author;
+            this.version = version;
+        }
+    }
+}
@@ -33,6 +33,7 @@ import com.openkm.dao.bean.NodeDocument;
 import com.openkm.dao.bean.NodeFolder;
 import com.openkm.dao.bean.NodeMail;
 import com.openkm.module.db.stuff.DbAccessManager;
+import com.openkm.module.db.stuff.GrantedAccessFilterFactory;
 import com.openkm.module.db.stuff.SecurityHelper;
 import com.openkm.util.FormatUtil;
 import org.apache.lucene.analysis.Analyzer;
@@ -62,7 +63,10 @@ import java.io.StringReader;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * Search results are filtered by com.openkm.module.db.stuff.ReadAccessFilterFactory, which limit the results only for
@@ -74,10 +78,12 @@ public class SearchDAO {
     private static Logger log = LoggerFactory.getLogger(SearchDAO.class);
     private static SearchDAO single = new SearchDAO();
     private static final int MAX_FRAGMENT_LEN = 256;
+    private static final int ACCESS_CHECK_BATCH = 25;
     public static final String SEARCH_LUCENE = "lucene";
     public static final String SEARCH_ACCESS_MANAGER_MORE = "am_more";
     public static final String SEARCH_ACCESS_MANAGER_WINDOW = "am_window";
     public static final String SEARCH_ACCESS_MANAGER_LIMITED = "am_limited";
+    public static final String SEARCH_ACCESS_MANAGER_FILTER = "am_filter";
     public static Analyzer analyzer = null;
 
     static {
@@ -130,6 +136,8 @@ public class SearchDAO {
                 result = runQueryAccessManagerWindow(ftSession, query, offset, limit);
             } else if (SEARCH_ACCESS_MANAGER_LIMITED.equals(Config.SECURITY_SEARCH_EVALUATION)) {
                 result = runQueryAccessManagerLimited(ftSession, query, offset, limit);
+            } else if (SEARCH_ACCESS_MANAGER_FILTER.equals(Config.SECURITY_SEARCH_EVALUATION)) {
+                result = runQueryAccessManagerFilter(ftSession, query, offset, limit);
             }
 
             HibernateUtil.commit(tx);
@@ -241,17 +249,12 @@ public class SearchDAO {
         highlighter.setTextFragmenter(new SimpleSpanFragmenter(scorer, MAX_FRAGMENT_LEN));
 
         // Set limits
-        Iterator<Object[]> it = ftq.iterate();
-        DbAccessManager am = SecurityHelper.getAccessManager();
+        GrantedResults it = new GrantedResults(ftq.iterate(), SecurityHelper.getAccessManager());
 
         // Bypass offset
         while (it.hasNext() && count < offset) {
-            Object[] qRes = it.next();
-            NodeBase nBase = (NodeBase) qRes[1];
-
-            if (am.isGranted(nBase, Permission.READ)) {
-                count++;
-            }
+            it.next();
+            count++;
         }
 
         // Read limit results
@@ -260,22 +263,16 @@ public class SearchDAO {
             Float score = (Float) qRes[0];
             NodeBase nBase = (NodeBase) qRes[1];
 
-            if (am.isGranted(nBase, Permission.READ)) {
-                // Add result
-                addResult(ftSession, results, highlighter, score, nBase);
-            }
+            // Add result
+            addResult(ftSession, results, highlighter, score, nBase);
         }
 
         // Check if pending results
         count = results.size() + offset;
 
         while (it.hasNext() && count < offset + limit + 1) {
-            Object[] qRes = it.next();
-            NodeBase nBase = (NodeBase) qRes[1];
-
-            if (am.isGranted(nBase, Permission.READ)) {
-                count++;
-            }
+            it.next();
+            count++;
         }
 
         result.setTotal(count);
@@ -312,17 +309,12 @@ public class SearchDAO {
         highlighter.setTextFragmenter(new SimpleSpanFragmenter(scorer, MAX_FRAGMENT_LEN));
 
         // Set limits
-        Iterator<Object[]> it = ftq.iterate();
-        DbAccessManager am = SecurityHelper.getAccessManager();
+        GrantedResults it = new GrantedResults(ftq.iterate(), SecurityHelper.getAccessManager());
 
         // Bypass offset
         while (it.hasNext() && count < offset) {
-            Object[] qRes = it.next();
-            NodeBase nBase = (NodeBase) qRes[1];
-
-            if (am.isGranted(nBase, Permission.READ)) {
-                count++;
-            }
+            it.next();
+            count++;
         }
 
         // Read limit results
@@ -331,22 +323,16 @@ public class SearchDAO {
             Float score = (Float) qRes[0];
             NodeBase nBase = (NodeBase) qRes[1];
 
-            if (am.isGranted(nBase, Permission.READ)) {
-                // Add result
-                addResult(ftSession, results, highlighter, score, nBase);
-            }
+            // Add result
+            addResult(ftSession, results, highlighter, score, nBase);
         }
 
         // Check if pending results
         count = results.size() + offset;
 
         while (it.hasNext() && count < offset + limit * 2) {
-            Object[] qRes = it.next();
-            NodeBase nBase = (NodeBase) qRes[1];
-
-            if (am.isGranted(nBase, Permission.READ)) {
-                count++;
-            }
+            it.next();
+            count++;
         }
 
         result.setTotal(count);
@@ -383,17 +369,12 @@ public class SearchDAO {
         highlighter.setTextFragmenter(new SimpleSpanFragmenter(scorer, MAX_FRAGMENT_LEN));
 
         // Set limits
-        Iterator<Object[]> it = ftq.iterate();
-        DbAccessManager am = SecurityHelper.getAccessManager();
+        GrantedResults it = new GrantedResults(ftq.iterate(), SecurityHelper.getAccessManager());
 
         // Bypass offset
         while (it.hasNext() && count < offset) {
-            Object[] qRes = it.next();
-            NodeBase nBase = (NodeBase) qRes[1];
-
-            if (am.isGranted(nBase, Permission.READ)) {
-                count++;
-            }
+            it.next();
+            count++;
         }
 
         // Read limit results
@@ -402,22 +383,16 @@ public class SearchDAO {
             Float score = (Float) qRes[0];
             NodeBase nBase = (NodeBase) qRes[1];
 
-            if (am.isGranted(nBase, Permission.READ)) {
-                // Add result
-                addResult(ftSession, results, highlighter, score, nBase);
-            }
+            // Add result
+            addResult(ftSession, results, highlighter, score, nBase);
         }
 
         // Check if pending results
         count = results.size() + offset;
 
         while (it.hasNext() && count < Config.MAX_SEARCH_RESULTS) {
-            Object[] qRes = it.next();
-            NodeBase nBase = (NodeBase) qRes[1];
-
-            if (am.isGranted(nBase, Permission.READ)) {
-                count++;
-            }
+            it.next();
+            count++;
         }
 
         result.setTotal(count);
@@ -427,6 +402,50 @@ public class SearchDAO {
         return result;
     }
 
+    /**
+     * Security is evaluated by Lucene using the own node permissions stored in the index, and the inherited
+     * permissions are checked by AccessManager for every distinct parent at once (see GrantedAccessFilter).
+     * As the pruning is done before collecting the results, only the requested page is loaded from database
+     * and the total is exact. The calculated filter is cached until the next security change.
+     */
+    @SuppressWarnings("unchecked")
+    private NodeResultSet runQueryAccessManagerFilter(FullTextSession ftSession, Query query, int offset, int limit) throws IOException,
+            InvalidTokenOffsetsException, HibernateException {
+        log.debug("runQueryAccessManagerFilter({}, {}, {}, {})", new Object[] { ftSession, query, offset, limit });
+        List<NodeQueryResult> results = new ArrayList<NodeQueryResult>();
+        NodeResultSet result = new NodeResultSet();
+        FullTextQuery ftq = ftSession.createFullTextQuery(query, NodeDocument.class, NodeFolder.class, NodeMail.class);
+        ftq.setProjection(FullTextQuery.SCORE, FullTextQuery.THIS);
+        QueryScorer scorer = new QueryScorer(query, NodeDocument.TEXT_FIELD);
+
+        if (GrantedAccessFilterFactory.isRestricted()) {
+            ftq.enableFullTextFilter("grantedAccess");
+        }
+
+        // Set limits
+        ftq.setFirstResult(offset);
+        ftq.setMaxResults(limit);
+
+        // Highlight using a CSS style
+        SimpleHTMLFormatter formatter = new SimpleHTMLFormatter("<span class='highlight'>", "</span>");
+        Highlighter highlighter = new Highlighter(formatter, scorer);
+        highlighter.setTextFragmenter(new SimpleSpanFragmenter(scorer, MAX_FRAGMENT_LEN));
+
+        for (Iterator<Object[]> it = ftq.iterate(); it.hasNext();) {
+            Object[] qRes = it.next();
+            Float score = (Float) qRes[0];
+            NodeBase nBase = (NodeBase) qRes[1];
+
+            // Add result
+            addResult(ftSession, results, highlighter, score, nBase);
+        }
+
+        result.setTotal(ftq.getResultSize());
+        result.setResults(results);
+        log.debug("runQueryAccessManagerFilter: {}", result);
+        return result;
+    }
+
     /**
      * Add result
      */
@@ -540,15 +559,11 @@ public class SearchDAO {
         List<NodeFolder> results = q.list();
 
         // Security Check
-        DbAccessManager am = SecurityHelper.getAccessManager();
-
-        for (Iterator<NodeFolder> it = results.iterator(); it.hasNext();) {
-            NodeFolder node = it.next();
+        SecurityHelper.pruneNodeList(results);
 
-            if (am.isGranted(node, Permission.READ)) {
-                ret.add(node.getUuid());
-                ret.addAll(findFoldersInDepthHelper(session, node.getUuid()));
-            }
+        for (NodeFolder node : results) {
+            ret.add(node.getUuid());
+            ret.addAll(findFoldersInDepthHelper(session, node.getUuid()));
         }
 
         log.debug("findFoldersInDepthHelper: {}", ret);
@@ -600,6 +615,8 @@ public class SearchDAO {
                     result = runQueryAccessManagerWindow(ftSession, query, 0, maxResults);
                 } else if (SEARCH_ACCESS_MANAGER_LIMITED.equals(Config.SECURITY_SEARCH_EVALUATION)) {
                     result = runQueryAccessManagerLimited(ftSession, query, 0, maxResults);
+                } else if (SEARCH_ACCESS_MANAGER_FILTER.equals(Config.SECURITY_SEARCH_EVALUATION)) {
+                    result = runQueryAccessManagerFilter(ftSession, query, 0, maxResults);
                 }
             } else {
                 log.warn("Document has not text extracted: {}", uuid);
@@ -690,4 +707,49 @@ public class SearchDAO {
 
         return terms;
     }
+
+    /**
+     * Query results the current user can read. Permissions are checked for a batch of results at once.
+     */
+    private static class GrantedResults {
+        private final Iterator<Object[]> it;
+        private final DbAccessManager am;
+        private final LinkedList<Object[]> granted = new LinkedList<Object[]>();
+
+        public GrantedResults(Iterator<Object[]> it, DbAccessManager am) {
+            this.it = it;
+            this.am = am;
+        }
+
+        public boolean hasNext() throws DatabaseException {
+            while (granted.isEmpty() && it.hasNext()) {
+                List<Object[]> batch = new ArrayList<Object[]>();
+                List<NodeBase> nodes = new ArrayList<NodeBase>();
+
+                while (it.hasNext() && batch.size() < ACCESS_CHECK_BATCH) {
+                    Object[] qRes = it.next();
+                    batch.add(qRes);
+                    nodes.add((NodeBase) qRes[1]);
+                }
+
+                Set<String> uuids = am.isGranted(nodes, Permission.READ);
+
+                for (Object[] qRes : batch) {
+                    if (uuids.contains(((NodeBase) qRes[1]).getUuid())) {
+                        granted.add(qRes);
+                    }
+                }
+            }
+
+            return !granted.isEmpty();
+        }
+
+        public Object[] next() throws DatabaseException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return granted.removeFirst();
+        }
+    }
 }
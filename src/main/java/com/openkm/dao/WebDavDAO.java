@@ -0,0 +1,328 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.dao;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.bean.Document;
+import com.openkm.bean.Folder;
+import com.openkm.bean.Mail;
+import com.openkm.bean.Permission;
+import com.openkm.bean.Version;
+import com.openkm.core.Config;
+import com.openkm.core.DatabaseException;
+import com.openkm.dao.bean.NodeBase;
+import com.openkm.module.db.stuff.SecurityHelper;
+
+/**
+ * Lightweight child listings for WebDAV. Only the properties shown by a WebDAV client are read,
+ * with projection queries in pages of Config.SYSTEM_WEBDAV_LISTING_PAGE_SIZE nodes. The read
+ * permission of each page is checked at once.
+ */
+public class WebDavDAO {
+    private static Logger log = LoggerFactory.getLogger(WebDavDAO.class);
+    private static WebDavDAO single = new WebDavDAO();
+
+    private WebDavDAO() {
+    }
+
+    public static WebDavDAO getInstance() {
+        return single;
+    }
+
+    /**
+     * Find child folders
+     */
+    @SuppressWarnings("unchecked")
+    public List<Folder> findFolders(String parentUuid, String parentPath) throws DatabaseException {
+        log.debug("findFolders({}, {})", parentUuid, parentPath);
+        String qs = "select nf.uuid, nf.name, nf.created from NodeFolder nf where nf.parent=:parent";
+        List<Folder> ret = new ArrayList<Folder>();
+        Session session = null;
+
+        try {
+            long begin = System.currentTimeMillis();
+            session = HibernateUtil.getSessionFactory().openSession();
+            int pageSize = getPageSize();
+            String last = null;
+            int fetched = 0;
+
+            do {
+                List<Object[]> page = createPageQuery(session, qs, "nf", parentUuid, last, pageSize).list();
+                fetched = page.size();
+
+                if (fetched > 0) {
+                    last = (String) page.get(fetched - 1)[1];
+
+                    for (Object[] row : pruneRows(session, parentUuid, page)) {
+                        Folder fld = new Folder();
+                        fld.setUuid((String) row[0]);
+                        fld.setPath(parentPath + "/" + row[1]);
+                        fld.setCreated((Calendar) row[2]);
+                        ret.add(fld);
+                    }
+                }
+            } while (fetched == pageSize);
+
+            log.trace("findFolders.Time: {}", System.currentTimeMillis() - begin);
+            log.debug("findFolders: {}", ret.size());
+            return ret;
+        } catch (HibernateException e) {
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
+    /**
+     * Find child documents with the size of their current version
+     */
+    @SuppressWarnings("unchecked")
+    public List<Document> findDocuments(String parentUuid, String parentPath) throws DatabaseException {
+        log.debug("findDocuments({}, {})", parentUuid, parentPath);
+        String qs = "select nd.uuid, nd.name, nd.created, nd.lastModified, nd.mimeType, ndv.name, ndv.size "
+                + "from NodeDocument nd, NodeDocumentVersion ndv where ndv.parent=nd.uuid and ndv.current=:current "
+                + "and nd.parent=:parent";
+        List<Document> ret = new ArrayList<Document>();
+        Session session = null;
+
+        try {
+            long begin = System.currentTimeMillis();
+            session = HibernateUtil.getSessionFactory().openSession();
+            int pageSize = getPageSize();
+            String last = null;
+            int fetched = 0;
+
+            do {
+                Query q = createPageQuery(session, qs, "nd", parentUuid, last, pageSize);
+                q.setBoolean("current", true);
+                List<Object[]> page = q.list();
+                fetched = page.size();
+
+                if (fetched > 0) {
+                    last = (String) page.get(fetched - 1)[1];
+
+                    for (Object[] row : pruneRows(session, parentUuid, page)) {
+                        Document doc = new Document();
+                        doc.setUuid((String) row[0]);
+                        doc.setPath(parentPath + "/" + row[1]);
+                        doc.setCreated((Calendar) row[2]);
+                        doc.setLastModified((Calendar) row[3]);
+                        doc.setMimeType((String) row[4]);
+                        Version version = new Version();
+                        version.setName((String) row[5]);
+                        version.setSize((Long) row[6]);
+                        version.setActual(true);
+                        doc.setActualVersion(version);
+                        ret.add(doc);
+                    }
+                }
+            } while (fetched == pageSize);
+
+            log.trace("findDocuments.Time: {}", System.currentTimeMillis() - begin);
+            log.debug("findDocuments: {}", ret.size());
+            return ret;
+        } catch (HibernateException e) {
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
+    /**
+     * Find child mails. Attachments only have their UUID and path, and are pruned like the mails.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Mail> findMails(String parentUuid, String parentPath) throws DatabaseException {
+        log.debug("findMails({}, {})", parentUuid, parentPath);
+        String qs = "select nm.uuid, nm.name, nm.created, nm.mimeType from NodeMail nm where nm.parent=:parent";
+        String qsAttach = "select nd.parent, nd.uuid, nd.name from NodeDocument nd where nd.parent in (:parents)";
+        List<Mail> ret = new ArrayList<Mail>();
+        Session session = null;
+
+        try {
+            long begin = System.currentTimeMillis();
+            session = HibernateUtil.getSessionFactory().openSession();
+            int pageSize = getPageSize();
+            String last = null;
+            int fetched = 0;
+
+            do {
+                List<Object[]> page = createPageQuery(session, qs, "nm", parentUuid, last, pageSize).list();
+                fetched = page.size();
+
+                if (fetched > 0) {
+                    Map<String, Mail> mails = new HashMap<String, Mail>();
+                    last = (String) page.get(fetched - 1)[1];
+
+                    for (Object[] row : pruneRows(session, parentUuid, page)) {
+                        Mail mail = new Mail();
+                        mail.setUuid((String) row[0]);
+                        mail.setPath(parentPath + "/" + row[1]);
+                        mail.setCreated((Calendar) row[2]);
+                        mail.setMimeType((String) row[3]);
+                        mail.setAttachments(new ArrayList<Document>());
+                        mails.put(mail.getUuid(), mail);
+                        ret.add(mail);
+                    }
+
+                    if (!mails.isEmpty()) {
+                        Query qAttach = session.createQuery(qsAttach);
+                        qAttach.setParameterList("parents", mails.keySet());
+                        List<Object[]> attachs = qAttach.list();
+                        Map<String, NodeBase> nodes = new HashMap<String, NodeBase>();
+
+                        for (Object[] row : attachs) {
+                            NodeBase nBase = new NodeBase();
+                            nBase.setUuid((String) row[1]);
+                            nBase.setParent((String) row[0]);
+                            nodes.put(nBase.getUuid(), nBase);
+                        }
+
+                        Set<String> granted = findGranted(session, nodes);
+
+                        for (Object[] row : attachs) {
+                            if (granted.contains((String) row[1])) {
+                                Mail mail = mails.get((String) row[0]);
+                                Document attach = new Document();
+                                attach.setUuid((String) row[1]);
+                                attach.setPath(mail.getPath() + "/" + row[2]);
+                                mail.getAttachments().add(attach);
+                            }
+                        }
+                    }
+                }
+            } while (fetched == pageSize);
+
+            log.trace("findMails.Time: {}", System.currentTimeMillis() - begin);
+            log.debug("findMails: {}", ret.size());
+            return ret;
+        } catch (HibernateException e) {
+            throw new DatabaseException(e.getMessage(), e);
+        } finally {
+            HibernateUtil.close(session);
+        }
+    }
+
+    /**
+     * Create the query of a page of children ordered by name, which is unique between siblings.
+     * The node UUID and name are expected as the first and second selected values.
+     */
+    private Query createPageQuery(Session session, String qs, String alias, String parentUuid, String last, int pageSize)
+            throws HibernateException {
+        StringBuilder sb = new StringBuilder(qs);
+
+        if (last != null) {
+            sb.append(" and ").append(alias).append(".name>:last");
+        }
+
+        sb.append(" order by ").append(alias).append(".name");
+        Query q = session.createQuery(sb.toString());
+        q.setString("parent", parentUuid);
+
+        if (last != null) {
+            q.setString("last", last);
+        }
+
+        q.setMaxResults(pageSize);
+        return q;
+    }
+
+    /**
+     * Remove the rows of the nodes not readable by the current user
+     */
+    private List<Object[]> pruneRows(Session session, String parentUuid, List<Object[]> rows) throws HibernateException,
+            DatabaseException {
+        Map<String, NodeBase> nodes = new HashMap<String, NodeBase>();
+
+        for (Object[] row : rows) {
+            NodeBase nBase = new NodeBase();
+            nBase.setUuid((String) row[0]);
+            nBase.setParent(parentUuid);
+            nodes.put(nBase.getUuid(), nBase);
+        }
+
+        Set<String> granted = findGranted(session, nodes);
+        List<Object[]> ret = new ArrayList<Object[]>(rows);
+
+        for (Iterator<Object[]> it = ret.iterator(); it.hasNext();) {
+            if (!granted.contains((String) it.next()[0])) {
+                it.remove();
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Get the UUIDs of the nodes readable by the current user. The nodes only need UUID and parent,
+     * permissions of the whole page are read with two queries instead of loading every node.
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> findGranted(Session session, Map<String, NodeBase> nodes) throws HibernateException,
+            DatabaseException {
+        String qsUsers = "select nb.uuid, index(userPermissions), userPermissions "
+                + "from NodeBase nb join nb.userPermissions userPermissions where nb.uuid in (:uuids)";
+        String qsRoles = "select nb.uuid, index(rolePermissions), rolePermissions "
+                + "from NodeBase nb join nb.rolePermissions rolePermissions where nb.uuid in (:uuids)";
+
+        if (nodes.isEmpty()) {
+            return new HashSet<String>();
+        }
+
+        Query qUsers = session.createQuery(qsUsers);
+        qUsers.setParameterList("uuids", nodes.keySet());
+
+        for (Object[] tupla : (List<Object[]>) qUsers.list()) {
+            nodes.get((String) tupla[0]).getUserPermissions().put((String) tupla[1], (Integer) tupla[2]);
+        }
+
+        Query qRoles = session.createQuery(qsRoles);
+        qRoles.setParameterList("uuids", nodes.keySet());
+
+        for (Object[] tupla : (List<Object[]>) qRoles.list()) {
+            nodes.get((String) tupla[0]).getRolePermissions().put((String) tupla[1], (Integer) tupla[2]);
+        }
+
+        return SecurityHelper.getAccessManager().isGranted(nodes.values(), Permission.READ);
+    }
+
+    /**
+     * Listing page size
+     */
+    private int getPageSize() {
+        return Math.max(1, Config.SYSTEM_WEBDAV_LISTING_PAGE_SIZE);
+    }
+}
@@ -40,6 +40,7 @@ import javax.persistence.JoinColumn;
 import javax.persistence.MapKeyColumn;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
@@ -50,11 +51,13 @@ import org.hibernate.search.annotations.Field;
 import org.hibernate.search.annotations.FieldBridge;
 import org.hibernate.search.annotations.FilterCacheModeType;
 import org.hibernate.search.annotations.FullTextFilterDef;
+import org.hibernate.search.annotations.FullTextFilterDefs;
 import org.hibernate.search.annotations.Index;
 import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.Resolution;
 import org.hibernate.search.annotations.Store;
 
+import com.openkm.module.db.stuff.GrantedAccessFilterFactory;
 import com.openkm.module.db.stuff.LowerCaseFieldBridge;
 import com.openkm.module.db.stuff.MapFieldBridge;
 import com.openkm.module.db.stuff.ReadAccessFilterFactory;
@@ -63,8 +66,13 @@ import com.openkm.module.db.stuff.SetPropertiesFieldBridge;
 
 @Entity
 @Indexed
-@FullTextFilterDef(name = "readAccess", impl = ReadAccessFilterFactory.class, cache = FilterCacheModeType.NONE)
-@Table(name = "OKM_NODE_BASE")
+@FullTextFilterDefs({
+        @FullTextFilterDef(name = "readAccess", impl = ReadAccessFilterFactory.class, cache = FilterCacheModeType.NONE),
+        @FullTextFilterDef(name = "grantedAccess", impl = GrantedAccessFilterFactory.class,
+                cache = FilterCacheModeType.INSTANCE_AND_DOCIDSETRESULTS) })
+// Added to existing databases by HibernateUtil on schema update, unless there are duplicated names
+@Table(name = "OKM_NODE_BASE", uniqueConstraints = { @UniqueConstraint(name = "IDX_NODE_BASE_PARNAM", columnNames = { "NBS_PARENT",
+        "NBS_NAME" }) })
 @Inheritance(strategy = InheritanceType.JOINED)
 @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class NodeBase implements Serializable {
@@ -43,6 +43,9 @@ import org.hibernate.search.annotations.Store;
 @Indexed
 @Table(name = "OKM_NODE_DOCUMENT")
 @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@org.hibernate.annotations.Table(appliesTo = "OKM_NODE_DOCUMENT", indexes = {
+// CREATE INDEX IDX_NOD_DOC_TXTEXT ON OKM_NODE_DOCUMENT(NDC_TEXT_EXTRACTED);
+@org.hibernate.annotations.Index(name = "IDX_NOD_DOC_TXTEXT", columnNames = { "NDC_TEXT_EXTRACTED" }) })
 public class NodeDocument extends NodeBase {
     private static final long serialVersionUID = 1L;
     public static final String TEXT_FIELD = "text";
@@ -84,6 +87,10 @@ public class NodeDocument extends NodeBase {
     @Field(index = Index.UN_TOKENIZED, store = Store.YES)
     private boolean textExtracted;
 
+    // Nullable, so the column can be added to existing databases on update
+    @Column(name = "NDC_TEXT_EXTRACTION_FAILURES")
+    private Integer textExtractionFailures;
+
     @Column(name = "NDC_LOCKED", nullable = false)
     @Type(type = "true_false")
     @Field(index = Index.UN_TOKENIZED, store = Store.YES)
@@ -156,6 +163,14 @@ public class NodeDocument extends NodeBase {
         this.textExtracted = textExtracted;
     }
 
+    public int getTextExtractionFailures() {
+        return textExtractionFailures == null ? 0 : textExtractionFailures;
+    }
+
+    public void setTextExtractionFailures(int textExtractionFailures) {
+        this.textExtractionFailures = textExtractionFailures;
+    }
+
     public boolean isLocked() {
         return locked;
     }
@@ -195,6 +210,7 @@ public class NodeDocument extends NodeBase {
         sb.append(", userPermissions=").append(userPermissions);
         sb.append(", rolePermissions=").append(rolePermissions);
         sb.append(", textExtracted=").append(textExtracted);
+        sb.append(", textExtractionFailures=").append(textExtractionFailures);
         sb.append(", locked=").append(locked);
         sb.append(", lock=").append(lock);
         sb.append("}");
@@ -104,6 +104,12 @@ public class NodeDocumentVersion implements Serializable {
     @Field(index = Index.UN_TOKENIZED, store = Store.YES)
     private String checksum;
 
+    // SHA-256 of the content when stored in the content-addressed datastore
+    @Column(name = "NDV_CONTENT_DIGEST", length = 64)
+    // CREATE INDEX IDX_NOD_DOC_VER_DIGEST ON OKM_NODE_DOCUMENT_VERSION(NDV_CONTENT_DIGEST);
+    @org.hibernate.annotations.Index(name = "IDX_NOD_DOC_VER_DIGEST")
+    private String contentDigest;
+
     // http://stackoverflow.com/questions/3677380/proper-hibernate-annotation-for-byte
     @Column(name = "NDV_CONTENT")
     @Lob
@@ -201,6 +207,14 @@ public class NodeDocumentVersion implements Serializable {
         this.checksum = checksum;
     }
 
+    public String getContentDigest() {
+        return contentDigest;
+    }
+
+    public void setContentDigest(String contentDigest) {
+        this.contentDigest = contentDigest;
+    }
+
     public byte[] getContent() {
         return content;
     }
@@ -231,6 +245,7 @@ public class NodeDocumentVersion implements Serializable {
         sb.append(", comment=").append(comment);
         sb.append(", mimeType=").append(mimeType);
         sb.append(", checksum=").append(checksum);
+        sb.append(", contentDigest=").append(contentDigest);
         sb.append(", content=").append(String.valueOf(content));
         sb.append(", text=").append(text);
         sb.append("}");
@@ -0,0 +1,123 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.openkm.dao.bean;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Pending change of the folder subtree counters, to be applied to a folder and all its ancestors
+ * by NodeFolderAggregateDAO.applyPending().
+ */
+@Entity
+@Table(name = "OKM_NODE_FOLDER_AGGREGATE_DELTA")
+public class NodeFolderAggregateDelta implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "NFD_ID")
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private long id;
+
+    @Column(name = "NFD_FOLDER", length = 64, nullable = false)
+    private String folder;
+
+    @Column(name = "NFD_DOCUMENTS", nullable = false)
+    private long documents;
+
+    @Column(name = "NFD_FOLDERS", nullable = false)
+    private long folders;
+
+    @Column(name = "NFD_MAILS", nullable = false)
+    private long mails;
+
+    @Column(name = "NFD_SIZE", nullable = false)
+    private long size;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    public void setFolder(String folder) {
+        this.folder = folder;
+    }
+
+    public long getDocuments() {
+        return documents;
+    }
+
+    public void setDocuments(long documents) {
+        this.documents = documents;
+    }
+
+    public long getFolders() {
+        return folders;
+    }
+
+    public void setFolders(long folders) {
+        this.folders = folders;
+    }
+
+    public long getMails() {
+        return mails;
+    }
+
+    public void setMails(long mails) {
+        this.mails = mails;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        sb.append("id=").append(id);
+        sb.append(", folder=").append(folder);
+        sb.append(", documents=").append(documents);
+        sb.append(", folders=").append(folders);
+        sb.append(", mails=").append(mails);
+        sb.append(", size=").append(size);
+        sb.append("}");
+        return sb.toString();
+    }
+}
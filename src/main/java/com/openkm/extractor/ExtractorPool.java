@@ -0,0 +1,258 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.extractor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.util.ExecutionUtils;
+
+/**
+ * Long-lived text extraction pool for a class of extractors with a similar cost.
+ *
+ * Every extraction runs in a pool thread with its own timeout, counted from the moment it starts.
+ * When the timeout expires the extraction thread is interrupted and the external process it may be
+ * running is killed, so a hanging OCR does not take over the threads used to extract cheap documents.
+ */
+public class ExtractorPool {
+    private static Logger log = LoggerFactory.getLogger(ExtractorPool.class);
+    private static final long QUEUE_POLL = TimeUnit.SECONDS.toMillis(1);
+    public static final String CHEAP = "cheap";
+    public static final String OFFICE = "office";
+    public static final String OCR = "ocr";
+    public static final String AUDIO = "audio";
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+    private volatile int timeout;
+    private volatile long since = System.currentTimeMillis();
+
+    /**
+     * @param threads Concurrent extractions.
+     * @param timeout Extraction timeout in minutes.
+     */
+    public ExtractorPool(final String name, int threads, int timeout) {
+        this.name = name;
+        this.timeout = timeout;
+        int size = Math.max(1, threads);
+        executor = new ThreadPoolExecutor(size, size, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setName("TextExtractorPool-" + name + "-" + t.getId());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Change concurrency and timeout after a configuration reload
+     */
+    public void configure(int threads, int timeout) {
+        int size = Math.max(1, threads);
+        this.timeout = timeout;
+
+        if (size > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * Run an extraction waiting at most the pool timeout. The timeout is counted from the moment the
+     * extraction starts, so the time waiting in the pool queue does not count.
+     */
+    public String extract(Callable<String> extraction) throws Exception {
+        long begin = System.currentTimeMillis();
+        Runner runner = new Runner(extraction);
+        Future<String> future = executor.submit(runner);
+
+        try {
+            while (true) {
+                long started = runner.started;
+                long wait = QUEUE_POLL;
+
+                if (started > 0) {
+                    wait = started + TimeUnit.MINUTES.toMillis(timeout) - System.currentTimeMillis();
+
+                    if (wait <= 0) {
+                        timedOut.incrementAndGet();
+                        cancel(future, runner);
+                        throw new ExtractionTimeoutException("Text extraction timeout after " + timeout + " minutes");
+                    }
+                }
+
+                try {
+                    String text = future.get(wait, TimeUnit.MILLISECONDS);
+                    completed.incrementAndGet();
+                    return text;
+                } catch (TimeoutException e) {
+                    // Still queued or running, check again
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel(future, runner);
+            throw e;
+        } catch (ExecutionException e) {
+            failed.incrementAndGet();
+            Throwable cause = e.getCause();
+
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else {
+                throw e;
+            }
+        } finally {
+            totalTime.addAndGet(System.currentTimeMillis() - begin);
+        }
+    }
+
+    /**
+     * Cancel an extraction, killing the external process it may be running
+     */
+    private void cancel(Future<String> future, Runner runner) {
+        future.cancel(true);
+
+        synchronized (runner) {
+            if (runner.thread != null) {
+                log.warn("Cancelling {} text extraction in {}", name, runner.thread.getName());
+                ExecutionUtils.destroy(runner.thread);
+            }
+        }
+    }
+
+    /**
+     * Extraction keeping track of the thread running it and when it started
+     */
+    private static class Runner implements Callable<String> {
+        private final Callable<String> extraction;
+        private Thread thread = null; // Guarded by this
+        private volatile long started = 0;
+
+        private Runner(Callable<String> extraction) {
+            this.extraction = extraction;
+        }
+
+        @Override
+        public String call() throws Exception {
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+
+            started = System.currentTimeMillis();
+
+            try {
+                return extraction.call();
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop pool threads
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Reset throughput counters
+     */
+    public void resetStats() {
+        completed.set(0);
+        failed.set(0);
+        timedOut.set(0);
+        totalTime.set(0);
+        since = System.currentTimeMillis();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * Average extraction time in milliseconds, including the time waiting in queue
+     */
+    public long getAverageTime() {
+        long total = completed.get() + failed.get() + timedOut.get();
+        return total == 0 ? 0 : totalTime.get() / total;
+    }
+
+    /**
+     * Extractions finished per minute since the pool creation or the last reset
+     */
+    public double getThroughput() {
+        long elapsed = System.currentTimeMillis() - since;
+        long total = completed.get() + failed.get() + timedOut.get();
+        return elapsed <= 0 ? 0 : Math.round(total * 6000000d / elapsed) / 100d;
+    }
+}
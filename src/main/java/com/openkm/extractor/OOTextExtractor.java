@@ -36,6 +36,7 @@ import org.slf4j.LoggerFactory;
 
 import com.openkm.core.ConversionException;
 import com.openkm.util.DocConverter;
+import com.openkm.util.OfficePool;
 
 /**
  * Text extractor for JPEG image documents.
@@ -97,7 +98,8 @@ public class OOTextExtractor extends AbstractTextExtractor {
             fos.flush();
             fos.close();
 
-            // Convert to text
+            // Convert to text, without delaying interactive conversions
+            OfficePool.setBatch(true);
             DocConverter.getInstance().convert(fIn, type, fOut);
             ret = FileUtils.readFileToString(fOut);
             log.debug("TEXT: " + ret);
@@ -106,6 +108,7 @@ public class OOTextExtractor extends AbstractTextExtractor {
             log.warn("Failed to extract text", e);
             return new StringReader("");
         } finally {
+            OfficePool.setBatch(false);
             stream.close();
             fIn.delete();
             fOut.delete();
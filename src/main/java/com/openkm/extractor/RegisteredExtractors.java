@@ -24,12 +24,16 @@ package com.openkm.extractor;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.JcrConstants;
@@ -59,6 +63,12 @@ import com.openkm.util.UserActivity;
 public class RegisteredExtractors {
     private static Logger log = LoggerFactory.getLogger(RegisteredExtractors.class);
     private static Map<String, TextExtractor> engine = new HashMap<String, TextExtractor>();
+    private static Map<String, ExtractorPool> pools = new LinkedHashMap<String, ExtractorPool>();
+    private static Map<String, ExtractorPool> poolByMimeType = new HashMap<String, ExtractorPool>();
+    private static final List<String> OFFICE_EXTRACTORS = Arrays.asList("org.apache.jackrabbit.extractor.MsWordTextExtractor",
+            "org.apache.jackrabbit.extractor.MsExcelTextExtractor", "org.apache.jackrabbit.extractor.MsPowerPointTextExtractor",
+            "org.apache.jackrabbit.extractor.OpenOfficeTextExtractor", "org.apache.jackrabbit.extractor.MsOutlookTextExtractor",
+            "org.apache.jackrabbit.extractor.PdfTextExtractor");
     private static JackrabbitTextExtractor jte = new JackrabbitTextExtractor();
     private static final int MIN_EXTRACTION = 16;
     private static final boolean EXPERIMENTAL = true;
@@ -68,6 +78,7 @@ public class RegisteredExtractors {
      */
     public static synchronized void init() {
         log.info("Initializing text extractors");
+        initPools();
 
         if (EXPERIMENTAL) {
             for (String clazz : Config.REGISTERED_TEXT_EXTRACTORS) {
@@ -80,6 +91,7 @@ public class RegisteredExtractors {
                         for (String contType : te.getContentTypes()) {
                             log.info("Registering {} for '{}'", te.getClass().getCanonicalName(), contType);
                             engine.put(contType, te);
+                            poolByMimeType.put(contType, pools.get(getCostClass(te)));
                         }
                     } else {
                         log.warn("Unknown text extractor class: {}", clazz);
@@ -99,6 +111,83 @@ public class RegisteredExtractors {
         }
     }
 
+    /**
+     * Create the extractor pools, or resize them after a configuration reload
+     */
+    private static void initPools() {
+        initPool(ExtractorPool.CHEAP, Config.MANAGED_TEXT_EXTRACTION_CHEAP_THREADS, Config.MANAGED_TEXT_EXTRACTION_CHEAP_TIMEOUT);
+        initPool(ExtractorPool.OFFICE, Config.MANAGED_TEXT_EXTRACTION_OFFICE_THREADS, Config.MANAGED_TEXT_EXTRACTION_OFFICE_TIMEOUT);
+        initPool(ExtractorPool.OCR, Config.MANAGED_TEXT_EXTRACTION_OCR_THREADS, Config.MANAGED_TEXT_EXTRACTION_OCR_TIMEOUT);
+        initPool(ExtractorPool.AUDIO, Config.MANAGED_TEXT_EXTRACTION_AUDIO_THREADS, Config.MANAGED_TEXT_EXTRACTION_AUDIO_TIMEOUT);
+    }
+
+    /**
+     * Create or resize an extractor pool
+     */
+    private static void initPool(String name, int threads, int timeout) {
+        ExtractorPool pool = pools.get(name);
+
+        if (pool == null) {
+            log.info("Creating {} text extractor pool: {} threads, {} minutes timeout", new Object[] { name, threads, timeout });
+            pools.put(name, new ExtractorPool(name, threads, timeout));
+        } else {
+            pool.configure(threads, timeout);
+        }
+    }
+
+    /**
+     * Classify a text extractor by its cost
+     */
+    private static String getCostClass(TextExtractor te) {
+        if (te instanceof Tesseract2TextExtractor || te instanceof Tesseract3TextExtractor || te instanceof CuneiformTextExtractor
+                || te instanceof BarcodeTextExtractor) {
+            return ExtractorPool.OCR;
+        } else if (te instanceof AudioTextExtractor) {
+            return ExtractorPool.AUDIO;
+        } else if (te instanceof PdfTextExtractor || te instanceof OOTextExtractor || te instanceof MsOffice2007TextExtractor
+                || te instanceof NativeMsExcelTextExtractor || OFFICE_EXTRACTORS.contains(te.getClass().getName())) {
+            return ExtractorPool.OFFICE;
+        } else {
+            return ExtractorPool.CHEAP;
+        }
+    }
+
+    /**
+     * Return the extractor pool for a MIME type, or the cheap one when unknown
+     */
+    private static synchronized ExtractorPool getPool(String mimeType) {
+        ExtractorPool pool = mimeType == null ? null : poolByMimeType.get(mimeType);
+        return pool != null ? pool : pools.get(ExtractorPool.CHEAP);
+    }
+
+    /**
+     * Return the extractor pools, with their queue depth and throughput metrics
+     */
+    public static synchronized List<ExtractorPool> getPools() {
+        return new ArrayList<ExtractorPool>(pools.values());
+    }
+
+    /**
+     * Reset extractor pool metrics
+     */
+    public static synchronized void resetPoolStats() {
+        for (ExtractorPool pool : pools.values()) {
+            pool.resetStats();
+        }
+    }
+
+    /**
+     * Stop extractor pool threads
+     */
+    public static synchronized void shutdown() {
+        for (ExtractorPool pool : pools.values()) {
+            pool.shutdown();
+        }
+
+        pools.clear();
+        poolByMimeType.clear();
+    }
+
     /**
      * Return registered content types
      */
@@ -176,6 +265,10 @@ public class RegisteredExtractors {
                 failureMessage = "Too few text extracted";
                 failure = true;
             }
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (ExtractionTimeoutException e) {
+            throw e;
         } catch (Exception e) {
             log.warn("Text extraction failure: {}", e.getMessage());
             failureMessage = e.getMessage();
@@ -193,9 +286,36 @@ public class RegisteredExtractors {
     }
 
     /**
-     * Extract text to be indexed
+     * Extract text to be indexed, in the extractor pool of its cost class
+     */
+    public static String getText(final String mimeType, final String encoding, final InputStream isContent) throws IOException {
+        ExtractorPool pool = getPool(mimeType);
+
+        if (pool == null) {
+            return extractText(mimeType, encoding, isContent);
+        }
+
+        try {
+            return pool.extract(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return extractText(mimeType, encoding, isContent);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Text extraction interrupted");
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Extract text in the calling thread
      */
-    public static String getText(String mimeType, String encoding, InputStream isContent) throws IOException {
+    private static String extractText(String mimeType, String encoding, InputStream isContent) throws IOException {
         BufferedInputStream bis = new BufferedInputStream(isContent);
         String text = null;
 
@@ -0,0 +1,491 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.extractor;
+
+import java.io.FileNotFoundException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.search.batchindexing.MassIndexerProgressMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.core.Config;
+import com.openkm.core.DatabaseException;
+import com.openkm.core.PathNotFoundException;
+import com.openkm.dao.NodeBaseDAO;
+import com.openkm.dao.NodeDocumentDAO;
+
+/**
+ * Text extraction queue.
+ *
+ * The queue is persisted by the NodeDocument textExtracted flag. Created and checked in documents are put
+ * directly in a bounded in-memory buffer which is drained by continuous workers. When the buffer is full
+ * the document is only kept in database, and the feeder refills the buffer from there as soon as the
+ * workers make room for it.
+ *
+ * Extracted texts are saved in batches of MANAGED_TEXT_EXTRACTION_BATCH documents, each one in a single
+ * transaction whose updates are sent as JDBC batches (see hibernate.jdbc.batch.size), so the database
+ * round trips and the Lucene index work are not paid once per document.
+ *
+ * A document which can not be read gets its failure count increased. It is fetched after the rest of
+ * pending documents, and left out of the queue after MANAGED_TEXT_EXTRACTION_RETRIES failures, until a
+ * new version or a rebuild resets the count.
+ */
+public class TextExtractorQueue {
+    private static Logger log = LoggerFactory.getLogger(TextExtractorQueue.class);
+    private static final long FEEDER_IDLE = TimeUnit.MINUTES.toMillis(1);
+    private static final long READONLY_PAUSE = TimeUnit.SECONDS.toMillis(5);
+    private static final long BATCH_WAIT = TimeUnit.SECONDS.toMillis(1);
+    private static final Object lock = new Object();
+    private static final Object feederLock = new Object();
+
+    // Guarded by lock
+    private static final Map<String, TextExtractorWork> queued = new HashMap<String, TextExtractorWork>();
+    private static final Map<String, TextExtractorWork> inProgress = new HashMap<String, TextExtractorWork>();
+    private static final Map<String, String> stale = new HashMap<String, String>();
+    private static List<TextExtractorWork> extracted = new ArrayList<TextExtractorWork>();
+
+    // Guarded by feederLock
+    private static boolean wakeUp = false;
+
+    private static BlockingQueue<TextExtractorWork> buffer = new LinkedBlockingQueue<TextExtractorWork>(1);
+    private static ExecutorService executor = null;
+    private static volatile boolean running = false;
+    private static volatile boolean rebuilding = false;
+    private static volatile MassIndexerProgressMonitor monitor = null;
+    private static volatile Calendar lastExecution = null;
+
+    /**
+     * Start feeder and workers.
+     */
+    public static synchronized void start() {
+        if (!running) {
+            int workers = 1;
+
+            if (Config.MANAGED_TEXT_EXTRACTION_CONCURRENT) {
+                // Enough workers to keep every extractor pool busy while others wait for slow documents
+                workers = Config.MANAGED_TEXT_EXTRACTION_CHEAP_THREADS + Config.MANAGED_TEXT_EXTRACTION_OFFICE_THREADS
+                        + Config.MANAGED_TEXT_EXTRACTION_OCR_THREADS + Config.MANAGED_TEXT_EXTRACTION_AUDIO_THREADS;
+                workers = Math.max(Config.MANAGED_TEXT_EXTRACTION_POOL_THREADS, workers);
+            }
+
+            log.info("Starting text extraction queue with {} workers", workers);
+            buffer = new LinkedBlockingQueue<TextExtractorWork>(Math.max(1, Config.MANAGED_TEXT_EXTRACTION_QUEUE_SIZE));
+            executor = Executors.newFixedThreadPool(workers + 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r);
+                    t.setName("TextExtractorThread-" + t.getId());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+            running = true;
+            executor.execute(new Feeder());
+
+            for (int i = 0; i < workers; i++) {
+                executor.execute(new Worker());
+            }
+        }
+    }
+
+    /**
+     * Stop feeder and workers. Buffered documents remain pending in database.
+     */
+    public static synchronized void shutdown() {
+        if (running) {
+            running = false;
+            executor.shutdownNow();
+            log.info("### All text extraction threads shutdown requested ###");
+
+            try {
+                for (int i = 0; !executor.awaitTermination(10, TimeUnit.SECONDS); i++) {
+                    log.info("### Awaiting for text extraction pool termination... ({}) ###", i);
+                }
+            } catch (InterruptedException e) {
+                log.warn("### Exception awaiting for text extraction pool termination: {} ###", e.getMessage());
+            }
+
+            // Save already extracted documents
+            flush();
+
+            synchronized (lock) {
+                buffer.clear();
+                queued.clear();
+            }
+
+            log.info("### All text extraction threads have finished ###");
+        }
+    }
+
+    /**
+     * Queue a document version for text extraction. Should be called once the transaction which reset
+     * the document textExtracted flag has been committed.
+     */
+    public static void enqueue(String docUuid, String docVerUuid) {
+        log.debug("enqueue({}, {})", docUuid, docVerUuid);
+
+        if (running) {
+            synchronized (lock) {
+                TextExtractorWork work = queued.get(docUuid);
+
+                if (inProgress.containsKey(docUuid)) {
+                    // The running extraction is outdated, so extract again when finished
+                    stale.put(docUuid, docVerUuid);
+                } else if (work != null) {
+                    work.setDocVerUuid(docVerUuid);
+                } else {
+                    work = new TextExtractorWork();
+                    work.setDocUuid(docUuid);
+                    work.setDocVerUuid(docVerUuid);
+
+                    if (buffer.offer(work)) {
+                        queued.put(docUuid, work);
+                    } else {
+                        log.debug("Text extraction buffer full, {} will be fetched from database", docUuid);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Ask the feeder to look for pending documents in database.
+     */
+    public static void wakeUp() {
+        synchronized (feederLock) {
+            wakeUp = true;
+            feederLock.notifyAll();
+        }
+    }
+
+    /**
+     * Force text extraction of every document in the repository.
+     */
+    public static void rebuild(MassIndexerProgressMonitor monitor) throws DatabaseException, InterruptedException {
+        if (!running) {
+            log.warn("*** Text extraction queue not started ***");
+        } else {
+            try {
+                // Clear pending extraction queue
+                NodeDocumentDAO.getInstance().resetAllPendingExtractionFlags();
+                TextExtractorQueue.monitor = monitor;
+                rebuilding = true;
+                wakeUp();
+
+                while (running && (!isIdle() || NodeDocumentDAO.getInstance().hasPendingExtractions())) {
+                    Thread.sleep(1000);
+                }
+            } finally {
+                rebuilding = false;
+                TextExtractorQueue.monitor = null;
+            }
+        }
+    }
+
+    /**
+     * Get in progress extraction works.
+     */
+    public static List<TextExtractorWork> getInProgressWorks() {
+        synchronized (lock) {
+            return new ArrayList<TextExtractorWork>(inProgress.values());
+        }
+    }
+
+    /**
+     * Get number of buffered works.
+     */
+    public static int getBufferSize() {
+        return buffer.size();
+    }
+
+    /**
+     * Return if there are no buffered nor in progress works.
+     */
+    public static boolean isIdle() {
+        synchronized (lock) {
+            return queued.isEmpty() && inProgress.isEmpty();
+        }
+    }
+
+    /**
+     * Return when the last work was finished.
+     */
+    public static Calendar getLastExecution() {
+        return lastExecution;
+    }
+
+    /**
+     * Text extraction is paused while the system is readonly, except when rebuilding.
+     */
+    private static boolean canProcess() {
+        return rebuilding || !Config.SYSTEM_READONLY;
+    }
+
+    /**
+     * Refill the buffer from database, skipping the documents already buffered or in progress.
+     */
+    private static void refill() throws DatabaseException {
+        while (running && buffer.remainingCapacity() > 0) {
+            int known;
+
+            synchronized (lock) {
+                known = queued.size() + inProgress.size();
+            }
+
+            List<TextExtractorWork> works = NodeDocumentDAO.getInstance().getPendingExtractions(buffer.remainingCapacity() + known);
+            int added = 0;
+
+            synchronized (lock) {
+                for (TextExtractorWork work : works) {
+                    if (!queued.containsKey(work.getDocUuid()) && !inProgress.containsKey(work.getDocUuid())) {
+                        if (buffer.offer(work)) {
+                            queued.put(work.getDocUuid(), work);
+                            added++;
+                        } else {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            log.debug("refill: {} works added", added);
+
+            if (added == 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Extract text from a buffered document. The document remains in progress until its text is saved.
+     */
+    private static void process(TextExtractorWork work) {
+        boolean extractedOk = false;
+
+        synchronized (lock) {
+            queued.remove(work.getDocUuid());
+            inProgress.put(work.getDocUuid(), work);
+        }
+
+        try {
+            if (work.getDocPath() == null) {
+                work.setDocPath(NodeBaseDAO.getInstance().getPathFromUuid(work.getDocUuid()));
+            }
+
+            log.debug("Working on {}", work);
+            NodeDocumentDAO.getInstance().extractText(work);
+            extractedOk = true;
+
+            synchronized (lock) {
+                extracted.add(work);
+            }
+        } catch (PathNotFoundException e) {
+            log.warn("Item not found: {}", work.getDocUuid());
+            fail(work);
+        } catch (InterruptedIOException e) {
+            // Shutting down, so keep the document pending
+            log.info("Text extraction interrupted: {}", work.getDocPath());
+        } catch (ExtractionTimeoutException e) {
+            // Not saved as extracted, so it will be retried
+            fail(work);
+        } catch (FileNotFoundException e) {
+            log.warn(e.getMessage(), e);
+            fail(work);
+        } catch (DatabaseException e) {
+            log.warn(e.getMessage(), e);
+            fail(work);
+        } finally {
+            if (!extractedOk) {
+                finish(Collections.singletonList(work));
+            }
+        }
+    }
+
+    /**
+     * Record an extraction failure, so the feeder does not fetch the same document again and again.
+     */
+    private static void fail(TextExtractorWork work) {
+        try {
+            NodeDocumentDAO.getInstance().setTextExtractionFailure(work.getDocUuid());
+        } catch (DatabaseException e) {
+            log.warn("Text extraction failure of {} not recorded: {}", work.getDocUuid(), e.getMessage());
+        }
+    }
+
+    /**
+     * Number of extracted documents waiting to be saved.
+     */
+    private static int getExtractedSize() {
+        synchronized (lock) {
+            return extracted.size();
+        }
+    }
+
+    /**
+     * Save the extracted documents in a single transaction.
+     */
+    private static void flush() {
+        List<TextExtractorWork> batch = null;
+
+        synchronized (lock) {
+            if (extracted.isEmpty()) {
+                return;
+            }
+
+            batch = extracted;
+            extracted = new ArrayList<TextExtractorWork>();
+        }
+
+        try {
+            NodeDocumentDAO.getInstance().saveExtractedText(batch);
+        } catch (DatabaseException e) {
+            log.warn("Text extraction batch failed, saving one by one: {}", e.getMessage());
+
+            // Do not let a faulty document prevent saving the rest of the batch
+            for (TextExtractorWork work : batch) {
+                try {
+                    NodeDocumentDAO.getInstance().saveExtractedText(Collections.singletonList(work));
+                } catch (DatabaseException e1) {
+                    log.warn(e1.getMessage(), e1);
+                }
+            }
+        } finally {
+            finish(batch);
+        }
+    }
+
+    /**
+     * Remove finished works from progress, and queue again the ones outdated while extracting.
+     */
+    private static void finish(List<TextExtractorWork> works) {
+        Map<String, String> staleVersions = new HashMap<String, String>();
+
+        synchronized (lock) {
+            for (TextExtractorWork work : works) {
+                inProgress.remove(work.getDocUuid());
+                String staleVerUuid = stale.remove(work.getDocUuid());
+
+                if (staleVerUuid != null) {
+                    staleVersions.put(work.getDocUuid(), staleVerUuid);
+                }
+
+                // Do not keep extracted text in memory
+                work.setText(null);
+            }
+        }
+
+        for (Map.Entry<String, String> entry : staleVersions.entrySet()) {
+            try {
+                // The extraction has marked the document as extracted, so it has to be flagged again
+                NodeDocumentDAO.getInstance().resetPendingExtractionFlag(entry.getKey());
+                enqueue(entry.getKey(), entry.getValue());
+            } catch (DatabaseException e) {
+                log.warn(e.getMessage(), e);
+            }
+        }
+
+        lastExecution = Calendar.getInstance();
+        MassIndexerProgressMonitor mon = monitor;
+
+        if (mon != null) {
+            mon.documentsAdded(works.size());
+        }
+    }
+
+    /**
+     * Keep the buffer filled with pending documents from database.
+     */
+    private static class Feeder implements Runnable {
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    if (canProcess()) {
+                        refill();
+                    }
+
+                    synchronized (feederLock) {
+                        if (!wakeUp) {
+                            feederLock.wait(FEEDER_IDLE);
+                        }
+
+                        wakeUp = false;
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    log.warn(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drain the buffer, asking the feeder for more work when it gets half empty, and save the extracted
+     * documents in batches.
+     */
+    private static class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    if (canProcess()) {
+                        TextExtractorWork work = buffer.poll(BATCH_WAIT, TimeUnit.MILLISECONDS);
+
+                        if (work != null) {
+                            process(work);
+
+                            if (buffer.size() <= buffer.remainingCapacity()) {
+                                wakeUp();
+                            }
+                        }
+
+                        // Save when the batch is complete or there is nothing more to extract by now
+                        if (work == null || buffer.isEmpty() || getExtractedSize() >= Config.MANAGED_TEXT_EXTRACTION_BATCH) {
+                            flush();
+                        }
+                    } else {
+                        Thread.sleep(READONLY_PAUSE);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    log.warn(e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
@@ -31,6 +31,8 @@ public class TextExtractorWork {
     private String docPath;
     private String docVerUuid;
     private Calendar date = Calendar.getInstance();
+    private String text;
+    private String language;
 
     public String getDocUuid() {
         return docUuid;
@@ -64,6 +66,22 @@ public class TextExtractorWork {
         this.date = date;
     }
 
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public void setLanguage(String language) {
+        this.language = language;
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("{");
@@ -21,35 +21,32 @@
 
 package com.openkm.extractor;
 
-import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
 import com.openkm.core.PathNotFoundException;
 import com.openkm.dao.NodeDocumentDAO;
-import com.openkm.util.ThreadPoolManager;
 import org.hibernate.search.batchindexing.MassIndexerProgressMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.TimerTask;
 
 /**
+ * Text extraction is performed by TextExtractorQueue, so this task only asks the queue to look for
+ * documents pending in database. It is kept because it is registered in the crontab.
+ *
  * @author pavila
+ * @see com.openkm.extractor.TextExtractorQueue
  */
 public class TextExtractorWorker extends TimerTask {
     private static Logger log = LoggerFactory.getLogger(TextExtractorWorker.class);
-    private static List<TextExtractorWork> inProgress = new ArrayList<TextExtractorWork>();
-    private static Calendar lastExecution = null;
-    private static volatile boolean running = false;
 
     /**
      * Get in progress extraction works.
      */
     public static List<TextExtractorWork> getInProgressWorks() throws DatabaseException {
-        return inProgress;
+        return TextExtractorQueue.getInProgressWorks();
     }
 
     /**
@@ -70,133 +67,31 @@ public class TextExtractorWorker extends TimerTask {
      * Return if text extraction worker is running.
      */
     public static boolean isRunning() {
-        return running;
+        return !TextExtractorQueue.isIdle();
     }
 
     /**
      * Return text extractor worker last execution
      */
     public static Calendar lastExecution() {
-        return lastExecution;
+        return TextExtractorQueue.getLastExecution();
     }
 
     /**
-     * Document text extraction batch
+     * Look for pending documents not yet queued
      */
     @Override
     public void run() {
-        if (running) {
-            log.warn("*** Text extraction already running ***");
-        } else {
-            running = true;
-            log.debug("*** Begin text extraction ***");
-
-            try {
-                if (!Config.SYSTEM_READONLY) {
-                    processQueue(null, Config.MANAGED_TEXT_EXTRACTION_BATCH);
-                } else {
-                    log.warn("*** Text extraction disabled because system is readonly ***");
-                }
-            } finally {
-                running = false;
-            }
-
-            lastExecution = Calendar.getInstance();
-            log.debug("*** End text extraction ***");
-        }
+        log.debug("*** Wake up text extraction queue ***");
+        TextExtractorQueue.wakeUp();
     }
 
     /**
      * Force text extraction of every document in the repository
      */
     public void rebuildWorker(MassIndexerProgressMonitor monitor) throws PathNotFoundException, DatabaseException, InterruptedException {
-        if (running) {
-            log.warn("*** Text extraction already running ***");
-        } else {
-            running = true;
-            log.debug("*** Begin massive text extraction ***");
-
-            try {
-                // Clear pending extraction queue
-                NodeDocumentDAO.getInstance().resetAllPendingExtractionFlags();
-
-                // Process queue
-                while (NodeDocumentDAO.getInstance().hasPendingExtractions()) {
-                    processQueue(monitor, Config.MANAGED_TEXT_EXTRACTION_BATCH);
-                    Thread.sleep(750);
-                    System.gc();
-                }
-            } finally {
-                running = false;
-            }
-
-            log.debug("*** End massive text extraction ***");
-        }
-    }
-
-    /**
-     * Process text extraction pending queue
-     */
-    private void processQueue(MassIndexerProgressMonitor monitor, int maxResults) {
-        if (Config.MANAGED_TEXT_EXTRACTION_CONCURRENT) {
-            log.debug("Processing queue concurrently with {} processors", Config.AVAILABLE_PROCESSORS);
-            processConcurrent(monitor, maxResults);
-        } else {
-            processSerial(monitor, maxResults);
-        }
-    }
-
-    /**
-     * Process queue serial
-     */
-    private void processSerial(MassIndexerProgressMonitor monitor, int maxResults) {
-        log.debug("processSerial({}, {})", monitor, maxResults);
-        long begin = System.currentTimeMillis();
-
-        try {
-            for (TextExtractorWork work : NodeDocumentDAO.getInstance().getPendingExtractions(maxResults)) {
-                log.info("processSerial.Working on {}", work);
-                inProgress.add(work);
-                NodeDocumentDAO.getInstance().textExtractorHelper(work);
-                inProgress.clear();
-
-                if (monitor != null) {
-                    monitor.documentsAdded(1);
-                }
-            }
-        } catch (FileNotFoundException e) {
-            log.warn(e.getMessage(), e);
-        } catch (DatabaseException e) {
-            log.warn(e.getMessage(), e);
-        } finally {
-            inProgress.clear();
-        }
-
-        log.trace("processSerial.Time: {}", System.currentTimeMillis() - begin);
-    }
-
-    /**
-     * Process queue concurrent
-     */
-    private void processConcurrent(MassIndexerProgressMonitor monitor, int maxResults) {
-        log.info("processConcurrent({}, {})", monitor, maxResults);
-        long begin = System.currentTimeMillis();
-
-        try {
-            ThreadPoolManager threadPool = new ThreadPoolManager(Config.MANAGED_TEXT_EXTRACTION_POOL_THREADS, "TextExtractorWorker");
-
-            for (TextExtractorWork pendExts : NodeDocumentDAO.getInstance().getPendingExtractions(maxResults)) {
-                threadPool.add(new TextExtractorThread(pendExts));
-                inProgress.add(pendExts);
-            }
-
-            threadPool.shutdown();
-        } catch (DatabaseException e) {
-            log.warn(e.getMessage(), e);
-        } finally {
-            inProgress.clear();
-        }
-
-        log.trace("processConcurrent.Time: {}", System.currentTimeMillis() - begin);
+        log.debug("*** Begin massive text extraction ***");
+        TextExtractorQueue.rebuild(monitor);
+        log.debug("*** End massive text extraction ***");
     }
 }
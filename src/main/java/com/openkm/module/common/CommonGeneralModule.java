@@ -26,6 +26,7 @@ import java.io.File;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.openkm.cache.ConversionCache;
 import com.openkm.core.Config;
 
 public class CommonGeneralModule {
@@ -37,7 +38,6 @@ public class CommonGeneralModule {
      */
     public static void cleanPreviewCache(String uuid) {
         new File(Config.REPOSITORY_CACHE_DXF + File.separator + uuid + ".dxf").delete();
-        new File(Config.REPOSITORY_CACHE_PDF + File.separator + uuid + ".pdf").delete();
-        new File(Config.REPOSITORY_CACHE_SWF + File.separator + uuid + ".swf").delete();
+        ConversionCache.remove(uuid);
     }
 }
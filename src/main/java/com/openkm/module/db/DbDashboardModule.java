@@ -26,14 +26,17 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import com.openkm.cache.DashboardCache;
 import com.openkm.cache.UserItemsManager;
 import com.openkm.core.*;
 import com.openkm.dao.bean.cache.UserItems;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.Element;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
@@ -255,21 +258,25 @@ public class DbDashboardModule implements DashboardModule {
             Query q = session.createQuery(qs);
             q.setString("user", user);
             List<NodeDocument> results = q.list();
+            List<NodeDocument> nDocs = new ArrayList<NodeDocument>();
 
             for (Iterator<NodeDocument> it = results.iterator(); it.hasNext() && i < maxResults;) {
                 NodeDocument nDoc = it.next();
 
                 if (SecurityHelper.getAccessManager().isGranted(nDoc, Permission.READ)) {
                     NodeDocumentDAO.getInstance().initialize(nDoc, false);
-                    Document doc = BaseDocumentModule.getProperties(user, nDoc);
-                    DashboardDocumentResult vo = new DashboardDocumentResult();
-                    vo.setDocument(doc);
-                    vo.setDate(ActivityDAO.getActivityDate(user, action, nDoc.getUuid()));
-                    vo.setVisited(false);
-                    al.add(vo);
+                    nDocs.add(nDoc);
                     i++;
                 }
             }
+
+            for (Document doc : BaseDocumentModule.getProperties(user, nDocs)) {
+                DashboardDocumentResult vo = new DashboardDocumentResult();
+                vo.setDocument(doc);
+                vo.setDate(ActivityDAO.getActivityDate(user, action, doc.getUuid()));
+                vo.setVisited(false);
+                al.add(vo);
+            }
         } catch (PathNotFoundException e) {
             throw new RepositoryException(e.getMessage(), e);
         } catch (HibernateException e) {
@@ -713,13 +720,16 @@ public class DbDashboardModule implements DashboardModule {
 
         try {
             NodeResultSet nrs = SearchDAO.getInstance().findByQuery(query, 0, maxResults);
+            List<NodeDocument> nDocs = new ArrayList<NodeDocument>();
 
             for (NodeQueryResult nqr : nrs.getResults()) {
+                nDocs.add(nqr.getDocument());
+            }
+
+            for (Document doc : BaseDocumentModule.getProperties(user, nDocs)) {
                 DashboardDocumentResult vo = new DashboardDocumentResult();
-                NodeDocument nDoc = nqr.getDocument();
-                Document doc = BaseDocumentModule.getProperties(user, nDoc);
                 vo.setDocument(doc);
-                vo.setDate(ActivityDAO.getActivityDate(user, null, nDoc.getUuid()));
+                vo.setDate(ActivityDAO.getActivityDate(user, null, doc.getUuid()));
                 vo.setVisited(false);
                 al.add(vo);
             }
@@ -1001,53 +1011,112 @@ public class DbDashboardModule implements DashboardModule {
     /**
      * Get top documents
      */
-    @SuppressWarnings("unchecked")
     private ArrayList<DashboardDocumentResult> getTopDocuments(String user, String source, String qs, Calendar date)
             throws RepositoryException, DatabaseException {
         log.debug("getTopDocuments({}, {}, {}, {})", new Object[] { user, source, qs, (date != null ? date.getTime() : "null") });
-        ArrayList<DashboardDocumentResult> al = new ArrayList<DashboardDocumentResult>();
-        Session session = null;
-        int cont = 0;
+        ArrayList<DashboardDocumentResult> al = DashboardCache.getTopDocuments(user, source);
 
-        try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            Query q = session.createQuery(qs).setFetchSize(MAX_RESULTS);
+        if (al == null) {
+            Session session = null;
 
-            if (date != null) {
-                q.setCalendar("date", date);
+            try {
+                session = HibernateUtil.getSessionFactory().openSession();
+                Query q = session.createQuery(qs);
+
+                if (date != null) {
+                    q.setCalendar("date", date);
+                }
+
+                // Keep on reading activity until MAX_RESULTS readable documents are found
+                al = findDocuments(session, user, q, true);
+                DashboardCache.putTopDocuments(user, source, al);
+            } catch (HibernateException e) {
+                throw new DatabaseException(e.getMessage(), e);
+            } finally {
+                HibernateUtil.close(session);
             }
+        }
 
-            // While there is more query results and the MAX_RESULT limit has reached
-            for (Iterator<Object[]> it = q.iterate(); it.hasNext() && cont < MAX_RESULTS; cont++) {
-                Object[] obj = it.next();
-                String resItem = (String) obj[0];
-                Calendar resDate = (Calendar) obj[1];
+        log.debug("getTopDocuments: {}", al);
+        return al;
+    }
+
+    /**
+     * Get the documents of an activity statement which selects the document UUID and the activity date.
+     * Every page of activity is resolved with a single query which loads the documents with their
+     * permissions, and their properties are hydrated in bulk instead of document by document.
+     */
+    @SuppressWarnings("unchecked")
+    private ArrayList<DashboardDocumentResult> findDocuments(Session session, String user, Query q, boolean fill)
+            throws HibernateException, DatabaseException {
+        String qsDocs = "from NodeDocument nd left join fetch nd.userPermissions left join fetch nd.rolePermissions "
+                + "where nd.uuid in (:uuids)";
+        ArrayList<DashboardDocumentResult> al = new ArrayList<DashboardDocumentResult>();
+        int first = 0;
+        int fetched = 0;
+
+        do {
+            q.setFirstResult(first);
+            q.setMaxResults(MAX_RESULTS);
+            List<Object[]> page = q.list();
+            fetched = page.size();
+            first += fetched;
+
+            if (fetched > 0) {
+                Set<String> uuids = new HashSet<String>();
+
+                for (Object[] act : page) {
+                    uuids.add((String) act[0]);
+                }
+
+                Query qDocs = session.createQuery(qsDocs);
+                qDocs.setParameterList("uuids", uuids);
+                Map<String, NodeDocument> docs = new HashMap<String, NodeDocument>();
+
+                // Permission joins repeat the rows
+                for (NodeDocument nDoc : (List<NodeDocument>) qDocs.list()) {
+                    docs.put(nDoc.getUuid(), nDoc);
+                }
+
+                Set<String> granted = SecurityHelper.getAccessManager().isGranted(docs.values(), Permission.READ);
+                List<NodeDocument> nDocs = new ArrayList<NodeDocument>();
+                List<Calendar> dates = new ArrayList<Calendar>();
+
+                for (Iterator<Object[]> it = page.iterator(); it.hasNext() && al.size() + nDocs.size() < MAX_RESULTS;) {
+                    Object[] act = it.next();
+                    String actItem = (String) act[0];
+
+                    if (granted.contains(actItem)) {
+                        nDocs.add(docs.get(actItem));
+                        dates.add((Calendar) act[1]);
+                    }
+                }
 
                 try {
-                    NodeDocument nDoc = NodeDocumentDAO.getInstance().findByPk(resItem);
-                    // String docPath = NodeBaseDAO.getInstance().getPathFromUuid(nDoc.getUuid());
-
-                    // Only documents from taxonomy
-                    // Already filtered in the query
-                    // if (docPath.startsWith("/okm:root")) {
-                    Document doc = BaseDocumentModule.getProperties(user, nDoc);
-                    DashboardDocumentResult vo = new DashboardDocumentResult();
-                    vo.setDocument(doc);
-                    vo.setDate(resDate);
-                    vo.setVisited(false);
-                    al.add(vo);
-                    // }
+                    // Documents removed meanwhile are skipped, so they are matched by UUID
+                    Map<String, Document> pageDocs = new HashMap<String, Document>();
+
+                    for (Document doc : BaseDocumentModule.getProperties(user, nDocs)) {
+                        pageDocs.put(doc.getUuid(), doc);
+                    }
+
+                    for (int i = 0; i < nDocs.size(); i++) {
+                        Document doc = pageDocs.get(nDocs.get(i).getUuid());
+
+                        if (doc != null) {
+                            DashboardDocumentResult vo = new DashboardDocumentResult();
+                            vo.setDocument(doc);
+                            vo.setDate(dates.get(i));
+                            vo.setVisited(false);
+                            al.add(vo);
+                        }
+                    }
                 } catch (PathNotFoundException e) {
                     // Do nothing
                 }
             }
-        } catch (HibernateException e) {
-            throw new DatabaseException(e.getMessage(), e);
-        } finally {
-            HibernateUtil.close(session);
-        }
+        } while (fill && fetched == MAX_RESULTS && al.size() < MAX_RESULTS);
 
-        log.debug("getTopDocuments: {}", al);
         return al;
     }
 
@@ -1084,40 +1153,16 @@ public class DbDashboardModule implements DashboardModule {
      * Check visited documents
      */
     private void checkVisitedDocuments(String user, String source, List<DashboardDocumentResult> docResult) throws DatabaseException {
-        List<Dashboard> visitedNodes = DashboardDAO.findByUserSource(user, source);
-
-        // Set already visited nodes
-        for (Iterator<DashboardDocumentResult> itDocs = docResult.iterator(); itDocs.hasNext();) {
-            DashboardDocumentResult dsDocResult = itDocs.next();
+        Set<String> shown = new HashSet<String>();
 
-            for (Iterator<Dashboard> itVisited = visitedNodes.iterator(); itVisited.hasNext();) {
-                Dashboard visitedNode = itVisited.next();
-
-                // Same node path and same activity log date ?
-                if (visitedNode.getNode().equals(dsDocResult.getDocument().getUuid())
-                        && visitedNode.getDate().equals(dsDocResult.getDate())) {
-                    dsDocResult.setVisited(true);
-                }
-            }
+        for (DashboardDocumentResult dsDocResult : docResult) {
+            shown.add(getVisitedKey(dsDocResult.getDocument().getUuid(), dsDocResult.getDate()));
         }
 
-        for (Iterator<Dashboard> itVisited = visitedNodes.iterator(); itVisited.hasNext();) {
-            Dashboard visitedNode = itVisited.next();
-            boolean old = true;
+        Set<String> visited = findVisited(user, source, shown);
 
-            for (Iterator<DashboardDocumentResult> itDocs = docResult.iterator(); itDocs.hasNext();) {
-                DashboardDocumentResult dsDocResult = itDocs.next();
-
-                // Same node path and same activity log date ?
-                if (visitedNode.getNode().equals(dsDocResult.getDocument().getUuid())
-                        && visitedNode.getDate().equals(dsDocResult.getDate())) {
-                    old = false;
-                }
-            }
-
-            if (old) {
-                DashboardDAO.purgeOldVisitedNode(user, source, visitedNode.getNode(), visitedNode.getDate());
-            }
+        for (DashboardDocumentResult dsDocResult : docResult) {
+            dsDocResult.setVisited(visited.contains(getVisitedKey(dsDocResult.getDocument().getUuid(), dsDocResult.getDate())));
         }
     }
 
@@ -1125,37 +1170,16 @@ public class DbDashboardModule implements DashboardModule {
      * Check visited folders
      */
     private void checkVisitedFolders(String user, String source, List<DashboardFolderResult> fldResult) throws DatabaseException {
-        List<Dashboard> visitedNodes = DashboardDAO.findByUserSource(user, source);
-
-        // Set already visited nodes
-        for (Iterator<DashboardFolderResult> itFlds = fldResult.iterator(); itFlds.hasNext();) {
-            DashboardFolderResult dsFldResult = itFlds.next();
-
-            for (Iterator<Dashboard> itVisited = visitedNodes.iterator(); itVisited.hasNext();) {
-                Dashboard visitedNode = itVisited.next();
+        Set<String> shown = new HashSet<String>();
 
-                if (visitedNode.getNode().equals(dsFldResult.getFolder().getUuid()) && visitedNode.getDate().equals(dsFldResult.getDate())) {
-                    dsFldResult.setVisited(true);
-                }
-            }
+        for (DashboardFolderResult dsFldResult : fldResult) {
+            shown.add(getVisitedKey(dsFldResult.getFolder().getUuid(), dsFldResult.getDate()));
         }
 
-        for (Iterator<Dashboard> itVisited = visitedNodes.iterator(); itVisited.hasNext();) {
-            Dashboard visitedNode = itVisited.next();
-            boolean old = true;
-
-            for (Iterator<DashboardFolderResult> itFlds = fldResult.iterator(); itFlds.hasNext();) {
-                DashboardFolderResult dsFldResult = itFlds.next();
-
-                // Same node path and same activity log date ?
-                if (visitedNode.getNode().equals(dsFldResult.getFolder().getUuid()) && visitedNode.getDate().equals(dsFldResult.getDate())) {
-                    old = false;
-                }
-            }
+        Set<String> visited = findVisited(user, source, shown);
 
-            if (old) {
-                DashboardDAO.purgeOldVisitedNode(user, source, visitedNode.getNode(), visitedNode.getDate());
-            }
+        for (DashboardFolderResult dsFldResult : fldResult) {
+            dsFldResult.setVisited(visited.contains(getVisitedKey(dsFldResult.getFolder().getUuid(), dsFldResult.getDate())));
         }
     }
 
@@ -1163,77 +1187,70 @@ public class DbDashboardModule implements DashboardModule {
      * Check visited mails
      */
     private void checkVisitedMails(String user, String source, List<DashboardMailResult> mailResult) throws DatabaseException {
-        List<Dashboard> visitedNodes = DashboardDAO.findByUserSource(user, source);
+        Set<String> shown = new HashSet<String>();
 
-        // Set already visited nodes
-        for (Iterator<DashboardMailResult> itMails = mailResult.iterator(); itMails.hasNext();) {
-            DashboardMailResult dsMailResult = itMails.next();
+        for (DashboardMailResult dsMailResult : mailResult) {
+            shown.add(getVisitedKey(dsMailResult.getMail().getUuid(), dsMailResult.getDate()));
+        }
 
-            for (Iterator<Dashboard> itVisited = visitedNodes.iterator(); itVisited.hasNext();) {
-                Dashboard visitedNode = itVisited.next();
+        Set<String> visited = findVisited(user, source, shown);
 
-                // Same node path and same activity log date ?
-                if (visitedNode.getNode().equals(dsMailResult.getMail().getUuid()) && visitedNode.getDate().equals(dsMailResult.getDate())) {
-                    dsMailResult.setVisited(true);
-                }
-            }
+        for (DashboardMailResult dsMailResult : mailResult) {
+            dsMailResult.setVisited(visited.contains(getVisitedKey(dsMailResult.getMail().getUuid(), dsMailResult.getDate())));
         }
+    }
 
-        for (Iterator<Dashboard> itVisited = visitedNodes.iterator(); itVisited.hasNext();) {
-            Dashboard visitedNode = itVisited.next();
-            boolean old = true;
-
-            for (Iterator<DashboardMailResult> itMails = mailResult.iterator(); itMails.hasNext();) {
-                DashboardMailResult dsMailResult = itMails.next();
+    /**
+     * Get which of the shown results have already been visited, purging the visited nodes
+     * which are not shown anymore.
+     */
+    private Set<String> findVisited(String user, String source, Set<String> shown) throws DatabaseException {
+        Set<String> visited = new HashSet<String>();
+        List<Dashboard> old = new ArrayList<Dashboard>();
 
-                // Same node path and same activity log date ?
-                if (visitedNode.getNode().equals(dsMailResult.getMail().getUuid()) && visitedNode.getDate().equals(dsMailResult.getDate())) {
-                    old = false;
-                }
-            }
+        for (Dashboard visitedNode : DashboardDAO.findByUserSource(user, source)) {
+            String key = getVisitedKey(visitedNode.getNode(), visitedNode.getDate());
 
-            if (old) {
-                DashboardDAO.purgeOldVisitedNode(user, source, visitedNode.getNode(), visitedNode.getDate());
+            // Same node and same activity log date ?
+            if (shown.contains(key)) {
+                visited.add(key);
+            } else {
+                old.add(visitedNode);
             }
         }
+
+        DashboardDAO.purgeOldVisitedNodes(old);
+        return visited;
+    }
+
+    /**
+     * Key of a node visited after a given activity
+     */
+    private String getVisitedKey(String uuid, Calendar date) {
+        return uuid + "@" + (date == null ? "" : Long.toString(date.getTimeInMillis()));
     }
 
     /**
      * Get documents from statement
      */
-    @SuppressWarnings("unchecked")
     private ArrayList<DashboardDocumentResult> getUserDocuments(String user, String source, String qs) throws DatabaseException {
         log.debug("getUserDocuments({}, {}, {})", new Object[] { user, source, qs });
-        ArrayList<DashboardDocumentResult> al = new ArrayList<DashboardDocumentResult>();
-        org.hibernate.Session hSession = null;
-
-        try {
-            hSession = HibernateUtil.getSessionFactory().openSession();
-            org.hibernate.Query q = hSession.createQuery(qs);
-            q.setString("user", user);
-            q.setMaxResults(MAX_RESULTS);
-
-            for (Iterator<Object[]> it = q.list().iterator(); it.hasNext();) {
-                Object[] actData = it.next();
-                String actItem = (String) actData[0];
-                Calendar actDate = (Calendar) actData[1];
-
-                try {
-                    NodeDocument nDoc = NodeDocumentDAO.getInstance().findByPk(actItem);
-                    Document doc = BaseDocumentModule.getProperties(user, nDoc);
-                    DashboardDocumentResult vo = new DashboardDocumentResult();
-                    vo.setDocument(doc);
-                    vo.setDate(actDate);
-                    vo.setVisited(false);
-                    al.add(vo);
-                } catch (PathNotFoundException e) {
-                    // Do nothing
-                }
+        ArrayList<DashboardDocumentResult> al = DashboardCache.getUserDocuments(user, source);
+
+        if (al == null) {
+            org.hibernate.Session hSession = null;
+
+            try {
+                hSession = HibernateUtil.getSessionFactory().openSession();
+                org.hibernate.Query q = hSession.createQuery(qs);
+                q.setString("user", user);
+                al = findDocuments(hSession, user, q, false);
+                DashboardCache.putUserDocuments(user, source, al);
+            } catch (HibernateException e) {
+                throw new DatabaseException(e.getMessage(), e);
+            } finally {
+                HibernateUtil.close(hSession);
             }
-        } catch (HibernateException e) {
-            throw new DatabaseException(e.getMessage(), e);
-        } finally {
-            HibernateUtil.close(hSession);
         }
 
         log.debug("getUserDocuments: {}", al);
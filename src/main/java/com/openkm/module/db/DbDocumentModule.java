@@ -95,6 +95,7 @@ import com.openkm.util.FormatUtil;
 import com.openkm.util.PathUtils;
 import com.openkm.util.UserActivity;
 import com.openkm.util.impexp.RepositoryExporter;
+import com.openkm.util.preview.PreviewQueue;
 
 public class DbDocumentModule implements DocumentModule {
     private static Logger log = LoggerFactory.getLogger(DbDocumentModule.class);
@@ -258,6 +259,9 @@ public class DbDocumentModule implements DocumentModule {
                     // Activity log
                     UserActivity.log(userId, "CREATE_MAIL_ATTACHMENT", docNode.getUuid(), doc.getPath(), mimeType + ", " + size);
                 }
+
+                // Preview pre-rendering
+                PreviewQueue.enqueue(docNode.getUuid(), newDocument.getPath(), newDocument.getActualVersion().getName(), mimeType);
             } else {
                 throw new RepositoryException("Invalid document name");
             }
@@ -609,9 +613,10 @@ public class DbDocumentModule implements DocumentModule {
                 fldUuid = fldId;
             }
 
-            for (NodeDocument nDocument : NodeDocumentDAO.getInstance().findByParent(fldUuid)) {
-                children.add(BaseDocumentModule.getProperties(auth.getName(), nDocument));
-            }
+            children.addAll(BaseDocumentModule.getProperties(auth.getName(), NodeDocumentDAO.getInstance().findByParent(fldUuid)));
+
+            // Browsed folder documents are pre-rendered first
+            PreviewQueue.touch(fldPath);
 
             // Activity log
             UserActivity.log(auth.getName(), "GET_CHILDREN_DOCUMENTS", fldUuid, fldPath, null);
@@ -924,6 +929,9 @@ public class DbDocumentModule implements DocumentModule {
             // Check subscriptions
             BaseNotificationModule.checkSubscriptions(docNode, userId, "CHECKIN_DOCUMENT", comment);
 
+            // Preview pre-rendering
+            PreviewQueue.enqueue(docUuid, docPath, version.getName(), docNode.getMimeType());
+
             // Activity log
             UserActivity.log(auth.getName(), "CHECKIN_DOCUMENT", docUuid, docPath, size + ", " + comment);
         } catch (DatabaseException e) {
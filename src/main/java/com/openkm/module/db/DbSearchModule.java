@@ -28,6 +28,7 @@ import com.openkm.bean.form.Select;
 import com.openkm.bean.form.TextArea;
 import com.openkm.bean.nr.NodeQueryResult;
 import com.openkm.bean.nr.NodeResultSet;
+import com.openkm.cache.KeywordIndex;
 import com.openkm.core.*;
 import com.openkm.dao.*;
 import com.openkm.dao.bean.NodeDocument;
@@ -42,8 +43,6 @@ import com.openkm.spring.PrincipalUtils;
 import com.openkm.util.*;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
-import org.hibernate.HibernateException;
-import org.hibernate.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.core.Authentication;
@@ -382,19 +381,30 @@ public class DbSearchModule implements SearchModule {
                 NodeResultSet nrs = SearchDAO.getInstance().findByQuery(query, offset, limit);
                 rs.setTotal(nrs.getTotal());
 
+                Map<String, Document> documents = getDocuments(auth.getName(), nrs);
+
                 for (NodeQueryResult nqr : nrs.getResults()) {
                     QueryResult qr = new QueryResult();
                     qr.setExcerpt(nqr.getExcerpt());
                     qr.setScore((long) (100 * nqr.getScore()));
 
                     if (nqr.getDocument() != null) {
-                        qr.setDocument(BaseDocumentModule.getProperties(auth.getName(), nqr.getDocument()));
+                        qr.setDocument(documents.get(nqr.getDocument().getUuid()));
+
+                        // Left out when its properties could not be read
+                        if (qr.getDocument() == null) {
+                            continue;
+                        }
                     } else if (nqr.getFolder() != null) {
                         qr.setFolder(BaseFolderModule.getProperties(auth.getName(), nqr.getFolder()));
                     } else if (nqr.getMail() != null) {
                         qr.setMail(BaseMailModule.getProperties(auth.getName(), nqr.getMail()));
                     } else if (nqr.getAttachment() != null) {
-                        qr.setAttachment(BaseDocumentModule.getProperties(auth.getName(), nqr.getAttachment()));
+                        qr.setAttachment(documents.get(nqr.getAttachment().getUuid()));
+
+                        if (qr.getAttachment() == null) {
+                            continue;
+                        }
                     }
 
                     results.add(qr);
@@ -603,10 +613,7 @@ public class DbSearchModule implements SearchModule {
     public Map<String, Integer> getKeywordMap(String token, List<String> filter) throws AccessDeniedException, RepositoryException,
             DatabaseException {
         log.debug("getKeywordMap({}, {})", token, filter);
-        String qs = "select elements(nb.keywords) from NodeBase nb";
-        HashMap<String, Integer> cloud = new HashMap<String, Integer>();
-        org.hibernate.Session hSession = null;
-        Transaction tx = null;
+        Map<String, Integer> cloud = null;
         @SuppressWarnings("unused")
         Authentication auth = null, oldAuth = null;
 
@@ -618,27 +625,8 @@ public class DbSearchModule implements SearchModule {
                 auth = PrincipalUtils.getAuthenticationByToken(token);
             }
 
-            hSession = HibernateUtil.getSessionFactory().openSession();
-            tx = hSession.beginTransaction();
-            org.hibernate.Query hq = hSession.createQuery(qs);
-            List<String> nodeKeywords = hq.list();
-
-            if (filter != null && nodeKeywords.containsAll(filter)) {
-                for (String keyword : nodeKeywords) {
-                    if (!filter.contains(keyword)) {
-                        Integer occurs = cloud.get(keyword) != null ? cloud.get(keyword) : 0;
-                        cloud.put(keyword, occurs + 1);
-                    }
-                }
-            }
-
-            HibernateUtil.commit(tx);
-        } catch (HibernateException e) {
-            HibernateUtil.rollback(tx);
-            throw new DatabaseException(e.getMessage(), e);
+            cloud = KeywordIndex.getKeywordMap(filter);
         } finally {
-            HibernateUtil.close(hSession);
-
             if (token != null) {
                 PrincipalUtils.setAuthentication(oldAuth);
             }
@@ -664,9 +652,8 @@ public class DbSearchModule implements SearchModule {
                 auth = PrincipalUtils.getAuthenticationByToken(token);
             }
 
-            for (NodeDocument nDoc : NodeDocumentDAO.getInstance().findByCategory(categoryId)) {
-                documents.add(BaseDocumentModule.getProperties(auth.getName(), nDoc));
-            }
+            List<NodeDocument> nDocuments = NodeDocumentDAO.getInstance().findByCategory(categoryId);
+            documents.addAll(BaseDocumentModule.getProperties(auth.getName(), nDocuments));
         } catch (PathNotFoundException e) {
             throw new RepositoryException(e.getMessage(), e);
         } catch (DatabaseException e) {
@@ -766,9 +753,8 @@ public class DbSearchModule implements SearchModule {
                 auth = PrincipalUtils.getAuthenticationByToken(token);
             }
 
-            for (NodeDocument nDoc : NodeDocumentDAO.getInstance().findByKeyword(keyword)) {
-                documents.add(BaseDocumentModule.getProperties(auth.getName(), nDoc));
-            }
+            List<NodeDocument> nDocuments = NodeDocumentDAO.getInstance().findByKeyword(keyword);
+            documents.addAll(BaseDocumentModule.getProperties(auth.getName(), nDocuments));
         } catch (PathNotFoundException e) {
             throw new RepositoryException(e.getMessage(), e);
         } catch (DatabaseException e) {
@@ -867,9 +853,8 @@ public class DbSearchModule implements SearchModule {
                 auth = PrincipalUtils.getAuthenticationByToken(token);
             }
 
-            for (NodeDocument nDoc : NodeDocumentDAO.getInstance().findByPropertyValue(group, property, value)) {
-                documents.add(BaseDocumentModule.getProperties(auth.getName(), nDoc));
-            }
+            List<NodeDocument> nDocuments = NodeDocumentDAO.getInstance().findByPropertyValue(group, property, value);
+            documents.addAll(BaseDocumentModule.getProperties(auth.getName(), nDocuments));
         } catch (PathNotFoundException e) {
             throw new RepositoryException(e.getMessage(), e);
         } catch (DatabaseException e) {
@@ -999,19 +984,30 @@ public class DbSearchModule implements SearchModule {
                 NodeResultSet nrs = SearchDAO.getInstance().findByQuery(query, offset, limit);
                 rs.setTotal(nrs.getTotal());
 
+                Map<String, Document> documents = getDocuments(auth.getName(), nrs);
+
                 for (NodeQueryResult nqr : nrs.getResults()) {
                     QueryResult qr = new QueryResult();
                     qr.setExcerpt(nqr.getExcerpt());
                     qr.setScore((long) (100 * nqr.getScore()));
 
                     if (nqr.getDocument() != null) {
-                        qr.setDocument(BaseDocumentModule.getProperties(auth.getName(), nqr.getDocument()));
+                        qr.setDocument(documents.get(nqr.getDocument().getUuid()));
+
+                        // Left out when its properties could not be read
+                        if (qr.getDocument() == null) {
+                            continue;
+                        }
                     } else if (nqr.getFolder() != null) {
                         qr.setFolder(BaseFolderModule.getProperties(auth.getName(), nqr.getFolder()));
                     } else if (nqr.getMail() != null) {
                         qr.setMail(BaseMailModule.getProperties(auth.getName(), nqr.getMail()));
                     } else if (nqr.getAttachment() != null) {
-                        qr.setAttachment(BaseDocumentModule.getProperties(auth.getName(), nqr.getAttachment()));
+                        qr.setAttachment(documents.get(nqr.getAttachment().getUuid()));
+
+                        if (qr.getAttachment() == null) {
+                            continue;
+                        }
                     }
 
                     results.add(qr);
@@ -1059,13 +1055,20 @@ public class DbSearchModule implements SearchModule {
             NodeResultSet nrs = SearchDAO.getInstance().moreLikeThis(uuid, maxResults);
             rs.setTotal(nrs.getTotal());
 
+            Map<String, Document> documents = getDocuments(auth.getName(), nrs);
+
             for (NodeQueryResult nqr : nrs.getResults()) {
                 QueryResult qr = new QueryResult();
                 qr.setExcerpt(nqr.getExcerpt());
                 qr.setScore((long) (100 * nqr.getScore()));
 
                 if (nqr.getDocument() != null) {
-                    qr.setDocument(BaseDocumentModule.getProperties(auth.getName(), nqr.getDocument()));
+                    qr.setDocument(documents.get(nqr.getDocument().getUuid()));
+
+                    // Left out when its properties could not be read
+                    if (qr.getDocument() == null) {
+                        continue;
+                    }
                 } else if (nqr.getFolder() != null) {
                     qr.setFolder(BaseFolderModule.getProperties(auth.getName(), nqr.getFolder()));
                 } else if (nqr.getMail() != null) {
@@ -1093,4 +1096,26 @@ public class DbSearchModule implements SearchModule {
         log.debug("findMoreLikeThis: {}", rs);
         return rs;
     }
+
+    /**
+     * Get properties of the documents and attachments of a result set, by UUID
+     */
+    private Map<String, Document> getDocuments(String user, NodeResultSet nrs) throws PathNotFoundException, DatabaseException {
+        List<NodeDocument> nDocuments = new ArrayList<NodeDocument>();
+        Map<String, Document> documents = new HashMap<String, Document>();
+
+        for (NodeQueryResult nqr : nrs.getResults()) {
+            if (nqr.getDocument() != null) {
+                nDocuments.add(nqr.getDocument());
+            } else if (nqr.getAttachment() != null) {
+                nDocuments.add(nqr.getAttachment());
+            }
+        }
+
+        for (Document doc : BaseDocumentModule.getProperties(user, nDocuments)) {
+            documents.put(doc.getUuid(), doc);
+        }
+
+        return documents;
+    }
 }
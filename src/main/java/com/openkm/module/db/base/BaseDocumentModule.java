@@ -181,10 +181,129 @@ public class BaseDocumentModule {
     public static Document getProperties(String user, NodeDocument nDocument) throws PathNotFoundException, DatabaseException {
         log.debug("getProperties({}, {})", user, nDocument);
         long begin = System.currentTimeMillis();
+        NodeDocumentVersion currentVersion = NodeDocumentVersionDAO.getInstance().findCurrentVersion(nDocument.getUuid());
+        String docPath = NodeBaseDAO.getInstance().getPathFromUuid(nDocument.getUuid());
+        Document doc = getProperties(user, nDocument, docPath, currentVersion);
+
+        // Get permissions
+        BaseModule.setPermissions(nDocument, doc);
+
+        // Get categories
+        Set<Folder> categories = new HashSet<Folder>();
+        NodeFolderDAO nFldDao = NodeFolderDAO.getInstance();
+        Set<NodeFolder> resolvedCategories = nFldDao.resolveCategories(nDocument.getCategories());
+
+        for (NodeFolder nfldCat : resolvedCategories) {
+            categories.add(BaseFolderModule.getProperties(user, nfldCat));
+        }
+
+        doc.setCategories(categories);
+
+        // Get notes
+        List<Note> notes = new ArrayList<Note>();
+        List<NodeNote> nNoteList = NodeNoteDAO.getInstance().findByParent(nDocument.getUuid());
+
+        for (NodeNote nNote : nNoteList) {
+            notes.add(BaseNoteModule.getProperties(nNote, nNote.getUuid()));
+        }
+
+        doc.setNotes(notes);
+
+        log.trace("getProperties.Time: {}", System.currentTimeMillis() - begin);
+        log.debug("getProperties: {}", doc);
+        return doc;
+    }
+
+    /**
+     * Get properties of several documents. Current versions, notes, categories, paths and permissions
+     * are resolved for all of them with a fixed number of queries instead of document by document.
+     * Documents removed meanwhile are skipped, so the result may be shorter than the given list.
+     */
+    public static List<Document> getProperties(String user, List<NodeDocument> nDocuments) throws PathNotFoundException,
+            DatabaseException {
+        log.debug("getProperties({}, {})", user, nDocuments.size());
+        long begin = System.currentTimeMillis();
+        List<Document> ret = new ArrayList<Document>(nDocuments.size());
+
+        if (!nDocuments.isEmpty()) {
+            Set<String> uuids = new HashSet<String>();
+            Set<String> catUuids = new HashSet<String>();
+
+            for (NodeDocument nDocument : nDocuments) {
+                uuids.add(nDocument.getUuid());
+                catUuids.addAll(nDocument.getCategories());
+            }
+
+            Map<String, NodeDocumentVersion> versions = NodeDocumentVersionDAO.getInstance().findCurrentVersions(uuids);
+            Map<String, List<NodeNote>> nNotes = NodeNoteDAO.getInstance().findByParents(uuids);
+            Map<String, Integer> permissions = BaseModule.getPermissions(nDocuments);
+            Map<String, Folder> categories = new HashMap<String, Folder>();
+            Map<String, String> parentPaths = new HashMap<String, String>();
+
+            // Every category is resolved only once
+            for (NodeFolder nfldCat : NodeFolderDAO.getInstance().resolveCategories(catUuids)) {
+                categories.put(nfldCat.getUuid(), BaseFolderModule.getProperties(user, nfldCat));
+            }
+
+            for (NodeDocument nDocument : nDocuments) {
+                String parentPath = parentPaths.get(nDocument.getParent());
+
+                if (parentPath == null) {
+                    try {
+                        parentPath = NodeBaseDAO.getInstance().getPathFromUuid(nDocument.getParent());
+                        parentPaths.put(nDocument.getParent(), parentPath);
+                    } catch (PathNotFoundException e) {
+                        log.warn("Document {} skipped: {}", nDocument.getUuid(), e.getMessage());
+                        continue;
+                    }
+                }
+
+                if (!versions.containsKey(nDocument.getUuid())) {
+                    log.warn("Document {} skipped: current version not found", nDocument.getUuid());
+                    continue;
+                }
+
+                String docPath = parentPath + "/" + nDocument.getName();
+                Document doc = getProperties(user, nDocument, docPath, versions.get(nDocument.getUuid()));
+                doc.setPermissions(permissions.get(nDocument.getUuid()));
+                Set<Folder> docCategories = new HashSet<Folder>();
+
+                for (String catUuid : nDocument.getCategories()) {
+                    Folder category = categories.get(catUuid);
+
+                    if (category != null) {
+                        docCategories.add(category);
+                    }
+                }
+
+                doc.setCategories(docCategories);
+                List<Note> notes = new ArrayList<Note>();
+                List<NodeNote> nNoteList = nNotes.get(nDocument.getUuid());
+
+                if (nNoteList != null) {
+                    for (NodeNote nNote : nNoteList) {
+                        notes.add(BaseNoteModule.getProperties(nNote, nNote.getUuid()));
+                    }
+                }
+
+                doc.setNotes(notes);
+                ret.add(doc);
+            }
+        }
+
+        log.trace("getProperties.Time: {}", System.currentTimeMillis() - begin);
+        log.debug("getProperties: {}", ret.size());
+        return ret;
+    }
+
+    /**
+     * Get document properties which do not need any additional query
+     */
+    private static Document getProperties(String user, NodeDocument nDocument, String docPath, NodeDocumentVersion currentVersion)
+            throws DatabaseException {
         Document doc = new Document();
 
         // Properties
-        String docPath = NodeBaseDAO.getInstance().getPathFromUuid(nDocument.getUuid());
         doc.setPath(docPath);
         doc.setCreated(nDocument.getCreated());
         doc.setLastModified(nDocument.getLastModified());
@@ -202,14 +321,9 @@ public class BaseDocumentModule {
             doc.setLockInfo(null);
         }
 
-        // Get current version
-        NodeDocumentVersionDAO nodeDocVerDao = NodeDocumentVersionDAO.getInstance();
-        NodeDocumentVersion currentVersion = nodeDocVerDao.findCurrentVersion(doc.getUuid());
+        // Current version
         doc.setActualVersion(BaseModule.getProperties(currentVersion));
 
-        // Get permissions
-        BaseModule.setPermissions(nDocument, doc);
-
         // Document conversion capabilities
         DocConverter convert = DocConverter.getInstance();
         doc.setConvertibleToPdf(convert.convertibleToPdf(doc.getMimeType()));
@@ -219,30 +333,6 @@ public class BaseDocumentModule {
         doc.setSubscriptors(nDocument.getSubscriptors());
         doc.setSubscribed(nDocument.getSubscriptors().contains(user));
         doc.setKeywords(nDocument.getKeywords());
-
-        // Get categories
-        Set<Folder> categories = new HashSet<Folder>();
-        NodeFolderDAO nFldDao = NodeFolderDAO.getInstance();
-        Set<NodeFolder> resolvedCategories = nFldDao.resolveCategories(nDocument.getCategories());
-
-        for (NodeFolder nfldCat : resolvedCategories) {
-            categories.add(BaseFolderModule.getProperties(user, nfldCat));
-        }
-
-        doc.setCategories(categories);
-
-        // Get notes
-        List<Note> notes = new ArrayList<Note>();
-        List<NodeNote> nNoteList = NodeNoteDAO.getInstance().findByParent(nDocument.getUuid());
-
-        for (NodeNote nNote : nNoteList) {
-            notes.add(BaseNoteModule.getProperties(nNote, nNote.getUuid()));
-        }
-
-        doc.setNotes(notes);
-
-        log.trace("getProperties.Time: {}", System.currentTimeMillis() - begin);
-        log.debug("getProperties: {}", doc);
         return doc;
     }
 
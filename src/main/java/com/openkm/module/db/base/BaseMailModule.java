@@ -176,10 +176,7 @@ public class BaseMailModule {
 
         // Get attachments
         ArrayList<Document> attachments = new ArrayList<Document>();
-
-        for (NodeDocument nDocument : NodeDocumentDAO.getInstance().findByParent(nMail.getUuid())) {
-            attachments.add(BaseDocumentModule.getProperties(user, nDocument));
-        }
+        attachments.addAll(BaseDocumentModule.getProperties(user, NodeDocumentDAO.getInstance().findByParent(nMail.getUuid())));
 
         mail.setAttachments(attachments);
 
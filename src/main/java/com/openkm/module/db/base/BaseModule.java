@@ -21,6 +21,10 @@
 
 package com.openkm.module.db.base;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -101,4 +105,27 @@ public class BaseModule {
             }
         }
     }
+
+    /**
+     * Get permissions of several nodes at once, by node UUID
+     */
+    public static Map<String, Integer> getPermissions(Collection<? extends NodeBase> nodes) throws DatabaseException {
+        Map<String, Integer> ret = new HashMap<String, Integer>();
+
+        for (NodeBase nBase : nodes) {
+            ret.put(nBase.getUuid(), Permission.NONE);
+        }
+
+        if (!Config.SYSTEM_READONLY) {
+            DbAccessManager am = SecurityHelper.getAccessManager();
+
+            for (int permission : new int[] { Permission.READ, Permission.WRITE, Permission.DELETE, Permission.SECURITY }) {
+                for (String uuid : am.isGranted(nodes, permission)) {
+                    ret.put(uuid, ret.get(uuid) | permission);
+                }
+            }
+        }
+
+        return ret;
+    }
 }
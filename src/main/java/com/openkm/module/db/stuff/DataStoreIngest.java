@@ -0,0 +1,229 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.module.db.stuff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.core.MimeTypeConfig;
+
+/**
+ * Single pass document content ingestion. While the content is copied to its destination
+ * the size, the content digest, the checksum and a magic number based MIME type are
+ * calculated, so the stored content has not to be read again.
+ */
+public class DataStoreIngest {
+    private static Logger log = LoggerFactory.getLogger(DataStoreIngest.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int SNIFF_SIZE = 16;
+    public static final String INGEST_SUFFIX = ".ingest";
+
+    // Direct buffers are expensive to allocate, so keep one per thread
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private MessageDigest contentDigest;
+    private MessageDigest checksumDigest;
+    private byte[] head = new byte[SNIFF_SIZE];
+    private int headLength = 0;
+    private long size = 0;
+
+    /**
+     * @param digest Calculate the SHA-256 content digest.
+     * @param checksum Calculate the MD5 content checksum.
+     */
+    public DataStoreIngest(boolean digest, boolean checksum) throws IOException {
+        try {
+            if (digest) {
+                contentDigest = MessageDigest.getInstance("SHA-256");
+            }
+
+            if (checksum) {
+                checksumDigest = MessageDigest.getInstance("MD5");
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write content to file
+     */
+    public void write(InputStream is, File file) throws IOException {
+        log.debug("write({}, {})", is, file);
+        FileOutputStream fos = new FileOutputStream(file);
+
+        try {
+            transfer(is, fos.getChannel());
+        } finally {
+            IOUtils.closeQuietly(fos);
+        }
+    }
+
+    /**
+     * Read content into memory. The expected size is only used as a hint.
+     */
+    public byte[] read(InputStream is, long expectedSize) throws IOException {
+        log.debug("read({}, {})", is, expectedSize);
+        int capacity = expectedSize > 0 && expectedSize < Integer.MAX_VALUE ? (int) expectedSize : BUFFER_SIZE;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(capacity);
+        transfer(is, Channels.newChannel(baos));
+        return baos.toByteArray();
+    }
+
+    /**
+     * Copy the stream to the channel updating the digests on the way
+     */
+    private void transfer(InputStream is, WritableByteChannel out) throws IOException {
+        ReadableByteChannel in = Channels.newChannel(is);
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            size += buffer.remaining();
+
+            if (headLength < SNIFF_SIZE) {
+                ByteBuffer dup = buffer.duplicate();
+                int length = Math.min(SNIFF_SIZE - headLength, dup.remaining());
+                dup.get(head, headLength, length);
+                headLength += length;
+            }
+
+            if (contentDigest != null) {
+                contentDigest.update(buffer.duplicate());
+            }
+
+            if (checksumDigest != null) {
+                checksumDigest.update(buffer.duplicate());
+            }
+
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Number of bytes ingested
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * SHA-256 content digest, if requested
+     */
+    public String getDigest() {
+        return contentDigest == null ? null : Hex.encodeHexString(contentDigest.digest());
+    }
+
+    /**
+     * MD5 content checksum, if requested
+     */
+    public String getChecksum() {
+        return checksumDigest == null ? null : Hex.encodeHexString(checksumDigest.digest());
+    }
+
+    /**
+     * MIME type detected from the content magic number, or null if unknown
+     */
+    public String getMimeType() {
+        if (startsWith('%', 'P', 'D', 'F')) {
+            return MimeTypeConfig.MIME_PDF;
+        } else if (startsWith(0x89, 'P', 'N', 'G')) {
+            return MimeTypeConfig.MIME_PNG;
+        } else if (startsWith(0xFF, 0xD8, 0xFF)) {
+            return MimeTypeConfig.MIME_JPEG;
+        } else if (startsWith('G', 'I', 'F', '8')) {
+            return MimeTypeConfig.MIME_GIF;
+        } else if (startsWith('I', 'I', 0x2A, 0x00) || startsWith('M', 'M', 0x00, 0x2A)) {
+            return MimeTypeConfig.MIME_TIFF;
+        } else if (startsWith('{', '\\', 'r', 't', 'f')) {
+            return MimeTypeConfig.MIME_RTF;
+        } else if (startsWith('%', '!', 'P', 'S')) {
+            return MimeTypeConfig.MIME_POSTSCRIPT;
+        } else if (startsWith('P', 'K', 0x03, 0x04)) {
+            return MimeTypeConfig.MIME_ZIP;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Check content magic number
+     */
+    private boolean startsWith(int... magic) {
+        if (headLength < magic.length) {
+            return false;
+        }
+
+        for (int i = 0; i < magic.length; i++) {
+            if ((head[i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the temporal file used to ingest a datastore file
+     */
+    public static File getIngestFile(File file) {
+        return new File(file.getPath() + INGEST_SUFFIX);
+    }
+
+    /**
+     * Move an ingested file to its final location, atomically when the file system allows it
+     */
+    public static void move(File src, File dst) throws IOException {
+        try {
+            Files.move(src.toPath(), dst.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(src.toPath(), dst.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
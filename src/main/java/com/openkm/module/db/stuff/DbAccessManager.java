@@ -21,6 +21,9 @@
 
 package com.openkm.module.db.stuff;
 
+import java.util.Collection;
+import java.util.Set;
+
 import com.openkm.core.AccessDeniedException;
 import com.openkm.core.DatabaseException;
 import com.openkm.core.PathNotFoundException;
@@ -39,4 +42,9 @@ public interface DbAccessManager {
     public boolean isGranted(NodeBase node, int permissions) throws DatabaseException;
 
     public boolean isGranted(NodeBase node, String user, int permissions) throws PrincipalAdapterException, DatabaseException;
+
+    /**
+     * Check permissions of several nodes at once, returning the UUIDs of the granted ones.
+     */
+    public Set<String> isGranted(Collection<? extends NodeBase> nodes, int permissions) throws DatabaseException;
 }
@@ -21,12 +21,12 @@
 
 package com.openkm.module.db.stuff;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,7 +35,6 @@ import com.openkm.core.AccessDeniedException;
 import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
 import com.openkm.core.PathNotFoundException;
-import com.openkm.dao.HibernateUtil;
 import com.openkm.dao.NodeBaseDAO;
 import com.openkm.dao.bean.NodeBase;
 import com.openkm.module.common.CommonAuthModule;
@@ -53,6 +52,7 @@ import com.openkm.util.StackTraceUtils;
 public class DbReadRecursiveAccessManager implements DbAccessManager {
     private static Logger log = LoggerFactory.getLogger(DbReadRecursiveAccessManager.class);
     public static final String NAME = "read_recursive";
+    private static final DbRecursiveAccessManager recursive = new DbRecursiveAccessManager();
 
     /**
      * Check for permissions.
@@ -81,6 +81,29 @@ public class DbReadRecursiveAccessManager implements DbAccessManager {
         return isGranted(node, user, new HashSet<String>(roles), permissions);
     }
 
+    /**
+     * Check for permissions on several nodes at once.
+     */
+    @Override
+    public Set<String> isGranted(Collection<? extends NodeBase> nodes, int permissions) throws DatabaseException {
+        String user = PrincipalUtils.getUser();
+        Set<String> roles = PrincipalUtils.getRoles();
+
+        if (user != null && permissions == Permission.READ) {
+            return recursive.isGranted(nodes, user, roles, permissions);
+        } else {
+            Set<String> granted = new HashSet<String>();
+
+            for (NodeBase node : nodes) {
+                if (isGranted(node, user, roles, permissions)) {
+                    granted.add(node.getUuid());
+                }
+            }
+
+            return granted;
+        }
+    }
+
     /**
      * Check for permissions.
      */
@@ -99,14 +122,7 @@ public class DbReadRecursiveAccessManager implements DbAccessManager {
                     access = true;
                 } else {
                     if (permissions == Permission.READ) {
-                        Session session = null;
-
-                        try {
-                            session = HibernateUtil.getSessionFactory().openSession();
-                            access = recursiveIsGranted(session, node, user, roles, permissions);
-                        } finally {
-                            HibernateUtil.close(session);
-                        }
+                        access = recursive.isGranted(node, user, roles, permissions);
                     } else {
                         access = checkProperties(node.getUserPermissions(), node.getRolePermissions(), user, roles, permissions);
                     }
@@ -127,27 +143,6 @@ public class DbReadRecursiveAccessManager implements DbAccessManager {
         return access;
     }
 
-    private boolean recursiveIsGranted(Session session, NodeBase node, String user, Set<String> roles, int perms) throws DatabaseException {
-        if (log.isDebugEnabled()) {
-            log.debug("recursiveIsGranted({}, {}, {}, {})", new Object[] { NodeBaseDAO.getInstance().getParentUuid(node.getUuid()), user,
-                    roles, perms });
-        }
-
-        boolean access = checkProperties(node.getUserPermissions(), node.getRolePermissions(), user, roles, perms);
-
-        if (!Config.ROOT_NODE_UUID.equals(node.getParent())) {
-            NodeBase parent = NodeBaseDAO.getInstance().getParentNodePermissions(session, node.getUuid());
-
-            while (parent != null) {
-                access &= recursiveIsGranted(session, parent, user, roles, perms);
-                parent = NodeBaseDAO.getInstance().getParentNodePermissions(session, parent.getUuid());
-            }
-        }
-
-        log.debug("recursiveIsGranted: {}", access);
-        return access;
-    }
-
     /**
      * Check access properties
      */
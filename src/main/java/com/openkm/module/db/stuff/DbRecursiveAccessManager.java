@@ -21,15 +21,21 @@
 
 package com.openkm.module.db.stuff;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.openkm.cache.PermissionCache;
 import com.openkm.core.AccessDeniedException;
 import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
@@ -79,10 +85,18 @@ public class DbRecursiveAccessManager implements DbAccessManager {
         return isGranted(node, user, new HashSet<String>(roles), permissions);
     }
 
+    /**
+     * Check for permissions on several nodes at once.
+     */
+    @Override
+    public Set<String> isGranted(Collection<? extends NodeBase> nodes, int permissions) throws DatabaseException {
+        return isGranted(nodes, PrincipalUtils.getUser(), PrincipalUtils.getRoles(), permissions);
+    }
+
     /**
      * Check for permissions.
      */
-    private boolean isGranted(NodeBase node, String user, Set<String> roles, int permissions) throws DatabaseException {
+    boolean isGranted(NodeBase node, String user, Set<String> roles, int permissions) throws DatabaseException {
         log.debug("isGranted({}, {})", node.getUuid(), permissions);
         long begin = System.currentTimeMillis();
         boolean access = false;
@@ -95,14 +109,13 @@ public class DbRecursiveAccessManager implements DbAccessManager {
                 if (roles.contains(Config.DEFAULT_ADMIN_ROLE)) {
                     // An user with AdminRole has total access
                     access = true;
-                } else {
-                    Session session = null;
-
-                    try {
-                        session = HibernateUtil.getSessionFactory().openSession();
-                        access = recursiveIsGranted(session, node, user, roles, permissions);
-                    } finally {
-                        HibernateUtil.close(session);
+                } else if (checkProperties(node.getUserPermissions(), node.getRolePermissions(), user, roles, permissions)) {
+                    String parent = getParent(node);
+
+                    if (Config.ROOT_NODE_UUID.equals(parent)) {
+                        access = true;
+                    } else {
+                        access = ancestorsGranted(Collections.singleton(parent), user, roles, permissions).get(parent);
                     }
                 }
             }
@@ -121,25 +134,184 @@ public class DbRecursiveAccessManager implements DbAccessManager {
         return access;
     }
 
-    private boolean recursiveIsGranted(Session session, NodeBase node, String user, Set<String> roles, int perms) throws DatabaseException {
-        if (log.isDebugEnabled()) {
-            log.debug("recursiveIsGranted({}, {}, {}, {})", new Object[] { NodeBaseDAO.getInstance().getParentUuid(node.getUuid()), user,
-                    roles, perms });
+    /**
+     * Check for permissions on several nodes at once.
+     */
+    Set<String> isGranted(Collection<? extends NodeBase> nodes, String user, Set<String> roles, int permissions)
+            throws DatabaseException {
+        log.debug("isGranted({}, {})", nodes.size(), permissions);
+        long begin = System.currentTimeMillis();
+        Set<String> granted = new HashSet<String>();
+
+        if (user != null) {
+            if (Config.SYSTEM_USER.equals(user) || Config.ADMIN_USER.equals(user) || roles.contains(Config.DEFAULT_ADMIN_ROLE)) {
+                // An okmAdmin user or an user with AdminRole has total access
+                for (NodeBase node : nodes) {
+                    granted.add(node.getUuid());
+                }
+            } else {
+                List<NodeBase> candidates = new ArrayList<NodeBase>();
+                Set<String> parents = new HashSet<String>();
+
+                for (NodeBase node : nodes) {
+                    if (checkProperties(node.getUserPermissions(), node.getRolePermissions(), user, roles, permissions)) {
+                        String parent = getParent(node);
+                        candidates.add(node);
+
+                        if (!Config.ROOT_NODE_UUID.equals(parent)) {
+                            parents.add(parent);
+                        }
+                    }
+                }
+
+                Map<String, Boolean> ancestors = ancestorsGranted(parents, user, roles, permissions);
+
+                for (NodeBase node : candidates) {
+                    String parent = getParent(node);
+
+                    if (Config.ROOT_NODE_UUID.equals(parent) || ancestors.get(parent)) {
+                        granted.add(node.getUuid());
+                    }
+                }
+            }
+        } else {
+            log.info("***************************");
+            log.info("***************************");
+            StackTraceUtils.logTrace(log);
+            log.info("***************************");
+            log.info("***************************");
+        }
+
+        log.trace("isGranted.Nodes: {}, Time: {}", nodes.size(), System.currentTimeMillis() - begin);
+        log.debug("isGranted: {}", granted);
+        return granted;
+    }
+
+    /**
+     * Get node parent, which is not set in nodes loaded only with their permissions.
+     */
+    private String getParent(NodeBase node) throws DatabaseException {
+        return node.getParent() != null ? node.getParent() : NodeBaseDAO.getInstance().getParentUuid(node.getUuid());
+    }
+
+    /**
+     * Evaluate the permissions of these folders and all their ancestors. Effective permissions are taken from the
+     * PermissionCache when present, and the missing ancestors are loaded one tree level per query, so the cost is
+     * bounded by the tree depth instead of the number of nodes.
+     */
+    Map<String, Boolean> ancestorsGranted(Set<String> uuids, String user, Set<String> roles, int perms)
+            throws DatabaseException {
+        log.debug("ancestorsGranted({}, {}, {}, {})", new Object[] { uuids, user, roles, perms });
+        String principal = PermissionCache.getPrincipal(user, roles, perms);
+        long generation = PermissionCache.getGeneration();
+        Map<String, PermissionCache.Entry> resolved = new HashMap<String, PermissionCache.Entry>();
+        Map<String, NodeBase> loaded = new HashMap<String, NodeBase>();
+        Set<String> pending = new HashSet<String>();
+
+        for (String uuid : uuids) {
+            PermissionCache.Entry entry = PermissionCache.get(uuid, principal);
+
+            if (entry != null) {
+                resolved.put(uuid, entry);
+            } else {
+                pending.add(uuid);
+            }
         }
 
-        boolean access = checkProperties(node.getUserPermissions(), node.getRolePermissions(), user, roles, perms);
+        if (!pending.isEmpty()) {
+            Session session = null;
+
+            try {
+                session = HibernateUtil.getSessionFactory().openSession();
+                Set<String> level = pending;
+
+                while (!level.isEmpty()) {
+                    Map<String, NodeBase> nodes = NodeBaseDAO.getInstance().getNodesPermissions(session, level);
+                    Set<String> nextLevel = new HashSet<String>();
 
-        if (!Config.ROOT_NODE_UUID.equals(node.getParent())) {
-            NodeBase parent = NodeBaseDAO.getInstance().getParentNodePermissions(session, node.getUuid());
+                    for (String uuid : level) {
+                        NodeBase node = nodes.get(uuid);
+                        loaded.put(uuid, node);
 
-            while (parent != null) {
-                access &= recursiveIsGranted(session, parent, user, roles, perms);
-                parent = NodeBaseDAO.getInstance().getParentNodePermissions(session, parent.getUuid());
+                        if (node != null && !Config.ROOT_NODE_UUID.equals(node.getParent()) && !loaded.containsKey(node.getParent())
+                                && !resolved.containsKey(node.getParent())) {
+                            PermissionCache.Entry entry = PermissionCache.peek(node.getParent(), principal);
+
+                            if (entry != null) {
+                                resolved.put(node.getParent(), entry);
+                            } else {
+                                nextLevel.add(node.getParent());
+                            }
+                        }
+                    }
+
+                    level = nextLevel;
+                }
+            } catch (HibernateException e) {
+                throw new DatabaseException(e.getMessage(), e);
+            } finally {
+                HibernateUtil.close(session);
+            }
+
+            for (String uuid : pending) {
+                resolve(uuid, loaded, resolved, user, roles, perms, principal, generation);
             }
         }
 
-        log.debug("recursiveIsGranted: {}", access);
-        return access;
+        Map<String, Boolean> ret = new HashMap<String, Boolean>();
+
+        for (String uuid : uuids) {
+            ret.put(uuid, resolved.get(uuid).isGranted());
+        }
+
+        log.debug("ancestorsGranted: {}", ret);
+        return ret;
+    }
+
+    /**
+     * Calculate the effective permission of a loaded node walking up to the first resolved ancestor. A node
+     * without permissions ends the walk, as getParentNodePermissions(Session, String) does.
+     */
+    private void resolve(String uuid, Map<String, NodeBase> loaded, Map<String, PermissionCache.Entry> resolved, String user,
+            Set<String> roles, int perms, String principal, long generation) {
+        List<NodeBase> chain = new ArrayList<NodeBase>();
+        Set<String> visited = new HashSet<String>();
+        PermissionCache.Entry top = null;
+        String current = uuid;
+
+        while (current != null && visited.add(current)) {
+            top = resolved.get(current);
+
+            if (top != null) {
+                break;
+            }
+
+            NodeBase node = loaded.get(current);
+
+            if (node == null) {
+                top = new PermissionCache.Entry(true, current, null);
+                resolved.put(current, top);
+                PermissionCache.put(current, principal, top, generation);
+                break;
+            }
+
+            chain.add(node);
+
+            if (node.getUuid().equals(node.getParent())) {
+                log.warn("*** Node is its own parent: {} ***", node.getUuid());
+            }
+
+            current = Config.ROOT_NODE_UUID.equals(node.getParent()) ? null : node.getParent();
+        }
+
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            NodeBase node = chain.get(i);
+            boolean granted = (top == null || top.isGranted())
+                    && checkProperties(node.getUserPermissions(), node.getRolePermissions(), user, roles, perms);
+            top = new PermissionCache.Entry(granted, node.getUuid(), top);
+            resolved.put(node.getUuid(), top);
+            PermissionCache.put(node.getUuid(), principal, top, generation);
+        }
     }
 
     /**
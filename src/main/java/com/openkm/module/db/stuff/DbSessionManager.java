@@ -23,11 +23,15 @@ package com.openkm.module.db.stuff;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,13 +44,18 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
 /**
+ * Sessions are indexed by token. Expiration is checked through a wheel of one
+ * minute buckets keyed by the expected expiration time: a session is only looked at when its
+ * bucket is due, and moved to a later bucket if it has been accessed meanwhile.
+ *
  * @author pavila
  */
 public class DbSessionManager {
-    @SuppressWarnings("unused")
     private static Logger log = LoggerFactory.getLogger(DbSessionManager.class);
+    private static final long TICK = 60 * 1000; // 1 minute
     private static DbSessionManager instance = new DbSessionManager();
-    private Map<String, DbSessionInfo> sessions = new HashMap<>();
+    private ConcurrentHashMap<String, DbSessionInfo> sessions = new ConcurrentHashMap<>();
+    private TreeMap<Long, Set<String>> wheel = new TreeMap<>();
     private static String systemToken;
 
     /**
@@ -86,12 +95,17 @@ public class DbSessionManager {
     /**
      * Add a new session
      */
-    public synchronized void add(String token, Authentication auth) {
+    public void add(String token, Authentication auth) {
         DbSessionInfo si = new DbSessionInfo();
         si.setAuth(auth);
         si.setCreation(Calendar.getInstance());
         si.setLastAccess(Calendar.getInstance());
         sessions.put(token, si);
+
+        // System session never expires
+        if (!Config.SYSTEM_USER.equals(auth.getName())) {
+            schedule(token, si.getLastAccess().getTimeInMillis() + Config.SESSION_EXPIRATION * 1000L);
+        }
     }
 
     /**
@@ -131,7 +145,7 @@ public class DbSessionManager {
     /**
      * Remove a session
      */
-    public synchronized void remove(String token) {
+    public void remove(String token) {
         sessions.remove(token);
     }
 
@@ -139,13 +153,7 @@ public class DbSessionManager {
      * Return all active tokens
      */
     public List<String> getTokens() {
-        List<String> list = new ArrayList<String>();
-
-        for (String token : sessions.keySet()) {
-            list.add(token);
-        }
-
-        return list;
+        return new ArrayList<String>(sessions.keySet());
     }
 
     /**
@@ -154,4 +162,59 @@ public class DbSessionManager {
     public Map<String, DbSessionInfo> getSessions() {
         return sessions;
     }
+
+    /**
+     * Return the tokens of the sessions idle for more than Config.SESSION_EXPIRATION seconds. Only
+     * the due buckets are checked. Expired tokens are checked again a tick later, in case they
+     * could not be removed.
+     */
+    public List<String> getExpiredTokens() {
+        log.debug("getExpiredTokens()");
+        List<String> expired = new ArrayList<String>();
+        long now = System.currentTimeMillis();
+        List<String> due = new ArrayList<String>();
+
+        synchronized (wheel) {
+            for (Iterator<Entry<Long, Set<String>>> it = wheel.headMap(now / TICK, true).entrySet().iterator(); it.hasNext();) {
+                due.addAll(it.next().getValue());
+                it.remove();
+            }
+        }
+
+        for (String token : due) {
+            DbSessionInfo si = sessions.get(token);
+
+            if (si != null) {
+                long expiration = si.getLastAccess().getTimeInMillis() + Config.SESSION_EXPIRATION * 1000L;
+
+                if (expiration <= now) {
+                    expired.add(token);
+                    schedule(token, now + TICK);
+                } else {
+                    schedule(token, expiration);
+                }
+            }
+        }
+
+        log.debug("getExpiredTokens: {} of {}", expired.size(), due.size());
+        return expired;
+    }
+
+    /**
+     * Put a session in the bucket of the tick following its expiration time.
+     */
+    private void schedule(String token, long expiration) {
+        Long tick = (expiration + TICK - 1) / TICK;
+
+        synchronized (wheel) {
+            Set<String> bucket = wheel.get(tick);
+
+            if (bucket == null) {
+                bucket = new HashSet<String>();
+                wheel.put(tick, bucket);
+            }
+
+            bucket.add(token);
+        }
+    }
 }
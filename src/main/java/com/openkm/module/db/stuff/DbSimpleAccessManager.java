@@ -21,6 +21,7 @@
 
 package com.openkm.module.db.stuff;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -77,6 +78,24 @@ public class DbSimpleAccessManager implements DbAccessManager {
         return isGranted(node, user, new HashSet<String>(roles), permissions);
     }
 
+    /**
+     * Check for permissions on several nodes at once.
+     */
+    @Override
+    public Set<String> isGranted(Collection<? extends NodeBase> nodes, int permissions) throws DatabaseException {
+        String user = PrincipalUtils.getUser();
+        Set<String> roles = PrincipalUtils.getRoles();
+        Set<String> granted = new HashSet<String>();
+
+        for (NodeBase node : nodes) {
+            if (isGranted(node, user, roles, permissions)) {
+                granted.add(node.getUuid());
+            }
+        }
+
+        return granted;
+    }
+
     /**
      * Check for permissions.
      */
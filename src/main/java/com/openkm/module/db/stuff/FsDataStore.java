@@ -24,19 +24,20 @@ package com.openkm.module.db.stuff;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
 
 import org.apache.commons.io.IOUtils;
 import org.hibernate.HibernateException;
+import org.hibernate.Query;
 import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
+import com.openkm.core.MimeTypeConfig;
 import com.openkm.core.PathNotFoundException;
 import com.openkm.core.RepositoryException;
 import com.openkm.dao.HibernateUtil;
@@ -49,6 +50,18 @@ public class FsDataStore {
     public static final String DATASTORE_BACKEND_FS = "fs";
     public static final String DATASTORE_BACKEND_DB = "db";
     public static final String DATASTORE_DIRNAME = "datastore";
+    public static final String DATASTORE_CAS_DIRNAME = "cas";
+    private static final String DATASTORE_CAS_INCOMING = "incoming";
+
+    // Blobs touched recently are not removed, so a concurrent upload of the same content can still commit its reference
+    private static final long BLOB_GRACE_PERIOD = 10 * 60 * 1000; // 10 minutes
+    private static final Object[] BLOB_LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < BLOB_LOCKS.length; i++) {
+            BLOB_LOCKS[i] = new Object();
+        }
+    }
 
     /**
      * Write to data store 
@@ -57,12 +70,26 @@ public class FsDataStore {
         log.debug("save({}, {})", uuid, is);
         File fs = resolveFile(uuid);
         fs.getParentFile().mkdirs();
-        FileOutputStream fos = new FileOutputStream(fs);
-        IOUtils.copy(is, fos);
-        IOUtils.closeQuietly(fos);
+        write(new DataStoreIngest(false, false), is, fs);
         return fs;
     }
 
+    /**
+     * Write through a temporal file which is moved to its final location once complete
+     */
+    private static void write(DataStoreIngest ingest, InputStream is, File fs) throws IOException {
+        File tmp = DataStoreIngest.getIngestFile(fs);
+
+        try {
+            ingest.write(is, tmp);
+            DataStoreIngest.move(tmp, fs);
+        } finally {
+            if (tmp.exists() && !tmp.delete()) {
+                log.warn("Could not delete file '{}'", tmp.getPath());
+            }
+        }
+    }
+
     /**
      * Read from data store
      */
@@ -71,6 +98,14 @@ public class FsDataStore {
         return new FileInputStream(resolveFile(uuid));
     }
 
+    /**
+     * Read document version from data store
+     */
+    public static InputStream read(NodeDocumentVersion nDocVer) throws FileNotFoundException {
+        log.debug("read({})", nDocVer);
+        return new FileInputStream(resolveFile(nDocVer));
+    }
+
     /**
      * Purge data store file
      */
@@ -87,52 +122,179 @@ public class FsDataStore {
         }
     }
 
+    /**
+     * Purge document version data store file. A content-addressed blob is only removed
+     * when this was its last reference.
+     */
+    public static void delete(Session session, NodeDocumentVersion nDocVer) throws HibernateException, IOException {
+        log.debug("delete({})", nDocVer);
+
+        if (nDocVer.getContentDigest() == null) {
+            delete(nDocVer.getUuid());
+        } else {
+            releaseBlob(session, nDocVer.getContentDigest());
+        }
+    }
+
+    /**
+     * Purge document version data store file, used when the version was not persisted.
+     */
+    public static void delete(NodeDocumentVersion nDocVer) throws IOException {
+        if (nDocVer.getContentDigest() == null) {
+            delete(nDocVer.getUuid());
+        } else {
+            Session session = null;
+
+            try {
+                session = HibernateUtil.getSessionFactory().openSession();
+                releaseBlob(session, nDocVer.getContentDigest());
+            } catch (HibernateException e) {
+                log.warn("Blob '{}' left for orphan purge: {}", nDocVer.getContentDigest(), e.getMessage());
+            } finally {
+                HibernateUtil.close(session);
+            }
+        }
+    }
+
     /**
      * Copy a datastore file to another version
      */
     public static void copy(NodeDocumentVersion srcDocVer, NodeDocumentVersion dstDocVer) throws IOException {
-        FileInputStream fis = null;
+        if (srcDocVer.getContentDigest() != null) {
+            // Content-addressed: only a new reference to the same blob
+            String digest = srcDocVer.getContentDigest();
 
-        try {
-            fis = new FileInputStream(resolveFile(srcDocVer.getUuid()));
-            save(dstDocVer.getUuid(), fis);
-        } finally {
-            IOUtils.closeQuietly(fis);
+            synchronized (blobLock(digest)) {
+                File blob = resolveBlob(digest);
+
+                if (!blob.exists()) {
+                    throw new IOException("Blob not found '" + blob.getPath() + "'");
+                }
+
+                blob.setLastModified(System.currentTimeMillis());
+            }
+
+            dstDocVer.setContentDigest(digest);
+        } else {
+            FileInputStream fis = null;
+
+            try {
+                fis = new FileInputStream(resolveFile(srcDocVer.getUuid()));
+                save(dstDocVer.getUuid(), fis);
+            } finally {
+                IOUtils.closeQuietly(fis);
+            }
         }
     }
 
     /**
-     * Persis document file
+     * Persis document file. Size, checksum and MIME type are calculated while the content is written.
      */
     public static void persist(NodeDocumentVersion nDocVer, InputStream is) throws IOException {
         log.debug("persist({}, {})", nDocVer, is);
+        boolean dedup =
+                FsDataStore.DATASTORE_BACKEND_FS.equals(Config.REPOSITORY_DATASTORE_BACKEND) && Config.REPOSITORY_DATASTORE_DEDUP;
+        DataStoreIngest ingest = new DataStoreIngest(dedup, Config.REPOSITORY_CONTENT_CHECKSUM);
 
-        if (FsDataStore.DATASTORE_BACKEND_FS.equals(Config.REPOSITORY_DATASTORE_BACKEND)) {
-            File dsRaw = FsDataStore.save(nDocVer.getUuid(), is);
+        if (dedup) {
+            persistBlob(nDocVer, ingest, is);
+        } else if (FsDataStore.DATASTORE_BACKEND_FS.equals(Config.REPOSITORY_DATASTORE_BACKEND)) {
+            File fs = resolveFile(nDocVer.getUuid());
+            fs.getParentFile().mkdirs();
+            write(ingest, is, fs);
+        } else {
+            // Content is mapped as a byte array so it has to be loaded, but only once
+            nDocVer.setContent(ingest.read(is, nDocVer.getSize()));
+        }
+
+        if (Config.REPOSITORY_CONTENT_CHECKSUM) {
+            nDocVer.setChecksum(ingest.getChecksum());
+        }
+
+        if (nDocVer.getSize() != ingest.getSize()) {
+            log.debug("Declared size {} differs from stored size {}", nDocVer.getSize(), ingest.getSize());
+            nDocVer.setSize(ingest.getSize());
+        }
+
+        if (ingest.getMimeType() != null
+                && (nDocVer.getMimeType() == null || MimeTypeConfig.MIME_UNDEFINED.equals(nDocVer.getMimeType()))) {
+            nDocVer.setMimeType(ingest.getMimeType());
+        }
+
+        log.debug("persist: void");
+    }
+
+    /**
+     * Persist document file as a content-addressed blob. The content is hashed while streamed
+     * to an incoming file, which is discarded if a blob with the same digest already exists.
+     */
+    private static void persistBlob(NodeDocumentVersion nDocVer, DataStoreIngest ingest, InputStream is) throws IOException {
+        String incomingName = nDocVer.getUuid() + DataStoreIngest.INGEST_SUFFIX;
+        File incoming = new File(getCasHome(), DATASTORE_CAS_INCOMING + File.separator + incomingName);
+        incoming.getParentFile().mkdirs();
+
+        try {
+            ingest.write(is, incoming);
+            String digest = ingest.getDigest();
+            File blob = resolveBlob(digest);
 
-            if (Config.REPOSITORY_CONTENT_CHECKSUM) {
-                try {
-                    String checkSum = SecureStore.md5Encode(dsRaw);
-                    nDocVer.setChecksum(checkSum);
-                } catch (NoSuchAlgorithmException e) {
-                    log.warn(e.getMessage(), e);
+            synchronized (blobLock(digest)) {
+                if (blob.exists()) {
+                    log.debug("Blob {} already stored", digest);
+                    blob.setLastModified(System.currentTimeMillis());
+                } else {
+                    blob.getParentFile().mkdirs();
+                    DataStoreIngest.move(incoming, blob);
                 }
             }
-        } else {
-            byte[] raw = IOUtils.toByteArray(is);
-            nDocVer.setContent(raw);
-
-            if (Config.REPOSITORY_CONTENT_CHECKSUM) {
-                try {
-                    String checkSum = SecureStore.md5Encode(raw);
-                    nDocVer.setChecksum(checkSum);
-                } catch (NoSuchAlgorithmException e) {
-                    log.warn(e.getMessage(), e);
+
+            nDocVer.setContentDigest(digest);
+        } finally {
+            if (incoming.exists() && !incoming.delete()) {
+                log.warn("Could not delete file '{}'", incoming.getPath());
+            }
+        }
+    }
+
+    /**
+     * Remove the file of a version stored before deduplication was enabled, once its content has been
+     * committed as a blob. Until then the database still points to this file.
+     */
+    public static void deleteLegacy(String verUuid) {
+        File legacy = resolveFile(verUuid);
+
+        if (legacy.exists() && !legacy.delete()) {
+            log.warn("Could not delete file '{}'", legacy.getPath());
+        }
+    }
+
+    /**
+     * Remove a blob when no document version references it anymore.
+     */
+    private static void releaseBlob(Session session, String digest) throws HibernateException, IOException {
+        synchronized (blobLock(digest)) {
+            if (countBlobReferences(session, digest) == 0) {
+                File blob = resolveBlob(digest);
+
+                if (System.currentTimeMillis() - blob.lastModified() > BLOB_GRACE_PERIOD) {
+                    if (!blob.delete() && blob.exists()) {
+                        throw new IOException("Can't delete file (locked) '" + blob.getPath() + "'");
+                    }
+                } else {
+                    log.debug("Blob {} recently used, left for orphan purge", digest);
                 }
             }
         }
+    }
 
-        log.debug("persist: void");
+    /**
+     * Count document versions referencing a blob
+     */
+    private static long countBlobReferences(Session session, String digest) throws HibernateException {
+        String qs = "select count(*) from NodeDocumentVersion ndv where ndv.contentDigest=:digest";
+        Query q = session.createQuery(qs);
+        q.setString("digest", digest);
+        return (Long) q.setMaxResults(1).uniqueResult();
     }
 
     /**
@@ -173,6 +335,12 @@ public class FsDataStore {
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             purgeOrphanFilesHelper(session, new File(Config.REPOSITORY_DATASTORE_HOME));
+            File casHome = getCasHome();
+
+            if (casHome.isDirectory()) {
+                purgeOrphanBlobsHelper(session, casHome);
+            }
+
             log.debug("purgeOrphanFiles: void");
         } catch (HibernateException e) {
             throw new DatabaseException(e.getMessage(), e);
@@ -187,17 +355,43 @@ public class FsDataStore {
     private static void purgeOrphanFilesHelper(Session session, File dir) throws HibernateException, IOException {
         for (File child : dir.listFiles()) {
             if (child.isFile()) {
+                if (child.getName().endsWith(DataStoreIngest.INGEST_SUFFIX)
+                        && System.currentTimeMillis() - child.lastModified() < BLOB_GRACE_PERIOD) {
+                    // Upload in progress
+                    continue;
+                }
+
                 if (session.get(NodeDocumentVersion.class, child.getName()) == null) {
                     if (!child.delete()) {
                         log.warn("Could not delete file '" + child.getCanonicalPath() + "'");
                     }
                 }
-            } else if (child.isDirectory()) {
+            } else if (child.isDirectory() && !child.equals(getCasHome())) {
                 purgeOrphanFilesHelper(session, child);
             }
         }
     }
 
+    /**
+     * Purge orphan content-addressed blobs helper
+     */
+    private static void purgeOrphanBlobsHelper(Session session, File dir) throws HibernateException, IOException {
+        for (File child : dir.listFiles()) {
+            if (child.isFile()) {
+                if (DATASTORE_CAS_INCOMING.equals(dir.getName())) {
+                    // Stale upload
+                    if (System.currentTimeMillis() - child.lastModified() > BLOB_GRACE_PERIOD && !child.delete()) {
+                        log.warn("Could not delete file '" + child.getCanonicalPath() + "'");
+                    }
+                } else {
+                    releaseBlob(session, child.getName());
+                }
+            } else if (child.isDirectory()) {
+                purgeOrphanBlobsHelper(session, child);
+            }
+        }
+    }
+
     /**
      * Get file from uuid
      */
@@ -214,6 +408,41 @@ public class FsDataStore {
         return new File(Config.REPOSITORY_DATASTORE_HOME + File.separator + path.toString() + uuid);
     }
 
+    /**
+     * Get file from document version
+     */
+    public static File resolveFile(NodeDocumentVersion nDocVer) {
+        if (nDocVer.getContentDigest() == null) {
+            return resolveFile(nDocVer.getUuid());
+        } else {
+            return resolveBlob(nDocVer.getContentDigest());
+        }
+    }
+
+    /**
+     * Get blob file from content digest
+     */
+    public static File resolveBlob(String digest) {
+        StringBuilder path = new StringBuilder();
+        path.append(digest.substring(0, 2)).append(File.separator);
+        path.append(digest.substring(2, 4)).append(File.separator);
+        return new File(getCasHome(), path.toString() + digest);
+    }
+
+    /**
+     * Get content-addressed datastore home
+     */
+    private static File getCasHome() {
+        return new File(Config.REPOSITORY_DATASTORE_HOME, DATASTORE_CAS_DIRNAME);
+    }
+
+    /**
+     * Get the monitor which serializes blob creation and removal
+     */
+    private static Object blobLock(String digest) {
+        return BLOB_LOCKS[(digest.hashCode() & 0x7fffffff) % BLOB_LOCKS.length];
+    }
+
     /**
      * Purge empty datastore directories.
      */
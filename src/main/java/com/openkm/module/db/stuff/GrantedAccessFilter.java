@@ -0,0 +1,178 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.module.db.stuff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.OpenBitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.bean.Permission;
+import com.openkm.core.Config;
+import com.openkm.core.DatabaseException;
+import com.openkm.dao.bean.NodeBase;
+
+/**
+ * Lucene filter with the nodes the user can read. The own node permissions are taken from the index, which
+ * is updated when the node security changes, and the permissions of every distinct parent in the index are
+ * evaluated by the access manager, so the inherited security does not need to be stored in Lucene.
+ * 
+ * The resulting bitset is cached by Hibernate Search for each index segment and principal.
+ */
+public class GrantedAccessFilter extends Filter {
+    private static final long serialVersionUID = 1L;
+    private static Logger log = LoggerFactory.getLogger(GrantedAccessFilter.class);
+    private static final int RESOLVE_BATCH = 500;
+    private final String user;
+    private final Set<String> roles;
+    private final boolean recursive;
+
+    public GrantedAccessFilter(String user, Set<String> roles, boolean recursive) {
+        this.user = user;
+        this.roles = roles;
+        this.recursive = recursive;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+        log.debug("getDocIdSet({})", reader);
+        long begin = System.currentTimeMillis();
+        OpenBitSet granted = new OpenBitSet(reader.maxDoc());
+
+        // Nodes with READ permission on themselves
+        BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term("userPermission", user)), BooleanClause.Occur.SHOULD);
+
+        for (String role : roles) {
+            query.add(new TermQuery(new Term("rolePermission", role)), BooleanClause.Occur.SHOULD);
+        }
+
+        DocIdSetIterator it = new QueryWrapperFilter(query).getDocIdSet(reader).iterator();
+
+        if (it != null) {
+            for (int doc = it.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+                granted.fastSet(doc);
+            }
+        }
+
+        // And whose parent can be read
+        if (recursive && !granted.isEmpty()) {
+            granted.intersect(getGrantedParents(reader));
+        }
+
+        log.trace("getDocIdSet.Docs: {}, Time: {}", granted.cardinality(), System.currentTimeMillis() - begin);
+        return granted;
+    }
+
+    /**
+     * Documents whose parent the user can read
+     */
+    private OpenBitSet getGrantedParents(IndexReader reader) throws IOException {
+        DbRecursiveAccessManager am = new DbRecursiveAccessManager();
+        OpenBitSet docs = new OpenBitSet(reader.maxDoc());
+        Set<String> batch = new HashSet<String>();
+        TermEnum te = reader.terms(new Term(NodeBase.PARENT_FIELD, ""));
+
+        try {
+            do {
+                Term term = te.term();
+
+                if (term == null || !NodeBase.PARENT_FIELD.equals(term.field())) {
+                    break;
+                }
+
+                if (Config.ROOT_NODE_UUID.equals(term.text())) {
+                    addDocs(reader, term.text(), docs);
+                } else {
+                    batch.add(term.text());
+
+                    if (batch.size() >= RESOLVE_BATCH) {
+                        addGranted(reader, am, batch, docs);
+                        batch.clear();
+                    }
+                }
+            } while (te.next());
+        } finally {
+            te.close();
+        }
+
+        if (!batch.isEmpty()) {
+            addGranted(reader, am, batch, docs);
+        }
+
+        return docs;
+    }
+
+    /**
+     * Add the documents of the granted parents
+     */
+    private void addGranted(IndexReader reader, DbRecursiveAccessManager am, Set<String> parents, OpenBitSet docs) throws IOException {
+        List<String> granted = new ArrayList<String>();
+
+        try {
+            for (Entry<String, Boolean> entry : am.ancestorsGranted(parents, user, roles, Permission.READ).entrySet()) {
+                if (entry.getValue()) {
+                    granted.add(entry.getKey());
+                }
+            }
+        } catch (DatabaseException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        for (String parent : granted) {
+            addDocs(reader, parent, docs);
+        }
+    }
+
+    /**
+     * Add the documents of this parent
+     */
+    private void addDocs(IndexReader reader, String parent, OpenBitSet docs) throws IOException {
+        TermDocs td = reader.termDocs(new Term(NodeBase.PARENT_FIELD, parent));
+
+        try {
+            while (td.next()) {
+                docs.fastSet(td.doc());
+            }
+        } finally {
+            td.close();
+        }
+    }
+}
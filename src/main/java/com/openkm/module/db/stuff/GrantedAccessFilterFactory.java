@@ -0,0 +1,71 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.module.db.stuff;
+
+import java.util.Set;
+
+import org.apache.lucene.search.Filter;
+import org.hibernate.search.annotations.Factory;
+import org.hibernate.search.annotations.Key;
+import org.hibernate.search.filter.FilterKey;
+import org.hibernate.search.filter.StandardFilterKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.bean.Permission;
+import com.openkm.cache.PermissionCache;
+import com.openkm.core.Config;
+import com.openkm.spring.PrincipalUtils;
+
+/**
+ * Build a GrantedAccessFilter for the current user. The filter key includes the PermissionCache generation,
+ * so cached filters are discarded after any security change or move.
+ */
+public class GrantedAccessFilterFactory {
+    private static Logger log = LoggerFactory.getLogger(GrantedAccessFilterFactory.class);
+
+    @Factory
+    public Filter buildFilter() {
+        log.debug("buildFilter()");
+        String user = PrincipalUtils.getUser();
+        Set<String> roles = PrincipalUtils.getRoles();
+        boolean recursive = !(SecurityHelper.getAccessManager() instanceof DbSimpleAccessManager);
+        return new GrantedAccessFilter(user, roles, recursive);
+    }
+
+    @Key
+    public FilterKey getKey() {
+        StandardFilterKey key = new StandardFilterKey();
+        key.addParameter(PermissionCache.getPrincipal(PrincipalUtils.getUser(), PrincipalUtils.getRoles(), Permission.READ));
+        key.addParameter(PermissionCache.getGeneration());
+        return key;
+    }
+
+    /**
+     * Check if the results of this user need to be filtered
+     */
+    public static boolean isRestricted() {
+        String user = PrincipalUtils.getUser();
+        Set<String> roles = PrincipalUtils.getRoles();
+        return !(Config.ADMIN_USER.equals(user) || Config.SYSTEM_USER.equals(user) || roles.contains(Config.DEFAULT_ADMIN_ROLE));
+    }
+}
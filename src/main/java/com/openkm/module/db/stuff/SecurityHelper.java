@@ -23,6 +23,7 @@ package com.openkm.module.db.stuff;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,10 +65,12 @@ public class SecurityHelper {
      * Prune not accessible nodes
      */
     public static void pruneNodeList(List<? extends NodeBase> nodeList) throws DatabaseException {
+        Set<String> granted = accessManager.isGranted(nodeList, Permission.READ);
+
         for (Iterator<? extends NodeBase> it = nodeList.iterator(); it.hasNext();) {
             NodeBase node = it.next();
 
-            if (!accessManager.isGranted(node, Permission.READ)) {
+            if (!granted.contains(node.getUuid())) {
                 it.remove();
             }
         }
@@ -45,16 +45,21 @@ import com.cybozu.labs.langdetect.DetectorFactory;
 import com.cybozu.labs.langdetect.LangDetectException;
 import com.openkm.core.Config;
 import com.openkm.core.Cron;
+import com.openkm.core.CronScheduler;
+import com.openkm.core.FolderAggregateUpdater;
 import com.openkm.core.MimeTypeConfig;
 import com.openkm.core.UINotification;
 import com.openkm.core.UpdateInfo;
 import com.openkm.dao.HibernateUtil;
 import com.openkm.extension.core.ExtensionManager;
+import com.openkm.extractor.RegisteredExtractors;
+import com.openkm.extractor.TextExtractorQueue;
 import com.openkm.kea.RDFREpository;
 import com.openkm.module.db.DbRepositoryModule;
 import com.openkm.module.db.stuff.FsDataStore;
 import com.openkm.module.jcr.JcrRepositoryModule;
 import com.openkm.spring.SystemAuthentication;
+import com.openkm.util.ActivityWriter;
 import com.openkm.util.CronTabUtils;
 import com.openkm.util.DocConverter;
 import com.openkm.util.ExecutionUtils;
@@ -63,6 +68,7 @@ import com.openkm.util.JBPMUtils;
 import com.openkm.util.UserActivity;
 import com.openkm.util.WarUtils;
 import com.openkm.util.pendtask.PendingTaskExecutor;
+import com.openkm.util.preview.PreviewQueue;
 
 /**
  * Servlet Startup Class
@@ -73,8 +79,10 @@ public class RepositoryStartupServlet extends HttpServlet {
     private static Timer uiTimer; // Update Info (OpenKM Update Information)
     private static Timer cronTimer; // CRON Manager
     private static Timer uinTimer; // User Interface Notification (Create From Administration)
+    private static Timer faTimer; // Folder subtree counters
     private static Cron cron;
     private static UINotification uin;
+    private static FolderAggregateUpdater fau;
     private static UpdateInfo ui;
     private static boolean hasConfiguredDataStore = false;
     private static boolean running = false;
@@ -196,10 +204,14 @@ public class RepositoryStartupServlet extends HttpServlet {
             }
         }
 
+        log.info("*** Activating activity log writer ***");
+        ActivityWriter.start();
+
         // Create timers
         uiTimer = new Timer("Update Info", true);
         cronTimer = new Timer("Crontab Manager", true);
         uinTimer = new Timer("User Interface Notification", true);
+        faTimer = new Timer("Folder Aggregate Updater", true);
 
         // Workflow
         log.info("*** Initializing workflow engine... ***");
@@ -218,6 +230,7 @@ public class RepositoryStartupServlet extends HttpServlet {
         uiTimer.schedule(ui, TimeUnit.MINUTES.toMillis(5), TimeUnit.HOURS.toMillis(24)); // First in 5 min, next each 24 hours
 
         log.info("*** Activating cron ***");
+        CronScheduler.start();
         cron = new Cron();
         Calendar calCron = Calendar.getInstance();
         calCron.add(Calendar.MINUTE, 1);
@@ -227,12 +240,26 @@ public class RepositoryStartupServlet extends HttpServlet {
         // Round begin to next minute, 0 seconds, 0 miliseconds
         cronTimer.scheduleAtFixedRate(cron, calCron.getTime(), 60 * 1000); // First in 1 min, next each 1 min
 
+        if (Config.REPOSITORY_NATIVE) {
+            log.info("*** Activating text extraction queue ***");
+            TextExtractorQueue.start();
+
+            log.info("*** Activating preview pre-rendering queue ***");
+            PreviewQueue.start();
+        }
+
         log.info("*** Activating UI Notification ***");
         uin = new UINotification();
 
         // First in 1 second next in x minutes
         uinTimer.scheduleAtFixedRate(uin, 1000, TimeUnit.MINUTES.toMillis(Config.SCHEDULE_UI_NOTIFICATION));
 
+        log.info("*** Activating folder aggregate updater ***");
+        fau = new FolderAggregateUpdater();
+
+        // First in 1 second next in x seconds
+        faTimer.schedule(fau, 1000, TimeUnit.SECONDS.toMillis(Config.SCHEDULE_FOLDER_AGGREGATE));
+
         try {
             // General maintenance works
             String dapContent = "com.openkm.dao.DashboardActivityDAO.purge();";
@@ -346,6 +373,9 @@ public class RepositoryStartupServlet extends HttpServlet {
         log.info("*** Shutting down UI Notification... ***");
         uin.cancel();
 
+        log.info("*** Shutting down folder aggregate updater... ***");
+        fau.cancel();
+
         log.info("*** Shutting down cron... ***");
         cron.cancel();
 
@@ -357,8 +387,22 @@ public class RepositoryStartupServlet extends HttpServlet {
         // Cancel timers
         cronTimer.cancel();
         uinTimer.cancel();
+        faTimer.cancel();
         uiTimer.cancel();
 
+        // Shutdown crontab job executor
+        log.info("*** Shutting down crontab scheduler... ***");
+        CronScheduler.shutdown();
+
+        // Shutdown text extraction queue
+        log.info("*** Shutting text extraction queue... ***");
+        TextExtractorQueue.shutdown();
+        RegisteredExtractors.shutdown();
+
+        // Shutdown preview pre-rendering queue
+        log.info("*** Shutting preview pre-rendering queue... ***");
+        PreviewQueue.shutdown();
+
         // Shutdown pending task executor
         log.info("*** Shutting pending task executor... ***");
         PendingTaskExecutor.shutdown();
@@ -407,6 +451,10 @@ public class RepositoryStartupServlet extends HttpServlet {
         jbpmContext.getJbpmConfiguration().close();
         jbpmContext.close();
 
+        // Save pending activity log
+        log.info("*** Shutting down activity log writer... ***");
+        ActivityWriter.shutdown();
+
         // OpenKM is stopped
         running = false;
     }
@@ -21,12 +21,16 @@
 
 package com.openkm.servlet.admin;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import javax.jcr.Node;
 import javax.jcr.Session;
@@ -39,11 +43,14 @@ import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.JcrConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
 
+import com.openkm.api.OKMDocument;
 import com.openkm.api.OKMFolder;
 import com.openkm.api.OKMRepository;
 import com.openkm.automation.AutomationException;
 import com.openkm.bean.ContentInfo;
+import com.openkm.bean.Document;
 import com.openkm.bean.Folder;
 import com.openkm.bean.Repository;
 import com.openkm.core.AccessDeniedException;
@@ -60,6 +67,7 @@ import com.openkm.core.VirusDetectedException;
 import com.openkm.extension.core.ExtensionException;
 import com.openkm.module.jcr.base.BaseFolderModule;
 import com.openkm.module.jcr.stuff.JCRUtils;
+import com.openkm.spring.PrincipalUtils;
 import com.openkm.util.Benchmark;
 import com.openkm.util.FormatUtil;
 import com.openkm.util.UserActivity;
@@ -101,6 +109,8 @@ public class BenchmarkServlet extends BaseServlet {
             okmImport(request, response, BM_FOLDER + "_okm_import");
         } else if (action.equals("okmCopy")) {
             okmCopy(request, response);
+        } else if (action.equals("okmConcurrentCreate")) {
+            okmConcurrentCreate(request, response, BM_FOLDER + "_okm_concurrent");
         } else if (action.equals("okmApiHighGenerate")) {
             okmApiHighGenerate(request, response, BM_FOLDER + "_okm_api_high");
         } else if (action.equals("okmApiLowGenerate")) {
@@ -295,6 +305,145 @@ public class BenchmarkServlet extends BaseServlet {
         log.debug("okmCopy: void");
     }
 
+    /**
+     * Create documents from several threads, first all of them in the same folder and then each one
+     * in its own folder, to measure the contention between concurrent document creations.
+     */
+    private void okmConcurrentCreate(HttpServletRequest request, HttpServletResponse response, String base) throws IOException {
+        log.debug("okmConcurrentCreate({}, {}, {})", new Object[] { request, response, base });
+        int threads = Math.max(1, WebUtils.getInt(request, "param1"));
+        int documents = WebUtils.getInt(request, "param2");
+        int size = WebUtils.getInt(request, "param3");
+        PrintWriter out = response.getWriter();
+        long sharedTime = 0, ownTime = 0;
+        response.setContentType(MimeTypeConfig.MIME_HTML);
+        header(out, "OpenKM concurrent document creation", breadcrumb);
+        out.flush();
+
+        try {
+            out.println("<b>- Threads:</b> " + threads + "<br/>");
+            out.println("<b>- Documents per thread:</b> " + documents + "<br/>");
+            out.println("<b>- Document size:</b> " + FormatUtil.formatSize(size * 1024L) + "<br/>");
+            out.flush();
+
+            Folder fld = OKMRepository.getInstance().getRootFolder(null);
+            String basePath = fld.getPath() + "/" + base + "_" + System.currentTimeMillis();
+            fld.setPath(basePath);
+            OKMFolder.getInstance().create(null, fld);
+            fld.setPath(basePath + "/shared");
+            OKMFolder.getInstance().create(null, fld);
+            String[] shared = new String[threads];
+            String[] own = new String[threads];
+
+            for (int i = 0; i < threads; i++) {
+                shared[i] = basePath + "/shared";
+                own[i] = basePath + "/thread_" + i;
+                fld.setPath(own[i]);
+                OKMFolder.getInstance().create(null, fld);
+            }
+
+            byte[] content = new byte[size * 1024];
+            sharedTime = concurrentCreate(shared, documents, content, out);
+            ownTime = concurrentCreate(own, documents, content, out);
+            int total = threads * documents;
+
+            out.println("<table class=\"results\" width=\"80%\">");
+            out.println("<tr><th>Destination</th><th>Documents</th><th>Time</th><th>Documents per second</th></tr>");
+            out.println("<tr class=\"even\"><td>Same folder</td><td>" + total + "</td><td>" + FormatUtil.formatSeconds(sharedTime)
+                    + "</td><td>" + total * 1000 / Math.max(1, sharedTime) + "</td></tr>");
+            out.println("<tr class=\"odd\"><td>Folder per thread</td><td>" + total + "</td><td>" + FormatUtil.formatSeconds(ownTime)
+                    + "</td><td>" + total * 1000 / Math.max(1, ownTime) + "</td></tr>");
+            out.println("</table>");
+            out.flush();
+        } catch (PathNotFoundException e) {
+            out.println("<div class=\"warn\">PathNotFoundException: " + e.getMessage() + "</div>");
+            out.flush();
+        } catch (ItemExistsException e) {
+            out.println("<div class=\"warn\">ItemExistsException: " + e.getMessage() + "</div>");
+            out.flush();
+        } catch (AccessDeniedException e) {
+            out.println("<div class=\"warn\">AccessDeniedException: " + e.getMessage() + "</div>");
+            out.flush();
+        } catch (RepositoryException e) {
+            out.println("<div class=\"warn\">RepositoryException: " + e.getMessage() + "</div>");
+            out.flush();
+        } catch (DatabaseException e) {
+            out.println("<div class=\"warn\">DatabaseException: " + e.getMessage() + "</div>");
+            out.flush();
+        } catch (ExtensionException e) {
+            out.println("<div class=\"warn\">ExtensionException: " + e.getMessage() + "</div>");
+            out.flush();
+        } catch (AutomationException e) {
+            out.println("<div class=\"warn\">AutomationException: " + e.getMessage() + "</div>");
+            out.flush();
+        } catch (InterruptedException e) {
+            out.println("<div class=\"warn\">InterruptedException: " + e.getMessage() + "</div>");
+            out.flush();
+        }
+
+        footer(out);
+        out.flush();
+        out.close();
+
+        // Activity log
+        UserActivity.log(request.getRemoteUser(), "ADMIN_BENCHMARK_OKM_CONCURRENT", null, null, "Threads: " + threads + ", Documents: "
+                + threads * documents + ", Same folder: " + FormatUtil.formatSeconds(sharedTime) + ", Folder per thread: "
+                + FormatUtil.formatSeconds(ownTime));
+        log.debug("okmConcurrentCreate: void");
+    }
+
+    /**
+     * Create documents with a thread per given folder, returning the elapsed milliseconds
+     */
+    private long concurrentCreate(String[] folders, final int documents, final byte[] content, PrintWriter out)
+            throws InterruptedException {
+        final Authentication auth = PrincipalUtils.getAuthentication();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        Thread[] workers = new Thread[folders.length];
+
+        for (int i = 0; i < folders.length; i++) {
+            final String folder = folders[i];
+            final int id = i;
+
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    PrincipalUtils.setAuthentication(auth);
+
+                    try {
+                        for (int j = 0; j < documents; j++) {
+                            Document doc = new Document();
+                            doc.setPath(folder + "/document_" + id + "_" + j + ".bin");
+                            OKMDocument.getInstance().create(null, doc, new ByteArrayInputStream(content));
+                        }
+                    } catch (Exception e) {
+                        errors.add(e.getClass().getSimpleName() + ": " + e.getMessage());
+                    } finally {
+                        PrincipalUtils.setAuthentication(null);
+                    }
+                }
+            }, "BenchmarkWorker-" + i);
+        }
+
+        long begin = System.currentTimeMillis();
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long elapse = System.currentTimeMillis() - begin;
+
+        for (String error : errors) {
+            out.println("<div class=\"warn\">" + error + "</div>");
+        }
+
+        return elapse;
+    }
+
     /**
      * Generate documents into repository (OpenKM API)
      */
@@ -0,0 +1,75 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ * 
+ * No bytes were intentionally harmed during the development of this application.
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.servlet.admin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.cache.CacheStats;
+import com.openkm.cache.ConversionCache;
+import com.openkm.cache.KeywordIndex;
+import com.openkm.cache.NodePathCache;
+import com.openkm.cache.PermissionCache;
+import com.openkm.util.WebUtils;
+
+/**
+ * Cache statistics servlet
+ */
+public class CacheStatsServlet extends BaseServlet {
+    private static final long serialVersionUID = 1L;
+    private static Logger log = LoggerFactory.getLogger(CacheStatsServlet.class);
+
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        log.debug("doGet({}, {})", request, response);
+        ServletContext sc = getServletContext();
+        request.setCharacterEncoding("UTF-8");
+        String action = WebUtils.getString(request, "action");
+
+        if (action.equals("reset")) {
+            NodePathCache.resetStats();
+            PermissionCache.resetStats();
+            ConversionCache.resetStats();
+        } else if (action.equals("clear")) {
+            NodePathCache.clear();
+            PermissionCache.clear();
+            KeywordIndex.clear();
+            ConversionCache.clear();
+        }
+
+        List<CacheStats> caches = new ArrayList<CacheStats>();
+        caches.add(NodePathCache.getStats());
+        caches.add(PermissionCache.getStats());
+        caches.add(ConversionCache.getStats());
+
+        sc.setAttribute("caches", caches);
+        sc.getRequestDispatcher("/admin/cache_stats.jsp").forward(request, response);
+    }
+}
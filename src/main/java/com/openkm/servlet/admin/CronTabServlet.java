@@ -44,9 +44,7 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import bsh.EvalError;
-
-import com.openkm.core.Cron;
+import com.openkm.core.CronScheduler;
 import com.openkm.core.DatabaseException;
 import com.openkm.core.MimeTypeConfig;
 import com.openkm.dao.CronTabDAO;
@@ -121,9 +119,6 @@ public class CronTabServlet extends BaseServlet {
         } catch (DatabaseException e) {
             log.error(e.getMessage(), e);
             sendErrorRedirect(request, response, e);
-        } catch (EvalError e) {
-            log.error(e.getMessage(), e);
-            sendErrorRedirect(request, response, e);
         }
     }
 
@@ -207,6 +202,7 @@ public class CronTabServlet extends BaseServlet {
         ServletContext sc = getServletContext();
         List<CronTab> list = CronTabDAO.findAll();
         sc.setAttribute("crontabs", list);
+        sc.setAttribute("stats", CronScheduler.getStats());
         sc.getRequestDispatcher("/admin/crontab_list.jsp").forward(request, response);
         log.debug("list: void");
     }
@@ -214,18 +210,16 @@ public class CronTabServlet extends BaseServlet {
     /**
      * Execute report
      */
-    private void execute(HttpServletRequest request, HttpServletResponse response) throws IOException, DatabaseException, EvalError {
+    private void execute(HttpServletRequest request, HttpServletResponse response) throws IOException, DatabaseException {
         log.debug("execute({}, {})", new Object[] { request, response });
         int ctId = WebUtils.getInt(request, "ct_id");
         CronTab ct = CronTabDAO.findByPk(ctId);
 
-        if (MimeTypeConfig.MIME_BSH.equals(ct.getFileMime())) {
-            Cron.RunnerBsh runner =
-                    new Cron.RunnerBsh(ct.getId(), ct.getName(), ct.getMail(), new String(SecureStore.b64Decode(ct.getFileContent())));
-            runner.run();
-        } else if (MimeTypeConfig.MIME_JAR.equals(ct.getFileMime())) {
-            Cron.RunnerJar runner = new Cron.RunnerJar(ct.getId(), ct.getName(), ct.getMail(), SecureStore.b64Decode(ct.getFileContent()));
-            runner.run();
+        if (MimeTypeConfig.MIME_BSH.equals(ct.getFileMime()) || MimeTypeConfig.MIME_JAR.equals(ct.getFileMime())) {
+            // Run on the scheduler pool, so it can not overlap a scheduled run
+            if (!CronScheduler.execute(ct)) {
+                log.warn("Crontab job '{}' not executed: already running or scheduler stopped", ct.getName());
+            }
         }
 
         // Activity log
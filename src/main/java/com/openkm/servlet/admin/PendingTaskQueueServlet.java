@@ -68,6 +68,13 @@ public class PendingTaskQueueServlet extends BaseServlet {
                 tsk.put("nodePath", NodeBaseDAO.getInstance().getPathFromUuid(pt.getNode()));
                 tsk.put("created", pt.getCreated());
                 tsk.put("running", PendingTaskExecutor.isRunningTask(pt.getId()));
+                PendingTaskProcessor processor = PendingTaskExecutor.getRunningProcessor(pt.getId());
+
+                if (processor != null) {
+                    tsk.put("processed", processor.getProcessed());
+                    tsk.put("rate", processor.getNodesPerSecond());
+                }
+
                 tsk.put("task", pt.getTask());
 
                 if (pt.getParams() != null && !pt.getParams().isEmpty()) {
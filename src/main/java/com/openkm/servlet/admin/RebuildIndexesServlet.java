@@ -48,6 +48,7 @@ import com.openkm.core.Config;
 import com.openkm.core.MimeTypeConfig;
 import com.openkm.dao.HibernateUtil;
 import com.openkm.dao.NodeBaseDAO;
+import com.openkm.dao.NodeFolderAggregateDAO;
 import com.openkm.dao.bean.NodeDocument;
 import com.openkm.dao.bean.NodeFolder;
 import com.openkm.dao.bean.NodeMail;
@@ -96,6 +97,8 @@ public class RebuildIndexesServlet extends BaseServlet {
             luceneIndexes(request, response);
         } else if ("optimizeIndexes".equals(action)) {
             optimizeIndexes(request, response);
+        } else if ("folderAggregates".equals(action)) {
+            folderAggregates(request, response);
         } else {
             ServletContext sc = getServletContext();
             sc.getRequestDispatcher("/admin/rebuild_indexes.jsp").forward(request, response);
@@ -158,6 +161,55 @@ public class RebuildIndexesServlet extends BaseServlet {
         out.close();
     }
 
+    /**
+     * Rebuild folder subtree counters
+     */
+    private void folderAggregates(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        PrintWriter out = response.getWriter();
+        response.setContentType(MimeTypeConfig.MIME_HTML);
+        header(out, "Rebuild folder counters", breadcrumb);
+        out.flush();
+
+        // Activity log
+        UserActivity.log(request.getRemoteUser(), "ADMIN_REBUILD_FOLDER_AGGREGATES", null, null, null);
+
+        try {
+            Config.SYSTEM_MAINTENANCE = true;
+            Config.SYSTEM_READONLY = true;
+            out.println("<ul>");
+            out.println("<li>System into maintenance mode</li>");
+            FileLogger.info(BASE_NAME, "BEGIN - Rebuild folder counters");
+
+            out.println("<li>Rebuilding folder counters</li>");
+            out.flush();
+            int folders = NodeFolderAggregateDAO.getInstance().rebuild();
+            FileLogger.info(BASE_NAME, "Number of folders: {0}", folders);
+            out.println("<li>Number of folders: " + folders + "</li>");
+
+            Config.SYSTEM_READONLY = false;
+            Config.SYSTEM_MAINTENANCE = false;
+            out.println("<li>System out of maintenance mode</li>");
+            out.flush();
+
+            // Finalized
+            FileLogger.info(BASE_NAME, "END - Rebuild folder counters");
+            out.println("<li>Folder counters rebuilding completed!</li>");
+            out.println("</ul>");
+            out.flush();
+        } catch (Exception e) {
+            out.println("<div class=\"warn\">Exception: " + e.getMessage() + "</div>");
+            out.flush();
+        } finally {
+            Config.SYSTEM_READONLY = false;
+            Config.SYSTEM_MAINTENANCE = false;
+        }
+
+        // End page
+        footer(out);
+        out.flush();
+        out.close();
+    }
+
     /**
      * Perform index rebuild
      * 
@@ -35,8 +35,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.openkm.core.DatabaseException;
+import com.openkm.extractor.RegisteredExtractors;
 import com.openkm.extractor.TextExtractorWork;
 import com.openkm.extractor.TextExtractorWorker;
+import com.openkm.util.DocConverter;
+import com.openkm.util.WebUtils;
 
 /**
  * Text extraction queue servlet
@@ -50,6 +53,15 @@ public class TextExtractionQueueServlet extends BaseServlet {
         log.debug("doGet({}, {})", request, response);
         ServletContext sc = getServletContext();
         request.setCharacterEncoding("UTF-8");
+        String action = WebUtils.getString(request, "action");
+
+        if (action.equals("reset")) {
+            RegisteredExtractors.resetPoolStats();
+
+            if (DocConverter.getInstance().getOfficePool() != null) {
+                DocConverter.getInstance().getOfficePool().resetStats();
+            }
+        }
 
         try {
             List<TextExtractorWork> pending = TextExtractorWorker.getPendingWorks(MAX_RESULTS + 1);
@@ -66,6 +78,8 @@ public class TextExtractionQueueServlet extends BaseServlet {
             sc.setAttribute("pendingSize", TextExtractorWorker.getPendingSize());
             sc.setAttribute("lastExecution", TextExtractorWorker.lastExecution());
             sc.setAttribute("inProgressWorks", TextExtractorWorker.getInProgressWorks());
+            sc.setAttribute("extractorPools", RegisteredExtractors.getPools());
+            sc.setAttribute("officePool", DocConverter.getInstance().getOfficePool());
             sc.getRequestDispatcher("/admin/text_extraction_queue.jsp").forward(request, response);
         } catch (DatabaseException e) {
             sendErrorRedirect(request, response, e);
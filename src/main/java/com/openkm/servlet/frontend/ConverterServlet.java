@@ -21,31 +21,21 @@
 
 package com.openkm.servlet.frontend;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
-import java.io.Reader;
-import java.util.HashMap;
-import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.NotImplementedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ibm.icu.text.CharsetDetector;
-import com.ibm.icu.text.CharsetMatch;
 import com.openkm.api.OKMDocument;
 import com.openkm.api.OKMRepository;
-import com.openkm.automation.AutomationException;
-import com.openkm.automation.AutomationManager;
-import com.openkm.automation.AutomationUtils;
 import com.openkm.bean.Document;
 import com.openkm.core.AccessDeniedException;
 import com.openkm.core.Config;
@@ -54,16 +44,15 @@ import com.openkm.core.DatabaseException;
 import com.openkm.core.MimeTypeConfig;
 import com.openkm.core.PathNotFoundException;
 import com.openkm.core.RepositoryException;
-import com.openkm.dao.bean.AutomationRule;
 import com.openkm.frontend.client.OKMException;
 import com.openkm.frontend.client.constants.service.ErrorCode;
-import com.openkm.module.db.DbDocumentModule;
-import com.openkm.module.jcr.JcrDocumentModule;
-import com.openkm.util.DocConverter;
+import com.openkm.spring.PrincipalUtils;
 import com.openkm.util.FileUtils;
 import com.openkm.util.PDFUtils;
 import com.openkm.util.PathUtils;
+import com.openkm.util.UserActivity;
 import com.openkm.util.WebUtils;
+import com.openkm.util.preview.PreviewConverter;
 
 /**
  * Document converter service
@@ -81,9 +70,8 @@ public class ConverterServlet extends OKMHttpServlet {
         boolean print = WebUtils.getBoolean(request, "print");
         boolean toPdf = WebUtils.getBoolean(request, "toPdf");
         boolean toSwf = WebUtils.getBoolean(request, "toSwf");
-        CharsetDetector detector = new CharsetDetector();
         File tmp = null;
-        InputStream is = null;
+        File printTmp = null;
         ConverterListener listener = new ConverterListener(ConverterListener.STATUS_LOADING);
         updateSessionManager(request);
 
@@ -104,78 +92,73 @@ public class ConverterServlet extends OKMHttpServlet {
                     fileName = nameParts[0] + (Config.VERSION_APPEND_DOWNLOAD ? (" rev " + versionToAppend) : "") + "." + nameParts[1];
                 }
 
-                // Save content to temporary file
-                tmp = File.createTempFile("okm", "." + FileUtils.getFileExtension(fileName));
+                // Converted content only changes with a new version
+                String variant = doc.getActualVersion().getName() + (toPdf ? (print ? "/print" : "/pdf") : (toSwf ? "/swf" : ""));
+                String etag = WebUtils.getETag(doc.getUuid(), variant, doc.getActualVersion().getSize(),
+                        doc.getActualVersion().getChecksum());
 
-                if (Config.REPOSITORY_NATIVE) {
-                    // If is used to preview, it should workaround the DOWNLOAD extended permission.
-                    is = new DbDocumentModule().getContent(null, path, false, !(toSwf));
-                } else {
-                    is = new JcrDocumentModule().getContent(null, path, false);
-                }
-
-                // Text files may need encoding conversion
-                if (doc.getMimeType().startsWith("text/")) {
-                    detector.setText(new BufferedInputStream(is));
-                    CharsetMatch cm = detector.detect();
-                    Reader rd = cm.getReader();
-
-                    FileUtils.copy(rd, tmp);
-                    IOUtils.closeQuietly(is);
-                    IOUtils.closeQuietly(rd);
-                } else {
-                    FileUtils.copy(is, tmp);
-                    IOUtils.closeQuietly(is);
+                if (WebUtils.checkNotModified(request, response, etag, doc.getLastModified())) {
+                    listener.setStatus(ConverterListener.STATUS_SENDING_FILE);
+                    return;
                 }
 
                 // Prepare conversion
-                ConversionData cd = new ConversionData();
-                cd.uuid = uuid;
-                cd.fileName = fileName;
-                cd.mimeType = doc.getMimeType();
-                cd.file = tmp;
+                PreviewConverter converter = new PreviewConverter(uuid, doc.getActualVersion().getName(), path, doc.getMimeType());
+                converter.setFileName(fileName);
+                String mimeType = doc.getMimeType();
+                File file = null;
 
-                if (toPdf && !cd.mimeType.equals(MimeTypeConfig.MIME_PDF)) {
+                if (toPdf && !mimeType.equals(MimeTypeConfig.MIME_PDF)) {
                     try {
                         listener.setStatus(ConverterListener.STATUS_CONVERTING_TO_PDF);
-                        toPDF(cd);
+                        tmp = converter.toPdf();
+                        file = tmp;
                         listener.setStatus(ConverterListener.STATUS_CONVERTING_TO_PDF_FINISHED);
                     } catch (ConversionException e) {
                         log.error(e.getMessage(), e);
                         listener.setError(e.getMessage());
-                        InputStream tis = null;
-                        try {
-                            tis = ConverterServlet.class.getResourceAsStream("conversion_problem.pdf");
-                            FileUtils.copy(tis, cd.file);
-                        } finally {
-                            IOUtils.closeQuietly(tis);
-                        }
+                        etag = null;
+                        tmp = getConversionProblem("conversion_problem.pdf");
+                        file = tmp;
                     }
-                } else if (toSwf && !cd.mimeType.equals(MimeTypeConfig.MIME_SWF)) {
+
+                    mimeType = MimeTypeConfig.MIME_PDF;
+                    fileName = FileUtils.getFileName(fileName) + ".pdf";
+                } else if (toSwf && !mimeType.equals(MimeTypeConfig.MIME_SWF)) {
                     try {
                         listener.setStatus(ConverterListener.STATUS_CONVERTING_TO_SWF);
-                        toSWF(cd);
+                        tmp = converter.toSwf();
+                        file = tmp;
                         listener.setStatus(ConverterListener.STATUS_CONVERTING_TO_SWF_FINISHED);
                     } catch (ConversionException e) {
                         log.error(e.getMessage(), e);
                         listener.setError(e.getMessage());
-                        InputStream tis = null;
-                        try {
-                            tis = ConverterServlet.class.getResourceAsStream("conversion_problem.swf");
-                            FileUtils.copy(tis, cd.file);
-                        } finally {
-                            IOUtils.closeQuietly(tis);
-                        }
+                        etag = null;
+                        tmp = getConversionProblem("conversion_problem.swf");
+                        file = tmp;
                     }
+
+                    mimeType = MimeTypeConfig.MIME_SWF;
+                    fileName = FileUtils.getFileName(fileName) + ".swf";
+                } else {
+                    tmp = converter.getContentFile();
+                    file = tmp;
                 }
 
                 if (toPdf && print) {
-                    cd.file = PDFUtils.markToPrint(cd.file);
+                    printTmp = PDFUtils.markToPrint(file);
+                    file = printTmp;
+                }
+
+                // Activity log, the content may have been served from the conversion cache
+                if (Config.REPOSITORY_NATIVE) {
+                    UserActivity.log(PrincipalUtils.getUser(), "GET_DOCUMENT_CONTENT", uuid, path,
+                            Long.toString(doc.getActualVersion().getSize()));
                 }
 
                 // Send back converted document
                 listener.setStatus(ConverterListener.STATUS_SENDING_FILE);
-                WebUtils.sendFile(request, response, cd.fileName, cd.mimeType, inline, cd.file);
+                WebUtils.sendFile(request, response, fileName, mimeType, inline, file, etag, doc.getLastModified());
             } else {
                 log.error("Missing Conversion Parameters");
                 response.setContentType(MimeTypeConfig.MIME_TEXT);
@@ -216,176 +199,27 @@ public class ConverterServlet extends OKMHttpServlet {
                     e.getMessage()));
         } finally {
             listener.setConversionFinish(true);
-            org.apache.commons.io.FileUtils.deleteQuietly(tmp);
+            FileUtils.deleteQuietly(tmp);
+            FileUtils.deleteQuietly(printTmp);
         }
 
         log.debug("service: void");
     }
 
     /**
-     * Handles PDF conversion
+     * Copy conversion problem document to a temporal file
      */
-    private void toPDF(ConversionData cd) throws ConversionException, AutomationException, DatabaseException, IOException {
-        log.debug("toPDF({})", cd);
-        File pdfCache = new File(Config.REPOSITORY_CACHE_PDF + File.separator + cd.uuid + ".pdf");
-        removeExpiredCache(pdfCache);
-
-        if (DocConverter.getInstance().convertibleToPdf(cd.mimeType)) {
-            if (!pdfCache.exists()) {
-                try {
-                    if (cd.mimeType.equals(MimeTypeConfig.MIME_PDF)) {
-                        // Document already in PDF format
-                    } else if (cd.mimeType.equals(MimeTypeConfig.MIME_ZIP)) {
-                        // This is an internal conversion and does not need 3er party software
-                        DocConverter.getInstance().zip2pdf(cd.file, pdfCache);
-                    } else if (cd.mimeType.equals(MimeTypeConfig.MIME_XML)) {
-                        // This is an internal conversion and does not need 3er party software
-                        DocConverter.getInstance().src2pdf(cd.file, pdfCache, "xml");
-                    } else if (cd.mimeType.equals(MimeTypeConfig.MIME_SQL)) {
-                        // This is an internal conversion and does not need 3er party software
-                        DocConverter.getInstance().src2pdf(cd.file, pdfCache, "sql");
-                    } else if (cd.mimeType.equals(MimeTypeConfig.MIME_JAVA) || cd.mimeType.equals(MimeTypeConfig.MIME_BSH)) {
-                        // This is an internal conversion and does not need 3er party software
-                        DocConverter.getInstance().src2pdf(cd.file, pdfCache, "java");
-                    } else if (cd.mimeType.equals(MimeTypeConfig.MIME_PHP)) {
-                        // This is an internal conversion and does not need 3er party software
-                        DocConverter.getInstance().src2pdf(cd.file, pdfCache, "php");
-                    } else if (cd.mimeType.equals(MimeTypeConfig.MIME_SH)) {
-                        // This is an internal conversion and does not need 3er party software
-                        DocConverter.getInstance().src2pdf(cd.file, pdfCache, "bash");
-                    } else if (cd.mimeType.equals(MimeTypeConfig.MIME_HTML)) {
-                        // This is an internal conversion and does not need 3er party software
-                        DocConverter.getInstance().html2pdf(cd.file, pdfCache);
-                        // } else if (cd.mimeType.equals(MimeTypeConfig.MIME_TIFF)) {
-                        // This is an internal conversion and does not need 3er party software
-                        // DocConverter.getInstance().tiff2pdf(cd.file, pdfCache);
-                    } else if (!Config.REMOTE_CONVERSION_SERVER.equals("")) {
-                        DocConverter.getInstance().remoteConvert(Config.REMOTE_CONVERSION_SERVER, cd.file, cd.mimeType, pdfCache,
-                                MimeTypeConfig.MIME_PDF);
-                    } else if (cd.mimeType.equals(MimeTypeConfig.MIME_POSTSCRIPT)) {
-                        DocConverter.getInstance().ps2pdf(cd.file, pdfCache);
-                    } else if (DocConverter.validImageMagick.contains(cd.mimeType)) {
-                        DocConverter.getInstance().img2pdf(cd.file, cd.mimeType, pdfCache);
-                    } else if (DocConverter.validOpenOffice.contains(cd.mimeType)) {
-                        DocConverter.getInstance().doc2pdf(cd.file, cd.mimeType, pdfCache);
-                    } else {
-                        throw new NotImplementedException("Conversion from '" + cd.mimeType + "' to PDF not available");
-                    }
-
-                    // AUTOMATION - POST
-                    Map<String, Object> env = new HashMap<String, Object>();
-                    env.put(AutomationUtils.DOCUMENT_FILE, pdfCache);
-                    env.put(AutomationUtils.DOCUMENT_UUID, cd.uuid);
-                    AutomationManager.getInstance().fireEvent(AutomationRule.EVENT_CONVERSION_PDF, AutomationRule.AT_POST, env);
-                } catch (ConversionException e) {
-                    pdfCache.delete();
-                    cd.file = pdfCache;
-                    throw e;
-                } finally {
-                    FileUtils.deleteQuietly(cd.file);
-                    cd.mimeType = MimeTypeConfig.MIME_PDF;
-                    cd.fileName = FileUtils.getFileName(cd.fileName) + ".pdf";
-                }
-            }
+    private File getConversionProblem(String name) throws IOException {
+        File tmp = File.createTempFile("okm", "." + FileUtils.getFileExtension(name));
+        InputStream tis = null;
 
-            if (pdfCache.exists())
-                cd.file = pdfCache;
-            cd.mimeType = MimeTypeConfig.MIME_PDF;
-            cd.fileName = FileUtils.getFileName(cd.fileName) + ".pdf";
-        } else {
-            throw new NotImplementedException("Conversion from '" + cd.mimeType + "' to PDF not available");
-        }
-
-        log.debug("toPDF: {}", cd);
-    }
-
-    /**
-     * Handles SWF conversion
-     */
-    private void toSWF(ConversionData cd) throws ConversionException, AutomationException, DatabaseException, IOException {
-        log.debug("toSWF({})", cd);
-        File swfCache = new File(Config.REPOSITORY_CACHE_SWF + File.separator + cd.uuid + ".swf");
-        removeExpiredCache(swfCache);
-        boolean delTmp = true;
-
-        if (DocConverter.getInstance().convertibleToSwf(cd.mimeType)) {
-            if (!swfCache.exists()) {
-                try {
-                    if (cd.mimeType.equals(MimeTypeConfig.MIME_SWF)) {
-                        // Document already in SWF format
-                    } else if (!Config.REMOTE_CONVERSION_SERVER.equals("")) {
-                        DocConverter.getInstance().remoteConvert(Config.REMOTE_CONVERSION_SERVER, cd.file, cd.mimeType, swfCache,
-                                MimeTypeConfig.MIME_SWF);
-                    } else if (cd.mimeType.equals(MimeTypeConfig.MIME_PDF)) {
-                        // AUTOMATION - PRE
-                        Map<String, Object> env = new HashMap<String, Object>();
-                        env.put(AutomationUtils.DOCUMENT_FILE, cd.file);
-                        env.put(AutomationUtils.DOCUMENT_UUID, cd.uuid);
-                        AutomationManager.getInstance().fireEvent(AutomationRule.EVENT_CONVERSION_SWF, AutomationRule.AT_PRE, env);
-
-                        DocConverter.getInstance().pdf2swf(cd.file, swfCache);
-                    } else if (DocConverter.getInstance().convertibleToPdf(cd.mimeType)) {
-                        toPDF(cd);
-                        delTmp = false;
-
-                        // AUTOMATION - PRE
-                        Map<String, Object> env = new HashMap<String, Object>();
-                        env.put(AutomationUtils.DOCUMENT_FILE, cd.file);
-                        env.put(AutomationUtils.DOCUMENT_UUID, cd.uuid);
-                        AutomationManager.getInstance().fireEvent(AutomationRule.EVENT_CONVERSION_SWF, AutomationRule.AT_PRE, env);
-
-                        DocConverter.getInstance().pdf2swf(cd.file, swfCache);
-                    } else {
-                        throw new NotImplementedException("Conversion from '" + cd.mimeType + "' to SWF not available");
-                    }
-                } catch (ConversionException e) {
-                    swfCache.delete();
-                    cd.file = swfCache;
-                    throw e;
-                } finally {
-                    if (delTmp) {
-                        FileUtils.deleteQuietly(cd.file);
-                    }
-                    cd.mimeType = MimeTypeConfig.MIME_SWF;
-                    cd.fileName = FileUtils.getFileName(cd.fileName) + ".swf";
-                }
-            }
-
-            if (swfCache.exists())
-                cd.file = swfCache;
-            cd.mimeType = MimeTypeConfig.MIME_SWF;
-            cd.fileName = FileUtils.getFileName(cd.fileName) + ".swf";
-        } else {
-            throw new NotImplementedException("Conversion from '" + cd.mimeType + "' to SWF not available");
-        }
-
-        log.debug("toSWF: {}", cd);
-    }
-
-    /**
-     * For internal use only.
-     */
-    private class ConversionData {
-        private String uuid;
-        private String fileName;
-        private String mimeType;
-        private File file;
-
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append("{");
-            sb.append("uuid=").append(uuid);
-            sb.append(", fileName=").append(fileName);
-            sb.append(", mimeType=").append(mimeType);
-            sb.append(", file=").append(file);
-            sb.append("}");
-            return sb.toString();
+        try {
+            tis = ConverterServlet.class.getResourceAsStream(name);
+            FileUtils.copy(tis, tmp);
+        } finally {
+            IOUtils.closeQuietly(tis);
         }
-    }
 
-    private void removeExpiredCache(File file) {
-        if (file != null && file.exists() && System.currentTimeMillis() - file.lastModified() > 60 * 1000) {
-            file.delete();
-        }
+        return tmp;
     }
 }
@@ -51,6 +51,7 @@ import com.openkm.bean.PropertyGroup;
 import com.openkm.bean.Repository;
 import com.openkm.bean.Version;
 import com.openkm.bean.form.FormElement;
+import com.openkm.cache.ConversionCache;
 import com.openkm.core.AccessDeniedException;
 import com.openkm.core.Config;
 import com.openkm.core.ConversionException;
@@ -69,6 +70,7 @@ import com.openkm.core.VersionException;
 import com.openkm.core.VirusDetectedException;
 import com.openkm.dao.NodeBaseDAO;
 import com.openkm.dao.NodeDocumentDAO;
+import com.openkm.dao.NodeDocumentVersionDAO;
 import com.openkm.dao.bean.NodeDocument;
 import com.openkm.extension.core.ExtensionException;
 import com.openkm.frontend.client.OKMException;
@@ -87,9 +89,11 @@ import com.openkm.util.DocConverter;
 import com.openkm.util.FileUtils;
 import com.openkm.util.GWTUtil;
 import com.openkm.util.OOUtils;
+import com.openkm.util.OfficePool;
 import com.openkm.util.PDFUtils;
 import com.openkm.util.PathUtils;
 import com.openkm.util.TemplateUtils;
+import com.openkm.util.UserActivity;
 import com.openkm.util.pagination.FilterUtils;
 
 import freemarker.template.TemplateException;
@@ -920,35 +924,57 @@ public class DocumentServlet extends OKMRemoteServiceServlet implements OKMDocum
         updateSessionManager();
         String destinationPath = "";
         InputStream is = null;
+        File pdfCache = null;
 
         try {
-            String uuid = OKMRepository.getInstance().getNodeUuid(null, docPath);
+            final String uuid = OKMRepository.getInstance().getNodeUuid(null, docPath);
 
             // Now an document can be located by UUID
             if (!uuid.equals("")) {
-                File pdfCache = new File(Config.REPOSITORY_CACHE_PDF + File.separator + uuid + ".pdf");
                 Document doc = OKMDocument.getInstance().getProperties(null, docPath);
-                DocConverter converter = DocConverter.getInstance();
-
-                // Getting content
-                is = OKMDocument.getInstance().getContent(null, docPath, false);
-
-                // Convert to PDF
-                if (!pdfCache.exists()) {
-                    try {
-                        File tmp = FileUtils.createTempFileFromMime(doc.getMimeType());
-                        FileUtils.copy(is, tmp);
-                        converter.doc2pdf(tmp, doc.getMimeType(), pdfCache);
-                        tmp.delete();
-                    } catch (ConversionException e) {
-                        pdfCache.delete();
-                        log.error(e.getMessage(), e);
-                        throw new OKMException(ErrorCode.get(ErrorCode.ORIGIN_OKMDocumentService, ErrorCode.CAUSE_Conversion),
-                                e.getMessage());
-                    }
+                final String path = docPath;
+                final String mimeType = doc.getMimeType();
+                final String version = doc.getActualVersion().getName();
+
+                // Convert to PDF, unless already converted
+                try {
+                    pdfCache = ConversionCache.get(uuid, version, ConversionCache.FORMAT_PDF,
+                            new ConversionCache.Converter() {
+                                @Override
+                                public void convert(File output) throws Exception {
+                                    File tmp = FileUtils.createTempFileFromMime(mimeType);
+                                    InputStream cis = null;
+
+                                    try {
+                                        // Same version the cache entry belongs to
+                                        if (Config.REPOSITORY_NATIVE) {
+                                            cis = NodeDocumentVersionDAO.getInstance().getVersionContentByParent(uuid, version);
+                                        } else {
+                                            cis = OKMDocument.getInstance().getContent(null, path, false);
+                                        }
+
+                                        FileUtils.copy(cis, tmp);
+                                        OfficePool.setBatch(true);
+                                        DocConverter.getInstance().doc2pdf(tmp, mimeType, output);
+                                    } finally {
+                                        OfficePool.setBatch(false);
+                                        IOUtils.closeQuietly(cis);
+                                        FileUtils.deleteQuietly(tmp);
+                                    }
+                                }
+                            });
+                } catch (ConversionException e) {
+                    log.error(e.getMessage(), e);
+                    throw new OKMException(ErrorCode.get(ErrorCode.ORIGIN_OKMDocumentService, ErrorCode.CAUSE_Conversion),
+                            e.getMessage());
+                }
+
+                // Activity log, the content may have been served from the conversion cache
+                if (Config.REPOSITORY_NATIVE) {
+                    UserActivity.log(getThreadLocalRequest().getRemoteUser(), "GET_DOCUMENT_CONTENT", uuid, docPath,
+                            Long.toString(doc.getActualVersion().getSize()));
                 }
 
-                is.close();
                 is = new FileInputStream(pdfCache);
 
                 // create new document
@@ -1017,6 +1043,9 @@ public class DocumentServlet extends OKMRemoteServiceServlet implements OKMDocum
         } catch (AutomationException e) {
             log.error(e.getMessage(), e);
             throw new OKMException(ErrorCode.get(ErrorCode.ORIGIN_OKMDocumentService, ErrorCode.CAUSE_Automation), e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(is);
+            FileUtils.deleteQuietly(pdfCache);
         }
 
         log.debug("convertToPdf: {}", destinationPath);
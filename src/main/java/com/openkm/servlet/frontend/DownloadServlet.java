@@ -21,24 +21,20 @@
 
 package com.openkm.servlet.frontend;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
 
-import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.jar.JarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,28 +42,26 @@ import org.slf4j.LoggerFactory;
 import com.openkm.api.OKMDocument;
 import com.openkm.api.OKMMail;
 import com.openkm.api.OKMRepository;
-import com.openkm.api.OKMSearch;
 import com.openkm.bean.Document;
 import com.openkm.bean.Mail;
 import com.openkm.bean.Repository;
+import com.openkm.bean.Version;
 import com.openkm.core.AccessDeniedException;
 import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
 import com.openkm.core.MimeTypeConfig;
-import com.openkm.core.NoSuchGroupException;
-import com.openkm.core.ParseException;
 import com.openkm.core.PathNotFoundException;
 import com.openkm.core.RepositoryException;
+import com.openkm.dao.NodeDocumentVersionDAO;
+import com.openkm.dao.bean.NodeDocumentVersion;
 import com.openkm.frontend.client.OKMException;
 import com.openkm.frontend.client.constants.service.ErrorCode;
 import com.openkm.util.ArchiveUtils;
-import com.openkm.util.FileUtils;
 import com.openkm.util.FormatUtil;
 import com.openkm.util.MailUtils;
 import com.openkm.util.PathUtils;
 import com.openkm.util.WebUtils;
-import com.openkm.util.impexp.RepositoryExporter;
-import com.openkm.util.impexp.TextInfoDecorator;
+import com.openkm.util.impexp.ArchiveExporter;
 
 /**
  * Document download servlet
@@ -89,7 +83,6 @@ public class DownloadServlet extends OKMHttpServlet {
         String ver = request.getParameter("ver");
         boolean export = request.getParameter("export") != null;
         boolean inline = request.getParameter("inline") != null;
-        File tmp = File.createTempFile("okm", ".tmp");
         InputStream is = null;
         updateSessionManager(request);
 
@@ -104,60 +97,90 @@ public class DownloadServlet extends OKMHttpServlet {
             }
 
             if (export) {
-                if (exportZip) {
-                    FileOutputStream os = new FileOutputStream(tmp);
-                    String fileName = "export.zip";
+                if (!ArchiveExporter.acquire()) {
+                    log.warn("Too many concurrent archive downloads");
+                    response.setHeader("Retry-After", "30");
+                    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many concurrent archive downloads");
+                    return;
+                }
 
-                    if (path != null) {
-                        exportFolderAsZip(path, os);
-                        fileName = PathUtils.getName(path) + ".zip";
-                    } else if (uuidList != null || pathList != null) {
-                        // Export into a zip file multiple documents
+                try {
+                    if (exportZip) {
+                        String fileName = "export.zip";
                         List<String> paths = new ArrayList<String>();
 
-                        if (uuidList != null) {
-                            for (String uuidElto : uuidList) {
-                                uuidElto = FormatUtil.sanitizeInput(uuidElto);
-                                String foo = new String(uuidElto.getBytes("ISO-8859-1"), "UTF-8");
-                                paths.add(OKMRepository.getInstance().getNodePath(null, foo));
-                            }
-                        } else if (pathList != null) {
-                            for (String pathElto : pathList) {
-                                pathElto = FormatUtil.sanitizeInput(pathElto);
-                                String foo = new String(pathElto.getBytes("ISO-8859-1"), "UTF-8");
-                                paths.add(foo);
+                        if (path != null) {
+                            fileName = PathUtils.getName(path) + ".zip";
+                        } else if (uuidList != null || pathList != null) {
+                            // Export into a zip file multiple documents
+                            if (uuidList != null) {
+                                for (String uuidElto : uuidList) {
+                                    uuidElto = FormatUtil.sanitizeInput(uuidElto);
+                                    String foo = new String(uuidElto.getBytes("ISO-8859-1"), "UTF-8");
+                                    paths.add(OKMRepository.getInstance().getNodePath(null, foo));
+                                }
+                            } else if (pathList != null) {
+                                for (String pathElto : pathList) {
+                                    pathElto = FormatUtil.sanitizeInput(pathElto);
+                                    String foo = new String(pathElto.getBytes("ISO-8859-1"), "UTF-8");
+                                    paths.add(foo);
+                                }
                             }
-                        }
 
-                        fileName = PathUtils.getName(PathUtils.getParent(paths.get(0)));
-                        exportDocumentsAsZip(paths, os, fileName);
-                        fileName += ".zip";
-                    }
+                            fileName = PathUtils.getName(PathUtils.getParent(paths.get(0))) + ".zip";
+                        }
 
-                    os.flush();
-                    os.close();
-                    is = new FileInputStream(tmp);
+                        // Send document, with no content length so the response is chunked
+                        WebUtils.prepareSendFile(request, response, fileName, MimeTypeConfig.MIME_ZIP, inline);
+                        ZipArchiveOutputStream zaos = ArchiveUtils.createZipStream(response.getOutputStream());
 
-                    // Send document
-                    WebUtils.sendFile(request, response, fileName, MimeTypeConfig.MIME_ZIP, inline, is);
-                } else if (exportJar) {
-                    // Get document
-                    FileOutputStream os = new FileOutputStream(tmp);
-                    exportFolderAsJar(path, os);
-                    os.flush();
-                    os.close();
-                    is = new FileInputStream(tmp);
+                        if (path != null) {
+                            exportFolderAsZip(path, zaos);
+                        } else if (!paths.isEmpty()) {
+                            exportDocumentsAsZip(paths, zaos, PathUtils.getName(PathUtils.getParent(paths.get(0))));
+                        }
 
-                    // Send document
-                    String fileName = PathUtils.getName(path) + ".jar";
-                    WebUtils.sendFile(request, response, fileName, "application/x-java-archive", inline, is);
+                        zaos.finish();
+                        zaos.flush();
+                    } else if (exportJar) {
+                        // Send document
+                        String fileName = PathUtils.getName(path) + ".jar";
+                        WebUtils.prepareSendFile(request, response, fileName, "application/x-java-archive", inline);
+                        JarArchiveOutputStream jaos = ArchiveUtils.createJarStream(response.getOutputStream());
+                        exportFolderAsJar(path, jaos);
+                        jaos.finish();
+                        jaos.flush();
+                    }
+                } finally {
+                    ArchiveExporter.release();
                 }
             } else {
                 if (OKMDocument.getInstance().isValid(null, path)) {
                     // Get document
                     Document doc = OKMDocument.getInstance().getProperties(null, path);
+                    boolean version = ver != null && !ver.equals("");
+                    String etag = null;
+                    Calendar lastModified = version ? null : doc.getLastModified();
+
+                    // The browser copy can be validated by version content, unless it is a checkout
+                    if (checkout == null && (!version || Config.REPOSITORY_NATIVE)) {
+                        if (version) {
+                            NodeDocumentVersion nDocVer = NodeDocumentVersionDAO.getInstance().findVersion(doc.getUuid(), ver);
+
+                            if (nDocVer != null) {
+                                etag = WebUtils.getETag(doc.getUuid(), ver, nDocVer.getSize(), nDocVer.getChecksum());
+                            }
+                        } else {
+                            Version docVer = doc.getActualVersion();
+                            etag = WebUtils.getETag(doc.getUuid(), docVer.getName(), docVer.getSize(), docVer.getChecksum());
+                        }
+
+                        if (etag != null && WebUtils.checkNotModified(request, response, etag, lastModified)) {
+                            return;
+                        }
+                    }
 
-                    if (ver != null && !ver.equals("")) {
+                    if (version) {
                         is = OKMDocument.getInstance().getContentByVersion(null, path, ver);
                     } else {
                         is = OKMDocument.getInstance().getContent(null, path, checkout != null);
@@ -178,7 +201,7 @@ public class DownloadServlet extends OKMHttpServlet {
                         fileName = nameParts[0] + versionToAppend + "." + nameParts[1];
                     }
 
-                    WebUtils.sendFile(request, response, fileName, doc.getMimeType(), inline, is);
+                    WebUtils.sendFile(request, response, fileName, doc.getMimeType(), inline, is, etag, lastModified);
                 } else if (OKMMail.getInstance().isValid(null, path)) {
                     // Get mail
                     Mail mail = OKMMail.getInstance().getProperties(null, path);
@@ -216,7 +239,6 @@ public class DownloadServlet extends OKMHttpServlet {
                     e.getMessage()));
         } finally {
             IOUtils.closeQuietly(is);
-            FileUtils.deleteQuietly(tmp);
         }
 
         log.debug("service: void");
@@ -225,41 +247,15 @@ public class DownloadServlet extends OKMHttpServlet {
     /**
      * Generate a zip file from a repository folder path
      */
-    private void exportFolderAsZip(String fldPath, OutputStream os) throws PathNotFoundException, AccessDeniedException,
-            RepositoryException, ArchiveException, ParseException, NoSuchGroupException, IOException, DatabaseException, MessagingException {
-        log.debug("exportFolderAsZip({}, {})", fldPath, os);
-        StringWriter out = new StringWriter();
-        FileOutputStream fos = null;
-        InputStream is = null;
-        File tmp = null;
-
-        try {
-            tmp = FileUtils.createTempDir();
-
-            if (fldPath.startsWith("/" + Repository.CATEGORIES)) {
-                String categoryId = OKMRepository.getInstance().getNodeUuid(null, fldPath);
-
-                for (Document doc : OKMSearch.getInstance().getCategorizedDocuments(null, categoryId)) {
-                    is = OKMDocument.getInstance().getContent(null, doc.getUuid(), false);
-                    fos = new FileOutputStream(new File(tmp, PathUtils.getName(doc.getPath())));
-                    IOUtils.copy(is, fos);
-                    IOUtils.closeQuietly(is);
-                    IOUtils.closeQuietly(fos);
-                }
-            } else {
-                RepositoryExporter.exportDocuments(null, fldPath, tmp, false, false, out, new TextInfoDecorator(fldPath));
-            }
-
-            // Zip files
-            ArchiveUtils.createZip(tmp, PathUtils.getName(fldPath), os);
-        } catch (IOException e) {
-            log.error("Error exporting zip", e);
-            throw e;
-        } finally {
-            IOUtils.closeQuietly(is);
-            IOUtils.closeQuietly(fos);
-            IOUtils.closeQuietly(out);
-            FileUtils.deleteQuietly(tmp);
+    private void exportFolderAsZip(String fldPath, ZipArchiveOutputStream zaos) throws PathNotFoundException, AccessDeniedException,
+            RepositoryException, IOException, DatabaseException {
+        log.debug("exportFolderAsZip({}, {})", fldPath, zaos);
+
+        if (fldPath.startsWith("/" + Repository.CATEGORIES)) {
+            String categoryId = OKMRepository.getInstance().getNodeUuid(null, fldPath);
+            ArchiveExporter.exportCategory(null, categoryId, zaos, PathUtils.getName(fldPath));
+        } else {
+            ArchiveExporter.exportFolder(null, fldPath, zaos, PathUtils.getName(fldPath));
         }
 
         log.debug("exportFolderAsZip: void");
@@ -268,61 +264,20 @@ public class DownloadServlet extends OKMHttpServlet {
     /**
      * Generate a zip file from a list of documents
      */
-    private void exportDocumentsAsZip(List<String> paths, OutputStream os, String zipname) throws PathNotFoundException,
-            AccessDeniedException, RepositoryException, ArchiveException, ParseException, NoSuchGroupException, IOException,
-            DatabaseException {
-        log.debug("exportDocumentsAsZip({}, {})", paths, os);
-        StringWriter out = new StringWriter();
-        File tmp = null;
-
-        try {
-            tmp = FileUtils.createTempDir();
-            File fsPath = new File(tmp.getPath());
-
-            // Export files
-            for (String docPath : paths) {
-                String destPath = fsPath.getPath() + File.separator + PathUtils.getName(docPath).replace(':', '_');
-                RepositoryExporter.exportDocument(null, docPath, destPath, false, false, out, new TextInfoDecorator(docPath));
-            }
-
-            // Zip files
-            ArchiveUtils.createZip(tmp, zipname, os);
-        } catch (IOException e) {
-            log.error("Error exporting zip", e);
-            throw e;
-        } finally {
-            IOUtils.closeQuietly(out);
-            FileUtils.deleteQuietly(tmp);
-        }
-
+    private void exportDocumentsAsZip(List<String> paths, ZipArchiveOutputStream zaos, String zipname) throws PathNotFoundException,
+            AccessDeniedException, RepositoryException, IOException, DatabaseException {
+        log.debug("exportDocumentsAsZip({}, {})", paths, zaos);
+        ArchiveExporter.exportDocuments(null, paths, zaos, zipname);
         log.debug("exportDocumentsAsZip: void");
     }
 
     /**
      * Generate a jar file from a repository folder path
      */
-    private void exportFolderAsJar(String fldPath, OutputStream os) throws PathNotFoundException, AccessDeniedException,
-            RepositoryException, ArchiveException, ParseException, NoSuchGroupException, IOException, DatabaseException, MessagingException {
-        log.debug("exportFolderAsJar({}, {})", fldPath, os);
-        StringWriter out = new StringWriter();
-        File tmp = null;
-
-        try {
-            tmp = FileUtils.createTempDir();
-
-            // Export files
-            RepositoryExporter.exportDocuments(null, fldPath, tmp, false, false, out, new TextInfoDecorator(fldPath));
-
-            // Jar files
-            ArchiveUtils.createJar(tmp, PathUtils.getName(fldPath), os);
-        } catch (IOException e) {
-            log.error("Error exporting jar", e);
-            throw e;
-        } finally {
-            IOUtils.closeQuietly(out);
-            FileUtils.deleteQuietly(tmp);
-        }
-
+    private void exportFolderAsJar(String fldPath, JarArchiveOutputStream jaos) throws PathNotFoundException, AccessDeniedException,
+            RepositoryException, IOException, DatabaseException {
+        log.debug("exportFolderAsJar({}, {})", fldPath, jaos);
+        ArchiveExporter.exportFolder(null, fldPath, jaos, PathUtils.getName(fldPath));
         log.debug("exportFolderAsJar: void");
     }
 }
@@ -21,12 +21,18 @@
 
 package com.openkm.servlet.frontend;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.servlet.http.HttpSession;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,9 +41,14 @@ import com.openkm.bean.Document;
 import com.openkm.bean.Folder;
 import com.openkm.bean.Mail;
 import com.openkm.bean.Repository;
+import com.openkm.bean.pagination.ChildrenCursor;
+import com.openkm.bean.pagination.ChildrenFilter;
 import com.openkm.bean.pagination.FilterResult;
 import com.openkm.bean.pagination.ObjectToOrder;
+import com.openkm.core.AccessDeniedException;
 import com.openkm.core.DatabaseException;
+import com.openkm.core.NoSuchGroupException;
+import com.openkm.core.ParseException;
 import com.openkm.core.PathNotFoundException;
 import com.openkm.core.RepositoryException;
 import com.openkm.dao.NodeBaseDAO;
@@ -45,6 +56,8 @@ import com.openkm.dao.NodeDocumentDAO;
 import com.openkm.dao.NodeDocumentVersionDAO;
 import com.openkm.dao.NodeFolderDAO;
 import com.openkm.dao.NodeMailDAO;
+import com.openkm.dao.PaginationDAO;
+import com.openkm.dao.bean.NodeBase;
 import com.openkm.dao.bean.NodeDocument;
 import com.openkm.dao.bean.NodeDocumentVersion;
 import com.openkm.dao.bean.NodeFolder;
@@ -61,6 +74,7 @@ import com.openkm.frontend.client.widget.filebrowser.GWTFilter;
 import com.openkm.module.db.base.BaseDocumentModule;
 import com.openkm.module.db.base.BaseFolderModule;
 import com.openkm.module.db.base.BaseMailModule;
+import com.openkm.principal.PrincipalAdapterException;
 import com.openkm.util.GWTUtil;
 import com.openkm.util.pagination.FilterUtils;
 
@@ -70,6 +84,7 @@ import com.openkm.util.pagination.FilterUtils;
 public class PaginationServlet extends OKMRemoteServiceServlet implements OKMPaginationService {
     private static Logger log = LoggerFactory.getLogger(PaginationServlet.class);
     private static final long serialVersionUID = 1L;
+    private static final String CURSORS = "paginationCursors";
 
     @Override
     public GWTPaginated getChildrenPaginated(String fldPath, boolean extraColumns, int offset, int limit, int order, boolean reverse,
@@ -90,6 +105,15 @@ public class PaginationServlet extends OKMRemoteServiceServlet implements OKMPag
                 fldUuid = NodeBaseDAO.getInstance().getUuidFromPath(fldPath);
             }
 
+            // Plain folder browsing is sorted, filtered and paginated by the database
+            if (isPaginatedByDatabase(fldPath, order, selectedRowId, mapFilter)) {
+                getChildrenFromDatabase(paginated, user, fldUuid, extraColumns, offset, limit, order, reverse, folders, documents, mails,
+                        mapFilter);
+                log.trace("getChildrenPaginated.Time: {}", System.currentTimeMillis() - begin);
+                log.debug("getChildrenPaginated: {}", paginated);
+                return paginated;
+            }
+
             // Folders
             List<NodeFolder> colFolders = new ArrayList<NodeFolder>();
 
@@ -301,6 +325,244 @@ public class PaginationServlet extends OKMRemoteServiceServlet implements OKMPag
         return paginated;
     }
 
+    /**
+     * Check if the children can be sorted, filtered and paginated by the database
+     */
+    private boolean isPaginatedByDatabase(String fldPath, int order, String selectedRowId, Map<String, GWTFilter> mapFilter) {
+        if (fldPath.startsWith("/" + Repository.CATEGORIES) || fldPath.startsWith("/" + Repository.THESAURUS)
+                || fldPath.startsWith("/" + Repository.METADATA)) {
+            return false;
+        }
+
+        // Versions are compared by their numeric parts
+        if (order == GWTPaginated.COL_VERSION) {
+            return false;
+        }
+
+        // The position of the selected row is found by walking all the children
+        if (selectedRowId != null && !selectedRowId.equals("")) {
+            return false;
+        }
+
+        // Authors are filtered by their full name
+        return !mapFilter.containsKey(String.valueOf(GWTPaginated.COL_AUTHOR));
+    }
+
+    /**
+     * Get a page of children sorted, filtered and paginated by the database. Only the nodes of the page
+     * are converted to beans, and the next page continues from the cursor where this one ended.
+     */
+    private void getChildrenFromDatabase(GWTPaginated paginated, String user, String fldUuid, boolean extraColumns, int offset,
+            int limit, int order, boolean reverse, boolean folders, boolean documents, boolean mails, Map<String, GWTFilter> mapFilter)
+            throws PrincipalAdapterException, IOException, ParseException, NoSuchGroupException, AccessDeniedException,
+            PathNotFoundException, RepositoryException, DatabaseException {
+        PaginationDAO pagDao = PaginationDAO.getInstance();
+        ChildrenFilter filter = getChildrenFilter(mapFilter);
+        List<Class<? extends NodeBase>> types = new ArrayList<Class<? extends NodeBase>>();
+        paginated.setTotalFolder(pagDao.count(fldUuid, NodeFolder.class, null));
+        paginated.setTotalDocuments(pagDao.count(fldUuid, NodeDocument.class, null));
+        paginated.setTotalMails(pagDao.count(fldUuid, NodeMail.class, null));
+        int total = 0;
+
+        if (folders) {
+            types.add(NodeFolder.class);
+            total += filter == null ? paginated.getTotalFolder() : pagDao.count(fldUuid, NodeFolder.class, filter);
+        }
+
+        if (documents) {
+            types.add(NodeDocument.class);
+            total += filter == null ? paginated.getTotalDocuments() : pagDao.count(fldUuid, NodeDocument.class, filter);
+        }
+
+        if (mails) {
+            types.add(NodeMail.class);
+            total += filter == null ? paginated.getTotalMails() : pagDao.count(fldUuid, NodeMail.class, filter);
+        }
+
+        paginated.setTotal(total);
+
+        // Testing offset error ( trying to find correct offset ).
+        if (offset >= total) {
+            if (total == 0 || total <= limit) {
+                offset = 0;
+            } else if (total % limit != 0) { // case there's some remainder
+                offset = (total / limit) * limit;
+            } else { // case exact division
+                offset = (total / limit) * limit;
+                offset = offset - limit; // back limit to see latest values
+            }
+
+            paginated.setOutOfRange(true);
+            paginated.setNewOffset(offset);
+        }
+
+        // Continue from the previous page cursor when it is not past the requested offset
+        String key = fldUuid + ":" + order + ":" + reverse + ":" + folders + ":" + documents + ":" + mails + ":" + filter;
+        CursorCache cursors = getCursorCache();
+        ChildrenCursor cursor = null;
+
+        if (cursors != null) {
+            synchronized (cursors) {
+                cursor = cursors.get(key);
+            }
+        }
+
+        if (cursor != null && cursor.getPosition() <= offset) {
+            cursor = new ChildrenCursor(cursor);
+        } else {
+            cursor = new ChildrenCursor();
+        }
+
+        int skip = offset - cursor.getPosition();
+        List<NodeBase> page = pagDao.findPage(fldUuid, types, getPaginationOrder(order), reverse, filter, cursor, skip, limit);
+
+        if (cursors != null) {
+            synchronized (cursors) {
+                cursors.put(key, cursor);
+            }
+        }
+
+        // Documents of the page are converted at once
+        List<NodeDocument> nDocuments = new ArrayList<NodeDocument>();
+        Map<String, Document> docs = new HashMap<String, Document>();
+
+        for (NodeBase nBase : page) {
+            if (nBase instanceof NodeDocument) {
+                nDocuments.add((NodeDocument) nBase);
+            }
+        }
+
+        for (Document doc : BaseDocumentModule.getProperties(user, nDocuments)) {
+            docs.put(doc.getUuid(), doc);
+        }
+
+        GWTWorkspace workspace = extraColumns ? getUserWorkspaceSession() : null;
+
+        for (NodeBase nBase : page) {
+            if (nBase instanceof NodeFolder) {
+                Folder fld = BaseFolderModule.getProperties(user, (NodeFolder) nBase);
+                paginated.getObjects().add(GWTUtil.copy(fld, workspace));
+            } else if (nBase instanceof NodeDocument) {
+                paginated.getObjects().add(GWTUtil.copy(docs.get(nBase.getUuid()), workspace));
+            } else if (nBase instanceof NodeMail) {
+                Mail mail = BaseMailModule.getProperties(user, (NodeMail) nBase);
+                paginated.getObjects().add(GWTUtil.copy(mail, workspace));
+            }
+        }
+    }
+
+    /**
+     * Convert the GWT filters to a database filter, or null if there is nothing to filter
+     */
+    private ChildrenFilter getChildrenFilter(Map<String, GWTFilter> mapFilter) {
+        ChildrenFilter filter = new ChildrenFilter();
+        boolean filtered = false;
+
+        for (Entry<String, GWTFilter> entry : mapFilter.entrySet()) {
+            GWTFilter gwtFilter = entry.getValue();
+
+            switch (Integer.parseInt(entry.getKey())) {
+            case GWTPaginated.COL_NAME:
+                filter.setName(gwtFilter.getFilterValue1());
+                filtered = true;
+                break;
+
+            case GWTPaginated.COL_SIZE:
+                if (gwtFilter.getSizeValue1() >= 0) {
+                    filter.setSizeFrom(Long.valueOf(gwtFilter.getSizeValue1()));
+                    filtered = true;
+                }
+
+                if (gwtFilter.getSizeValue2() >= 0) {
+                    filter.setSizeTo(Long.valueOf(gwtFilter.getSizeValue2()));
+                    filtered = true;
+                }
+                break;
+
+            case GWTPaginated.COL_DATE:
+                if (gwtFilter.getFrom() != null) {
+                    Calendar from = Calendar.getInstance();
+                    from.setTime(gwtFilter.getFrom());
+                    filter.setDateFrom(from);
+                    filtered = true;
+                }
+
+                if (gwtFilter.getTo() != null) {
+                    Calendar to = Calendar.getInstance();
+                    to.setTime(gwtFilter.getTo());
+                    filter.setDateTo(to);
+                    filtered = true;
+                }
+                break;
+
+            case GWTPaginated.COL_VERSION:
+                filter.setVersion(gwtFilter.getFilterValue1());
+                filtered = true;
+                break;
+            }
+        }
+
+        return filtered ? filter : null;
+    }
+
+    /**
+     * Convert the GWT column to a database order
+     */
+    private int getPaginationOrder(int order) {
+        switch (order) {
+        case GWTPaginated.COL_NAME:
+            return PaginationDAO.ORDER_NAME;
+
+        case GWTPaginated.COL_SIZE:
+            return PaginationDAO.ORDER_SIZE;
+
+        case GWTPaginated.COL_DATE:
+            return PaginationDAO.ORDER_DATE;
+
+        case GWTPaginated.COL_AUTHOR:
+            return PaginationDAO.ORDER_AUTHOR;
+
+        default:
+            return PaginationDAO.ORDER_TYPE;
+        }
+    }
+
+    /**
+     * Get the cursors of the last listings browsed in this session
+     */
+    private CursorCache getCursorCache() {
+        // Case when servlet is not called from GWT ( mobile access )
+        if (getThreadLocalRequest() != null) {
+            HttpSession session = getThreadLocalRequest().getSession();
+
+            synchronized (session) {
+                CursorCache cursors = (CursorCache) session.getAttribute(CURSORS);
+
+                if (cursors == null) {
+                    cursors = new CursorCache();
+                    session.setAttribute(CURSORS, cursors);
+                }
+
+                return cursors;
+            }
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Cursors of the last listings, by listing
+     */
+    private static class CursorCache extends LinkedHashMap<String, ChildrenCursor> {
+        private static final long serialVersionUID = 1L;
+        private static final int MAX_ENTRIES = 16;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChildrenCursor> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    }
+
     /**
      * OrderByName
      * 
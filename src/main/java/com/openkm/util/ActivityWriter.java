@@ -0,0 +1,525 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.cache.DashboardCache;
+import com.openkm.core.Config;
+import com.openkm.core.DatabaseException;
+import com.openkm.dao.ActivityDAO;
+import com.openkm.dao.DashboardActivityDAO;
+import com.openkm.dao.bean.Activity;
+import com.openkm.dao.bean.DashboardActivity;
+
+/**
+ * Asynchronous activity log writer.
+ *
+ * Activities are put in a bounded lock free queue and saved by a single writer thread, every
+ * ACTIVITY_LOG_FLUSH_INTERVAL milliseconds or as soon as a batch is complete, in one transaction per
+ * batch. When the queue is full the caller waits, the activity is dropped, or it is appended to a spill
+ * file which the writer loads later, depending on ACTIVITY_LOG_QUEUE_FULL. Pending activities are
+ * saved on shutdown. A batch which can not be saved is retried one by one, and spilled to file when
+ * the database is not available. Spilled activities are loaded back in batches; loading stops at the
+ * first batch the database can not take, and the rest of the file is kept for the next interval.
+ */
+public class ActivityWriter {
+    private static Logger log = LoggerFactory.getLogger(ActivityWriter.class);
+    public static final String QUEUE_FULL_BLOCK = "block";
+    public static final String QUEUE_FULL_DROP = "drop";
+    public static final String QUEUE_FULL_SPILL = "spill";
+    private static final String SPILL_FILE = "activity.spill";
+    private static final int BATCH_SIZE = 500;
+    private static final long BLOCK_PAUSE = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final ConcurrentLinkedQueue<Activity> queue = new ConcurrentLinkedQueue<Activity>();
+    private static final AtomicInteger size = new AtomicInteger();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicLong spilled = new AtomicLong();
+    private static final Object spillLock = new Object();
+    private static volatile Thread writer = null;
+    private static volatile boolean spillPending = true;
+    private static volatile boolean running = false;
+
+    /**
+     * Start writer thread, if asynchronous activity log is enabled.
+     */
+    public static synchronized void start() {
+        if (!running && Config.ACTIVITY_LOG_ASYNC) {
+            log.info("Starting activity log writer");
+            running = true;
+            writer = new Thread(new Flusher(), "ActivityWriterThread");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Stop writer thread, saving every pending activity.
+     */
+    public static synchronized void shutdown() {
+        if (running) {
+            running = false;
+            LockSupport.unpark(writer);
+
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                log.warn("Exception awaiting for activity log writer termination: {}", e.getMessage());
+            }
+
+            // Anything left or queued meanwhile
+            drain();
+            log.info("Activity log writer stopped ({} dropped, {} spilled)", dropped.get(), spilled.get());
+        }
+    }
+
+    /**
+     * Return if the activities are being saved asynchronously.
+     */
+    public static boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Queue an activity to be saved. Returns false if the writer is not running and the activity
+     * should be saved by the caller.
+     */
+    public static boolean offer(Activity activity) {
+        if (!running) {
+            return false;
+        }
+
+        while (true) {
+            int current = size.get();
+
+            if (current < Config.ACTIVITY_LOG_QUEUE_SIZE) {
+                if (size.compareAndSet(current, current + 1)) {
+                    queue.offer(activity);
+
+                    if (current + 1 >= BATCH_SIZE) {
+                        LockSupport.unpark(writer);
+                    }
+
+                    return true;
+                }
+            } else if (QUEUE_FULL_DROP.equals(Config.ACTIVITY_LOG_QUEUE_FULL)) {
+                if (dropped.incrementAndGet() % 1000 == 1) {
+                    log.warn("Activity log queue full, {} activities dropped", dropped.get());
+                }
+
+                return true;
+            } else if (QUEUE_FULL_SPILL.equals(Config.ACTIVITY_LOG_QUEUE_FULL)) {
+                spill(activity);
+                return true;
+            } else if (!running) {
+                return false;
+            } else {
+                // Wait for the writer to make room
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(BLOCK_PAUSE);
+            }
+        }
+    }
+
+    /**
+     * Number of queued activities
+     */
+    public static int getQueueSize() {
+        return size.get();
+    }
+
+    /**
+     * Number of activities dropped because the queue was full
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Number of activities spilled to file because the queue was full
+     */
+    public static long getSpilled() {
+        return spilled.get();
+    }
+
+    /**
+     * Save queued activities in batches until the queue is empty.
+     */
+    private static void drain() {
+        List<Activity> batch = new ArrayList<Activity>(BATCH_SIZE);
+        Activity activity = null;
+
+        while ((activity = queue.poll()) != null) {
+            size.decrementAndGet();
+            batch.add(activity);
+
+            if (batch.size() >= BATCH_SIZE) {
+                save(batch);
+                batch.clear();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            save(batch);
+        }
+    }
+
+    /**
+     * Save a batch of activities in a single transaction.
+     */
+    private static void save(List<Activity> activities) {
+        if (!saveBatch(activities)) {
+            saveEach(activities);
+        }
+    }
+
+    /**
+     * Save a batch of activities in a single transaction, returning false if it fails.
+     */
+    private static boolean saveBatch(List<Activity> activities) {
+        List<DashboardActivity> dashActs = new ArrayList<DashboardActivity>();
+        Set<String> dashUsers = new HashSet<String>();
+
+        for (Activity activity : activities) {
+            DashboardActivity dashAct = UserActivity.getDashboardActivity(activity);
+
+            if (dashAct != null) {
+                dashActs.add(dashAct);
+                dashUsers.add(dashAct.getUser());
+            }
+        }
+
+        try {
+            ActivityDAO.create(activities, dashActs);
+        } catch (DatabaseException e) {
+            log.warn("Unable to save {} activities: {}", activities.size(), e.getMessage());
+            return false;
+        }
+
+        for (String user : dashUsers) {
+            DashboardCache.invalidate(user);
+        }
+
+        return true;
+    }
+
+    /**
+     * Save activities one by one, after a batch failure. If none can be saved the database is assumed
+     * to be unavailable and they are spilled to file to be retried later; otherwise the failed ones are
+     * dropped so a wrong activity is not retried forever.
+     */
+    private static void saveEach(List<Activity> activities) {
+        List<Activity> failed = new ArrayList<Activity>();
+
+        for (Activity activity : activities) {
+            if (!saveOne(activity)) {
+                failed.add(activity);
+            }
+        }
+
+        if (failed.size() == activities.size()) {
+            for (Activity activity : failed) {
+                spill(activity);
+            }
+        } else if (!failed.isEmpty()) {
+            dropped.addAndGet(failed.size());
+            log.error("Unable to save {} activities, dropped", failed.size());
+        }
+    }
+
+    /**
+     * Save a single activity, after a batch failure. Returns false if it can not be saved.
+     */
+    private static boolean saveOne(Activity activity) {
+        // May have been assigned by the rolled back batch
+        activity.setId(0);
+
+        try {
+            ActivityDAO.create(activity);
+        } catch (DatabaseException e) {
+            log.debug("Unable to save activity {}: {}", activity, e.getMessage());
+            return false;
+        }
+
+        try {
+            DashboardActivity dashAct = UserActivity.getDashboardActivity(activity);
+
+            if (dashAct != null) {
+                DashboardActivityDAO.create(dashAct);
+                DashboardCache.invalidate(dashAct.getUser());
+            }
+        } catch (DatabaseException e) {
+            log.warn("Unable to save dashboard activity: {}", e.getMessage());
+        }
+
+        return true;
+    }
+
+    /**
+     * Append an activity to the spill file.
+     */
+    private static void spill(Activity activity) {
+        synchronized (spillLock) {
+            Writer out = null;
+
+            try {
+                out = new OutputStreamWriter(new FileOutputStream(getSpillFile(), true), "UTF-8");
+                out.write(Long.toString(activity.getDate().getTimeInMillis()));
+
+                for (String field : new String[] { activity.getUser(), activity.getAction(), activity.getItem(), activity.getPath(),
+                        activity.getParams() }) {
+                    out.write('\t');
+                    out.write(escape(field));
+                }
+
+                out.write('\n');
+                spilled.incrementAndGet();
+                spillPending = true;
+            } catch (IOException e) {
+                dropped.incrementAndGet();
+                log.error("Unable to spill activity: {}", e.getMessage());
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+        }
+    }
+
+    /**
+     * Save the activities spilled to file, if any. The file is only removed once every activity has been
+     * saved. When the database is not available the unsaved lines are kept for the next flush interval.
+     */
+    private static void loadSpilled() {
+        File spill = getSpillFile();
+        File loading = new File(spill.getPath() + ".loading");
+
+        synchronized (spillLock) {
+            spillPending = false;
+
+            if (!loading.exists()) {
+                if (!spill.exists() || !spill.renameTo(loading)) {
+                    return;
+                }
+            }
+        }
+
+        BufferedReader in = null;
+        List<String> lines = new ArrayList<String>(BATCH_SIZE);
+        boolean done = false;
+
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(loading), "UTF-8"));
+            String line = null;
+
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+
+                if (lines.size() >= BATCH_SIZE) {
+                    if (!saveSpilled(lines)) {
+                        break;
+                    }
+
+                    lines.clear();
+                }
+            }
+
+            if (line == null && saveSpilled(lines)) {
+                done = true;
+            } else {
+                keepSpilled(loading, lines, in);
+            }
+        } catch (IOException e) {
+            log.error("Unable to load spilled activities: {}", e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(in);
+
+            if (done) {
+                loading.delete();
+            } else {
+                spillPending = true;
+            }
+        }
+    }
+
+    /**
+     * Save a batch of spilled lines. Returns false, without trying the rest one by one, if neither the
+     * batch nor its first activity can be saved, as the database is then assumed to be unavailable.
+     */
+    private static boolean saveSpilled(List<String> lines) {
+        List<Activity> activities = new ArrayList<Activity>(lines.size());
+
+        for (String line : lines) {
+            Activity activity = parse(line);
+
+            if (activity != null) {
+                activities.add(activity);
+            }
+        }
+
+        if (activities.isEmpty() || saveBatch(activities)) {
+            return true;
+        } else if (!saveOne(activities.get(0))) {
+            log.warn("Database not available, spilled activities kept for later");
+            return false;
+        }
+
+        saveEach(activities.subList(1, activities.size()));
+        return true;
+    }
+
+    /**
+     * Replace the file being loaded with the lines not saved yet: the failed batch and the unread ones.
+     */
+    private static void keepSpilled(File loading, List<String> lines, BufferedReader in) throws IOException {
+        File remainder = new File(loading.getPath() + ".tmp");
+        Writer out = null;
+
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(remainder), "UTF-8");
+
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+
+            String line = null;
+
+            while ((line = in.readLine()) != null) {
+                out.write(line);
+                out.write('\n');
+            }
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+
+        IOUtils.closeQuietly(in);
+
+        if (!remainder.renameTo(loading) && (!loading.delete() || !remainder.renameTo(loading))) {
+            throw new IOException("Unable to rename " + remainder.getPath());
+        }
+    }
+
+    /**
+     * Read an activity from a spill file line, or null if the line is not valid.
+     */
+    private static Activity parse(String line) {
+        String[] fields = line.split("\t", -1);
+
+        if (fields.length != 6 || !fields[0].matches("\\d+")) {
+            return null;
+        }
+
+        Activity activity = new Activity();
+        Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(Long.parseLong(fields[0]));
+        activity.setDate(date);
+        activity.setUser(unescape(fields[1]));
+        activity.setAction(unescape(fields[2]));
+        activity.setItem(unescape(fields[3]));
+        activity.setPath(unescape(fields[4]));
+        activity.setParams(unescape(fields[5]));
+        return activity;
+    }
+
+    private static File getSpillFile() {
+        return new File(Config.HOME_DIR, SPILL_FILE);
+    }
+
+    /**
+     * Escape a field so it fits in a tab separated line. Null values are stored as a single backslash.
+     */
+    private static String escape(String value) {
+        if (value == null) {
+            return "\\";
+        }
+
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /**
+     * Revert escape()
+     */
+    private static String unescape(String value) {
+        if (value.equals("\\")) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Save queued activities every flush interval, or earlier when a batch is complete.
+     */
+    private static class Flusher implements Runnable {
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    if (size.get() < BATCH_SIZE) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Config.ACTIVITY_LOG_FLUSH_INTERVAL));
+                    }
+
+                    drain();
+
+                    if (spillPending) {
+                        loadSpilled();
+                    }
+                } catch (Exception e) {
+                    log.warn(e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
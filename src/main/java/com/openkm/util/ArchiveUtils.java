@@ -41,6 +41,36 @@ import org.slf4j.LoggerFactory;
 public class ArchiveUtils {
     private static Logger log = LoggerFactory.getLogger(ArchiveUtils.class);
 
+    /**
+     * Create ZIP archive stream
+     */
+    public static ZipArchiveOutputStream createZipStream(OutputStream os) {
+        ZipArchiveOutputStream zaos = new ZipArchiveOutputStream(os);
+        zaos.setComment("Generated by OpenKM");
+        zaos.setCreateUnicodeExtraFields(UnicodeExtraFieldPolicy.ALWAYS);
+        zaos.setUseLanguageEncodingFlag(true);
+        zaos.setFallbackToUTF8(true);
+        String filenameEncoding = System.getProperty("zip.filename.encoding");
+        if (filenameEncoding == null) {
+            filenameEncoding = "UTF-8";
+        }
+        zaos.setEncoding(filenameEncoding);
+        return zaos;
+    }
+
+    /**
+     * Create JAR archive stream
+     */
+    public static JarArchiveOutputStream createJarStream(OutputStream os) {
+        JarArchiveOutputStream jaos = new JarArchiveOutputStream(os);
+        jaos.setComment("Generated by OpenKM");
+        jaos.setCreateUnicodeExtraFields(UnicodeExtraFieldPolicy.ALWAYS);
+        jaos.setUseLanguageEncodingFlag(true);
+        jaos.setFallbackToUTF8(true);
+        jaos.setEncoding("UTF-8");
+        return jaos;
+    }
+
     /**
      * Create ZIP archive from file
      */
@@ -48,16 +78,7 @@ public class ArchiveUtils {
         log.debug("createZip({}, {})", new Object[] { path, os });
 
         if (path.exists() && path.canRead()) {
-            ZipArchiveOutputStream zaos = new ZipArchiveOutputStream(os);
-            zaos.setComment("Generated by OpenKM");
-            zaos.setCreateUnicodeExtraFields(UnicodeExtraFieldPolicy.ALWAYS);
-            zaos.setUseLanguageEncodingFlag(true);
-            zaos.setFallbackToUTF8(true);
-            String filenameEncoding = System.getProperty("zip.filename.encoding");
-            if (filenameEncoding == null) {
-                filenameEncoding = "UTF-8";
-            }
-            zaos.setEncoding(filenameEncoding);
+            ZipArchiveOutputStream zaos = createZipStream(os);
 
             log.debug("FILE {}", path);
             ZipArchiveEntry zae = new ZipArchiveEntry(path.getName());
@@ -84,16 +105,7 @@ public class ArchiveUtils {
         log.debug("createZip({}, {}, {})", new Object[] { path, root, os });
 
         if (path.exists() && path.canRead()) {
-            ZipArchiveOutputStream zaos = new ZipArchiveOutputStream(os);
-            zaos.setComment("Generated by OpenKM");
-            zaos.setCreateUnicodeExtraFields(UnicodeExtraFieldPolicy.ALWAYS);
-            zaos.setUseLanguageEncodingFlag(true);
-            zaos.setFallbackToUTF8(true);
-            String filenameEncoding = System.getProperty("zip.filename.encoding");
-            if (filenameEncoding == null) {
-                filenameEncoding = "UTF-8";
-            }
-            zaos.setEncoding(filenameEncoding);
+            ZipArchiveOutputStream zaos = createZipStream(os);
 
             // Prevents java.util.zip.ZipException: ZIP file must have at least one entry
             ZipArchiveEntry zae = new ZipArchiveEntry(root + "/");
@@ -148,12 +160,7 @@ public class ArchiveUtils {
         log.debug("createJar({}, {}, {})", new Object[] { path, root, os });
 
         if (path.exists() && path.canRead()) {
-            JarArchiveOutputStream jaos = new JarArchiveOutputStream(os);
-            jaos.setComment("Generated by OpenKM");
-            jaos.setCreateUnicodeExtraFields(UnicodeExtraFieldPolicy.ALWAYS);
-            jaos.setUseLanguageEncodingFlag(true);
-            jaos.setFallbackToUTF8(true);
-            jaos.setEncoding("UTF-8");
+            JarArchiveOutputStream jaos = createJarStream(os);
 
             // Prevents java.util.jar.JarException: JAR file must have at least one entry
             JarArchiveEntry jae = new JarArchiveEntry(root + "/");
@@ -54,9 +54,6 @@ import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
 import org.apache.commons.httpclient.methods.multipart.StringPart;
 import org.apache.commons.io.IOUtils;
-import org.artofsolving.jodconverter.OfficeDocumentConverter;
-import org.artofsolving.jodconverter.office.DefaultOfficeManagerConfiguration;
-import org.artofsolving.jodconverter.office.OfficeException;
 import org.artofsolving.jodconverter.office.OfficeManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -103,7 +100,7 @@ public class DocConverter {
     private static ArrayList<String> validGhoscript = new ArrayList<String>();
     private static ArrayList<String> validInternal = new ArrayList<String>();
     private static DocConverter instance = null;
-    private static OfficeManager officeManager = null;
+    private static OfficePool officePool = null;
 
     private DocConverter() {
         // Basic
@@ -163,11 +160,13 @@ public class DocConverter {
                 log.info("{}={}", Config.PROPERTY_SYSTEM_OPENOFFICE_PATH, Config.SYSTEM_OPENOFFICE_PATH);
                 log.info("{}={}", Config.PROPERTY_SYSTEM_OPENOFFICE_TASKS, Config.SYSTEM_OPENOFFICE_TASKS);
                 log.info("{}={}", Config.PROPERTY_SYSTEM_OPENOFFICE_PORT, Config.SYSTEM_OPENOFFICE_PORT);
+                log.info("{}={}", Config.PROPERTY_SYSTEM_OPENOFFICE_INSTANCES, Config.SYSTEM_OPENOFFICE_INSTANCES);
+                log.info("{}={}", Config.PROPERTY_SYSTEM_OPENOFFICE_TIMEOUT, Config.SYSTEM_OPENOFFICE_TIMEOUT);
+                log.info("{}={}", Config.PROPERTY_SYSTEM_OPENOFFICE_QUEUE_TIMEOUT, Config.SYSTEM_OPENOFFICE_QUEUE_TIMEOUT);
 
-                officeManager =
-                        new DefaultOfficeManagerConfiguration().setOfficeHome(Config.SYSTEM_OPENOFFICE_PATH)
-                                .setMaxTasksPerProcess(Config.SYSTEM_OPENOFFICE_TASKS).setPortNumber(Config.SYSTEM_OPENOFFICE_PORT)
-                                .buildOfficeManager();
+                officePool =
+                        new OfficePool(Config.SYSTEM_OPENOFFICE_PATH, Config.SYSTEM_OPENOFFICE_PORT, Config.SYSTEM_OPENOFFICE_INSTANCES,
+                                Config.SYSTEM_OPENOFFICE_TASKS, Config.SYSTEM_OPENOFFICE_TIMEOUT, Config.SYSTEM_OPENOFFICE_QUEUE_TIMEOUT);
             } else {
                 log.warn("{} not configured", Config.PROPERTY_SYSTEM_OPENOFFICE_PATH);
 
@@ -187,8 +186,8 @@ public class DocConverter {
      * Start OpenOffice instance
      */
     public void start() {
-        if (officeManager != null) {
-            officeManager.start();
+        if (officePool != null) {
+            officePool.start();
         }
     }
 
@@ -196,8 +195,8 @@ public class DocConverter {
      * Stop OpenOffice instance
      */
     public void stop() {
-        if (officeManager != null) {
-            officeManager.stop();
+        if (officePool != null) {
+            officePool.stop();
         }
     }
 
@@ -205,7 +204,14 @@ public class DocConverter {
      * Obtain OpenOffice Manager
      */
     public OfficeManager getOfficeManager() {
-        return officeManager;
+        return officePool == null ? null : officePool.getOfficeManager();
+    }
+
+    /**
+     * Obtain OpenOffice process pool
+     */
+    public OfficePool getOfficePool() {
+        return officePool;
     }
 
     /**
@@ -267,17 +273,12 @@ public class DocConverter {
             throw new ConversionException("Invalid document conversion MIME type: " + mimeType);
         }
 
-        try {
-            if (!Config.SYSTEM_OPENOFFICE_PATH.equals("")) {
-                // Document conversion managed by local OO instance
-                OfficeDocumentConverter converter = new OfficeDocumentConverter(officeManager);
-                converter.convert(inputFile, outputFile);
-            } else if (!Config.SYSTEM_OPENOFFICE_SERVER.equals("")) {
-                // Document conversion managed by remote conversion server
-                remoteConvert(Config.SYSTEM_OPENOFFICE_SERVER, inputFile, mimeType, outputFile, MimeTypeConfig.MIME_PDF);
-            }
-        } catch (OfficeException e) {
-            throw new ConversionException("Error converting document: " + e.getMessage());
+        if (!Config.SYSTEM_OPENOFFICE_PATH.equals("")) {
+            // Document conversion managed by local OO instances
+            officePool.convert(inputFile, outputFile);
+        } else if (!Config.SYSTEM_OPENOFFICE_SERVER.equals("")) {
+            // Document conversion managed by remote conversion server
+            remoteConvert(Config.SYSTEM_OPENOFFICE_SERVER, inputFile, mimeType, outputFile, MimeTypeConfig.MIME_PDF);
         }
     }
 
@@ -29,6 +29,7 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
@@ -46,6 +47,7 @@ import com.openkm.util.cl.JarClassLoader;
 
 public class ExecutionUtils {
     private static Logger log = LoggerFactory.getLogger(ExecutionUtils.class);
+    private static final ConcurrentHashMap<Thread, Process> running = new ConcurrentHashMap<Thread, Process>();
     private static ExecutionUtils single = new ExecutionUtils();
 
     private ExecutionUtils() {
@@ -255,6 +257,7 @@ public class ExecutionUtils {
         long start = System.currentTimeMillis();
         final ProcessBuilder pb = new ProcessBuilder(cmd);
         final Process process = pb.start();
+        running.put(Thread.currentThread(), process);
 
         Timer t = new Timer("Process Execution Timeout");
         t.schedule(new TimerTask() {
@@ -267,14 +270,22 @@ public class ExecutionUtils {
         }, timeout);
 
         try {
-            ret.setStdout(IOUtils.toString(process.getInputStream()));
-            ret.setStderr(IOUtils.toString(process.getErrorStream()));
-        } catch (IOException e) {
-            // Ignore
+            try {
+                ret.setStdout(IOUtils.toString(process.getInputStream()));
+                ret.setStderr(IOUtils.toString(process.getErrorStream()));
+            } catch (IOException e) {
+                // Ignore
+            }
+
+            process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroy();
+            throw e;
+        } finally {
+            t.cancel();
+            running.remove(Thread.currentThread());
         }
 
-        process.waitFor();
-        t.cancel();
         ret.setExitValue(process.exitValue());
 
         // Check return code
@@ -290,4 +301,16 @@ public class ExecutionUtils {
         log.debug("Elapse time: {}", FormatUtil.formatSeconds(System.currentTimeMillis() - start));
         return ret;
     }
+
+    /**
+     * Kill the command line being executed by a thread, if any
+     */
+    public static void destroy(Thread thread) {
+        Process process = running.remove(thread);
+
+        if (process != null) {
+            log.warn("Process killed due to cancellation.");
+            process.destroy();
+        }
+    }
 }
@@ -39,6 +39,7 @@ import javax.activation.DataSource;
 import javax.activation.FileDataSource;
 import javax.mail.Address;
 import javax.mail.BodyPart;
+import javax.mail.FetchProfile;
 import javax.mail.Flags;
 import javax.mail.Folder;
 import javax.mail.Message;
@@ -117,6 +118,7 @@ public class MailUtils {
     private static Logger log = LoggerFactory.getLogger(MailUtils.class);
     public static final String NO_SUBJECT = "(Message without subject)";
     public static final String NO_BODY = "(Message without body)";
+    private static final int IMAP_FETCH_SIZE = 256 * 1024;
     public static final String MAIL_REGEX = "([_A-Za-z0-9-]+)(\\.[_A-Za-z0-9-]+)*@[A-Za-z0-9-]+(\\.[A-Za-z0-9-]+)*(\\.[A-Za-z]{2,})";
 
     /**
@@ -125,6 +127,10 @@ public class MailUtils {
     public static Properties getProperties() {
         Properties props = System.getProperties();
         props.put("mail.imaps.ssl.trust", "*");
+
+        // Attachments are streamed from the IMAP server in chunks of this size
+        props.put("mail.imap.fetchsize", Integer.toString(IMAP_FETCH_SIZE));
+        props.put("mail.imaps.fetchsize", Integer.toString(IMAP_FETCH_SIZE));
         return props;
     }
 
@@ -571,16 +577,26 @@ public class MailUtils {
     public static String importMessages(String token, MailAccount ma) throws PathNotFoundException, ItemExistsException,
             VirusDetectedException, AccessDeniedException, RepositoryException, DatabaseException, UserQuotaExceededException,
             ExtensionException, AutomationException {
+        return importMessages(token, ma, DAO_CHECKPOINT_STORE);
+    }
+
+    /**
+     * Import messages, saving the last imported UID in the given store
+     */
+    static String importMessages(String token, MailAccount ma, CheckpointStore store) throws PathNotFoundException,
+            ItemExistsException, VirusDetectedException, AccessDeniedException, RepositoryException, DatabaseException,
+            UserQuotaExceededException, ExtensionException, AutomationException {
         log.debug("importMessages({}, {})", new Object[] { token, ma });
         Session session = Session.getDefaultInstance(getProperties());
         String exceptionMessage = null;
+        long checkpointUid = ma.getMailLastUid();
 
         try {
             // Open connection
-            Store store = session.getStore(ma.getMailProtocol());
-            store.connect(ma.getMailHost(), ma.getMailUser(), ma.getMailPassword());
+            Store mailStore = session.getStore(ma.getMailProtocol());
+            connect(mailStore, ma);
 
-            Folder folder = store.getFolder(ma.getMailFolder());
+            Folder folder = mailStore.getFolder(ma.getMailFolder());
             folder.open(Folder.READ_WRITE);
             Message messages[] = null;
 
@@ -592,55 +608,71 @@ public class MailUtils {
                 messages = folder.search(new FlagTerm(new Flags(Flags.Flag.SEEN), false));
             }
 
-            for (int i = 0; i < messages.length; i++) {
-                Message msg = messages[i];
-                log.info("======= ======= {} ======= =======", i);
-                log.info("Subject: {}", msg.getSubject());
-                log.info("From: {}", msg.getFrom());
-                log.info("Received: {}", msg.getReceivedDate());
-                log.info("Sent: {}", msg.getSentDate());
-                com.openkm.bean.Mail mail = messageToMail(msg);
-
-                if (ma.getMailFilters().isEmpty()) {
-                    log.debug("Import in compatibility mode");
-                    String mailPath = getUserMailPath(ma.getUser());
-                    importMail(token, mailPath, true, folder, msg, ma, mail);
-                } else {
-                    for (MailFilter mf : ma.getMailFilters()) {
-                        log.debug("MailFilter: {}", mf);
+            // Envelope, flags and UID of a whole batch are fetched with a single command
+            FetchProfile fp = new FetchProfile();
+            fp.add(FetchProfile.Item.ENVELOPE);
+            fp.add(FetchProfile.Item.FLAGS);
+            fp.add(FetchProfile.Item.CONTENT_INFO);
+            fp.add(UIDFolder.FetchProfileItem.UID);
+            int batchSize = Math.max(1, Config.MAIL_IMPORT_BATCH_SIZE);
+
+            for (int first = 0; first < messages.length; first += batchSize) {
+                Message batch[] = Arrays.copyOfRange(messages, first, Math.min(first + batchSize, messages.length));
+                folder.fetch(batch, fp);
+
+                for (int i = 0; i < batch.length; i++) {
+                    Message msg = batch[i];
+                    log.info("======= ======= {} ======= =======", first + i);
+                    log.info("Subject: {}", msg.getSubject());
+                    log.info("From: {}", msg.getFrom());
+                    log.info("Received: {}", msg.getReceivedDate());
+                    log.info("Sent: {}", msg.getSentDate());
+                    com.openkm.bean.Mail mail = messageToMail(msg);
+
+                    if (ma.getMailFilters().isEmpty()) {
+                        log.debug("Import in compatibility mode");
+                        String mailPath = getUserMailPath(ma.getUser());
+                        importMail(token, mailPath, true, folder, msg, ma, mail);
+                    } else {
+                        for (MailFilter mf : ma.getMailFilters()) {
+                            log.debug("MailFilter: {}", mf);
 
-                        if (checkRules(mail, mf.getFilterRules())) {
-                            String mailPath = mf.getPath();
-                            importMail(token, mailPath, mf.isGrouping(), folder, msg, ma, mail);
+                            if (checkRules(mail, mf.getFilterRules())) {
+                                String mailPath = mf.getPath();
+                                importMail(token, mailPath, mf.isGrouping(), folder, msg, ma, mail);
+                            }
                         }
                     }
-                }
 
-                // Set message as seen
-                if (ma.isMailMarkSeen()) {
-                    msg.setFlag(Flags.Flag.SEEN, true);
-                } else {
-                    msg.setFlag(Flags.Flag.SEEN, false);
-                }
+                    // Set message as seen
+                    if (ma.isMailMarkSeen()) {
+                        msg.setFlag(Flags.Flag.SEEN, true);
+                    } else {
+                        msg.setFlag(Flags.Flag.SEEN, false);
+                    }
 
-                // Delete read mail if requested
-                if (ma.isMailMarkDeleted()) {
-                    msg.setFlag(Flags.Flag.DELETED, true);
-                }
+                    // Delete read mail if requested
+                    if (ma.isMailMarkDeleted()) {
+                        msg.setFlag(Flags.Flag.DELETED, true);
+                    }
 
-                // Set lastUid
-                if (folder instanceof IMAPFolder) {
-                    long msgUid = ((IMAPFolder) folder).getUID(msg);
-                    log.info("Message UID: {}", msgUid);
-                    ma.setMailLastUid(msgUid);
-                    MailAccountDAO.update(ma);
+                    // Set lastUid
+                    if (folder instanceof IMAPFolder) {
+                        long msgUid = ((IMAPFolder) folder).getUID(msg);
+                        log.info("Message UID: {}", msgUid);
+                        ma.setMailLastUid(msgUid);
+                    }
                 }
+
+                // Already imported messages are skipped by path, so an import resumed from the
+                // last checkpoint does not duplicate them
+                checkpointUid = checkpoint(ma, checkpointUid, store);
             }
 
             // Close connection
             log.debug("Expunge: {}", ma.isMailMarkDeleted());
             folder.close(ma.isMailMarkDeleted());
-            store.close();
+            mailStore.close();
         } catch (NoSuchProviderException e) {
             log.error(e.getMessage(), e);
             exceptionMessage = e.getMessage();
@@ -650,12 +682,67 @@ public class MailUtils {
         } catch (IOException e) {
             log.error(e.getMessage(), e);
             exceptionMessage = e.getMessage();
+        } finally {
+            // Keep the progress of the messages imported before a failure, without hiding the failure itself
+            try {
+                checkpoint(ma, checkpointUid, store);
+            } catch (DatabaseException e) {
+                log.error("Can't save last UID of mail account {}: {}", ma.getId(), e.getMessage());
+            }
         }
 
         log.debug("importMessages: {}", exceptionMessage);
         return exceptionMessage;
     }
 
+    /**
+     * Persist the last imported UID, if it changed since the previous checkpoint
+     */
+    private static long checkpoint(MailAccount ma, long checkpointUid, CheckpointStore store) throws DatabaseException {
+        if (ma.getMailLastUid() != checkpointUid) {
+            store.save(ma);
+        }
+
+        return ma.getMailLastUid();
+    }
+
+    /**
+     * Where the last imported UID of a mail account is saved
+     */
+    interface CheckpointStore {
+        public void save(MailAccount ma) throws DatabaseException;
+    }
+
+    /**
+     * Save the last imported UID in database
+     */
+    private static final CheckpointStore DAO_CHECKPOINT_STORE = new CheckpointStore() {
+        @Override
+        public void save(MailAccount ma) throws DatabaseException {
+            MailAccountDAO.update(ma);
+        }
+    };
+
+    /**
+     * Connect to the mail account store. The host may include the port, like "localhost:3143".
+     */
+    static void connect(Store store, MailAccount ma) throws MessagingException {
+        String host = ma.getMailHost();
+        int port = -1;
+        int idx = host.indexOf(':');
+
+        if (idx > 0 && idx == host.lastIndexOf(':')) {
+            try {
+                port = Integer.parseInt(host.substring(idx + 1));
+                host = host.substring(0, idx);
+            } catch (NumberFormatException e) {
+                // Not a port
+            }
+        }
+
+        store.connect(host, port, ma.getMailUser(), ma.getMailPassword());
+    }
+
     /**
      * Convert Mime Message to Mail
      */
@@ -873,34 +960,32 @@ public class MailUtils {
     private static String createGroupPath(String token, String mailPath, Calendar receivedDate) throws DatabaseException,
             RepositoryException, AccessDeniedException, ItemExistsException, PathNotFoundException, ExtensionException, AutomationException {
         log.debug("createGroupPath({}, {})", new Object[] { mailPath, receivedDate });
-        OKMRepository okmRepository = OKMRepository.getInstance();
         String path = mailPath + "/" + receivedDate.get(Calendar.YEAR);
-        OKMFolder okmFolder = OKMFolder.getInstance();
-
-        if (!okmRepository.hasNode(token, path)) {
-            com.openkm.bean.Folder fld = new com.openkm.bean.Folder();
-            fld.setPath(path);
-            okmFolder.create(token, fld);
-        }
-
+        createFolder(token, path);
         path += "/" + (receivedDate.get(Calendar.MONTH) + 1);
-
-        if (!okmRepository.hasNode(token, path)) {
-            com.openkm.bean.Folder fld = new com.openkm.bean.Folder();
-            fld.setPath(path);
-            okmFolder.create(token, fld);
-        }
-
+        createFolder(token, path);
         path += "/" + receivedDate.get(Calendar.DAY_OF_MONTH);
+        createFolder(token, path);
+        log.debug("createGroupPath: {}", path);
+        return path;
+    }
 
-        if (!okmRepository.hasNode(token, path)) {
+    /**
+     * Create a folder unless it exists. Mail is imported concurrently, so the folder may be created by
+     * another import in between.
+     */
+    private static void createFolder(String token, String path) throws DatabaseException, RepositoryException,
+            AccessDeniedException, PathNotFoundException, ExtensionException, AutomationException {
+        if (!OKMRepository.getInstance().hasNode(token, path)) {
             com.openkm.bean.Folder fld = new com.openkm.bean.Folder();
             fld.setPath(path);
-            okmFolder.create(token, fld);
-        }
 
-        log.debug("createGroupPath: {}", path);
-        return path;
+            try {
+                OKMFolder.getInstance().create(token, fld);
+            } catch (ItemExistsException e) {
+                log.debug("Folder already created: {}", path);
+            }
+        }
     }
 
     /**
@@ -1093,7 +1178,7 @@ public class MailUtils {
 
         try {
             store = session.getStore(ma.getMailProtocol());
-            store.connect(ma.getMailHost(), ma.getMailUser(), ma.getMailPassword());
+            connect(store, ma);
             folder = store.getFolder(ma.getMailFolder());
             folder.open(Folder.READ_WRITE);
             folder.close(false);
@@ -0,0 +1,309 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.util;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.artofsolving.jodconverter.OfficeDocumentConverter;
+import org.artofsolving.jodconverter.office.DefaultOfficeManagerConfiguration;
+import org.artofsolving.jodconverter.office.OfficeException;
+import org.artofsolving.jodconverter.office.OfficeManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.core.ConversionException;
+
+/**
+ * Pool of local office processes used for document conversion.
+ *
+ * The office manager runs one process per port, restarts a process after a given number of tasks, when
+ * it crashes or when a conversion exceeds its timeout. On top of it conversions are admitted in two
+ * classes: interactive ones (previews) go first, but a waiting batch conversion (text extraction,
+ * pre-rendering, bulk conversions) is admitted after every BATCH_TURN interactive ones, so none of
+ * them starves.
+ */
+public class OfficePool {
+    private static Logger log = LoggerFactory.getLogger(OfficePool.class);
+    private static final int INTERACTIVE = 0;
+    private static final int BATCH = 1;
+    private static final int BATCH_TURN = 3;
+    private static final ThreadLocal<Boolean> batch = new ThreadLocal<Boolean>();
+
+    private final OfficeManager officeManager;
+    private final int instances;
+    private final int timeout;
+    private final int queueTimeout;
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    @SuppressWarnings("unchecked")
+    private final LinkedList<Ticket>[] waiting = new LinkedList[] { new LinkedList<Ticket>(), new LinkedList<Ticket>() };
+    private int busy = 0;
+    private int interactiveTurns = 0;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWait = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+
+    /**
+     * @param port First port; every process listens in the next one.
+     * @param instances Number of office processes.
+     * @param tasks Conversions before a process is restarted.
+     * @param timeout Conversion timeout in seconds.
+     * @param queueTimeout Maximum time in seconds waiting for a free process.
+     */
+    public OfficePool(String officeHome, int port, int instances, int tasks, int timeout, int queueTimeout) {
+        this.instances = Math.max(1, instances);
+        this.timeout = timeout;
+        this.queueTimeout = queueTimeout;
+        int[] ports = new int[this.instances];
+
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = port + i;
+        }
+
+        officeManager =
+                new DefaultOfficeManagerConfiguration().setOfficeHome(officeHome).setPortNumbers(ports).setMaxTasksPerProcess(tasks)
+                        .setTaskExecutionTimeout(TimeUnit.SECONDS.toMillis(timeout))
+                        .setTaskQueueTimeout(TimeUnit.SECONDS.toMillis(queueTimeout)).buildOfficeManager();
+    }
+
+    /**
+     * Mark the conversions made by the current thread as batch ones
+     */
+    public static void setBatch(boolean value) {
+        if (value) {
+            batch.set(Boolean.TRUE);
+        } else {
+            batch.remove();
+        }
+    }
+
+    /**
+     * Start office processes
+     */
+    public void start() {
+        officeManager.start();
+    }
+
+    /**
+     * Stop office processes
+     */
+    public void stop() {
+        officeManager.stop();
+    }
+
+    public OfficeManager getOfficeManager() {
+        return officeManager;
+    }
+
+    /**
+     * Convert a document, waiting for a free office process
+     */
+    public void convert(File inputFile, File outputFile) throws ConversionException {
+        int type = Boolean.TRUE.equals(batch.get()) ? BATCH : INTERACTIVE;
+        long begin = System.currentTimeMillis();
+        acquire(type);
+        long start = System.currentTimeMillis();
+        totalWait.addAndGet(start - begin);
+
+        try {
+            OfficeDocumentConverter converter = new OfficeDocumentConverter(officeManager);
+            converter.convert(inputFile, outputFile);
+            completed.incrementAndGet();
+        } catch (OfficeException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                timedOut.incrementAndGet();
+                log.warn("Office conversion timeout after {} seconds: {}", timeout, inputFile);
+            } else {
+                failed.incrementAndGet();
+            }
+
+            throw new ConversionException("Error converting document: " + e.getMessage());
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            throw new ConversionException("Error converting document: " + e.getMessage(), e);
+        } finally {
+            totalTime.addAndGet(System.currentTimeMillis() - start);
+            release();
+        }
+    }
+
+    /**
+     * Wait for a free office process
+     */
+    private void acquire(int type) throws ConversionException {
+        Ticket ticket = new Ticket();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(queueTimeout);
+
+        synchronized (lock) {
+            waiting[type].add(ticket);
+            dispatch();
+
+            try {
+                while (!ticket.granted) {
+                    long remaining = deadline - System.currentTimeMillis();
+
+                    if (remaining <= 0) {
+                        waiting[type].remove(ticket);
+                        rejected.incrementAndGet();
+                        throw new ConversionException("No office process available after " + queueTimeout + " seconds");
+                    }
+
+                    lock.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                if (ticket.granted) {
+                    busy--;
+                    dispatch();
+                } else {
+                    waiting[type].remove(ticket);
+                }
+
+                throw new ConversionException("Interrupted waiting for an office process", e);
+            }
+        }
+    }
+
+    /**
+     * Free an office process
+     */
+    private void release() {
+        synchronized (lock) {
+            busy--;
+            dispatch();
+        }
+    }
+
+    /**
+     * Hand free processes to the waiting conversions. Must be called holding the lock.
+     */
+    private void dispatch() {
+        boolean granted = false;
+
+        while (busy < instances && (!waiting[INTERACTIVE].isEmpty() || !waiting[BATCH].isEmpty())) {
+            Ticket ticket = null;
+
+            if (!waiting[INTERACTIVE].isEmpty() && (waiting[BATCH].isEmpty() || interactiveTurns < BATCH_TURN)) {
+                ticket = waiting[INTERACTIVE].removeFirst();
+                interactiveTurns++;
+            } else {
+                ticket = waiting[BATCH].removeFirst();
+                interactiveTurns = 0;
+            }
+
+            ticket.granted = true;
+            busy++;
+            granted = true;
+        }
+
+        if (granted) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Reset conversion counters
+     */
+    public void resetStats() {
+        completed.set(0);
+        failed.set(0);
+        timedOut.set(0);
+        rejected.set(0);
+        totalWait.set(0);
+        totalTime.set(0);
+    }
+
+    public int getInstances() {
+        return instances;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public int getActive() {
+        synchronized (lock) {
+            return busy;
+        }
+    }
+
+    public int getInteractiveQueueDepth() {
+        synchronized (lock) {
+            return waiting[INTERACTIVE].size();
+        }
+    }
+
+    public int getBatchQueueDepth() {
+        synchronized (lock) {
+            return waiting[BATCH].size();
+        }
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Average time waiting for an office process, in milliseconds
+     */
+    public long getAverageWait() {
+        long total = completed.get() + failed.get() + timedOut.get();
+        return total == 0 ? 0 : totalWait.get() / total;
+    }
+
+    /**
+     * Average conversion time, in milliseconds
+     */
+    public long getAverageTime() {
+        long total = completed.get() + failed.get() + timedOut.get();
+        return total == 0 ? 0 : totalTime.get() / total;
+    }
+
+    /**
+     * Conversion waiting for an office process
+     */
+    private static class Ticket {
+        private boolean granted = false;
+    }
+}
@@ -28,6 +28,7 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.openkm.cache.DashboardCache;
 import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
 import com.openkm.dao.ActivityDAO;
@@ -73,20 +74,35 @@ public class UserActivity {
                 log.debug(act.toString());
             }
 
-            ActivityDAO.create(act);
+            // Saved by the activity writer when running
+            if (!ActivityWriter.offer(act)) {
+                ActivityDAO.create(act);
+                DashboardActivity dashAct = getDashboardActivity(act);
 
-            // Dashboard hack
-            if (dashboardActions.contains(action)) {
-                DashboardActivity dashAct = new DashboardActivity();
-                dashAct.setDate(act.getDate());
-                dashAct.setUser(act.getUser());
-                dashAct.setAction(act.getAction());
-                dashAct.setItem(act.getItem());
-                dashAct.setPath(act.getPath());
-                DashboardActivityDAO.create(dashAct);
+                if (dashAct != null) {
+                    DashboardActivityDAO.create(dashAct);
+                    DashboardCache.invalidate(dashAct.getUser());
+                }
             }
         } catch (DatabaseException e) {
             log.error(e.getMessage());
         }
     }
+
+    /**
+     * Dashboard hack: get the dashboard activity for an activity, or null if not shown in dashboard
+     */
+    static DashboardActivity getDashboardActivity(Activity act) {
+        if (dashboardActions.contains(act.getAction())) {
+            DashboardActivity dashAct = new DashboardActivity();
+            dashAct.setDate(act.getDate());
+            dashAct.setUser(act.getUser());
+            dashAct.setAction(act.getAction());
+            dashAct.setItem(act.getItem());
+            dashAct.setPath(act.getPath());
+            return dashAct;
+        } else {
+            return null;
+        }
+    }
 }
@@ -21,12 +21,22 @@
 
 package com.openkm.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import javax.mail.internet.MimeUtility;
@@ -47,6 +57,8 @@ import com.openkm.core.Config;
 public class WebUtils {
     private static Logger log = LoggerFactory.getLogger(WebUtils.class);
     public static final String EMPTY_STRING = "";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RANGES = 32;
 
     /**
      * Extrae un parámetro de tipo String del request. Si el parámetro no existe devuelve
@@ -300,17 +312,7 @@ public class WebUtils {
      */
     public static void sendFile(HttpServletRequest request, HttpServletResponse response, String fileName, String mimeType, boolean inline,
             InputStream is) throws IOException {
-        log.debug("sendFile({}, {}, {}, {}, {}, {})", new Object[] { request, response, fileName, mimeType, inline, is });
-        prepareSendFile(request, response, fileName, mimeType, inline);
-
-        // Set length
-        response.setContentLength(is.available());
-        log.debug("File: {}, Length: {}", fileName, is.available());
-
-        ServletOutputStream sos = response.getOutputStream();
-        IOUtils.copy(is, sos);
-        sos.flush();
-        sos.close();
+        sendFile(request, response, fileName, mimeType, inline, is, null, null);
     }
 
     /**
@@ -320,19 +322,352 @@ public class WebUtils {
      */
     public static void sendFile(HttpServletRequest request, HttpServletResponse response, String fileName, String mimeType, boolean inline,
             File input) throws IOException {
-        log.debug("sendFile({}, {}, {}, {}, {}, {})", new Object[] { request, response, fileName, mimeType, inline, input });
+        sendFile(request, response, fileName, mimeType, inline, input, null, null);
+    }
+
+    /**
+     * Send file to client browser, see {@link #sendFile(HttpServletRequest, HttpServletResponse, String, String, boolean,
+     * InputStream, String, Calendar)}.
+     * 
+     * @throws IOException If there is a communication error.
+     */
+    public static void sendFile(HttpServletRequest request, HttpServletResponse response, String fileName, String mimeType, boolean inline,
+            File input, String etag, Calendar lastModified) throws IOException {
+        FileInputStream fis = new FileInputStream(input);
+
+        try {
+            sendFile(request, response, fileName, mimeType, inline, fis, etag, lastModified);
+        } finally {
+            IOUtils.closeQuietly(fis);
+        }
+    }
+
+    /**
+     * Send file to client browser. Byte ranges are served when requested, and when the ETag is given the
+     * browser is allowed to keep the file and conditional requests are answered with 304 Not Modified.
+     * Content from a file stream is sent with FileChannel.transferTo, so skipped bytes are never read.
+     * 
+     * @param etag ETag, which should change whenever the content does. See {@link #getETag(String, String, long, String)}.
+     * @param lastModified Content modification date, if known.
+     * @throws IOException If there is a communication error.
+     */
+    public static void sendFile(HttpServletRequest request, HttpServletResponse response, String fileName, String mimeType, boolean inline,
+            InputStream is, String etag, Calendar lastModified) throws IOException {
+        log.debug("sendFile({}, {}, {}, {}, {}, {}, {}, {})", new Object[] { request, response, fileName, mimeType, inline, is, etag,
+                lastModified });
         prepareSendFile(request, response, fileName, mimeType, inline);
+        long modified = lastModified != null ? lastModified.getTimeInMillis() / 1000 * 1000 : -1;
+        long length = getLength(is);
 
-        // Set length
-        response.setContentLength((int) input.length());
-        log.debug("File: {}, Length: {}", fileName, input.length());
+        if (etag != null && checkNotModified(request, response, etag, lastModified)) {
+            log.debug("File: {}, Not modified", fileName);
+            return;
+        }
+
+        if (length < 0) {
+            // Unknown length, send the whole stream
+            log.debug("File: {}, Length: unknown", fileName);
+            response.setHeader("Accept-Ranges", "none");
+            ServletOutputStream sos = response.getOutputStream();
+            IOUtils.copyLarge(is, sos);
+            sos.flush();
+            sos.close();
+            return;
+        }
+
+        response.setHeader("Accept-Ranges", "bytes");
+        List<long[]> ranges = getRanges(request, etag, modified, length);
+
+        if (ranges != null && ranges.isEmpty()) {
+            response.setHeader("Content-Range", "bytes */" + length);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
 
         ServletOutputStream sos = response.getOutputStream();
-        FileUtils.copy(input, sos);
+
+        if (ranges == null) {
+            log.debug("File: {}, Length: {}", fileName, length);
+            response.setHeader("Content-Length", Long.toString(length));
+            copy(is, sos, 0, 0, length);
+        } else if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            log.debug("File: {}, Length: {}, Range: {}-{}", new Object[] { fileName, length, range[0], range[0] + range[1] - 1 });
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + range[0] + "-" + (range[0] + range[1] - 1) + "/" + length);
+            response.setHeader("Content-Length", Long.toString(range[1]));
+            copy(is, sos, 0, range[0], range[1]);
+        } else {
+            String boundary = "OKM_BYTERANGES_" + Long.toHexString(System.currentTimeMillis());
+            log.debug("File: {}, Length: {}, Ranges: {}", new Object[] { fileName, length, ranges.size() });
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType("multipart/byteranges; boundary=" + boundary);
+            long position = 0;
+
+            for (long[] range : ranges) {
+                sos.println();
+                sos.println("--" + boundary);
+                sos.println("Content-Type: " + mimeType);
+                sos.println("Content-Range: bytes " + range[0] + "-" + (range[0] + range[1] - 1) + "/" + length);
+                sos.println();
+                position = copy(is, sos, position, range[0], range[1]);
+            }
+
+            sos.println();
+            sos.println("--" + boundary + "--");
+        }
+
         sos.flush();
         sos.close();
     }
 
+    /**
+     * Set the validation headers and answer 304 Not Modified if the client already has this content. The
+     * browser is allowed to keep the file, but has to validate it on every use.
+     * 
+     * @return true if the content does not need to be sent.
+     */
+    public static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String etag, Calendar lastModified) {
+        long modified = lastModified != null ? lastModified.getTimeInMillis() / 1000 * 1000 : -1;
+        response.setHeader("Cache-Control", "private, no-cache");
+        response.setHeader("ETag", etag);
+
+        if (modified > 0) {
+            response.setDateHeader("Last-Modified", modified);
+        }
+
+        if (isNotModified(request, etag, modified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Check if the client already has this content, by ETag or else by modification date.
+     */
+    private static boolean isNotModified(HttpServletRequest request, String etag, long modified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+
+        if (ifNoneMatch != null) {
+            return matchesWeak(ifNoneMatch, etag);
+        } else if (modified > 0) {
+            try {
+                long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+                return ifModifiedSince != -1 && modified <= ifModifiedSince;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Check if any of the comma separated tags matches the ETag, using weak comparison
+     */
+    static boolean matchesWeak(String tags, String etag) {
+        for (String tag : tags.split(",")) {
+            tag = tag.trim();
+
+            if (tag.equals("*") || stripWeak(tag).equals(stripWeak(etag))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Check if the tag matches the ETag, using strong comparison. Weak tags never match.
+     */
+    static boolean matchesStrong(String tag, String etag) {
+        return etag != null && !tag.startsWith("W/") && !etag.startsWith("W/") && tag.equals(etag);
+    }
+
+    /**
+     * Remove the weak indicator from an ETag
+     */
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * Build an ETag for a document version content. A version content can be rewritten in place, so its
+     * size and checksum are part of the tag. Without checksum the tag is weak, and not used for ranges.
+     */
+    public static String getETag(String uuid, String version, long size, String checksum) {
+        if (checksum != null && !checksum.isEmpty()) {
+            return "\"" + uuid + "@" + version + "-" + size + "-" + checksum + "\"";
+        } else {
+            return "W/\"" + uuid + "@" + version + "-" + size + "\"";
+        }
+    }
+
+    /**
+     * Parse requested byte ranges, as {start, length} pairs sorted and coalesced. Returns null if the whole file
+     * should be sent and an empty list if no range can be satisfied.
+     */
+    private static List<long[]> getRanges(HttpServletRequest request, String etag, long modified, long length) {
+        String header = request.getHeader("Range");
+
+        if (header == null || !header.startsWith("bytes=") || length <= 0) {
+            return null;
+        }
+
+        // Partial content only if the client copy is still the current one
+        String ifRange = request.getHeader("If-Range");
+
+        if (ifRange != null) {
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                // Only strong tags can be used to combine ranges
+                if (!matchesStrong(ifRange, etag)) {
+                    return null;
+                }
+            } else {
+                try {
+                    if (modified <= 0 || request.getDateHeader("If-Range") != modified) {
+                        return null;
+                    }
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+
+        return parseRanges(header, length);
+    }
+
+    /**
+     * Parse a "bytes=" Range header, as {start, length} pairs sorted and coalesced. Returns null if the
+     * whole file should be sent and an empty list if no range can be satisfied.
+     */
+    static List<long[]> parseRanges(String header, long length) {
+        List<long[]> ranges = new ArrayList<long[]>();
+
+        for (String spec : header.substring(6).split(",")) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+
+            if (dash < 0) {
+                return null;
+            }
+
+            try {
+                long start;
+                long end;
+
+                if (dash == 0) {
+                    // Last N bytes
+                    long suffix = Long.parseLong(spec.substring(1));
+                    start = Math.max(0, length - suffix);
+                    end = suffix > 0 ? length - 1 : -1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    end = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+
+                    if (end < start) {
+                        return null;
+                    }
+
+                    end = Math.min(end, length - 1);
+                }
+
+                if (start < length && end >= start) {
+                    ranges.add(new long[] { start, end - start + 1 });
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        // Sort and coalesce overlapping ranges
+        Collections.sort(ranges, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] r1, long[] r2) {
+                return Long.compare(r1[0], r2[0]);
+            }
+        });
+
+        List<long[]> ret = new ArrayList<long[]>();
+
+        for (long[] range : ranges) {
+            long[] last = ret.isEmpty() ? null : ret.get(ret.size() - 1);
+
+            if (last != null && range[0] <= last[0] + last[1]) {
+                last[1] = Math.max(last[1], range[0] + range[1] - last[0]);
+            } else {
+                ret.add(range);
+            }
+        }
+
+        return ret.size() > MAX_RANGES ? null : ret;
+    }
+
+    /**
+     * Get content length, or -1 if not known. InputStream.available() is only a length for in memory streams.
+     */
+    private static long getLength(InputStream is) throws IOException {
+        if (is instanceof FileInputStream) {
+            return ((FileInputStream) is).getChannel().size();
+        } else if (is instanceof ByteArrayInputStream) {
+            return is.available();
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Copy a byte range from the current stream position and return the new one. File streams are sent
+     * with FileChannel.transferTo from the requested position.
+     */
+    public static long copy(InputStream is, OutputStream os, long position, long start, long length) throws IOException {
+        if (is instanceof FileInputStream) {
+            FileChannel fc = ((FileInputStream) is).getChannel();
+            WritableByteChannel out = Channels.newChannel(os);
+            long sent = 0;
+
+            while (sent < length) {
+                long count = fc.transferTo(start + sent, length - sent, out);
+
+                if (count <= 0) {
+                    throw new EOFException("Unexpected end of file at " + (start + sent));
+                }
+
+                sent += count;
+            }
+        } else {
+            long skip = start - position;
+
+            while (skip > 0) {
+                long count = is.skip(skip);
+
+                if (count <= 0) {
+                    throw new EOFException("Unexpected end of stream at " + (start - skip));
+                }
+
+                skip -= count;
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long pending = length;
+
+            while (pending > 0) {
+                int count = is.read(buffer, 0, (int) Math.min(buffer.length, pending));
+
+                if (count < 0) {
+                    throw new EOFException("Unexpected end of stream at " + (start + length - pending));
+                }
+
+                os.write(buffer, 0, count);
+                pending -= count;
+            }
+        }
+
+        return start + length;
+    }
+
     /**
      * Prepare to send the file.
      */
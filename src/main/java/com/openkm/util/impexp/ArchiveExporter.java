@@ -0,0 +1,217 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ * 
+ * No bytes were intentionally harmed during the development of this application.
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.util.impexp;
+
+import com.openkm.bean.Document;
+import com.openkm.bean.Folder;
+import com.openkm.bean.Mail;
+import com.openkm.core.*;
+import com.openkm.module.DocumentModule;
+import com.openkm.module.FolderModule;
+import com.openkm.module.MailModule;
+import com.openkm.module.ModuleManager;
+import com.openkm.module.SearchModule;
+import com.openkm.util.FileLogger;
+import com.openkm.util.FileUtils;
+import com.openkm.util.MailUtils;
+import com.openkm.util.PathUtils;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Export repository content straight into a ZIP or JAR archive stream, without temporal files. Content is read
+ * through the modules, so the usual permission checks apply and nodes the user can't read are not exported.
+ */
+public class ArchiveExporter {
+    private static Logger log = LoggerFactory.getLogger(ArchiveExporter.class);
+    private static final String BASE_NAME = ArchiveExporter.class.getSimpleName();
+    private static final AtomicInteger streams = new AtomicInteger();
+
+    private ArchiveExporter() {
+    }
+
+    /**
+     * Reserve one of the concurrent archive streams, returning false if all of them are in use
+     */
+    public static boolean acquire() {
+        if (streams.incrementAndGet() > Config.DOWNLOAD_ARCHIVE_MAX_STREAMS) {
+            streams.decrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Release a reserved archive stream
+     */
+    public static void release() {
+        streams.decrementAndGet();
+    }
+
+    /**
+     * Export a folder and all its descendants
+     */
+    public static void exportFolder(String token, String fldPath, ZipArchiveOutputStream zaos, String root) throws PathNotFoundException,
+            AccessDeniedException, RepositoryException, DatabaseException, IOException {
+        log.debug("exportFolder({}, {}, {}, {})", new Object[] { token, fldPath, zaos, root });
+        FileLogger.info(BASE_NAME, "Start archive export from ''{0}''", fldPath);
+        addDirectory(zaos, root);
+        exportFolderHelper(token, fldPath, zaos, root);
+        FileLogger.info(BASE_NAME, "Archive export finalized");
+        log.debug("exportFolder: void");
+    }
+
+    /**
+     * Export the documents in a category
+     */
+    public static void exportCategory(String token, String categoryId, ZipArchiveOutputStream zaos, String root) throws
+            PathNotFoundException, AccessDeniedException, RepositoryException, DatabaseException, IOException {
+        log.debug("exportCategory({}, {}, {}, {})", new Object[] { token, categoryId, zaos, root });
+        SearchModule sm = ModuleManager.getSearchModule();
+        addDirectory(zaos, root);
+
+        for (Document doc : sm.getCategorizedDocuments(token, categoryId)) {
+            exportDocument(token, doc, zaos, root + "/" + PathUtils.getName(doc.getPath()));
+        }
+
+        log.debug("exportCategory: void");
+    }
+
+    /**
+     * Export a list of documents
+     */
+    public static void exportDocuments(String token, List<String> paths, ZipArchiveOutputStream zaos, String root) throws
+            PathNotFoundException, AccessDeniedException, RepositoryException, DatabaseException, IOException {
+        log.debug("exportDocuments({}, {}, {}, {})", new Object[] { token, paths, zaos, root });
+        DocumentModule dm = ModuleManager.getDocumentModule();
+        addDirectory(zaos, root);
+
+        for (String docPath : paths) {
+            Document doc = dm.getProperties(token, docPath);
+            exportDocument(token, doc, zaos, root + "/" + PathUtils.getName(docPath).replace(':', '_'));
+        }
+
+        log.debug("exportDocuments: void");
+    }
+
+    /**
+     * Export folder children
+     */
+    private static void exportFolderHelper(String token, String fldPath, ZipArchiveOutputStream zaos, String zePath) throws
+            PathNotFoundException, AccessDeniedException, RepositoryException, DatabaseException, IOException {
+        DocumentModule dm = ModuleManager.getDocumentModule();
+        FolderModule fm = ModuleManager.getFolderModule();
+        MailModule mm = ModuleManager.getMailModule();
+
+        for (Mail mailChild : mm.getChildren(token, fldPath)) {
+            String mailName = FileUtils.toValidFilename(PathUtils.decodeEntities(PathUtils.getName(mailChild.getPath())));
+            exportMail(token, mailChild, zaos, zePath + "/" + mailName + ".eml");
+        }
+
+        for (Document docChild : dm.getChildren(token, fldPath)) {
+            String fileName = FileUtils.toValidFilename(PathUtils.decodeEntities(PathUtils.getName(docChild.getPath())));
+            exportDocument(token, docChild, zaos, zePath + "/" + fileName);
+        }
+
+        for (Folder fldChild : fm.getChildren(token, fldPath)) {
+            String dirName = FileUtils.toValidFilename(PathUtils.decodeEntities(PathUtils.getName(fldChild.getPath())));
+            addDirectory(zaos, zePath + "/" + dirName);
+            exportFolderHelper(token, fldChild.getPath(), zaos, zePath + "/" + dirName);
+        }
+    }
+
+    /**
+     * Write document content. A document which can't be read is logged and skipped, but errors writing
+     * to the archive stream are not.
+     */
+    private static void exportDocument(String token, Document doc, ZipArchiveOutputStream zaos, String zeName) throws IOException {
+        InputStream is = null;
+
+        try {
+            is = ModuleManager.getDocumentModule().getContent(token, doc.getPath(), false);
+        } catch (Exception e) {
+            log.warn("Can't export document {}: {}", doc.getPath(), e.getMessage());
+            FileLogger.error(BASE_NAME, "{0} ''{1}''", e.toString(), doc.getPath());
+            return;
+        }
+
+        try {
+            ZipArchiveEntry zae = new ZipArchiveEntry(zeName);
+
+            if (doc.getLastModified() != null) {
+                zae.setTime(doc.getLastModified().getTimeInMillis());
+            }
+
+            zaos.putArchiveEntry(zae);
+            IOUtils.copy(is, zaos);
+            zaos.closeArchiveEntry();
+            FileLogger.info(BASE_NAME, "Archived document ''{0}''", doc.getPath());
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Write mail as EML. A mail which can't be read is logged and skipped.
+     */
+    private static void exportMail(String token, Mail mail, ZipArchiveOutputStream zaos, String zeName) throws IOException {
+        MimeMessage msg = null;
+
+        try {
+            msg = MailUtils.create(token, mail);
+        } catch (Exception e) {
+            log.warn("Can't export mail {}: {}", mail.getPath(), e.getMessage());
+            FileLogger.error(BASE_NAME, "{0} ''{1}''", e.toString(), mail.getPath());
+            return;
+        }
+
+        try {
+            ZipArchiveEntry zae = new ZipArchiveEntry(zeName);
+            zaos.putArchiveEntry(zae);
+            msg.writeTo(zaos);
+            zaos.closeArchiveEntry();
+            FileLogger.info(BASE_NAME, "Archived mail ''{0}''", mail.getPath());
+        } catch (MessagingException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Add directory entry
+     */
+    private static void addDirectory(ZipArchiveOutputStream zaos, String zePath) throws IOException {
+        ZipArchiveEntry zae = new ZipArchiveEntry(zePath + "/");
+        zaos.putArchiveEntry(zae);
+        zaos.closeArchiveEntry();
+    }
+}
@@ -191,7 +191,7 @@ public class DbRepositoryChecker {
 
             if (Config.REPOSITORY_NATIVE && FsDataStore.DATASTORE_BACKEND_FS.equals(Config.REPOSITORY_DATASTORE_BACKEND) && fast) {
                 NodeDocumentVersion nDocVer = NodeDocumentVersionDAO.getInstance().findCurrentVersion(docUuid);
-                File dsDocVerFile = FsDataStore.resolveFile(nDocVer.getUuid());
+                File dsDocVerFile = FsDataStore.resolveFile(nDocVer);
 
                 if (!dsDocVerFile.exists()) {
                     throw new IOException("File does not exists: " + dsDocVerFile);
@@ -221,7 +221,7 @@ public class DbRepositoryChecker {
                         if (Config.REPOSITORY_NATIVE && FsDataStore.DATASTORE_BACKEND_FS.equals(Config.REPOSITORY_DATASTORE_BACKEND)
                                 && fast) {
                             NodeDocumentVersion nDocVer = NodeDocumentVersionDAO.getInstance().findVersion(docUuid, ver.getName());
-                            File dsDocVerFile = FsDataStore.resolveFile(nDocVer.getUuid());
+                            File dsDocVerFile = FsDataStore.resolveFile(nDocVer);
 
                             if (!dsDocVerFile.exists()) {
                                 throw new IOException("File does not exists: " + dsDocVerFile + ", version: " + ver.getName());
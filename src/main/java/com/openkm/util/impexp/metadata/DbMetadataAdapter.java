@@ -38,6 +38,7 @@ import org.slf4j.LoggerFactory;
 import com.google.gson.Gson;
 import com.openkm.bean.form.Input;
 import com.openkm.bean.form.Select;
+import com.openkm.cache.KeywordIndex;
 import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
 import com.openkm.core.ItemExistsException;
@@ -47,6 +48,7 @@ import com.openkm.core.RepositoryException;
 import com.openkm.dao.HibernateUtil;
 import com.openkm.dao.NodeBaseDAO;
 import com.openkm.dao.NodeDocumentVersionDAO;
+import com.openkm.dao.NodeFolderAggregateDAO;
 import com.openkm.dao.bean.NodeBase;
 import com.openkm.dao.bean.NodeDocument;
 import com.openkm.dao.bean.NodeDocumentVersion;
@@ -217,6 +219,8 @@ public class DbMetadataAdapter extends MetadataAdapter {
             // Persist
             session.save(nDoc);
             session.save(nDocVer);
+            NodeFolderAggregateDAO.getInstance().add(session, nDoc.getParent(), NodeFolderAggregateDAO.getInstance().getContribution(session, nDoc));
+            KeywordIndex.update(session, nDoc.getUuid());
 
             // Notes
             if (!dmd.getNotes().isEmpty()) {
@@ -236,7 +240,7 @@ public class DbMetadataAdapter extends MetadataAdapter {
             HibernateUtil.rollback(tx);
 
             // What happen when create fails? This datastore file should be deleted!
-            FsDataStore.delete(nDocVer.getUuid());
+            FsDataStore.delete(nDocVer);
 
             throw new DatabaseException(e.getMessage(), e);
         } catch (PathNotFoundException e) {
@@ -320,13 +324,14 @@ public class DbMetadataAdapter extends MetadataAdapter {
             // Persist
             session.save(nDocVer);
             session.save(prevDocVer);
+            NodeFolderAggregateDAO.getInstance().resize(session, parentNode.getParent(), nDocVer.getSize() - prevDocVer.getSize());
 
             HibernateUtil.commit(tx);
         } catch (HibernateException e) {
             HibernateUtil.rollback(tx);
 
             // What happen when create fails? This datastore file should be deleted!
-            FsDataStore.delete(nDocVer.getUuid());
+            FsDataStore.delete(nDocVer);
 
             throw new DatabaseException(e.getMessage(), e);
         } catch (PathNotFoundException e) {
@@ -421,6 +426,9 @@ public class DbMetadataAdapter extends MetadataAdapter {
 
             // Persist
             session.save(nFld);
+            NodeFolderAggregateDAO.getInstance().create(session, nFld.getUuid());
+            NodeFolderAggregateDAO.getInstance().add(session, nFld.getParent(), NodeFolderAggregateDAO.getInstance().getContribution(session, nFld));
+            KeywordIndex.update(session, nFld.getUuid());
 
             // Notes
             if (!fmd.getNotes().isEmpty()) {
@@ -545,6 +553,8 @@ public class DbMetadataAdapter extends MetadataAdapter {
 
             // Persist
             session.save(nMail);
+            NodeFolderAggregateDAO.getInstance().add(session, nMail.getParent(), NodeFolderAggregateDAO.getInstance().getContribution(session, nMail));
+            KeywordIndex.update(session, nMail.getUuid());
 
             // Notes
             if (!mmd.getNotes().isEmpty()) {
@@ -25,6 +25,7 @@ public class NodeStatus {
     private String node;
     private String parent;
     private String status;
+    private String last;
 
     public NodeStatus() {
     }
@@ -59,12 +60,21 @@ public class NodeStatus {
         this.status = status;
     }
 
+    public String getLast() {
+        return last;
+    }
+
+    public void setLast(String last) {
+        this.last = last;
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("{");
         sb.append("node=").append(node);
         sb.append(", parent=").append(parent);
         sb.append(", status=").append(status);
+        sb.append(", last=").append(last);
         sb.append("}");
         return sb.toString();
     }
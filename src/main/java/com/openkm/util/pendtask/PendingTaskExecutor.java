@@ -21,8 +21,10 @@
 
 package com.openkm.util.pendtask;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -47,7 +49,7 @@ import com.openkm.dao.bean.PendingTask;
  */
 public class PendingTaskExecutor {
     private static Logger log = LoggerFactory.getLogger(PendingTaskExecutor.class);
-    private static Set<Long> runningTasks = new HashSet<Long>();
+    private static Map<Long, PendingTaskProcessor> runningTasks = new HashMap<Long, PendingTaskProcessor>();
     public static volatile boolean running = true;
     private static ExecutorService executor = Executors.newFixedThreadPool(Config.AVAILABLE_PROCESSORS, new ThreadFactory() {
         @Override
@@ -62,8 +64,8 @@ public class PendingTaskExecutor {
     /**
      * Register running task.
      */
-    public static synchronized void addRunningTask(Long tkId) {
-        runningTasks.add(tkId);
+    public static synchronized void addRunningTask(Long tkId, PendingTaskProcessor processor) {
+        runningTasks.put(tkId, processor);
     }
 
     /**
@@ -76,15 +78,29 @@ public class PendingTaskExecutor {
     /**
      * Check if task is running.
      */
-    public static boolean isRunningTask(Long tkId) {
-        return runningTasks.contains(tkId);
+    public static synchronized boolean isRunningTask(Long tkId) {
+        return runningTasks.containsKey(tkId);
+    }
+
+    /**
+     * Get the processor of a running task, to check its progress.
+     */
+    public static synchronized PendingTaskProcessor getRunningProcessor(Long tkId) {
+        return runningTasks.get(tkId);
     }
 
     /**
      * Return running tasks.
      */
-    public static Set<Long> getRunningTasks() {
-        return runningTasks;
+    public static synchronized Set<Long> getRunningTasks() {
+        return new HashSet<Long>(runningTasks.keySet());
+    }
+
+    /**
+     * Run a piece of an in depth task in the pending task pool.
+     */
+    public static void execute(Runnable work) {
+        executor.execute(work);
     }
 
     /**
@@ -135,7 +151,7 @@ public class PendingTaskExecutor {
             Query q = session.createQuery(qs);
 
             for (PendingTask pt : (List<PendingTask>) q.list()) {
-                if (!runningTasks.contains(pt.getId())) {
+                if (!isRunningTask(pt.getId())) {
                     log.info("Processing {}", pt);
 
                     if (PendingTask.TASK_UPDATE_PATH.equals(pt.getTask())) {
@@ -22,39 +22,71 @@
 package com.openkm.util.pendtask;
 
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import com.openkm.cache.FolderListing;
+import com.openkm.cache.PermissionCache;
+import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
 import com.openkm.dao.HibernateUtil;
 import com.openkm.dao.NodeBaseDAO;
 import com.openkm.dao.bean.NodeBase;
-import com.openkm.dao.bean.NodeDocument;
 import com.openkm.dao.bean.NodeFolder;
-import com.openkm.dao.bean.NodeMail;
 import com.openkm.dao.bean.PendingTask;
 import com.openkm.spring.PrincipalUtils;
+import com.openkm.spring.SecurityHolder;
 
 /**
  * Misc repository utilities and helpers.
+ *
+ * Documents and mails are processed in chunks of Config.PENDING_TASK_CHUNK_SIZE nodes. After each
+ * chunk the progress is committed and the session cleared, so a huge subtree neither fills the
+ * first level cache nor loses its work on failure. The subfolders of the start node are shared
+ * among Config.PENDING_TASK_FANOUT threads of the pending task pool.
+ *
+ * Every thread commits from its own session, so the stored status only gets the markers changed by
+ * the committing thread, in the same transaction as the node changes they stand for. A marker set by
+ * another thread is stored when that thread commits its chunk.
  */
 public class PendingTaskProcessor {
     private static Logger log = LoggerFactory.getLogger(PendingTaskProcessor.class);
     private static final String BEGIN = "begin";
+    private static final String MAILS = "mails";
     private static final String DOCS = "docs";
     private static final String END = "end";
     private static Type statusObjType = new TypeToken<LinkedList<NodeStatus>>() {
     }.getType();
     private LinkedList<NodeStatus> status = new LinkedList<NodeStatus>();
+
+    // Guarded by this
+    private LinkedList<NodeStatus> committed = new LinkedList<NodeStatus>();
+    private Map<Thread, Set<String>> dirty = new HashMap<Thread, Set<String>>();
+    private Map<Thread, Set<String>> changed = new HashMap<Thread, Set<String>>();
+
+    private volatile boolean securityTask = false;
+    private AtomicLong processed = new AtomicLong();
+    private long begin = System.currentTimeMillis();
+    private int chunkSize = Config.PENDING_TASK_CHUNK_SIZE;
     private PendingTask pt = null;
 
     public PendingTaskProcessor(PendingTask pt) {
@@ -65,6 +97,21 @@ public class PendingTaskProcessor {
         return status;
     }
 
+    /**
+     * Number of nodes processed by this run.
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * Processing rate of this run.
+     */
+    public long getNodesPerSecond() {
+        long elapsed = System.currentTimeMillis() - begin;
+        return elapsed > 0 ? processed.get() * 1000 / elapsed : 0;
+    }
+
     /**
      * Process repository tree in depth.
      */
@@ -77,13 +124,20 @@ public class PendingTaskProcessor {
             session.beginTransaction();
 
             // Begin recursive stuff
-            PendingTaskExecutor.addRunningTask(pt.getId());
+            begin = System.currentTimeMillis();
+            securityTask = task instanceof ChangeSecurityTask;
+            PendingTaskExecutor.addRunningTask(pt.getId(), this);
             processInDepth(session, task);
 
             // Remove completed pending task
-            log.info("Auth: {}, Task: {}", PrincipalUtils.getUser(), pt);
+            log.info("Auth: {}, Task: {}, Nodes: {}, Rate: {} nodes/s", new Object[] { PrincipalUtils.getUser(), pt,
+                    getProcessed(), getNodesPerSecond() });
             PendingTaskExecutor.removeRunningTask(pt.getId());
-            session.delete(pt);
+            PendingTask current = (PendingTask) session.get(PendingTask.class, pt.getId());
+
+            if (current != null) {
+                session.delete(current);
+            }
 
             HibernateUtil.commit(session.getTransaction());
         } catch (HibernateException e) {
@@ -92,6 +146,12 @@ public class PendingTaskProcessor {
             HibernateUtil.commit(session.getTransaction());
         } finally {
             HibernateUtil.close(session);
+
+            if (task instanceof ChangeSecurityTask) {
+                // The whole subtree depends on the start node
+                PermissionCache.invalidate(pt.getNode());
+                FolderListing.clear();
+            }
         }
     }
 
@@ -105,21 +165,20 @@ public class PendingTaskProcessor {
             if (fld != null) {
                 deserializeStatus(session);
 
-                if (status.isEmpty()) {
-                    status.add(new NodeStatus(fld.getUuid(), fld.getUuid(), BEGIN));
+                if (isStatusEmpty()) {
+                    addNodeStatus(fld.getUuid(), fld.getUuid());
                 }
 
                 // Process start node
                 NodeBase parentNode = NodeBaseDAO.getInstance().getParentNode(session, fld.getUuid());
-                task.doTask(session, parentNode, fld);
-
-                // Begin recursive stuff
-                processInDepthHelper(session, fld, task);
+                doTask(session, task, parentNode, fld);
 
-                if (status.getLast().getNode().equals(fld.getUuid())) {
-                    status.getLast().setStatus(END);
-                }
+                // Begin recursive stuff, sharing the subfolders among several threads
+                checkRunning();
+                processDocuments(session, fld, task);
+                processFolders(session, fld, task, Config.PENDING_TASK_FANOUT);
 
+                setNodeStatus(fld.getUuid(), END, null);
                 pruneStatus(session, fld.getUuid());
                 serializeStatus(session);
             } else {
@@ -130,102 +189,274 @@ public class PendingTaskProcessor {
         }
     }
 
-    @SuppressWarnings("unchecked")
     private void processInDepthHelper(Session session, NodeBase parentNode, ProcessInDepthTask task) throws DatabaseException,
             InterruptedException {
         log.debug("processInDepthHelper({}, {}, {}", new Object[] { session, parentNode, task });
+        checkRunning();
+        processDocuments(session, parentNode, task);
+        processFolders(session, parentNode, task, 1);
+    }
 
-        if (!PendingTaskExecutor.running) {
-            log.info("### ### ### Executor flag disabled ### ### ###");
-            throw new InterruptedException("Executor flag disabled");
-        }
-
-        if (matchNodeStatus(parentNode.getUuid(), BEGIN)) {
-            log.debug("** Process DOCS: {}, Status: {}", getPath(session, parentNode.getUuid()), getNodeStatus(parentNode.getUuid()));
-            String qsDoc = "from NodeDocument nd where nd.parent=:parent order by nd.uuid";
-            Query qDoc = session.createQuery(qsDoc);
-            qDoc.setString("parent", parentNode.getUuid());
-            List<NodeDocument> lstDoc = qDoc.list();
+    /**
+     * Process the documents and mails of a node, resuming from the last committed chunk.
+     */
+    private void processDocuments(Session session, NodeBase parentNode, ProcessInDepthTask task) throws DatabaseException,
+            InterruptedException {
+        String uuid = parentNode.getUuid();
+        String st = getNodeStatus(uuid);
 
-            // Security Check
-            task.securityPruneNodeList(lstDoc);
+        if (BEGIN.equals(st) || MAILS.equals(st)) {
+            log.debug("** Process DOCS: {}, Status: {}", getPath(session, uuid), st);
 
-            for (NodeDocument nd : lstDoc) {
-                task.doTask(session, parentNode, nd);
+            if (BEGIN.equals(st)) {
+                processChildren(session, parentNode, task, "NodeDocument", BEGIN, false);
+                setNodeStatus(uuid, MAILS, null);
             }
 
-            String qsMail = "from NodeMail nm where nm.parent=:parent order by nm.uuid";
-            Query qMail = session.createQuery(qsMail);
-            qMail.setString("parent", parentNode.getUuid());
-            List<NodeMail> lstMail = qMail.list();
-
-            // Security Check
-            task.securityPruneNodeList(lstMail);
-
-            for (NodeMail nm : lstMail) {
-                task.doTask(session, parentNode, nm);
-
-                // Process in depth
-                processInDepthHelper(session, nm, task);
-            }
+            processChildren(session, parentNode, task, "NodeMail", MAILS, true);
 
             // Update status
-            setNodeStatus(parentNode.getUuid(), DOCS);
+            setNodeStatus(uuid, DOCS, null);
             serializeStatus(session);
-            log.debug("Path: {}, Status: {}", getPath(session, status.getLast().getNode()), status.getLast().getStatus());
+            log.debug("Path: {}, Status: {}", getPath(session, uuid), DOCS);
         } else {
-            log.debug("** Bypass DOCS: {}, Status: {}", getPath(session, parentNode.getUuid()), getNodeStatus(parentNode.getUuid()));
+            log.debug("** Bypass DOCS: {}, Status: {}", getPath(session, uuid), st);
         }
+    }
 
-        log.debug("** Process ITER: {}, Status: {}", getPath(session, parentNode.getUuid()), getNodeStatus(parentNode.getUuid()));
-        String qsFld = "from NodeFolder nf where nf.parent=:parent order by nf.uuid";
-        Query qFld = session.createQuery(qsFld);
-        qFld.setString("parent", parentNode.getUuid());
-        List<NodeFolder> lstFld = qFld.list();
+    /**
+     * Process the children of a given entity in chunks. The last processed node of every chunk is
+     * kept in the status so an interrupted task goes on from there.
+     */
+    private void processChildren(Session session, NodeBase parentNode, ProcessInDepthTask task, String entity, String phase,
+            boolean inDepth) throws DatabaseException, InterruptedException {
+        String last = getNodeLast(parentNode.getUuid());
+        int fetched = 0;
 
-        // Security Check
-        task.securityPruneNodeList(lstFld);
+        do {
+            checkRunning();
+            List<NodeBase> lstNode = findChildren(session, entity, parentNode.getUuid(), last);
+            fetched = lstNode.size();
 
-        for (NodeFolder nf : lstFld) {
-            if (!matchNodeStatus(nf.getUuid(), END)) {
-                if (getNodeStatus(nf.getUuid()) == null) {
-                    status.add(new NodeStatus(nf.getUuid(), parentNode.getUuid(), BEGIN));
+            if (fetched > 0) {
+                last = lstNode.get(fetched - 1).getUuid();
+
+                // Security Check
+                task.securityPruneNodeList(lstNode);
+
+                for (NodeBase node : lstNode) {
+                    doTask(session, task, parentNode, node);
+
+                    if (inDepth) {
+                        // Process in depth
+                        processInDepthHelper(session, node, task);
+                    }
                 }
 
-                task.doTask(session, parentNode, nf);
+                if (chunkSize > 0) {
+                    setNodeStatus(parentNode.getUuid(), phase, last);
+                    checkpoint(session);
+                }
+            }
+        } while (chunkSize > 0 && fetched == chunkSize);
+    }
 
-                // Process in depth
-                processInDepthHelper(session, nf, task);
+    /**
+     * Process the subfolders of a node not already ended.
+     */
+    private void processFolders(Session session, NodeBase parentNode, ProcessInDepthTask task, int fanout)
+            throws DatabaseException, InterruptedException {
+        log.debug("** Process ITER: {}, Status: {}", getPath(session, parentNode.getUuid()), getNodeStatus(parentNode.getUuid()));
+        List<NodeBase> lstFld = findChildren(session, "NodeFolder", parentNode.getUuid(), null);
+        List<String> pending = new ArrayList<String>();
 
-                // Folder process finished
-                log.debug("ENDED - {}", getPath(session, nf.getUuid()));
+        // Security Check
+        task.securityPruneNodeList(lstFld);
 
-                setNodeStatus(nf.getUuid(), END);
-                serializeStatus(session);
+        // Keep only the identifiers, folders are loaded again because the session is cleared
+        for (NodeBase nf : lstFld) {
+            if (!matchNodeStatus(nf.getUuid(), END)) {
+                pending.add(nf.getUuid());
             } else {
                 log.debug("** Bypass ITER: {}, Status: {}", getPath(session, nf.getUuid()), getNodeStatus(nf.getUuid()));
             }
         }
 
+        if (fanout > 1 && pending.size() > 1) {
+            processFoldersInParallel(session, parentNode, task, pending, fanout);
+        } else {
+            for (String fldUuid : pending) {
+                processFolder(session, parentNode, task, fldUuid);
+            }
+        }
+
         // Remove completed folder
         pruneStatus(session, parentNode.getUuid());
         serializeStatus(session);
     }
 
+    /**
+     * Process a subfolder and all its descendants.
+     */
+    private void processFolder(Session session, NodeBase parentNode, ProcessInDepthTask task, String fldUuid)
+            throws DatabaseException, InterruptedException {
+        NodeFolder nf = (NodeFolder) session.get(NodeFolder.class, fldUuid);
+
+        if (nf != null) {
+            if (getNodeStatus(fldUuid) == null) {
+                addNodeStatus(fldUuid, parentNode.getUuid());
+            }
+
+            doTask(session, task, parentNode, nf);
+
+            // Process in depth
+            processInDepthHelper(session, nf, task);
+
+            // Folder process finished
+            log.debug("ENDED - {}", getPath(session, fldUuid));
+
+            setNodeStatus(fldUuid, END, null);
+            checkpoint(session);
+        }
+    }
+
+    /**
+     * Share subfolders among the pending task pool. The calling thread takes part too, so the task
+     * ends even when the pool is busy and no helper can start.
+     */
+    private void processFoldersInParallel(Session session, NodeBase parentNode, final ProcessInDepthTask task,
+            List<String> pending, int fanout) throws DatabaseException, InterruptedException {
+        final FanOut fanOut = new FanOut(pending);
+        final NodeBase parent = parentNode;
+        final Authentication auth = SecurityHolder.get();
+
+        // Helpers use their own sessions, so release the locks held by this one
+        serializeStatus(session);
+
+        for (int i = 1; i < Math.min(fanout, pending.size()); i++) {
+            try {
+                PendingTaskExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Session helperSession = null;
+
+                        try {
+                            if (auth != null) {
+                                SecurityHolder.set(auth);
+                            }
+
+                            helperSession = HibernateUtil.getSessionFactory().openSession();
+                            helperSession.beginTransaction();
+                            fanOut.work(helperSession, parent, task);
+                            HibernateUtil.commit(helperSession.getTransaction());
+                        } catch (HibernateException e) {
+                            log.warn(e.getMessage(), e);
+                            HibernateUtil.rollback(helperSession.getTransaction());
+                        } finally {
+                            HibernateUtil.close(helperSession);
+                            SecurityHolder.unset();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.warn("Pending task pool is shutting down");
+                break;
+            }
+        }
+
+        fanOut.work(session, parentNode, task);
+        fanOut.await();
+        fanOut.rethrow();
+    }
+
+    /**
+     * Load a chunk of children ordered by UUID, starting after the last one already processed.
+     */
+    @SuppressWarnings("unchecked")
+    private List<NodeBase> findChildren(Session session, String entity, String parent, String last) {
+        String qs = "from " + entity + " nb where nb.parent=:parent" + (last != null ? " and nb.uuid>:last" : "")
+                + " order by nb.uuid";
+        Query q = session.createQuery(qs);
+        q.setString("parent", parent);
+
+        if (last != null) {
+            q.setString("last", last);
+        }
+
+        if (chunkSize > 0 && !"NodeFolder".equals(entity)) {
+            q.setMaxResults(chunkSize);
+        }
+
+        return q.list();
+    }
+
+    /**
+     * Execute the task on a node and count it.
+     */
+    private void doTask(Session session, ProcessInDepthTask task, NodeBase parentNode, NodeBase node) throws DatabaseException {
+        task.doTask(session, parentNode, node);
+        processed.incrementAndGet();
+
+        if (securityTask) {
+            synchronized (this) {
+                getThreadSet(changed).add(node.getUuid());
+            }
+        }
+    }
+
+    /**
+     * Stop when the executor is shutting down.
+     */
+    private void checkRunning() throws InterruptedException {
+        if (!PendingTaskExecutor.running) {
+            log.info("### ### ### Executor flag disabled ### ### ###");
+            throw new InterruptedException("Executor flag disabled");
+        }
+    }
+
+    /**
+     * Commit progress and, in chunked mode, free the session.
+     */
+    private void checkpoint(Session session) throws DatabaseException {
+        serializeStatus(session);
+
+        if (chunkSize > 0) {
+            session.clear();
+            log.debug("Task: {}, Nodes: {}, Rate: {} nodes/s", new Object[] { pt.getId(), getProcessed(), getNodesPerSecond() });
+        }
+    }
+
+    /**
+     * Check if status is empty.
+     */
+    private synchronized boolean isStatusEmpty() {
+        return status.isEmpty();
+    }
+
+    /**
+     * Add node status.
+     */
+    private synchronized void addNodeStatus(String uuid, String parent) {
+        status.add(new NodeStatus(uuid, parent, BEGIN));
+        getThreadSet(dirty).add(uuid);
+    }
+
     /**
      * Prune status list.
      */
     private void pruneStatus(Session session, String uuid) {
         log.debug("pruneStatus({})", getPath(session, uuid));
 
-        for (ListIterator<NodeStatus> it = status.listIterator(status.size()); it.hasPrevious();) {
-            NodeStatus nd = it.previous();
+        synchronized (this) {
+            // Parallel processing interleaves the entries, so look at the whole list
+            for (Iterator<NodeStatus> it = status.iterator(); it.hasNext();) {
+                NodeStatus nd = it.next();
 
-            if (uuid.equals(nd.getParent()) && nd.getStatus().equals(END)) {
-                log.debug("REMOVE: {}", getPath(session, nd.getNode()));
-                it.remove();
-            } else {
-                break;
+                if (uuid.equals(nd.getParent()) && nd.getStatus().equals(END)) {
+                    log.debug("REMOVE: {}", nd.getNode());
+                    getThreadSet(dirty).add(nd.getNode());
+                    it.remove();
+                }
             }
         }
     }
@@ -233,7 +464,7 @@ public class PendingTaskProcessor {
     /**
      * Match node status.
      */
-    private boolean matchNodeStatus(String uuid, String st) {
+    private synchronized boolean matchNodeStatus(String uuid, String st) {
         for (NodeStatus ns : status) {
             if (ns.getNode().equals(uuid) && ns.getStatus().equals(st)) {
                 return true;
@@ -246,10 +477,12 @@ public class PendingTaskProcessor {
     /**
      * Set node status.
      */
-    private void setNodeStatus(String uuid, String st) {
+    private synchronized void setNodeStatus(String uuid, String st, String last) {
         for (NodeStatus ns : status) {
             if (ns.getNode().equals(uuid)) {
                 ns.setStatus(st);
+                ns.setLast(last);
+                getThreadSet(dirty).add(uuid);
                 break;
             }
         }
@@ -258,7 +491,7 @@ public class PendingTaskProcessor {
     /**
      * Get node status.
      */
-    private String getNodeStatus(String uuid) {
+    private synchronized String getNodeStatus(String uuid) {
         for (NodeStatus ns : status) {
             if (ns.getNode().equals(uuid)) {
                 return ns.getStatus();
@@ -269,21 +502,113 @@ public class PendingTaskProcessor {
     }
 
     /**
-     * Store status.
+     * Get last processed child of a node.
+     */
+    private synchronized String getNodeLast(String uuid) {
+        for (NodeStatus ns : status) {
+            if (ns.getNode().equals(uuid)) {
+                return ns.getLast();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Store status, with only the markers changed by the calling thread.
      */
     private void serializeStatus(Session session) throws DatabaseException {
         log.debug("serializeStatus({})", status);
+        Set<String> nodes = null;
 
         try {
-            pt.setStatus(new Gson().toJson(status, statusObjType));
-            session.update(pt);
+            // Write node changes before taking the lock, so threads only wait for the commit
+            session.flush();
 
-            // Commit transaction
-            HibernateUtil.commit(session.getTransaction());
-            session.beginTransaction();
+            synchronized (this) {
+                LinkedList<NodeStatus> next = copyStatus(committed);
+                Set<String> own = dirty.get(Thread.currentThread());
+
+                if (own != null) {
+                    for (String uuid : own) {
+                        mergeNodeStatus(next, uuid);
+                    }
+                }
+
+                pt.setStatus(new Gson().toJson(next, statusObjType));
+                PendingTask current = (PendingTask) session.get(PendingTask.class, pt.getId());
+
+                if (current != null) {
+                    current.setStatus(pt.getStatus());
+                }
+
+                // Commit transaction
+                HibernateUtil.commit(session.getTransaction());
+                session.beginTransaction();
+                committed = next;
+                dirty.remove(Thread.currentThread());
+                nodes = changed.remove(Thread.currentThread());
+            }
         } catch (HibernateException e) {
             throw new DatabaseException(e.getMessage(), e);
         }
+
+        if (nodes != null && !nodes.isEmpty()) {
+            // Do not wait until the task ends to apply the committed security changes
+            PermissionCache.invalidate(nodes);
+            FolderListing.clear();
+        }
+    }
+
+    /**
+     * Copy the in-memory status of a node to the status to be stored.
+     */
+    private synchronized void mergeNodeStatus(LinkedList<NodeStatus> target, String uuid) {
+        for (Iterator<NodeStatus> it = target.iterator(); it.hasNext();) {
+            if (it.next().getNode().equals(uuid)) {
+                it.remove();
+            }
+        }
+
+        for (NodeStatus ns : status) {
+            if (ns.getNode().equals(uuid)) {
+                target.add(copyNodeStatus(ns));
+                break;
+            }
+        }
+    }
+
+    /**
+     * Get the set of the calling thread.
+     */
+    private synchronized Set<String> getThreadSet(Map<Thread, Set<String>> sets) {
+        Set<String> set = sets.get(Thread.currentThread());
+
+        if (set == null) {
+            set = new HashSet<String>();
+            sets.put(Thread.currentThread(), set);
+        }
+
+        return set;
+    }
+
+    /**
+     * Deep copy of status.
+     */
+    private static LinkedList<NodeStatus> copyStatus(List<NodeStatus> source) {
+        LinkedList<NodeStatus> ret = new LinkedList<NodeStatus>();
+
+        for (NodeStatus ns : source) {
+            ret.add(copyNodeStatus(ns));
+        }
+
+        return ret;
+    }
+
+    private static NodeStatus copyNodeStatus(NodeStatus ns) {
+        NodeStatus ret = new NodeStatus(ns.getNode(), ns.getParent(), ns.getStatus());
+        ret.setLast(ns.getLast());
+        return ret;
     }
 
     /**
@@ -294,7 +619,12 @@ public class PendingTaskProcessor {
 
         try {
             if (pt.getStatus() != null) {
-                status = decodeStatus(pt.getStatus());
+                LinkedList<NodeStatus> stored = decodeStatus(pt.getStatus());
+
+                synchronized (this) {
+                    status = stored;
+                    committed = copyStatus(stored);
+                }
             }
         } catch (HibernateException e) {
             throw new DatabaseException(e.getMessage(), e);
@@ -315,4 +645,77 @@ public class PendingTaskProcessor {
             return null;
         }
     }
+
+    /**
+     * Subfolders shared by the threads working on a task.
+     */
+    private class FanOut {
+        private Queue<String> pending;
+        private Exception failure = null;
+        private int active = 0;
+
+        public FanOut(List<String> pending) {
+            this.pending = new ConcurrentLinkedQueue<String>(pending);
+        }
+
+        /**
+         * Process subfolders until there are no more left or one has failed.
+         */
+        public void work(Session session, NodeBase parentNode, ProcessInDepthTask task) {
+            for (String fldUuid = take(); fldUuid != null; fldUuid = take()) {
+                Exception error = null;
+
+                try {
+                    processFolder(session, parentNode, task, fldUuid);
+                } catch (Exception e) {
+                    error = e;
+                } finally {
+                    done(error);
+                }
+            }
+        }
+
+        private synchronized String take() {
+            String fldUuid = failure == null ? pending.poll() : null;
+
+            if (fldUuid != null) {
+                active++;
+            }
+
+            return fldUuid;
+        }
+
+        private synchronized void done(Exception error) {
+            if (error != null && failure == null) {
+                failure = error;
+            }
+
+            active--;
+            notifyAll();
+        }
+
+        /**
+         * Wait for the subfolders taken by the helpers.
+         */
+        public synchronized void await() throws InterruptedException {
+            while (active > 0) {
+                wait();
+            }
+        }
+
+        /**
+         * Propagate the first failure to the calling thread.
+         */
+        public void rethrow() throws DatabaseException, InterruptedException {
+            if (failure instanceof InterruptedException) {
+                throw (InterruptedException) failure;
+            } else if (failure instanceof DatabaseException) {
+                throw (DatabaseException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw new DatabaseException(failure.getMessage(), failure);
+            }
+        }
+    }
 }
@@ -23,8 +23,12 @@ package com.openkm.util.pendtask;
 
 import java.util.List;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
 import org.hibernate.Session;
 
+import com.openkm.cache.NodePathCache;
 import com.openkm.core.DatabaseException;
 import com.openkm.dao.bean.NodeBase;
 
@@ -40,6 +44,23 @@ public class UpdatePathTask implements ProcessInDepthTask {
         node.setPath(parentNode.getPath() + "/" + node.getName());
         session.update(node);
 
+        // Refresh the cached path with the one just calculated, once it is committed
+        final String uuid = node.getUuid();
+        final String path = node.getPath();
+        final long generation = NodePathCache.getGeneration();
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    NodePathCache.put(uuid, path, generation);
+                }
+            }
+        });
+
         return null;
     }
 }
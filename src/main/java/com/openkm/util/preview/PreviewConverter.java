@@ -0,0 +1,273 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.util.preview;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.NotImplementedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.icu.text.CharsetDetector;
+import com.ibm.icu.text.CharsetMatch;
+import com.openkm.automation.AutomationException;
+import com.openkm.automation.AutomationManager;
+import com.openkm.automation.AutomationUtils;
+import com.openkm.cache.ConversionCache;
+import com.openkm.core.Config;
+import com.openkm.core.ConversionException;
+import com.openkm.core.DatabaseException;
+import com.openkm.core.MimeTypeConfig;
+import com.openkm.dao.NodeDocumentVersionDAO;
+import com.openkm.dao.bean.AutomationRule;
+import com.openkm.module.jcr.JcrDocumentModule;
+import com.openkm.util.DocConverter;
+import com.openkm.util.FileUtils;
+import com.openkm.util.PathUtils;
+
+/**
+ * Convert a document version to PDF or SWF through the conversion cache. The document content is
+ * only read when the conversion is not already cached.
+ */
+public class PreviewConverter {
+    private static Logger log = LoggerFactory.getLogger(PreviewConverter.class);
+    private String uuid;
+    private String version;
+    private String path;
+    private String fileName;
+    private String mimeType;
+
+    public PreviewConverter(String uuid, String version, String path, String mimeType) {
+        this.uuid = uuid;
+        this.version = version;
+        this.path = path;
+        this.fileName = PathUtils.getName(path);
+        this.mimeType = mimeType;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Get the document content. Defaults to the converted version content as seen by the current user,
+     * so the cache entry and its content come from the same version.
+     */
+    protected InputStream getContent() throws Exception {
+        if (Config.REPOSITORY_NATIVE) {
+            return NodeDocumentVersionDAO.getInstance().getVersionContentByParent(uuid, version);
+        } else {
+            return new JcrDocumentModule().getContent(null, path, false);
+        }
+    }
+
+    /**
+     * Save document content to a temporal file. Text files are converted from its detected encoding.
+     */
+    public File getContentFile() throws Exception {
+        File tmp = File.createTempFile("okm", "." + FileUtils.getFileExtension(fileName));
+        InputStream is = null;
+
+        try {
+            is = getContent();
+
+            if (mimeType.startsWith("text/")) {
+                CharsetDetector detector = new CharsetDetector();
+                detector.setText(new BufferedInputStream(is));
+                CharsetMatch cm = detector.detect();
+                Reader rd = cm.getReader();
+
+                FileUtils.copy(rd, tmp);
+                IOUtils.closeQuietly(rd);
+            } else {
+                FileUtils.copy(is, tmp);
+            }
+        } catch (Exception e) {
+            FileUtils.deleteQuietly(tmp);
+            throw e;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        return tmp;
+    }
+
+    /**
+     * Get the PDF conversion, converting the document if not cached. The returned file is a link to the
+     * cached conversion which should be deleted by the caller.
+     */
+    public File toPdf() throws ConversionException, IOException {
+        log.debug("toPdf({})", this);
+
+        if (!DocConverter.getInstance().convertibleToPdf(mimeType)) {
+            throw new NotImplementedException("Conversion from '" + mimeType + "' to PDF not available");
+        }
+
+        File pdf = ConversionCache.get(uuid, version, ConversionCache.FORMAT_PDF, new ConversionCache.Converter() {
+            @Override
+            public void convert(File output) throws Exception {
+                File input = getContentFile();
+
+                try {
+                    convertToPdf(input, output);
+                } finally {
+                    FileUtils.deleteQuietly(input);
+                }
+            }
+        });
+
+        log.debug("toPdf: {}", pdf);
+        return pdf;
+    }
+
+    /**
+     * Get the SWF conversion, converting the document if not cached. The intermediate PDF is cached too.
+     * The returned file is a link to the cached conversion which should be deleted by the caller.
+     */
+    public File toSwf() throws ConversionException, IOException {
+        log.debug("toSwf({})", this);
+
+        if (!DocConverter.getInstance().convertibleToSwf(mimeType)) {
+            throw new NotImplementedException("Conversion from '" + mimeType + "' to SWF not available");
+        }
+
+        File swf = ConversionCache.get(uuid, version, ConversionCache.FORMAT_SWF, new ConversionCache.Converter() {
+            @Override
+            public void convert(File output) throws Exception {
+                if (!Config.REMOTE_CONVERSION_SERVER.equals("")) {
+                    File input = getContentFile();
+
+                    try {
+                        DocConverter.getInstance().remoteConvert(Config.REMOTE_CONVERSION_SERVER, input, mimeType, output,
+                                MimeTypeConfig.MIME_SWF);
+                    } finally {
+                        FileUtils.deleteQuietly(input);
+                    }
+                } else if (mimeType.equals(MimeTypeConfig.MIME_PDF)) {
+                    File input = getContentFile();
+
+                    try {
+                        pdfToSwf(input, output);
+                    } finally {
+                        FileUtils.deleteQuietly(input);
+                    }
+                } else if (DocConverter.getInstance().convertibleToPdf(mimeType)) {
+                    File input = toPdf();
+
+                    try {
+                        pdfToSwf(input, output);
+                    } finally {
+                        FileUtils.deleteQuietly(input);
+                    }
+                } else {
+                    throw new NotImplementedException("Conversion from '" + mimeType + "' to SWF not available");
+                }
+            }
+        });
+
+        log.debug("toSwf: {}", swf);
+        return swf;
+    }
+
+    /**
+     * Convert a document file to PDF
+     */
+    private void convertToPdf(File input, File output) throws ConversionException, AutomationException, DatabaseException,
+            IOException {
+        if (mimeType.equals(MimeTypeConfig.MIME_ZIP)) {
+            // This is an internal conversion and does not need 3er party software
+            DocConverter.getInstance().zip2pdf(input, output);
+        } else if (mimeType.equals(MimeTypeConfig.MIME_XML)) {
+            // This is an internal conversion and does not need 3er party software
+            DocConverter.getInstance().src2pdf(input, output, "xml");
+        } else if (mimeType.equals(MimeTypeConfig.MIME_SQL)) {
+            // This is an internal conversion and does not need 3er party software
+            DocConverter.getInstance().src2pdf(input, output, "sql");
+        } else if (mimeType.equals(MimeTypeConfig.MIME_JAVA) || mimeType.equals(MimeTypeConfig.MIME_BSH)) {
+            // This is an internal conversion and does not need 3er party software
+            DocConverter.getInstance().src2pdf(input, output, "java");
+        } else if (mimeType.equals(MimeTypeConfig.MIME_PHP)) {
+            // This is an internal conversion and does not need 3er party software
+            DocConverter.getInstance().src2pdf(input, output, "php");
+        } else if (mimeType.equals(MimeTypeConfig.MIME_SH)) {
+            // This is an internal conversion and does not need 3er party software
+            DocConverter.getInstance().src2pdf(input, output, "bash");
+        } else if (mimeType.equals(MimeTypeConfig.MIME_HTML)) {
+            // This is an internal conversion and does not need 3er party software
+            DocConverter.getInstance().html2pdf(input, output);
+            // } else if (mimeType.equals(MimeTypeConfig.MIME_TIFF)) {
+            // This is an internal conversion and does not need 3er party software
+            // DocConverter.getInstance().tiff2pdf(input, output);
+        } else if (!Config.REMOTE_CONVERSION_SERVER.equals("")) {
+            DocConverter.getInstance().remoteConvert(Config.REMOTE_CONVERSION_SERVER, input, mimeType, output, MimeTypeConfig.MIME_PDF);
+        } else if (mimeType.equals(MimeTypeConfig.MIME_POSTSCRIPT)) {
+            DocConverter.getInstance().ps2pdf(input, output);
+        } else if (DocConverter.validImageMagick.contains(mimeType)) {
+            DocConverter.getInstance().img2pdf(input, mimeType, output);
+        } else if (DocConverter.validOpenOffice.contains(mimeType)) {
+            DocConverter.getInstance().doc2pdf(input, mimeType, output);
+        } else {
+            throw new NotImplementedException("Conversion from '" + mimeType + "' to PDF not available");
+        }
+
+        // AUTOMATION - POST
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(AutomationUtils.DOCUMENT_FILE, output);
+        env.put(AutomationUtils.DOCUMENT_UUID, uuid);
+        AutomationManager.getInstance().fireEvent(AutomationRule.EVENT_CONVERSION_PDF, AutomationRule.AT_POST, env);
+    }
+
+    /**
+     * Convert a PDF file to SWF
+     */
+    private void pdfToSwf(File input, File output) throws ConversionException, AutomationException, DatabaseException, IOException {
+        // AUTOMATION - PRE
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(AutomationUtils.DOCUMENT_FILE, input);
+        env.put(AutomationUtils.DOCUMENT_UUID, uuid);
+        AutomationManager.getInstance().fireEvent(AutomationRule.EVENT_CONVERSION_SWF, AutomationRule.AT_PRE, env);
+
+        DocConverter.getInstance().pdf2swf(input, output);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        sb.append("uuid=").append(uuid);
+        sb.append(", version=").append(version);
+        sb.append(", path=").append(path);
+        sb.append(", mimeType=").append(mimeType);
+        sb.append("}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,289 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.util.preview;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.core.Config;
+import com.openkm.module.db.DbDocumentModule;
+import com.openkm.module.db.stuff.DbSessionManager;
+import com.openkm.util.DocConverter;
+import com.openkm.util.FileUtils;
+import com.openkm.util.OfficePool;
+
+/**
+ * Preview pre-rendering queue.
+ *
+ * Created and checked in documents of the configured MIME types are put in a bounded in-memory buffer
+ * which is drained by a dedicated pool of workers, so the preview is already in the conversion cache
+ * when the user first asks for it. Documents in recently browsed folders are rendered first. Nothing is
+ * persisted: a document which does not fit in the buffer, or is still queued on shutdown, is simply
+ * rendered on demand by the ConverterServlet.
+ */
+public class PreviewQueue {
+    private static Logger log = LoggerFactory.getLogger(PreviewQueue.class);
+    private static final long RECENT_ACCESS = TimeUnit.MINUTES.toMillis(30);
+    private static final int RECENT_FOLDERS = 1000;
+    private static final long POLL_WAIT = TimeUnit.SECONDS.toMillis(1);
+    private static final Object lock = new Object();
+
+    // Guarded by lock
+    private static final Map<String, PreviewWork> queued = new HashMap<String, PreviewWork>();
+    private static final Map<String, PreviewWork> inProgress = new HashMap<String, PreviewWork>();
+    private static final Map<String, PreviewWork> stale = new HashMap<String, PreviewWork>();
+    private static long sequence = 0;
+
+    // Guarded by itself
+    private static final Map<String, Long> recentFolders = new LinkedHashMap<String, Long>(RECENT_FOLDERS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > RECENT_FOLDERS;
+        }
+    };
+
+    private static PriorityBlockingQueue<PreviewWork> buffer = new PriorityBlockingQueue<PreviewWork>();
+    private static ExecutorService executor = null;
+    private static volatile boolean running = false;
+    private static volatile Calendar lastExecution = null;
+
+    /**
+     * Start workers, if preview pre-rendering is enabled.
+     */
+    public static synchronized void start() {
+        if (!running && Config.PREVIEW_RENDER) {
+            int workers = Math.max(1, Config.PREVIEW_RENDER_THREADS);
+            log.info("Starting preview pre-rendering queue with {} workers", workers);
+            buffer = new PriorityBlockingQueue<PreviewWork>();
+            executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r);
+                    t.setName("PreviewRenderThread-" + t.getId());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+
+            running = true;
+
+            for (int i = 0; i < workers; i++) {
+                executor.execute(new Worker());
+            }
+        }
+    }
+
+    /**
+     * Stop workers. Buffered documents will be rendered on demand.
+     */
+    public static synchronized void shutdown() {
+        if (running) {
+            running = false;
+            executor.shutdownNow();
+            log.info("### All preview pre-rendering threads shutdown requested ###");
+
+            try {
+                for (int i = 0; !executor.awaitTermination(10, TimeUnit.SECONDS); i++) {
+                    log.info("### Awaiting for preview pre-rendering pool termination... ({}) ###", i);
+                }
+            } catch (InterruptedException e) {
+                log.warn("### Exception awaiting for preview pre-rendering pool termination: {} ###", e.getMessage());
+            }
+
+            synchronized (lock) {
+                buffer.clear();
+                queued.clear();
+                stale.clear();
+            }
+
+            log.info("### All preview pre-rendering threads have finished ###");
+        }
+    }
+
+    /**
+     * Queue a document version for preview pre-rendering. Should be called once the version has been
+     * committed.
+     */
+    public static void enqueue(String docUuid, String docPath, String docVerName, String mimeType) {
+        log.debug("enqueue({}, {}, {}, {})", new Object[] { docUuid, docPath, docVerName, mimeType });
+
+        if (running && Config.PREVIEW_RENDER_MIME_TYPES.contains(mimeType)
+                && DocConverter.getInstance().convertibleToSwf(mimeType)) {
+            PreviewWork work = new PreviewWork();
+            work.setDocUuid(docUuid);
+            work.setDocPath(docPath);
+            work.setDocVerName(docVerName);
+            work.setMimeType(mimeType);
+            work.setPriority(isRecentlyAccessed(docPath));
+
+            synchronized (lock) {
+                PreviewWork current = queued.get(docUuid);
+
+                if (inProgress.containsKey(docUuid)) {
+                    // The running render is outdated, so render again when finished
+                    stale.put(docUuid, work);
+                } else if (current != null) {
+                    current.setDocPath(docPath);
+                    current.setDocVerName(docVerName);
+                } else if (buffer.size() < Config.PREVIEW_RENDER_QUEUE_SIZE) {
+                    work.setSequence(sequence++);
+                    buffer.offer(work);
+                    queued.put(docUuid, work);
+                } else {
+                    log.debug("Preview pre-rendering buffer full, {} will be rendered on demand", docUuid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Register a folder access, so its documents are rendered first.
+     */
+    public static void touch(String fldPath) {
+        if (running) {
+            synchronized (recentFolders) {
+                recentFolders.put(fldPath, System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Get in progress render works.
+     */
+    public static List<PreviewWork> getInProgressWorks() {
+        synchronized (lock) {
+            return new ArrayList<PreviewWork>(inProgress.values());
+        }
+    }
+
+    /**
+     * Get number of buffered works.
+     */
+    public static int getBufferSize() {
+        return buffer.size();
+    }
+
+    /**
+     * Return when the last work was finished.
+     */
+    public static Calendar getLastExecution() {
+        return lastExecution;
+    }
+
+    /**
+     * Check if the parent folder of a document has been recently browsed.
+     */
+    private static boolean isRecentlyAccessed(String docPath) {
+        int idx = docPath.lastIndexOf('/');
+
+        if (idx > 0) {
+            Long accessed = null;
+
+            synchronized (recentFolders) {
+                accessed = recentFolders.get(docPath.substring(0, idx));
+            }
+
+            return accessed != null && System.currentTimeMillis() - accessed < RECENT_ACCESS;
+        }
+
+        return false;
+    }
+
+    /**
+     * Render the preview of a buffered document into the conversion cache.
+     */
+    private static void process(final PreviewWork work) {
+        synchronized (lock) {
+            queued.remove(work.getDocUuid());
+            inProgress.put(work.getDocUuid(), work);
+        }
+
+        try {
+            log.debug("Working on {}", work);
+            final String systemToken = DbSessionManager.getInstance().getSystemToken();
+            PreviewConverter converter = new PreviewConverter(work.getDocUuid(), work.getDocVerName(), work.getDocPath(), work.getMimeType()) {
+                @Override
+                protected InputStream getContent() throws Exception {
+                    return new DbDocumentModule().getContentByVersion(systemToken, work.getDocUuid(), work.getDocVerName());
+                }
+            };
+
+            FileUtils.deleteQuietly(converter.toSwf());
+        } catch (Exception e) {
+            log.warn("Preview pre-rendering failed for {}: {}", work.getDocPath(), e.getMessage());
+        } finally {
+            PreviewWork staleWork = null;
+
+            synchronized (lock) {
+                inProgress.remove(work.getDocUuid());
+                staleWork = stale.remove(work.getDocUuid());
+            }
+
+            if (staleWork != null) {
+                enqueue(staleWork.getDocUuid(), staleWork.getDocPath(), staleWork.getDocVerName(), staleWork.getMimeType());
+            }
+
+            lastExecution = Calendar.getInstance();
+        }
+    }
+
+    /**
+     * Drain the buffer, highest priority first.
+     */
+    private static class Worker implements Runnable {
+        @Override
+        public void run() {
+            // Pre-rendering should not delay interactive conversions
+            OfficePool.setBatch(true);
+
+            while (running) {
+                try {
+                    PreviewWork work = buffer.poll(POLL_WAIT, TimeUnit.MILLISECONDS);
+
+                    if (work != null) {
+                        process(work);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    log.warn(e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
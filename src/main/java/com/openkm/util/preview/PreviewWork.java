@@ -0,0 +1,117 @@
+/**
+ * OpenKM, Open Document Management System (http://www.openkm.com)
+ * Copyright (c) 2006-2015 Paco Avila & Josep Llort
+ *
+ * No bytes were intentionally harmed during the development of this application.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.util.preview;
+
+import java.util.Calendar;
+
+/**
+ * Document version waiting to be pre-rendered. Works in recently accessed folders go first, the rest
+ * in arrival order.
+ */
+public class PreviewWork implements Comparable<PreviewWork> {
+    private String docUuid;
+    private String docPath;
+    private String docVerName;
+    private String mimeType;
+    private boolean priority;
+    private long sequence;
+    private Calendar date = Calendar.getInstance();
+
+    public String getDocUuid() {
+        return docUuid;
+    }
+
+    public void setDocUuid(String docUuid) {
+        this.docUuid = docUuid;
+    }
+
+    public String getDocPath() {
+        return docPath;
+    }
+
+    public void setDocPath(String docPath) {
+        this.docPath = docPath;
+    }
+
+    public String getDocVerName() {
+        return docVerName;
+    }
+
+    public void setDocVerName(String docVerName) {
+        this.docVerName = docVerName;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public boolean isPriority() {
+        return priority;
+    }
+
+    public void setPriority(boolean priority) {
+        this.priority = priority;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Calendar getDate() {
+        return date;
+    }
+
+    public void setDate(Calendar date) {
+        this.date = date;
+    }
+
+    @Override
+    public int compareTo(PreviewWork other) {
+        if (priority != other.priority) {
+            return priority ? -1 : 1;
+        } else {
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        sb.append("docUuid=").append(docUuid);
+        sb.append(", docPath=").append(docPath);
+        sb.append(", docVerName=").append(docVerName);
+        sb.append(", mimeType=").append(mimeType);
+        sb.append(", priority=").append(priority);
+        sb.append(", date=");
+        sb.append(date == null ? null : date.getTime());
+        sb.append("}");
+        return sb.toString();
+    }
+}
@@ -65,6 +65,7 @@ import com.openkm.core.LockException;
 import com.openkm.core.PathNotFoundException;
 import com.openkm.core.RepositoryException;
 import com.openkm.util.PathUtils;
+import com.openkm.util.WebUtils;
 
 public class DocumentResource implements CopyableResource, DeletableResource, GetableResource, MoveableResource, PropFindableResource,
         PropPatchableResource, LockableResource, QuotaResource {
@@ -143,7 +144,31 @@ public class DocumentResource implements CopyableResource, DeletableResource, Ge
         try {
             String fixedDocPath = ResourceUtils.fixRepositoryPath(doc.getPath());
             is = OKMDocument.getInstance().getContent(null, fixedDocPath, false);
-            IOUtils.copy(is, out);
+
+            if (range != null) {
+                long size = getContentLength();
+                long start;
+                long finish;
+
+                if (range.getStart() == null) {
+                    // Last N bytes
+                    start = Math.max(0, size - range.getFinish());
+                    finish = size - 1;
+                } else {
+                    // Open ended when there is no finish
+                    start = range.getStart();
+                    finish = range.getFinish() == null ? size - 1 : Math.min(range.getFinish(), size - 1);
+                }
+
+                log.debug("sendContent: range {}-{}", start, finish);
+
+                if (finish >= start) {
+                    WebUtils.copy(is, out, 0, start, finish - start + 1);
+                }
+            } else {
+                IOUtils.copy(is, out);
+            }
+
             out.flush();
         } catch (PathNotFoundException e) {
             log.error("PathNotFoundException: " + e.getMessage(), e);
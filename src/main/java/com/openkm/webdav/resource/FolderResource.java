@@ -57,6 +57,7 @@ import com.openkm.api.OKMRepository;
 import com.openkm.bean.Document;
 import com.openkm.bean.Folder;
 import com.openkm.bean.Mail;
+import com.openkm.cache.FolderListing;
 import com.openkm.core.Config;
 import com.openkm.core.PathNotFoundException;
 import com.openkm.module.db.DbDocumentModule;
@@ -67,24 +68,18 @@ import com.openkm.util.PathUtils;
 public class FolderResource implements MakeCollectionableResource, PutableResource, CopyableResource, DeletableResource, MoveableResource,
         PropFindableResource, GetableResource, QuotaResource {
     private final Logger log = LoggerFactory.getLogger(FolderResource.class);
-    private final List<Document> docChilds;
-    private final List<Folder> fldChilds;
-    private final List<Mail> mailChilds;
     private Folder fld;
     private final Path path;
 
     public FolderResource(Folder fld) {
-        this.fldChilds = null;
-        this.docChilds = null;
-        this.mailChilds = null;
         this.path = null;
         this.fld = ResourceUtils.fixResourcePath(fld);
     }
 
-    public FolderResource(Path path, Folder fld, List<Folder> fldChilds, List<Document> docChilds, List<Mail> mailChilds) {
-        this.fldChilds = fldChilds;
-        this.docChilds = docChilds;
-        this.mailChilds = mailChilds;
+    /**
+     * Children are not loaded until listed, so child lookups, PUT and MOVE do not pay for them.
+     */
+    public FolderResource(Path path, Folder fld) {
         this.path = path;
         this.fld = ResourceUtils.fixResourcePath(fld);
     }
@@ -157,22 +152,23 @@ public class FolderResource implements MakeCollectionableResource, PutableResour
         long begin = System.currentTimeMillis();
         List<Resource> resources = new ArrayList<Resource>();
 
-        if (fldChilds != null) {
-            for (Folder fld : fldChilds) {
+        try {
+            FolderListing listing = FolderListing.get(fld.getUuid(), ResourceUtils.fixRepositoryPath(fld.getPath()));
+
+            for (Folder fld : listing.getFolders()) {
                 resources.add(new FolderResource(fld));
             }
-        }
 
-        if (docChilds != null) {
-            for (Document doc : docChilds) {
+            for (Document doc : listing.getDocuments()) {
                 resources.add(new DocumentResource(doc));
             }
-        }
 
-        if (mailChilds != null) {
-            for (Mail mail : mailChilds) {
+            for (Mail mail : listing.getMails()) {
                 resources.add(new MailResource(mail));
             }
+        } catch (Exception e) {
+            // An empty list would make clients believe the folder has no children
+            throw new RuntimeException("Failed to list: " + fld.getPath(), e);
         }
 
         log.trace("getChildren.Time: {}", System.currentTimeMillis() - begin);
@@ -250,7 +246,13 @@ public class FolderResource implements MakeCollectionableResource, PutableResour
     public void sendContent(OutputStream out, Range range, Map<String, String> params, String contentType) throws IOException,
             NotAuthorizedException, BadRequestException {
         log.debug("sendContent({}, {})", params, contentType);
-        ResourceUtils.createContent(out, path, fldChilds, docChilds, mailChilds);
+
+        try {
+            FolderListing listing = FolderListing.get(fld.getUuid(), ResourceUtils.fixRepositoryPath(fld.getPath()));
+            ResourceUtils.createContent(out, path, listing.getFolders(), listing.getDocuments(), listing.getMails());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to list: " + fld.getPath(), e);
+        }
     }
 
     @Override
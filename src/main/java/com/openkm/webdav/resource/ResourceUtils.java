@@ -43,6 +43,7 @@ import com.openkm.core.Config;
 import com.openkm.core.DatabaseException;
 import com.openkm.core.PathNotFoundException;
 import com.openkm.core.RepositoryException;
+import com.openkm.dao.NodeBaseDAO;
 
 public class ResourceUtils {
     private static final Logger log = LoggerFactory.getLogger(ResourceUtils.class);
@@ -58,7 +59,9 @@ public class ResourceUtils {
         Resource res = null;
 
         try {
-            if (OKMFolder.getInstance().isValid(null, fixedPath)) {
+            String type = getNodeType(fixedPath);
+
+            if (Folder.TYPE.equals(type)) {
                 if (path.startsWith(fixRepositoryPath("/" + Repository.CATEGORIES))) {
                     // Is from categories
                     log.info("Path: {}", path);
@@ -66,9 +69,9 @@ public class ResourceUtils {
                 } else {
                     res = getFolder(srcPath, path);
                 }
-            } else if (OKMDocument.getInstance().isValid(null, fixedPath)) {
+            } else if (Document.TYPE.equals(type)) {
                 res = getDocument(path);
-            } else if (OKMMail.getInstance().isValid(null, fixedPath)) {
+            } else if (Mail.TYPE.equals(type)) {
                 res = getMail(path);
             }
         } catch (PathNotFoundException e) {
@@ -80,6 +83,25 @@ public class ResourceUtils {
         return res;
     }
 
+    /**
+     * Get node type, with a single lookup in the native repository
+     */
+    private static String getNodeType(String fixedPath) throws PathNotFoundException, AccessDeniedException, RepositoryException,
+            DatabaseException {
+        if (Config.REPOSITORY_NATIVE) {
+            String uuid = NodeBaseDAO.getInstance().getUuidFromPath(fixedPath);
+            return NodeBaseDAO.getInstance().getNodeTypeByUuid(uuid);
+        } else if (OKMFolder.getInstance().isValid(null, fixedPath)) {
+            return Folder.TYPE;
+        } else if (OKMDocument.getInstance().isValid(null, fixedPath)) {
+            return Document.TYPE;
+        } else if (OKMMail.getInstance().isValid(null, fixedPath)) {
+            return Mail.TYPE;
+        } else {
+            return null;
+        }
+    }
+
     /**
      * Resolve folder resource.
      */
@@ -88,10 +110,7 @@ public class ResourceUtils {
         long begin = System.currentTimeMillis();
         String fixedFldPath = fixRepositoryPath(fldPath);
         Folder fld = OKMFolder.getInstance().getProperties(null, fixedFldPath);
-        List<Folder> fldChilds = OKMFolder.getInstance().getChildren(null, fixedFldPath);
-        List<Document> docChilds = OKMDocument.getInstance().getChildren(null, fixedFldPath);
-        List<Mail> mailChilds = OKMMail.getInstance().getChildren(null, fixedFldPath);
-        Resource fldResource = new FolderResource(path, fld, fldChilds, docChilds, mailChilds);
+        Resource fldResource = new FolderResource(path, fld);
 
         log.trace("getFolder.Time: {}", System.currentTimeMillis() - begin);
         return fldResource;
@@ -31,6 +31,7 @@
               <select name="action">
                 <option value="okmImport">OpenKM import</option>
                 <option value="okmCopy">OpenKM copy</option>
+                <option value="okmConcurrentCreate">OpenKM concurrent create</option>
                 <option value="okmApiHighGenerate">OpenKM generate (API HIGH)</option>
                 <c:if test="${!Config.REPOSITORY_NATIVE}">
                   <option value="okmApiLowGenerate">OpenKM generate (API LOW)</option>
@@ -59,6 +60,9 @@
           <th>OpenKM copy</th><td>Source folder</td><td>Destination folder</td><td>Number of copy cycles</td><td>X</td>
         </tr>
         <tr class="even">
+          <th>OpenKM concurrent create</th><td>Number of threads</td><td>Documents per thread</td><td>Document size (KB)</td><td>X</td>
+        </tr>
+        <tr class="odd">
           <th>OpenKM generate</th><td>Max number of documents</td><td>Max number of folders</td><td>Max depth</td><td>Max iterations</td>
         </tr>
       </table>
@@ -0,0 +1,70 @@
+<%@ page language="java" contentType="text/html; charset=UTF-8" pageEncoding="UTF-8" %>
+<%@ page import="com.openkm.servlet.admin.BaseServlet" %>
+<%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c" %>
+<?xml version="1.0" encoding="UTF-8" ?>
+<!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Transitional//EN" "http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd">
+<html xmlns="http://www.w3.org/1999/xhtml">
+<head>
+  <meta http-equiv="Content-Type" content="text/html; charset=UTF-8" />
+  <link rel="Shortcut icon" href="favicon.ico" />
+  <link rel="stylesheet" href="css/style.css" type="text/css" />
+  <title>Cache Statistics</title>
+</head>
+<body>
+  <c:set var="isAdmin"><%=BaseServlet.isAdmin(request)%></c:set>
+  <c:choose>
+    <c:when test="${isAdmin}">
+      <ul id="breadcrumb">
+        <li class="path">
+          <a href="CacheStats">Cache statistics</a>
+        </li>
+        <li class="action">
+          <a href="stats.jsp">
+            <img src="img/action/generic.png" alt="Generic" title="Generic" style="vertical-align: middle;"/>
+            Statistics
+          </a>
+        </li>
+        <li class="action">
+          <a href="CacheStats?action=reset">
+            <img src="img/action/generic.png" alt="Generic" title="Generic" style="vertical-align: middle;"/>
+            Reset counters
+          </a>
+        </li>
+        <li class="action">
+          <a href="CacheStats?action=clear">
+            <img src="img/action/generic.png" alt="Generic" title="Generic" style="vertical-align: middle;"/>
+            Clear caches
+          </a>
+        </li>
+        <li class="action">
+          <a href="CacheStats">
+            <img src="img/action/refresh.png" alt="Refresh" title="Refresh" style="vertical-align: middle;"/>
+            Refresh
+          </a>
+        </li>
+      </ul>
+      <br/>
+      <table class="results" width="60%">
+        <thead>
+          <tr><th>Cache</th><th>Size</th><th>Max size</th><th>Hits</th><th>Misses</th><th>Hit ratio</th></tr>
+        </thead>
+        <tbody>
+          <c:forEach var="cache" items="${caches}" varStatus="row">
+            <tr class="${row.index % 2 == 0 ? 'even' : 'odd'}">
+              <td>${cache.name}</td>
+              <td align="right">${cache.size}</td>
+              <td align="right">${cache.maxSize}</td>
+              <td align="right">${cache.hits}</td>
+              <td align="right">${cache.misses}</td>
+              <td align="right">${cache.hitRatio}%</td>
+            </tr>
+          </c:forEach>
+        </tbody>
+      </table>
+    </c:when>
+    <c:otherwise>
+      <div class="error"><h3>Only admin users allowed</h3></div>
+    </c:otherwise>
+  </c:choose>
+</body>
+</html>
\ No newline at end of file
@@ -30,7 +30,7 @@
       <table class="results" width="90%">
         <tr>
           <th>Name</th><th>Expression</th><th>Mime</th><th>File Name</th><th>Mail</th>
-          <th>Last Begin</th><th>Last End</th><th>Active</th>
+          <th>Last Begin</th><th>Last End</th><th>Next Begin</th><th>Runs</th><th>Duration</th><th>Active</th>
           <th width="100px">
             <c:url value="CronTab" var="urlCreate">
               <c:param name="action" value="create"/>
@@ -60,6 +60,10 @@
             <td>${ct.mail}</td>
             <td><u:formatDate calendar="${ct.lastBegin}"/></td>
             <td><u:formatDate calendar="${ct.lastEnd}"/></td>
+            <c:set var="st" value="${stats[ct.id]}"/>
+            <td><u:formatDate calendar="${st.nextFire}"/></td>
+            <td title="Skipped: ${st.skips}, Timeouts: ${st.timeouts}">${st.runs}</td>
+            <td title="Last / Average / Max (ms)">${st.lastDuration} / ${st.averageDuration} / ${st.maxDuration}</td>
             <td align="center">
               <c:choose>
                 <c:when test="${ct.active}">
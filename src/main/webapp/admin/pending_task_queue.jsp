@@ -44,7 +44,7 @@
       <br/>
       <table class="results" width="90%">
         <thead>
-          <tr><th>#</th><th>Date</th><th>Running</th><th>Path</th><th>Params</th><th>Status</th></tr>
+          <tr><th>#</th><th>Date</th><th>Running</th><th>Path</th><th>Progress</th><th>Params</th><th>Status</th></tr>
         </thead>
         <tbody>
           <c:forEach var="task" items="${pendingTasks}" varStatus="row">
@@ -62,6 +62,9 @@
                 </c:choose>
               </td>
               <td>${task.nodePath}</td>
+              <td nowrap="nowrap">
+                <c:if test="${task.running}">${task.processed} nodes (${task.rate} nodes/s)</c:if>
+              </td>
               <td valign="top">
                 <c:choose>
                   <c:when test="${task.task == PendingTask.TASK_CHANGE_SECURITY}">
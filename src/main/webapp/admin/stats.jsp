@@ -42,6 +42,12 @@
             Pending task queue
           </a>
         </li>
+        <li class="action">
+          <a href="CacheStats">
+            <img src="img/action/generic.png" alt="Generic" title="Generic" style="vertical-align: middle;"/>
+            Cache statistics
+          </a>
+        </li>
         <li class="action">
           <a href="StatsGraph?action=refresh">
             <img src="img/action/refresh.png" alt="Refresh" title="Refresh" style="vertical-align: middle;"/>
@@ -39,8 +39,73 @@
             Refresh
           </a>
         </li>
+        <li class="action">
+          <a href="TextExtractionQueue?action=reset">
+            <img src="img/action/generic.png" alt="Generic" title="Generic" style="vertical-align: middle;"/>
+            Reset pool statistics
+          </a>
+        </li>
       </ul>
       <br/>
+      <table class="results" width="90%">
+        <thead>
+          <tr class="fuzzy">
+            <td colspan="9" style="text-align: center; font-weight: bold; font-size: 14px">
+              Extractor Pools
+            </td>
+          </tr>
+          <tr>
+            <th>Pool</th><th>Threads</th><th>Timeout (min)</th><th>Active</th><th>Queue depth</th>
+            <th>Completed</th><th>Failed</th><th>Timed out</th><th>Throughput (docs/min)</th>
+          </tr>
+        </thead>
+        <tbody>
+          <c:forEach var="pool" items="${extractorPools}" varStatus="row">
+            <tr class="${row.index % 2 == 0 ? 'even' : 'odd'}">
+              <td>${pool.name}</td>
+              <td>${pool.threads}</td>
+              <td>${pool.timeout}</td>
+              <td>${pool.active}</td>
+              <td>${pool.queueDepth}</td>
+              <td>${pool.completed}</td>
+              <td>${pool.failed}</td>
+              <td>${pool.timedOut}</td>
+              <td>${pool.throughput}</td>
+            </tr>
+          </c:forEach>
+        </tbody>
+      </table>
+      <c:if test="${officePool != null}">
+        <br/>
+        <table class="results" width="90%">
+          <thead>
+            <tr class="fuzzy">
+              <td colspan="10" style="text-align: center; font-weight: bold; font-size: 14px">
+                Office Conversion Pool
+              </td>
+            </tr>
+            <tr>
+              <th>Processes</th><th>Timeout (sec)</th><th>Active</th><th>Interactive queue</th><th>Batch queue</th>
+              <th>Completed</th><th>Failed</th><th>Timed out</th><th>Avg. wait (ms)</th><th>Avg. time (ms)</th>
+            </tr>
+          </thead>
+          <tbody>
+            <tr class="even">
+              <td>${officePool.instances}</td>
+              <td>${officePool.timeout}</td>
+              <td>${officePool.active}</td>
+              <td>${officePool.interactiveQueueDepth}</td>
+              <td>${officePool.batchQueueDepth}</td>
+              <td>${officePool.completed}</td>
+              <td>${officePool.failed}</td>
+              <td>${officePool.timedOut}</td>
+              <td>${officePool.averageWait}</td>
+              <td>${officePool.averageTime}</td>
+            </tr>
+          </tbody>
+        </table>
+      </c:if>
+      <br/>
       <table id="treat" class="results" width="90%">
         <thead>
           <tr class="fuzzy">
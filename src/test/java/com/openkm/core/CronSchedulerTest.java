@@ -0,0 +1,134 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.core;
+
+import java.util.Calendar;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kenai.crontabparser.CronTabExpression;
+
+/**
+ * Test crontab next fire calculation and overlapping runs
+ */
+public class CronSchedulerTest extends TestCase {
+    private static Logger log = LoggerFactory.getLogger(CronSchedulerTest.class);
+
+    public CronSchedulerTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        CronSchedulerTest test = new CronSchedulerTest("main");
+        test.setUp();
+        test.testNextFire();
+        test.testNextFireLeapDay();
+        test.testNoOverlap();
+        test.tearDown();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        log.debug("setUp()");
+        CronScheduler.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        log.debug("tearDown()");
+        CronScheduler.shutdown();
+    }
+
+    public void testNextFire() throws Exception {
+        log.debug("testNextFire()");
+        CronTabExpression expr = CronTabExpression.parse("*/15 * * * *");
+        Calendar next = CronScheduler.nextFire(expr, date(2026, Calendar.OCTOBER, 17, 10, 7));
+        assertEquals(date(2026, Calendar.OCTOBER, 17, 10, 15).getTimeInMillis(), next.getTimeInMillis());
+
+        // Matching minute is returned as is
+        next = CronScheduler.nextFire(expr, date(2026, Calendar.OCTOBER, 17, 10, 30));
+        assertEquals(date(2026, Calendar.OCTOBER, 17, 10, 30).getTimeInMillis(), next.getTimeInMillis());
+    }
+
+    public void testNextFireLeapDay() throws Exception {
+        log.debug("testNextFireLeapDay()");
+        CronTabExpression expr = CronTabExpression.parse("0 0 29 2 *");
+
+        // More than a year away, so it is looked up again later
+        assertNull(CronScheduler.nextFire(expr, date(2026, Calendar.OCTOBER, 17, 0, 0)));
+
+        Calendar next = CronScheduler.nextFire(expr, date(2027, Calendar.MARCH, 1, 0, 0));
+        assertEquals(date(2028, Calendar.FEBRUARY, 29, 0, 0).getTimeInMillis(), next.getTimeInMillis());
+    }
+
+    public void testNoOverlap() throws Exception {
+        log.debug("testNoOverlap()");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable runner = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Finish
+                }
+            }
+        };
+
+        assertTrue(CronScheduler.submit(1, "test", runner));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertFalse(CronScheduler.submit(1, "test", runner));
+        assertEquals(1, CronScheduler.getStats().get(1L).getSkips());
+
+        // Other jobs are not affected
+        assertTrue(CronScheduler.submit(2, "other", new Runnable() {
+            @Override
+            public void run() {
+            }
+        }));
+
+        release.countDown();
+        long limit = System.currentTimeMillis() + 5000;
+
+        while (CronScheduler.getStats().get(1L).getRuns() == 0 && System.currentTimeMillis() < limit) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, CronScheduler.getStats().get(1L).getRuns());
+        assertTrue(CronScheduler.submit(1, "test", runner));
+    }
+
+    private Calendar date(int year, int month, int day, int hour, int minute) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, day, hour, minute);
+        return cal;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test splitting IN-list query parameters
+ */
+public class HibernateUtilTest extends TestCase {
+    private static Logger log = LoggerFactory.getLogger(HibernateUtilTest.class);
+
+    public HibernateUtilTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        HibernateUtilTest test = new HibernateUtilTest("main");
+        test.setUp();
+        test.testPartitionEmpty();
+        test.testPartitionSmall();
+        test.testPartitionLarge();
+        test.tearDown();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        log.debug("setUp()");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        log.debug("tearDown()");
+    }
+
+    public void testPartitionEmpty() throws Exception {
+        log.debug("testPartitionEmpty()");
+        assertTrue(HibernateUtil.partition(Collections.<String> emptyList()).isEmpty());
+    }
+
+    public void testPartitionSmall() throws Exception {
+        log.debug("testPartitionSmall()");
+        List<List<Integer>> parts = HibernateUtil.partition(values(3));
+        assertEquals(1, parts.size());
+        assertEquals(values(3), parts.get(0));
+    }
+
+    public void testPartitionLarge() throws Exception {
+        log.debug("testPartitionLarge()");
+        List<List<Integer>> parts = HibernateUtil.partition(values(1201));
+        assertEquals(3, parts.size());
+        assertEquals(500, parts.get(0).size());
+        assertEquals(500, parts.get(1).size());
+        assertEquals(201, parts.get(2).size());
+
+        // Order is kept and nothing is lost
+        List<Integer> all = new ArrayList<Integer>();
+
+        for (List<Integer> part : parts) {
+            all.addAll(part);
+        }
+
+        assertEquals(values(1201), all);
+
+        // Exact multiple
+        assertEquals(2, HibernateUtil.partition(values(1000)).size());
+    }
+
+    private List<Integer> values(int size) {
+        List<Integer> ret = new ArrayList<Integer>();
+
+        for (int i = 0; i < size; i++) {
+            ret.add(i);
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.openkm.bean.pagination.ChildrenCursor;
+
+/**
+ * Test merging the children of several node types and resuming from the cursor
+ */
+public class PaginationDAOTest extends TestCase {
+    private static Logger log = LoggerFactory.getLogger(PaginationDAOTest.class);
+    private Map<String, Integer> ranks;
+    private MemoryReader reader;
+
+    public PaginationDAOTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        PaginationDAOTest test = new PaginationDAOTest("main");
+        test.setUp();
+        test.testMergeByName();
+        test.tearDown();
+        test.setUp();
+        test.testMergeByType();
+        test.tearDown();
+        test.setUp();
+        test.testCursor();
+        test.tearDown();
+        test.setUp();
+        test.testReverse();
+        test.tearDown();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        log.debug("setUp()");
+        ranks = new LinkedHashMap<String, Integer>();
+        ranks.put("NodeFolder", 0);
+        ranks.put("NodeDocument", 1);
+
+        reader = new MemoryReader();
+        reader.add("NodeFolder", "f1", "beta");
+        reader.add("NodeFolder", "f2", "delta");
+        reader.add("NodeDocument", "d1", "alpha");
+        reader.add("NodeDocument", "d2", "charlie");
+        reader.add("NodeDocument", "d3", "charlie");
+        reader.add("NodeDocument", "d4", "echo");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        log.debug("tearDown()");
+    }
+
+    public void testMergeByName() throws Exception {
+        log.debug("testMergeByName()");
+        ChildrenCursor cursor = new ChildrenCursor();
+        List<String[]> page = PaginationDAO.merge(ranks, reader, PaginationDAO.ORDER_NAME, false, cursor, 0, 10);
+        assertEquals(Arrays.asList("d1", "f1", "d2", "d3", "f2", "d4"), uuids(page));
+        assertEquals("NodeFolder", page.get(1)[0]);
+        assertEquals(6, cursor.getPosition());
+    }
+
+    public void testMergeByType() throws Exception {
+        log.debug("testMergeByType()");
+        List<String[]> page = PaginationDAO.merge(ranks, reader, PaginationDAO.ORDER_TYPE, false, new ChildrenCursor(), 0, 10);
+        assertEquals(Arrays.asList("f1", "f2", "d1", "d2", "d3", "d4"), uuids(page));
+    }
+
+    public void testCursor() throws Exception {
+        log.debug("testCursor()");
+        ChildrenCursor cursor = new ChildrenCursor();
+
+        // Skipped nodes also move the cursor
+        List<String[]> page = PaginationDAO.merge(ranks, reader, PaginationDAO.ORDER_NAME, false, cursor, 1, 2);
+        assertEquals(Arrays.asList("f1", "d2"), uuids(page));
+        assertEquals(3, cursor.getPosition());
+        assertEquals("d2", cursor.getLastUuid("NodeDocument"));
+        assertEquals("charlie", cursor.getLastKey("NodeDocument"));
+        assertEquals("f1", cursor.getLastUuid("NodeFolder"));
+
+        // Never more rows than could be taken
+        for (int batch : reader.batches) {
+            assertTrue(batch <= 3);
+        }
+
+        // Same sort key, resumed by UUID
+        page = PaginationDAO.merge(ranks, reader, PaginationDAO.ORDER_NAME, false, cursor, 0, 2);
+        assertEquals(Arrays.asList("d3", "f2"), uuids(page));
+
+        page = PaginationDAO.merge(ranks, reader, PaginationDAO.ORDER_NAME, false, cursor, 0, 2);
+        assertEquals(Arrays.asList("d4"), uuids(page));
+
+        page = PaginationDAO.merge(ranks, reader, PaginationDAO.ORDER_NAME, false, cursor, 0, 2);
+        assertTrue(page.isEmpty());
+        assertEquals(6, cursor.getPosition());
+    }
+
+    public void testReverse() throws Exception {
+        log.debug("testReverse()");
+        reader.reverse = true;
+        ChildrenCursor cursor = new ChildrenCursor();
+        List<String[]> page = PaginationDAO.merge(ranks, reader, PaginationDAO.ORDER_NAME, true, cursor, 0, 3);
+        assertEquals(Arrays.asList("d4", "f2", "d3"), uuids(page));
+
+        page = PaginationDAO.merge(ranks, reader, PaginationDAO.ORDER_NAME, true, cursor, 0, 3);
+        assertEquals(Arrays.asList("d2", "f1", "d1"), uuids(page));
+    }
+
+    private List<String> uuids(List<String[]> page) {
+        List<String> ret = new ArrayList<String>();
+
+        for (String[] row : page) {
+            ret.add(row[1]);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Rows kept sorted by key and UUID, read after the cursor like the keyset query does
+     */
+    private static class MemoryReader implements PaginationDAO.RowReader {
+        private Map<String, List<Object[]>> rows = new HashMap<String, List<Object[]>>();
+        private List<Integer> batches = new ArrayList<Integer>();
+        private boolean reverse = false;
+
+        private void add(String type, String uuid, String key) {
+            List<Object[]> typeRows = rows.get(type);
+
+            if (typeRows == null) {
+                typeRows = new ArrayList<Object[]>();
+                rows.put(type, typeRows);
+            }
+
+            typeRows.add(new Object[] { uuid, key });
+        }
+
+        @Override
+        public List<Object[]> read(String type, ChildrenCursor cursor, int batch) {
+            batches.add(batch);
+            List<Object[]> typeRows = new ArrayList<Object[]>(rows.get(type));
+            List<Object[]> ret = new ArrayList<Object[]>();
+            String lastUuid = cursor.getLastUuid(type);
+
+            if (reverse) {
+                Collections.reverse(typeRows);
+            }
+
+            for (Object[] row : typeRows) {
+                if (ret.size() < batch && (lastUuid == null || isAfter(row, cursor.getLastKey(type), lastUuid))) {
+                    ret.add(row);
+                }
+            }
+
+            return ret;
+        }
+
+        private boolean isAfter(Object[] row, Object lastKey, String lastUuid) {
+            int cmp = ((String) row[1]).compareTo((String) lastKey);
+
+            if (cmp == 0) {
+                cmp = ((String) row[0]).compareTo(lastUuid);
+            }
+
+            return reverse ? cmp < 0 : cmp > 0;
+        }
+    }
+}
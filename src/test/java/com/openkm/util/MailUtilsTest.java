@@ -0,0 +1,180 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.Store;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import junit.framework.TestCase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.openkm.core.Config;
+import com.openkm.core.DatabaseException;
+import com.openkm.dao.bean.MailAccount;
+import com.openkm.dao.bean.MailFilter;
+import com.openkm.dao.bean.MailFilterRule;
+
+/**
+ * Test mail import against an embedded IMAP server
+ */
+public class MailUtilsTest extends TestCase {
+    private static Logger log = LoggerFactory.getLogger(MailUtilsTest.class);
+    private static final int IMAP_PORT = 3143;
+    private GreenMail greenMail;
+    private GreenMailUser user;
+    private int batchSize;
+
+    public MailUtilsTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailUtilsTest test = new MailUtilsTest("main");
+        test.setUp();
+        test.testConnectHostPort();
+        test.tearDown();
+        test.setUp();
+        test.testBatchCheckpoint();
+        test.tearDown();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        log.debug("setUp()");
+        greenMail = new GreenMail(new ServerSetup(IMAP_PORT, "localhost", ServerSetup.PROTOCOL_IMAP));
+        greenMail.start();
+        user = greenMail.setUser("okm@localhost", "okm", "secret");
+        batchSize = Config.MAIL_IMPORT_BATCH_SIZE;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        log.debug("tearDown()");
+        Config.MAIL_IMPORT_BATCH_SIZE = batchSize;
+        greenMail.stop();
+    }
+
+    /**
+     * The port is taken from the host
+     */
+    public void testConnectHostPort() throws Exception {
+        log.debug("testConnectHostPort()");
+        Store store = Session.getInstance(new Properties()).getStore("imap");
+        MailUtils.connect(store, createAccount());
+
+        try {
+            assertTrue(store.isConnected());
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * The last UID is saved once per batch
+     */
+    public void testBatchCheckpoint() throws Exception {
+        log.debug("testBatchCheckpoint()");
+        Config.MAIL_IMPORT_BATCH_SIZE = 2;
+
+        for (int i = 1; i <= 5; i++) {
+            deliver("Message " + i);
+        }
+
+        MailAccount ma = createAccount();
+        final List<Long> saved = new ArrayList<Long>();
+        String error = MailUtils.importMessages(null, ma, new MailUtils.CheckpointStore() {
+            @Override
+            public void save(MailAccount account) throws DatabaseException {
+                saved.add(account.getMailLastUid());
+            }
+        });
+
+        assertNull(error);
+        assertEquals(5, ma.getMailLastUid());
+        assertEquals(3, saved.size());
+        assertEquals(2L, (long) saved.get(0));
+        assertEquals(4L, (long) saved.get(1));
+        assertEquals(5L, (long) saved.get(2));
+
+        // Nothing new to import
+        saved.clear();
+        error = MailUtils.importMessages(null, ma, new MailUtils.CheckpointStore() {
+            @Override
+            public void save(MailAccount account) throws DatabaseException {
+                saved.add(account.getMailLastUid());
+            }
+        });
+
+        assertNull(error);
+        assertTrue(saved.isEmpty());
+    }
+
+    /**
+     * Account on the embedded server, with a filter which never matches so nothing reaches the repository
+     */
+    private MailAccount createAccount() {
+        MailFilterRule mfr = new MailFilterRule();
+        mfr.setField(MailFilterRule.FIELD_SUBJECT);
+        mfr.setOperation(MailFilterRule.OPERATION_EQUALS);
+        mfr.setValue("Not a message subject");
+        mfr.setActive(true);
+
+        MailFilter mf = new MailFilter();
+        mf.getFilterRules().add(mfr);
+        mf.setActive(true);
+
+        MailAccount ma = new MailAccount();
+        ma.setUser("okm");
+        ma.setMailProtocol("imap");
+        ma.setMailHost("localhost:" + IMAP_PORT);
+        ma.setMailUser("okm");
+        ma.setMailPassword("secret");
+        ma.setMailFolder("INBOX");
+        ma.setMailMarkSeen(true);
+        ma.getMailFilters().add(mf);
+        return ma;
+    }
+
+    /**
+     * Put a message in the user inbox
+     */
+    private void deliver(String subject) throws Exception {
+        MimeMessage msg = new MimeMessage(Session.getInstance(new Properties()));
+        msg.setFrom(new InternetAddress("sender@localhost"));
+        msg.setRecipient(Message.RecipientType.TO, new InternetAddress("okm@localhost"));
+        msg.setSubject(subject);
+        msg.setText("Body of " + subject);
+        user.deliver(msg);
+    }
+}
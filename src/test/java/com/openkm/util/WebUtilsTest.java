@@ -0,0 +1,150 @@
+/**
+ *  OpenKM, Open Document Management System (http://www.openkm.com)
+ *  Copyright (c) 2006-2015  Paco Avila & Josep Llort
+ *
+ *  No bytes were intentionally harmed during the development of this application.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.openkm.util;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test byte range and ETag parsing
+ */
+public class WebUtilsTest extends TestCase {
+    private static Logger log = LoggerFactory.getLogger(WebUtilsTest.class);
+
+    public WebUtilsTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        WebUtilsTest test = new WebUtilsTest("main");
+        test.setUp();
+        test.testSingleRange();
+        test.testMultipleRanges();
+        test.testInvalidRanges();
+        test.testETag();
+        test.testETagComparison();
+        test.tearDown();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        log.debug("setUp()");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        log.debug("tearDown()");
+    }
+
+    public void testSingleRange() throws Exception {
+        log.debug("testSingleRange()");
+        assertRanges(WebUtils.parseRanges("bytes=0-99", 1000), 0, 100);
+        assertRanges(WebUtils.parseRanges("bytes=500-", 1000), 500, 500);
+
+        // Last bytes
+        assertRanges(WebUtils.parseRanges("bytes=-100", 1000), 900, 100);
+        assertRanges(WebUtils.parseRanges("bytes=-2000", 1000), 0, 1000);
+
+        // End after the content is truncated
+        assertRanges(WebUtils.parseRanges("bytes=0-1999", 1000), 0, 1000);
+    }
+
+    public void testMultipleRanges() throws Exception {
+        log.debug("testMultipleRanges()");
+
+        // Sorted
+        assertRanges(WebUtils.parseRanges("bytes=20-29, 0-9", 1000), 0, 10, 20, 10);
+
+        // Overlapping and adjacent ones are coalesced
+        assertRanges(WebUtils.parseRanges("bytes=0-9,5-19,30-39", 1000), 0, 20, 30, 10);
+        assertRanges(WebUtils.parseRanges("bytes=0-9,10-19", 1000), 0, 20);
+
+        // Too many ranges, the whole content is sent
+        StringBuilder sb = new StringBuilder("bytes=");
+
+        for (int i = 0; i < 33; i++) {
+            sb.append(i > 0 ? "," : "").append(i * 10).append("-").append(i * 10 + 4);
+        }
+
+        assertNull(WebUtils.parseRanges(sb.toString(), 1000));
+    }
+
+    public void testInvalidRanges() throws Exception {
+        log.debug("testInvalidRanges()");
+
+        // Syntactically invalid, the whole content is sent
+        assertNull(WebUtils.parseRanges("bytes=abc", 1000));
+        assertNull(WebUtils.parseRanges("bytes=10", 1000));
+        assertNull(WebUtils.parseRanges("bytes=9-0", 1000));
+
+        // Not satisfiable
+        assertTrue(WebUtils.parseRanges("bytes=2000-", 1000).isEmpty());
+        assertTrue(WebUtils.parseRanges("bytes=-0", 1000).isEmpty());
+
+        // Satisfiable ones are kept
+        assertRanges(WebUtils.parseRanges("bytes=2000-,0-9", 1000), 0, 10);
+    }
+
+    public void testETag() throws Exception {
+        log.debug("testETag()");
+        assertEquals("\"uuid@1.0-10-abc\"", WebUtils.getETag("uuid", "1.0", 10, "abc"));
+        assertEquals("W/\"uuid@1.0-10\"", WebUtils.getETag("uuid", "1.0", 10, null));
+        assertEquals("W/\"uuid@1.0-10\"", WebUtils.getETag("uuid", "1.0", 10, ""));
+    }
+
+    public void testETagComparison() throws Exception {
+        log.debug("testETagComparison()");
+        String strong = WebUtils.getETag("uuid", "1.0", 10, "abc");
+        String weak = WebUtils.getETag("uuid", "1.0", 10, null);
+
+        // If-None-Match uses weak comparison
+        assertTrue(WebUtils.matchesWeak(strong, strong));
+        assertTrue(WebUtils.matchesWeak("W/" + strong, strong));
+        assertTrue(WebUtils.matchesWeak("\"other\", " + weak, weak));
+        assertTrue(WebUtils.matchesWeak("*", strong));
+        assertFalse(WebUtils.matchesWeak("\"other\"", strong));
+        assertFalse(WebUtils.matchesWeak(WebUtils.getETag("uuid", "1.0", 11, "abc"), strong));
+
+        // If-Range uses strong comparison
+        assertTrue(WebUtils.matchesStrong(strong, strong));
+        assertFalse(WebUtils.matchesStrong("W/" + strong, strong));
+        assertFalse(WebUtils.matchesStrong(weak, weak));
+        assertFalse(WebUtils.matchesStrong(strong, null));
+    }
+
+    /**
+     * Check ranges given as start and length pairs
+     */
+    private void assertRanges(List<long[]> ranges, long... expected) {
+        assertNotNull(ranges);
+        assertEquals(expected.length / 2, ranges.size());
+
+        for (int i = 0; i < ranges.size(); i++) {
+            assertEquals(expected[i * 2], ranges.get(i)[0]);
+            assertEquals(expected[i * 2 + 1], ranges.get(i)[1]);
+        }
+    }
+}